@@ -0,0 +1,250 @@
+package uk.co.cwspencer.gdb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResultRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiStreamRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTranscripts;
+import uk.co.cwspencer.gdb.messages.GdbDoneEvent;
+import uk.co.cwspencer.gdb.messages.GdbEvent;
+import uk.co.cwspencer.gdb.messages.GdbStackTrace;
+import uk.co.cwspencer.gdb.messages.GdbVariableObjectChanges;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Load tests which push commands through Gdb.sendCommand() to a GdbFakeMiServer. The server
+ * answers in memory on Gdb's write thread, so the scores measure Gdb itself: the command queue,
+ * write thread, pending command table, parser, converter and callback executor.
+ *
+ * pipelined keeps WINDOW commands in flight and reports commands per second. roundTrip sends one
+ * command at a time and reports the distribution of response times, including the 99.9th and
+ * 99.99th percentiles; contendedRoundTrip does the same from several threads at once. The gc
+ * profiler configured in build.gradle reports the memory allocated per command, and the heap in
+ * use and Gdb's own per-phase latency histograms are logged at the end of each trial. A trial
+ * fails if Gdb reports an error.
+ */
+@State(Scope.Benchmark)
+public class GdbLoadBenchmark
+{
+	// The benchmarks run outside of the IDE, where IntelliJ's logger discards information messages
+	private static final Logger m_log = Logger.getLogger(GdbLoadBenchmark.class.getName());
+
+	/**
+	 * Responses the fake server answers with.
+	 */
+	public enum Response
+	{
+		/**
+		 * A bare ^done, as for -gdb-set.
+		 */
+		Done("-gdb-set", GdbDoneEvent.class, "done"),
+
+		/**
+		 * Ten changed variable objects, as after a step.
+		 */
+		VarUpdate("-var-update", GdbVariableObjectChanges.class, buildVarUpdate(10)),
+
+		/**
+		 * A stack trace of a hundred frames.
+		 */
+		StackListFrames("-stack-list-frames", GdbStackTrace.class, buildStackListFrames(100));
+
+		/**
+		 * The command, the type of event it is answered with and the result record the server
+		 * answers it with.
+		 */
+		public final String command;
+		public final Class<? extends GdbEvent> eventType;
+		public final String result;
+
+		Response(String command, Class<? extends GdbEvent> eventType, String result)
+		{
+			this.command = command;
+			this.eventType = eventType;
+			this.result = result;
+		}
+	}
+
+	// Number of commands pipelined sends before waiting for the responses
+	private static final int WINDOW = 1024;
+
+	// Time to wait for responses before deciding the benchmark is broken
+	private static final long TIMEOUT_SECONDS = 30;
+
+	@Param({ "Done", "VarUpdate", "StackListFrames" })
+	public Response response;
+
+	private GdbFakeMiServer m_server;
+	private ExecutorService m_callbackExecutor;
+	private NullListener m_listener;
+	private Gdb m_gdb;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		m_server = new GdbFakeMiServer();
+		for (Response response : Response.values())
+		{
+			m_server.setResponse(response.command, response.result);
+		}
+
+		m_callbackExecutor = Executors.newSingleThreadExecutor();
+		m_listener = new NullListener();
+		m_gdb = new Gdb(m_server, m_listener, m_callbackExecutor);
+		m_gdb.start();
+		roundTrip();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		System.gc();
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		m_log.info("Heap in use after " + m_server.getCommandCount() + " commands: " +
+			heap.getUsed() / 1024 + " KiB\n" + m_gdb.getMetrics().getReport());
+
+		m_server.close();
+		m_callbackExecutor.shutdown();
+
+		Throwable error = m_listener.error;
+		if (error != null)
+		{
+			throw new IllegalStateException("Gdb reported an error during the trial", error);
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(WINDOW)
+	public void pipelined() throws InterruptedException
+	{
+		final CountDownLatch responses = new CountDownLatch(WINDOW);
+		Gdb.GdbEventCallback callback = new Gdb.GdbEventCallback()
+			{
+				@Override
+				public void onGdbCommandCompleted(GdbEvent event)
+				{
+					responses.countDown();
+				}
+			};
+		for (int i = 0; i != WINDOW; ++i)
+		{
+			m_gdb.sendCommand(response.command, callback);
+		}
+		if (!responses.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+		{
+			throw new IllegalStateException(responses.getCount() + " responses did not arrive");
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public GdbEvent roundTrip() throws Exception
+	{
+		return m_gdb.sendCommandAsync(response.command, response.eventType)
+			.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	@Threads(8)
+	public GdbEvent contendedRoundTrip() throws Exception
+	{
+		return roundTrip();
+	}
+
+	/**
+	 * Builds the result record of a -var-update response.
+	 */
+	private static String buildVarUpdate(int changes)
+	{
+		StringBuilder sb = new StringBuilder("done,changelist=[");
+		for (int i = 0; i != changes; ++i)
+		{
+			if (i != 0)
+			{
+				sb.append(',');
+			}
+			sb.append("{name=\"var");
+			sb.append(i + 1);
+			sb.append("\",value=\"");
+			sb.append(i * 7);
+			sb.append("\",in_scope=\"true\",type_changed=\"false\",has_more=\"0\"}");
+		}
+		sb.append(']');
+		return sb.toString();
+	}
+
+	/**
+	 * Builds the result record of a -stack-list-frames response.
+	 */
+	private static String buildStackListFrames(int frames)
+	{
+		String response = new String(GdbMiTranscripts.buildStackListFrames(frames),
+			Charset.forName("US-ASCII"));
+		return response.substring(response.indexOf('^') + 1, response.indexOf("\r\n"));
+	}
+
+	/**
+	 * Listener which ignores everything except the first error.
+	 */
+	private static class NullListener implements GdbListener
+	{
+		// The first error Gdb reported, or null if it has not reported one
+		public volatile Throwable error;
+
+		@Override
+		public void onGdbError(Throwable ex)
+		{
+			if (error == null)
+			{
+				error = ex;
+			}
+		}
+
+		@Override
+		public void onGdbStarted()
+		{
+		}
+
+		@Override
+		public void onGdbCommandSent(String command, long token)
+		{
+		}
+
+		@Override
+		public void onGdbEventReceived(GdbEvent event)
+		{
+		}
+
+		@Override
+		public void onStreamRecordReceived(GdbMiStreamRecord record)
+		{
+		}
+
+		@Override
+		public void onResultRecordReceived(GdbMiResultRecord record)
+		{
+		}
+	}
+}
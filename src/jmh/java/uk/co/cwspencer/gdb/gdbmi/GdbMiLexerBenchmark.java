@@ -0,0 +1,95 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for GdbMiLexer. Scores are per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GdbMiLexerBenchmark
+{
+	@Param({ "StackListFrames", "VarListChildren", "StoppedStorm", "TargetOutput", "ConsoleOutput",
+		"LongConsoleOutput", "Utf8ConsoleOutput" })
+	public GdbMiTranscripts.Transcript transcript;
+
+	// The transcript and the buffer it is read into, as in Gdb.runGdb()
+	private byte[] m_data;
+	private byte[] m_buffer = new byte[4096];
+
+	// A large direct buffer, as used when GDB writes big bursts
+	private ByteBuffer m_directBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+	private GdbMiLexer m_objectLexer;
+	private GdbMiLexer m_compactLexer;
+
+	@Setup
+	public void setUp()
+	{
+		m_data = GdbMiTranscripts.build(transcript);
+		m_objectLexer = new GdbMiLexer(GdbMiLexer.TokenMode.Objects);
+		m_compactLexer = new GdbMiLexer(GdbMiLexer.TokenMode.Compact);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public int objectTokens()
+	{
+		int tokens = 0;
+		for (int offset = 0; offset < m_data.length; offset += m_buffer.length)
+		{
+			int length = Math.min(m_buffer.length, m_data.length - offset);
+			System.arraycopy(m_data, offset, m_buffer, 0, length);
+			m_objectLexer.process(m_buffer, length);
+			tokens += m_objectLexer.getTokens().size();
+			m_objectLexer.clearTokens();
+		}
+		return tokens;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public int compactTokens()
+	{
+		int tokens = 0;
+		for (int offset = 0; offset < m_data.length; offset += m_buffer.length)
+		{
+			int length = Math.min(m_buffer.length, m_data.length - offset);
+			System.arraycopy(m_data, offset, m_buffer, 0, length);
+			m_compactLexer.process(m_buffer, length);
+			tokens += m_compactLexer.getTokenCount();
+			m_compactLexer.clearTokens();
+		}
+		return tokens;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public int compactTokensDirectBuffer()
+	{
+		int tokens = 0;
+		for (int offset = 0; offset < m_data.length; offset += m_directBuffer.capacity())
+		{
+			int length = Math.min(m_directBuffer.capacity(), m_data.length - offset);
+			m_directBuffer.clear();
+			m_directBuffer.put(m_data, offset, length);
+			m_directBuffer.flip();
+			m_compactLexer.process(m_directBuffer);
+			tokens += m_compactLexer.getTokenCount();
+			m_compactLexer.clearTokens();
+		}
+		return tokens;
+	}
+}
@@ -0,0 +1,199 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for GdbMiParser, building trees with and without an arena or streaming to a visitor,
+ * and for GdbMiPullParser and GdbMiTapeParser. Scores are per record. The tape parser only
+ * indexes each record; see GdbMiTapeRecord.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GdbMiParserBenchmark
+{
+	@Param({ "StackListFrames", "VarListChildren", "StoppedStorm", "TargetOutput", "ConsoleOutput",
+		"LongConsoleOutput", "Utf8ConsoleOutput" })
+	public GdbMiTranscripts.Transcript transcript;
+
+	// The transcript and the buffer it is read into, as in Gdb.runGdb()
+	private byte[] m_data;
+	private byte[] m_buffer = new byte[4096];
+
+	private GdbMiParser m_parser;
+	private GdbMiParser m_arenaParser;
+	private GdbMiParser m_visitorParser;
+	private CountingVisitor m_visitor;
+	private GdbMiPullParser m_pullParser;
+	private GdbMiTapeParser m_tapeParser;
+
+	@Setup
+	public void setUp()
+	{
+		m_data = GdbMiTranscripts.build(transcript);
+		m_parser = new GdbMiParser();
+		m_arenaParser = new GdbMiParser(new GdbMiArena());
+		m_visitor = new CountingVisitor();
+		m_visitorParser = new GdbMiParser(m_visitor);
+		m_pullParser = new GdbMiPullParser();
+		m_tapeParser = new GdbMiTapeParser();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public void parser(Blackhole blackhole)
+	{
+		for (int offset = 0; offset < m_data.length; offset += m_buffer.length)
+		{
+			int length = Math.min(m_buffer.length, m_data.length - offset);
+			System.arraycopy(m_data, offset, m_buffer, 0, length);
+			m_parser.process(m_buffer, length);
+			consume(m_parser.getRecords(), blackhole);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public void arenaParser(Blackhole blackhole)
+	{
+		for (int offset = 0; offset < m_data.length; offset += m_buffer.length)
+		{
+			int length = Math.min(m_buffer.length, m_data.length - offset);
+			System.arraycopy(m_data, offset, m_buffer, 0, length);
+			m_arenaParser.process(m_buffer, length);
+			List<GdbMiRecord> records = m_arenaParser.getRecords();
+			for (GdbMiRecord record : records)
+			{
+				blackhole.consume(record);
+				record.release();
+			}
+			records.clear();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public void visitorParser(Blackhole blackhole)
+	{
+		for (int offset = 0; offset < m_data.length; offset += m_buffer.length)
+		{
+			int length = Math.min(m_buffer.length, m_data.length - offset);
+			System.arraycopy(m_data, offset, m_buffer, 0, length);
+			m_visitorParser.process(m_buffer, length);
+		}
+		blackhole.consume(m_visitor.m_events);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public void pullParser(Blackhole blackhole)
+	{
+		for (int offset = 0; offset < m_data.length; offset += m_buffer.length)
+		{
+			int length = Math.min(m_buffer.length, m_data.length - offset);
+			System.arraycopy(m_data, offset, m_buffer, 0, length);
+			m_pullParser.process(m_buffer, length);
+			consume(m_pullParser.getRecords(), blackhole);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public void tapeParser(Blackhole blackhole)
+	{
+		for (int offset = 0; offset < m_data.length; offset += m_buffer.length)
+		{
+			int length = Math.min(m_buffer.length, m_data.length - offset);
+			System.arraycopy(m_data, offset, m_buffer, 0, length);
+			m_tapeParser.process(m_buffer, length);
+			List<GdbMiTapeRecord> records = m_tapeParser.getRecords();
+			for (GdbMiTapeRecord record : records)
+			{
+				blackhole.consume(record);
+			}
+			records.clear();
+		}
+	}
+
+	/**
+	 * Hands the parsed records to the blackhole and clears the list, as Gdb.runGdb() does.
+	 */
+	private static void consume(List<GdbMiRecord> records, Blackhole blackhole)
+	{
+		for (GdbMiRecord record : records)
+		{
+			blackhole.consume(record);
+		}
+		records.clear();
+	}
+
+	/**
+	 * Visitor which only counts what it sees, standing in for a consumer which streams values
+	 * instead of building a tree.
+	 */
+	private static class CountingVisitor implements GdbMiVisitor
+	{
+		// Number of calls
+		long m_events = 0;
+
+		@Override
+		public void onRecordStart(GdbMiRecord.Type type, Long userToken, String className)
+		{
+			++m_events;
+		}
+
+		@Override
+		public void onRecordEnd()
+		{
+			++m_events;
+		}
+
+		@Override
+		public void onResult(String variable)
+		{
+			++m_events;
+		}
+
+		@Override
+		public void onString(String value)
+		{
+			++m_events;
+		}
+
+		@Override
+		public void onTupleStart()
+		{
+			++m_events;
+		}
+
+		@Override
+		public void onTupleEnd()
+		{
+			++m_events;
+		}
+
+		@Override
+		public void onListStart()
+		{
+			++m_events;
+		}
+
+		@Override
+		public void onListEnd()
+		{
+			++m_events;
+		}
+	}
+}
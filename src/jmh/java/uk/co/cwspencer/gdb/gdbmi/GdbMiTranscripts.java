@@ -0,0 +1,249 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * GDB/MI transcripts used by the benchmarks. These are modelled on output captured from GDB while
+ * debugging a D program, scaled up to the sizes that make the debugger feel slow. Every transcript
+ * contains exactly RECORDS records so results can be normalised per record.
+ */
+public class GdbMiTranscripts
+{
+	/**
+	 * The number of records in every transcript.
+	 */
+	public static final int RECORDS = 256;
+
+	/**
+	 * The available transcripts.
+	 */
+	public enum Transcript
+	{
+		/**
+		 * Responses to -stack-list-frames on a deeply recursive program.
+		 */
+		StackListFrames("-stack-list-frames"),
+
+		/**
+		 * Responses to -var-list-children on large arrays of structs.
+		 */
+		VarListChildren("-var-list-children"),
+
+		/**
+		 * A burst of *stopped events, as seen when stepping quickly or hitting a breakpoint in a
+		 * loop, each followed by the prompt.
+		 */
+		StoppedStorm(null),
+
+		/**
+		 * Lots of output from the target application.
+		 */
+		TargetOutput(null),
+
+		/**
+		 * Long console stream records, as produced by CLI commands such as 'info functions'.
+		 */
+		ConsoleOutput(null),
+
+		/**
+		 * Very long console stream records, each of which spans several reads from GDB, as
+		 * produced by 'info types' on a large program.
+		 */
+		LongConsoleOutput(null),
+
+		/**
+		 * Console stream records containing non-ASCII text, which GDB escapes as octal bytes.
+		 */
+		Utf8ConsoleOutput(null);
+
+		/**
+		 * The command which produces the records in the transcript, if they are 'done' records.
+		 */
+		public final String command;
+
+		Transcript(String command)
+		{
+			this.command = command;
+		}
+	}
+
+	/**
+	 * Builds the given transcript.
+	 * @param transcript The transcript.
+	 * @return The raw bytes of the transcript, as GDB would send them.
+	 */
+	public static byte[] build(Transcript transcript)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int record = 0; record != RECORDS; ++record)
+		{
+			switch (transcript)
+			{
+			case StackListFrames:
+				appendStackListFrames(sb, record, 100);
+				break;
+
+			case VarListChildren:
+				appendVarListChildren(sb, record, 100);
+				break;
+
+			case StoppedStorm:
+				appendStopped(sb, record);
+				break;
+
+			case TargetOutput:
+				sb.append("@\"[");
+				sb.append(record);
+				sb.append("] worker 3: processed batch of 4096 items in 12ms, queue depth 17, " +
+					"cache hit rate 0.93\\n\"\r\n");
+				break;
+
+			case ConsoleOutput:
+				sb.append("~\"");
+				for (int i = 0; i != 40; ++i)
+				{
+					sb.append("File /home/user/project/source/app/module");
+					sb.append(i);
+					sb.append(".d:\\n\\tstatic void app.module.process(int, const(char)[]);\\n");
+				}
+				sb.append("\"\r\n");
+				break;
+
+			case LongConsoleOutput:
+				sb.append("~\"");
+				for (int i = 0; i != 400; ++i)
+				{
+					sb.append("source/app/generated/types");
+					sb.append(i);
+					sb.append(".d:\\n\\tstruct app.generated.types.Record");
+					sb.append(i);
+					sb.append(";\\n");
+				}
+				sb.append("\"\r\n");
+				break;
+
+			case Utf8ConsoleOutput:
+				sb.append("~\"");
+				for (int i = 0; i != 40; ++i)
+				{
+					// German text and a Greek letter in UTF-8, escaped as GDB does
+					sb.append("Gr\\303\\266\\303\\237e \\303\\274berschritten: " +
+						"\\316\\273 = ");
+					sb.append(i);
+					sb.append("\\n");
+				}
+				sb.append("\"\r\n");
+				break;
+			}
+		}
+
+		try
+		{
+			return sb.toString().getBytes("US-ASCII");
+		}
+		catch (UnsupportedEncodingException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Builds a single response to -stack-list-frames.
+	 * @param frames The number of frames in the stack.
+	 * @return The raw bytes of the response.
+	 */
+	public static byte[] buildStackListFrames(int frames)
+	{
+		StringBuilder sb = new StringBuilder();
+		appendStackListFrames(sb, 1, frames);
+		try
+		{
+			return sb.toString().getBytes("US-ASCII");
+		}
+		catch (UnsupportedEncodingException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Appends a response to -stack-list-frames.
+	 */
+	private static void appendStackListFrames(StringBuilder sb, int token, int frames)
+	{
+		sb.append(token);
+		sb.append("^done,stack=[");
+		for (int level = 0; level != frames; ++level)
+		{
+			if (level != 0)
+			{
+				sb.append(',');
+			}
+			appendFrame(sb, "frame=", level);
+		}
+		sb.append("]\r\n(gdb) \r\n");
+	}
+
+	/**
+	 * Appends a response to -var-list-children.
+	 */
+	private static void appendVarListChildren(StringBuilder sb, int token, int children)
+	{
+		sb.append(token);
+		sb.append("^done,numchild=\"");
+		sb.append(children);
+		sb.append("\",children=[");
+		for (int i = 0; i != children; ++i)
+		{
+			if (i != 0)
+			{
+				sb.append(',');
+			}
+			sb.append("child={name=\"var1.");
+			sb.append(i);
+			sb.append("\",exp=\"");
+			sb.append(i);
+			sb.append("\",numchild=\"3\",value=\"{x = ");
+			sb.append(i * 3);
+			sb.append(", y = 2.5, name = 0x7fffffffe4a0 \\\"item\\\"}\",type=\"app.Point\"," +
+				"thread-id=\"1\"}");
+		}
+		sb.append("],has_more=\"0\"\r\n(gdb) \r\n");
+	}
+
+	/**
+	 * Appends a *stopped event.
+	 */
+	private static void appendStopped(StringBuilder sb, int record)
+	{
+		sb.append("*stopped,reason=\"breakpoint-hit\",disp=\"keep\",bkptno=\"");
+		sb.append(record % 4 + 1);
+		sb.append("\",");
+		appendFrame(sb, "frame=", -1);
+		sb.append(",thread-id=\"1\",stopped-threads=\"all\",core=\"2\"\r\n(gdb) \r\n");
+	}
+
+	/**
+	 * Appends a stack frame tuple.
+	 */
+	private static void appendFrame(StringBuilder sb, String prefix, int level)
+	{
+		sb.append(prefix);
+		sb.append('{');
+		if (level >= 0)
+		{
+			sb.append("level=\"");
+			sb.append(level);
+			sb.append("\",");
+		}
+		sb.append("addr=\"0x0000000000");
+		sb.append(Integer.toHexString(0x4a3b2c + level * 0x40));
+		sb.append("\",func=\"app.solver.recurse\",args=[{name=\"depth\",value=\"");
+		sb.append(level);
+		sb.append("\"},{name=\"state\",value=\"0x7fffffffe4a0\"}]," +
+			"file=\"source/app/solver.d\"," +
+			"fullname=\"/home/user/project/source/app/solver.d\",line=\"");
+		sb.append(120 + (level & 7));
+		sb.append("\"}");
+	}
+}
@@ -0,0 +1,93 @@
+package uk.co.cwspencer.gdb.messages;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiParser;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResultRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiSymbolTable;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeCursor;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeParser;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTranscripts;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for decoding a response to -stack-list-frames with 10,000 frames. The stackTrace
+ * benchmarks convert an ordinary record to a GdbStackTrace; the compactStackTrace benchmarks
+ * decode a tape record into a reused GdbCompactStackTrace. The decode benchmarks start from a
+ * parsed record, and the parseAndDecode benchmarks from the raw bytes. Scores are per stack.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GdbCompactStackTraceBenchmark
+{
+	// The number of frames in the stack
+	private static final int FRAMES = 10000;
+
+	private byte[] m_data;
+
+	private GdbMiResultRecord m_record;
+	private GdbMiTapeRecord m_tapeRecord;
+
+	// Parsers for the parseAndDecode benchmarks, which are reused like those in Gdb
+	private final GdbMiParser m_parser = new GdbMiParser();
+	private final GdbMiTapeParser m_tapeParser = new GdbMiTapeParser();
+
+	private final GdbCompactStackTrace m_stackTrace = new GdbCompactStackTrace();
+	private final GdbMiTapeCursor m_cursor = new GdbMiTapeCursor();
+	private final GdbMiSymbolTable m_symbols = new GdbMiSymbolTable();
+
+	@Setup
+	public void setUp()
+	{
+		m_data = GdbMiTranscripts.buildStackListFrames(FRAMES);
+
+		GdbMiParser parser = new GdbMiParser();
+		parser.process(m_data);
+		m_record = (GdbMiResultRecord) parser.getRecords().get(0);
+
+		GdbMiTapeParser tapeParser = new GdbMiTapeParser();
+		tapeParser.process(m_data);
+		m_tapeRecord = tapeParser.getRecords().get(0);
+	}
+
+	@Benchmark
+	public Object decodeStackTrace()
+	{
+		return GdbMiMessageConverter.processRecord(m_record, "-stack-list-frames");
+	}
+
+	@Benchmark
+	public Object decodeCompactStackTrace()
+	{
+		m_stackTrace.decode(m_tapeRecord, m_cursor, m_symbols);
+		return m_stackTrace;
+	}
+
+	@Benchmark
+	public Object parseAndDecodeStackTrace()
+	{
+		m_parser.process(m_data);
+		GdbMiRecord record = m_parser.getRecords().remove(0);
+		Object event = GdbMiMessageConverter.processRecord((GdbMiResultRecord) record,
+			"-stack-list-frames");
+		record.release();
+		return event;
+	}
+
+	@Benchmark
+	public Object parseAndDecodeCompactStackTrace()
+	{
+		m_tapeParser.process(m_data);
+		m_stackTrace.decode(m_tapeParser.getRecords().remove(0), m_cursor, m_symbols);
+		return m_stackTrace;
+	}
+}
@@ -0,0 +1,68 @@
+package uk.co.cwspencer.gdb.messages;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiParser;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResultRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTranscripts;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for GdbMiMessageConverter. Scores are per record. processRecordReflective runs in a
+ * JVM which ignores the generated decoders, for comparison with processRecord.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GdbMiMessageConverterBenchmark
+{
+	// Only transcripts made of result records are of interest here
+	@Param({ "StackListFrames", "VarListChildren", "StoppedStorm" })
+	public GdbMiTranscripts.Transcript transcript;
+
+	private GdbMiResultRecord[] m_records;
+
+	@Setup
+	public void setUp()
+	{
+		GdbMiParser parser = new GdbMiParser();
+		parser.process(GdbMiTranscripts.build(transcript));
+
+		List<GdbMiRecord> records = parser.getRecords();
+		m_records = records.toArray(new GdbMiResultRecord[records.size()]);
+		if (m_records.length != GdbMiTranscripts.RECORDS)
+		{
+			throw new IllegalStateException("Unexpected number of records: " + m_records.length);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public void processRecord(Blackhole blackhole)
+	{
+		for (GdbMiResultRecord record : m_records)
+		{
+			blackhole.consume(GdbMiMessageConverter.processRecord(record, transcript.command));
+		}
+	}
+
+	@Benchmark
+	@Fork(jvmArgsAppend = "-Duk.co.cwspencer.gdb.reflectiveDecoders=true")
+	@OperationsPerInvocation(GdbMiTranscripts.RECORDS)
+	public void processRecordReflective(Blackhole blackhole)
+	{
+		processRecord(blackhole);
+	}
+}
@@ -0,0 +1,87 @@
+package uk.co.cwspencer.gdb.messages;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiParser;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResult;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResultRecord;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for converting single GdbBreakpoint and GdbStackFrame tuples. The plain benchmarks use
+ * the generated decoders; the ByPlan benchmarks use a conversion plan, which converts the fields by
+ * reflection with the typed value converters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GdbMiObjectConversionBenchmark
+{
+	private List<GdbMiResult> m_breakpoint;
+	private List<GdbMiResult> m_stackFrame;
+
+	private GdbMiConversionPlan m_breakpointPlan;
+	private GdbMiConversionPlan m_stackFramePlan;
+
+	@Setup
+	public void setUp() throws UnsupportedEncodingException
+	{
+		m_breakpoint = parseTuple(
+			"^done,bkpt={number=\"1\",type=\"breakpoint\",disp=\"keep\",enabled=\"y\"," +
+			"addr=\"0x00000000004005d4\",func=\"main\",file=\"hello.c\"," +
+			"fullname=\"/home/foo/hello.c\",line=\"5\",thread-groups=[\"i1\"],times=\"0\"," +
+			"original-location=\"hello.c:5\"}\r\n");
+		m_stackFrame = parseTuple(
+			"^done,frame={level=\"0\",addr=\"0x00007ffff7a52f45\",func=\"compute\"," +
+			"args=[{name=\"count\",value=\"42\"},{name=\"name\",value=\"0x601010 \\\"x\\\"\"}]," +
+			"file=\"compute.c\",fullname=\"/home/foo/compute.c\",line=\"17\"}\r\n");
+
+		m_breakpointPlan = new GdbMiConversionPlan(GdbBreakpoint.class);
+		m_stackFramePlan = new GdbMiConversionPlan(GdbStackFrame.class);
+	}
+
+	@Benchmark
+	public Object breakpoint()
+	{
+		return GdbMiMessageConverter.processObject(GdbBreakpoint.class, m_breakpoint);
+	}
+
+	@Benchmark
+	public Object breakpointByPlan()
+	{
+		return m_breakpointPlan.decode(m_breakpoint);
+	}
+
+	@Benchmark
+	public Object stackFrame()
+	{
+		return GdbMiMessageConverter.processObject(GdbStackFrame.class, m_stackFrame);
+	}
+
+	@Benchmark
+	public Object stackFrameByPlan()
+	{
+		return m_stackFramePlan.decode(m_stackFrame);
+	}
+
+	/**
+	 * Parses a result record with a single tuple result.
+	 * @param message The record.
+	 * @return The contents of the tuple.
+	 */
+	private static List<GdbMiResult> parseTuple(String message) throws UnsupportedEncodingException
+	{
+		GdbMiParser parser = new GdbMiParser();
+		parser.process(message.getBytes("US-ASCII"));
+		GdbMiResultRecord record = (GdbMiResultRecord) parser.getRecords().get(0);
+		return record.results.get(0).value.tuple;
+	}
+}
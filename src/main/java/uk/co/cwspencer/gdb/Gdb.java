@@ -1,10 +1,12 @@
 package uk.co.cwspencer.gdb;
 
 import com.intellij.openapi.diagnostic.Logger;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiArena;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiUtil;
 import uk.co.cwspencer.gdb.messages.GdbErrorEvent;
 import uk.co.cwspencer.gdb.messages.GdbEvent;
 import uk.co.cwspencer.gdb.messages.GdbFeatures;
+import uk.co.cwspencer.gdb.messages.GdbLazyEvent;
 import uk.co.cwspencer.gdb.messages.GdbMiMessageConverter;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiParser;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiRecord;
@@ -16,17 +18,38 @@ import uk.co.cwspencer.gdb.messages.GdbVariableObjectChanges;
 import uk.co.cwspencer.gdb.messages.GdbVariableObjects;
 import uk.co.cwspencer.gdb.messages.GdbVariables;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Class for interacting with GDB.
@@ -48,73 +71,224 @@ public class Gdb
 	}
 
 	// Information about a command that is awaiting processing
-	private class CommandData
+	private class CommandData implements GdbPendingCommandTable.Entry
 	{
+		// The token the command is sent with
+		final long token;
 		// The command
 		String command;
+		// The first word of the command, e.g. "-var-update"
+		final String type;
+		// Histograms of the time spent on each phase of commands of this type
+		final GdbLatencyHistogram[] histograms;
+		// When the command was queued, and when the write thread started writing it
+		final long queuedTime;
+		long sentTime;
+		// The span which was being delivered when the command was sent, if tracing is enabled;
+		// zero otherwise
+		final long causeSpan;
 		// The user provided callback; may be null
 		GdbEventCallback callback;
+		// The future the callback completes, if the command was sent with sendCommandAsync();
+		// may be null
+		CompletableFuture<?> future;
 
-		CommandData(String command, GdbEventCallback callback)
+		CommandData(String command, GdbEventCallback callback, CompletableFuture<?> future)
 		{
+			this.token = m_nextToken.getAndIncrement();
 			this.command = command;
+			this.type = getCommandType(command);
+			this.histograms = m_metrics.getCommandHistograms(type);
+			this.queuedTime = System.nanoTime();
+			this.causeSpan = m_tracer != null ? getCauseSpan() : 0;
 			this.callback = callback;
+			this.future = future;
+		}
+
+		/**
+		 * Checks whether nobody is waiting for the response any more because the future was
+		 * cancelled or timed out.
+		 */
+		boolean isAbandoned()
+		{
+			return future != null && future.isDone();
+		}
+
+		@Override
+		public long getToken()
+		{
+			return token;
 		}
 	}
 
-	// Handle to the ASCII character set
-	private static Charset m_ascii = Charset.forName("US-ASCII");
+	// Handle to the UTF-8 character set
+	private static Charset m_utf8 = Charset.forName("UTF-8");
+
+	// Size of the ring which passes GDB's output to the parsing thread
+	private static final int RING_CAPACITY = 1024 * 1024;
+
+	// Number of bytes the parsing thread takes from the ring at a time
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	// Number of bytes of commands after which the write thread sends a batch, even if more
+	// commands are queued
+	private static final int WRITE_BATCH_SIZE = 64 * 1024;
+
+	// Number of commands which can be awaiting a response before the pending command table has
+	// to fall back to a map
+	private static final int PENDING_COMMAND_CAPACITY = 1024;
+
+	// Thread which fails commands that time out. Shared by every instance since it is idle nearly
+	// all the time
+	private static final ScheduledThreadPoolExecutor m_timeoutScheduler = createTimeoutScheduler();
+
+	// Pool which runs callbacks if the user does not supply an executor. Its threads exit when
+	// they have been idle for a while
+	private static final ExecutorService m_defaultCallbackExecutor =
+		Executors.newCachedThreadPool(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "GDB callbacks");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	// System property naming a directory to write a trace of each GDB session to
+	public static final String TRACE_DIRECTORY_PROPERTY = "uk.co.cwspencer.gdb.trace";
+
+	// System property naming a directory to record a transcript of each GDB session to
+	public static final String TRANSCRIPT_DIRECTORY_PROPERTY = "uk.co.cwspencer.gdb.transcripts";
+
+	// Message of the exception which fails commands when GDB has gone
+	private static final String GDB_EXITED_MESSAGE = "GDB exited before responding";
+
+	// Maximum number of bytes of output to include in parsing error messages
+	private static final int EXCERPT_LENGTH = 512;
 
 	// The listener
 	private GdbListener m_listener;
 
-	// Handle for the GDB process
-	private Process m_process;
+	// Runs listener methods and command callbacks one at a time and in order, so the threads
+	// which talk to GDB never run user code
+	private final GdbSerialExecutor m_callbackExecutor;
+
+	// Records which have been handled by the callback executor, waiting for the read thread to
+	// return their values to its arena
+	private final GdbMpscQueue<GdbMiRecord> m_handledRecords = new GdbMpscQueue<GdbMiRecord>();
+
+	// How the listener wants to receive each type of event. Only used by callback tasks
+	private final Map<Class<? extends GdbEvent>, GdbEventFilter.Delivery> m_eventDeliveries =
+		new HashMap<Class<? extends GdbEvent>, GdbEventFilter.Delivery>();
+
+	// Connection to GDB
+	private final GdbTransport m_transport;
 
 	// Threads which read/write data from GDB
 	private Thread m_readThread;
 	private Thread m_writeThread;
 
-	// Flag indicating whether we are stopping
-	private Boolean m_stopping = false;
-
-	// Flag indicating whether we have received the first record from GDB yet
+	// Flag indicating whether we have received the first record from GDB yet. Only used by
+	// callback tasks
 	private boolean m_firstRecord = true;
 
-	// Token which the next GDB command will be sent with
-	private long m_token = 1;
+	// Timing and throughput metrics
+	private final GdbMetrics m_metrics = new GdbMetrics();
+
+	// Records a span for each command and asynchronous record; null if tracing is disabled
+	private volatile GdbTracer m_tracer;
+
+	// Directory to write the trace to when GDB exits; null unless it was enabled by the
+	// TRACE_DIRECTORY_PROPERTY system property
+	private final String m_traceDirectory;
+
+	// Records the bytes sent to and read from GDB; null if the session is not being recorded
+	private volatile GdbTranscriptWriter m_transcript;
+
+	// Directory to record a transcript to; null unless it was requested by the
+	// TRANSCRIPT_DIRECTORY_PROPERTY system property
+	private final String m_transcriptDirectory;
+
+	// ID of the span being delivered by the current thread, so commands sent by listeners and
+	// callbacks can be linked to it. Only used when tracing is enabled
+	private final ThreadLocal<Long> m_causeSpan = new ThreadLocal<Long>();
+
+	// Token which the next GDB command will be sent with. Allocated when the command is queued
+	private final AtomicLong m_nextToken = new AtomicLong(1);
 
 	// Commands that are waiting to be sent
-	private List<CommandData> m_queuedCommands = new ArrayList<CommandData>();
+	private final GdbMpscQueue<CommandData> m_queuedCommands = new GdbMpscQueue<CommandData>();
+
+	// Commands that have been sent to GDB and are awaiting a response. Added to by the write
+	// thread and removed by callback tasks
+	private final GdbPendingCommandTable<CommandData> m_pendingCommands =
+		new GdbPendingCommandTable<CommandData>(PENDING_COMMAND_CAPACITY);
 
-	// Commands that have been sent to GDB and are awaiting a response
-	private final Map<Long, CommandData> m_pendingCommands = new HashMap<Long, CommandData>();
+	// Set when the read thread stops because GDB has gone. Commands are failed from then on
+	private volatile boolean m_stopped = false;
 
-	// GDB variable objects
+	// GDB variable objects. Updated by callback tasks
 	private final Map<String, GdbVariableObject> m_variableObjectsByExpression =
-		new HashMap<String, GdbVariableObject>();
+		new ConcurrentHashMap<String, GdbVariableObject>();
 	private final Map<String, GdbVariableObject> m_variableObjectsByName =
-		new HashMap<String, GdbVariableObject>();
+		new ConcurrentHashMap<String, GdbVariableObject>();
 
 	// List of capabilities supported by GDB
-	private Set<String> m_capabilities;
+	private volatile Set<String> m_capabilities;
+
+	/**
+	 * Constructor; prepares GDB. Listener methods and callbacks are run on a shared pool.
+	 * @param gdbPath The path to the GDB executable.
+	 * @param workingDirectory Working directory to launch the GDB process in. May be null.
+	 * @param listener Listener that is to receive GDB events.
+	 */
+	public Gdb(String gdbPath, String workingDirectory, GdbListener listener)
+	{
+		this(gdbPath, workingDirectory, listener, m_defaultCallbackExecutor);
+	}
 
 	/**
 	 * Constructor; prepares GDB.
 	 * @param gdbPath The path to the GDB executable.
 	 * @param workingDirectory Working directory to launch the GDB process in. May be null.
 	 * @param listener Listener that is to receive GDB events.
+	 * @param callbackExecutor Executor to run listener methods and command callbacks on. They are
+	 * run one at a time in the order the events occurred, even if the executor has several
+	 * threads, and never on the threads which read from or write to GDB.
+	 */
+	public Gdb(String gdbPath, String workingDirectory, GdbListener listener,
+		Executor callbackExecutor)
+	{
+		this(new GdbProcessTransport(gdbPath, workingDirectory), listener, callbackExecutor);
+	}
+
+	/**
+	 * Constructor; prepares to talk to GDB through the given transport.
+	 * @param transport The transport, e.g. a GdbProcessTransport, GdbSocketTransport or
+	 * GdbFakeMiServer. It is opened when GDB is started.
+	 * @param listener Listener that is to receive GDB events.
+	 * @param callbackExecutor Executor to run listener methods and command callbacks on.
 	 */
-	public Gdb(final String gdbPath, final String workingDirectory, GdbListener listener)
+	public Gdb(GdbTransport transport, GdbListener listener, Executor callbackExecutor)
 	{
 		// Prepare GDB
+		m_transport = transport;
 		m_listener = listener;
+		m_callbackExecutor = new GdbSerialExecutor(callbackExecutor);
+		m_traceDirectory = System.getProperty(TRACE_DIRECTORY_PROPERTY);
+		if (m_traceDirectory != null)
+		{
+			m_tracer = new GdbTracer();
+		}
+		m_transcriptDirectory = System.getProperty(TRANSCRIPT_DIRECTORY_PROPERTY);
 		m_readThread = new Thread(new Runnable()
 			{
 				@Override
 				public void run()
 				{
-					runGdb(gdbPath, workingDirectory);
+					runGdb();
 				}
 			});
 	}
@@ -133,19 +307,15 @@ public class Gdb
 			m_readThread.interrupt();
 			m_readThread.join();
 		}
+		m_queuedCommands.close();
 		if (m_writeThread != null)
 		{
-			m_stopping = true;
-			m_writeThread.notify();
 			m_writeThread.interrupt();
 			m_writeThread.join();
 		}
 
-		// Kill the process
-		if (m_process != null)
-		{
-			m_process.destroy();
-		}
+		// Close the connection, killing GDB if we launched it
+		m_transport.close();
 	}
 
 	/**
@@ -176,11 +346,73 @@ public class Gdb
 	 * should not contain any line breaks.
 	 * @param callback The callback function.
 	 */
-	public synchronized void sendCommand(String command, GdbEventCallback callback)
+	public void sendCommand(String command, GdbEventCallback callback)
 	{
-		// Queue the command
-		m_queuedCommands.add(new CommandData(command, callback));
-		notify();
+		queueCommand(new CommandData(command, callback, null));
+	}
+
+	/**
+	 * Sends an arbitrary command to GDB and returns a future for the response.
+	 *
+	 * The future is completed by the callback executor. It fails with a GdbCommandException if GDB
+	 * reports an error, responds with an event which is not of the requested type or a response
+	 * which cannot be converted, or exits before responding. Cancelling the future stops the
+	 * command from being sent if it has not been sent yet; otherwise the response is discarded
+	 * without being converted.
+	 * @param command The command to send. This may be a normal CLI command or a GDB/MI command. It
+	 * should not contain any line breaks.
+	 * @param resultType The type of event GDB is expected to respond with.
+	 * @return The future.
+	 */
+	public <T extends GdbEvent> CompletableFuture<T> sendCommandAsync(final String command,
+		final Class<T> resultType)
+	{
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		GdbEventCallback callback = new GdbEventCallback()
+			{
+				@Override
+				public void onGdbCommandCompleted(GdbEvent event)
+				{
+					completeCommand(future, command, resultType, event);
+				}
+			};
+		queueCommand(new CommandData(command, callback, future));
+		return future;
+	}
+
+	/**
+	 * Sends an arbitrary command to GDB and returns a future for the response, which fails with a
+	 * TimeoutException if GDB does not respond in time.
+	 * @param command The command to send. This may be a normal CLI command or a GDB/MI command. It
+	 * should not contain any line breaks.
+	 * @param resultType The type of event GDB is expected to respond with.
+	 * @param timeout How long to wait for the response.
+	 * @param unit The unit of the timeout.
+	 * @return The future.
+	 * @see #sendCommandAsync(String, Class)
+	 */
+	public <T extends GdbEvent> CompletableFuture<T> sendCommandAsync(final String command,
+		Class<T> resultType, final long timeout, final TimeUnit unit)
+	{
+		final CompletableFuture<T> future = sendCommandAsync(command, resultType);
+		final ScheduledFuture<?> timer = m_timeoutScheduler.schedule(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					future.completeExceptionally(new TimeoutException("GDB did not respond to " +
+						command + " within " + timeout + " " + unit.toString().toLowerCase()));
+				}
+			}, timeout, unit);
+		future.whenComplete(new BiConsumer<T, Throwable>()
+			{
+				@Override
+				public void accept(T event, Throwable error)
+				{
+					timer.cancel(false);
+				}
+			});
+		return future;
 	}
 
 	/**
@@ -188,16 +420,60 @@ public class Gdb
 	 * @param capability The capability to check for.
 	 * @return Whether GDB has the capability.
 	 */
-	public synchronized boolean hasCapability(String capability)
+	public boolean hasCapability(String capability)
 	{
-		if (m_capabilities == null)
+		Set<String> capabilities = m_capabilities;
+		if (capabilities == null)
 		{
 			m_log.warn("Capabilities list is null; returning 'unsupported' for capability " +
 				capability);
 			return false;
 		}
 
-		return m_capabilities.contains(capability);
+		return capabilities.contains(capability);
+	}
+
+	/**
+	 * Returns the timing and throughput metrics. These are also available through JMX while GDB
+	 * is running.
+	 * @return The metrics.
+	 */
+	public GdbMetrics getMetrics()
+	{
+		return m_metrics;
+	}
+
+	/**
+	 * Starts or stops tracing. Commands which are already queued when tracing is started are not
+	 * linked to the span which caused them.
+	 * @param tracer The tracer to record spans with, or null to stop tracing.
+	 */
+	public void setTracer(GdbTracer tracer)
+	{
+		m_tracer = tracer;
+	}
+
+	/**
+	 * Records the session to a transcript, which GdbReplayProcess can play back. Must be called
+	 * before GDB is started. The writer is closed when GDB exits.
+	 * @param transcript The transcript to record to.
+	 */
+	public void setTranscriptWriter(GdbTranscriptWriter transcript)
+	{
+		if (m_readThread.isAlive())
+		{
+			throw new IllegalStateException("GDB has already been started");
+		}
+		m_transcript = transcript;
+	}
+
+	/**
+	 * Returns the tracer spans are being recorded with.
+	 * @return The tracer, or null if tracing is disabled.
+	 */
+	public GdbTracer getTracer()
+	{
+		return m_tracer;
 	}
 
 	/**
@@ -207,18 +483,55 @@ public class Gdb
 	 * @param callback The callback function. This is passed a GdbVariableObjects value on success,
 	 * or GdbErrorEvent on failure.
 	 */
-	public void getVariablesForFrame(final int thread, final int frame,
-		final GdbEventCallback callback)
+	public void getVariablesForFrame(int thread, int frame, GdbEventCallback callback)
+	{
+		getVariablesForFrameAsync(thread, frame).whenComplete(completeCallback(callback));
+	}
+
+	/**
+	 * Gets information about the local variables for the given stack frame. Variable objects are
+	 * created for any variables which do not have them yet; variables whose objects cannot be
+	 * created are left out.
+	 * @param thread The thread on which the frame resides.
+	 * @param frame The frame number.
+	 * @return Future for the variable objects.
+	 */
+	public CompletableFuture<GdbVariableObjects> getVariablesForFrameAsync(final int thread,
+		final int frame)
 	{
 		// Get a list of local variables
 		String command = "-stack-list-variables --thread " + thread + " --frame " + frame +
 			" --no-values";
-		sendCommand(command, new GdbEventCallback()
+		return sendCommandAsync(command, GdbVariables.class).thenCompose(
+			new Function<GdbVariables, CompletionStage<GdbVariableObjects>>()
 			{
 				@Override
-				public void onGdbCommandCompleted(GdbEvent event)
+				public CompletionStage<GdbVariableObjects> apply(GdbVariables variables)
 				{
-					onGdbVariablesReady(event, thread, frame, callback);
+					// Create variable objects for each of the variables if we haven't done so
+					// already. GDB responds in order, so they exist before the update completes
+					for (final String variable : variables.variables.keySet())
+					{
+						if (!m_variableObjectsByExpression.containsKey(variable))
+						{
+							createVariableObject(thread, frame, variable, variable).whenComplete(
+								new BiConsumer<GdbVariableObject, Throwable>()
+								{
+									@Override
+									public void accept(GdbVariableObject object, Throwable error)
+									{
+										if (error != null)
+										{
+											m_log.warn("Failed to create a variable object for " +
+												variable, error);
+										}
+									}
+								});
+						}
+					}
+
+					// Update any existing variable objects
+					return updateVariableObjects(thread, frame, variables.variables.keySet());
 				}
 			});
 	}
@@ -228,63 +541,63 @@ public class Gdb
 	 * @param thread The thread to evaluate the expression in.
 	 * @param frame The frame to evaluate the expression in.
 	 * @param expression The expression to evaluate.
-	 * @param callback The callback function.
+	 * @param callback The callback function. This is passed a GdbVariableObjects value on success,
+	 * or GdbErrorEvent on failure.
 	 */
-	public void evaluateExpression(int thread, int frame, final String expression,
-		final GdbEventCallback callback)
+	public void evaluateExpression(int thread, int frame, String expression,
+		GdbEventCallback callback)
 	{
-		// TODO: Make this more efficient
+		evaluateExpressionAsync(thread, frame, expression).whenComplete(completeCallback(callback));
+	}
 
-		// Create a new variable object if necessary
-		GdbVariableObject variableObject = m_variableObjectsByExpression.get(expression);
-		if (variableObject == null)
+	/**
+	 * Evaluates the given expression in the given context.
+	 * @param thread The thread to evaluate the expression in.
+	 * @param frame The frame to evaluate the expression in.
+	 * @param expression The expression to evaluate.
+	 * @return Future for the variable object of the expression.
+	 */
+	public CompletableFuture<GdbVariableObjects> evaluateExpressionAsync(int thread, int frame,
+		String expression)
+	{
+		// TODO: Make this more efficient
+		Set<String> expressions = Collections.singleton(expression);
+		if (m_variableObjectsByExpression.containsKey(expression))
 		{
-			String command = "-var-create --thread " + thread + " --frame " + frame + " - @ " +
-				GdbMiUtil.formatGdbString(expression);
-			sendCommand(command, new GdbEventCallback()
-				{
-					@Override
-					public void onGdbCommandCompleted(GdbEvent event)
-					{
-						onGdbNewVariableObjectReady(event, expression, callback);
-					}
-				});
+			return updateVariableObjects(thread, frame, expressions);
 		}
 
-		// Update existing variable objects
-		sendCommand("-var-update --thread " + thread + " --frame " + frame + " --all-values *",
-			new GdbEventCallback()
+		// Create a new variable object, and send the update without waiting for it
+		CompletableFuture<GdbVariableObject> create = createVariableObject(thread, frame,
+			expression, GdbMiUtil.formatGdbString(expression));
+		return create.thenCombine(updateVariableObjects(thread, frame, expressions),
+			new BiFunction<GdbVariableObject, GdbVariableObjects, GdbVariableObjects>()
 			{
 				@Override
-				public void onGdbCommandCompleted(GdbEvent event)
+				public GdbVariableObjects apply(GdbVariableObject object,
+					GdbVariableObjects objects)
 				{
-					HashSet<String> expressions = new HashSet<String>();
-					expressions.add(expression);
-					onGdbVariableObjectsUpdated(event, expressions, callback);
+					return objects;
 				}
 			});
 	}
 
 	/**
-	 * Launches the GDB process and starts listening for data.
-	 * @param gdbPath Path to the GDB executable.
-	 * @param workingDirectory Working directory to launch the GDB process in. May be null.
+	 * Opens the transport, launching GDB if necessary, and starts listening for data.
 	 */
-	private void runGdb(String gdbPath, String workingDirectory)
+	private void runGdb()
 	{
 		try
 		{
-			// Launch the process
-			final String[] commandLine = {
-				gdbPath,
-				"--interpreter=mi2" };
-			File workingDirectoryFile = null;
-			if (workingDirectory != null)
+			// Connect to GDB, launching it if necessary
+			m_transport.open();
+
+			// Start recording the session if transcripts were requested
+			if (m_transcriptDirectory != null && m_transcript == null)
 			{
-				workingDirectoryFile = new File(workingDirectory);
+				m_transcript = new GdbTranscriptWriter(new File(m_transcriptDirectory,
+					"gdb-" + System.currentTimeMillis() + ".gdbmi"));
 			}
-			Process process = Runtime.getRuntime().exec(commandLine, null, workingDirectoryFile);
-			InputStream stream = process.getInputStream();
 
 			// Queue startup commands
 			sendCommand("-list-features", new GdbEventCallback()
@@ -296,10 +609,9 @@ public class Gdb
 					}
 				});
 
-			// Save a reference to the process and launch the writer thread
+			// Launch the writer thread
 			synchronized (this)
 			{
-				m_process = process;
 				m_writeThread = new Thread(new Runnable()
 					{
 						@Override
@@ -311,37 +623,172 @@ public class Gdb
 				m_writeThread.start();
 			}
 
-			// Start listening for data
-			GdbMiParser parser = new GdbMiParser();
-			byte[] buffer = new byte[4096];
-			int bytes;
-			while ((bytes = stream.read(buffer)) != -1)
+			// Drain stderr so GDB cannot block on a full pipe. Anything it writes there is
+			// reported as log output
+			final InputStream errorStream = m_transport.getErrorStream();
+			if (errorStream != null)
 			{
-				// Process the data
-				try
+				Thread errorThread = new Thread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							drainErrorStream(errorStream);
+						}
+					}, "GDB stderr");
+				errorThread.setDaemon(true);
+				errorThread.start();
+			}
+
+			// Read stdout on its own thread so GDB is never held up by slow parsing or callbacks;
+			// this thread parses and dispatches whatever it has written to the ring
+			final InputStream outputStream = m_transport.getInputStream();
+			final GdbByteRing ring = new GdbByteRing(RING_CAPACITY);
+			Thread outputThread = new Thread(new Runnable()
 				{
-					parser.process(buffer, bytes);
-				}
-				catch (IllegalArgumentException ex)
+					@Override
+					public void run()
+					{
+						readOutput(outputStream, ring);
+					}
+				}, "GDB stdout");
+			outputThread.setDaemon(true);
+			outputThread.start();
+
+			// Publish the metrics while GDB is running
+			m_metrics.register();
+
+			// Record values are recycled through an arena, so every record is released as soon as
+			// it has been handled
+			GdbMiParser parser = new GdbMiParser(new GdbMiArena());
+			byte[] chunk = new byte[CHUNK_SIZE];
+
+			// Time the thread spends parsing and dispatching rather than waiting for output
+			long startTime = System.nanoTime();
+			long busyTime = 0;
+			try
+			{
+				int length;
+				while ((length = ring.read(chunk)) != -1)
 				{
-					m_log.error("GDB/MI parsing error. Current buffer contents: \"" +
-						new String(buffer, 0, bytes) + "\"", ex);
-					m_listener.onGdbError(ex);
-					return;
+					long busyStart = System.nanoTime();
+
+					// Process the data
+					try
+					{
+						parser.process(chunk, length);
+					}
+					catch (IllegalArgumentException ex)
+					{
+						m_log.error("GDB/MI parsing error. Start of current buffer: \"" +
+							new String(chunk, 0, Math.min(length, EXCERPT_LENGTH), m_utf8) + "\"",
+							ex);
+						notifyError(ex);
+						return;
+					}
+
+					// Pass the records to the callback executor, and recycle the ones it has
+					// finished with. The parsing time is shared equally between the records
+					long parsedTime = System.nanoTime();
+					List<GdbMiRecord> records = parser.getRecords();
+					m_metrics.onOutputRead(length, records.size());
+					long parseTime = records.isEmpty() ? 0 :
+						(parsedTime - busyStart) / records.size();
+					for (GdbMiRecord record : records)
+					{
+						dispatchRecord(record, busyStart, parseTime, parsedTime);
+					}
+					records.clear();
+					releaseHandledRecords();
+					busyTime += System.nanoTime() - busyStart;
 				}
+			}
+			finally
+			{
+				// GDB has gone, so stop the write thread and fail the commands which will never
+				// get a response; commands sent from now on fail
+				m_stopped = true;
+				ring.close();
+				m_queuedCommands.close();
+				failPendingCommands();
+				m_metrics.unregister();
+				m_log.info("GDB read thread was busy for " + busyTime / 1000000 + " ms of " +
+					(System.nanoTime() - startTime) / 1000000 + " ms");
+				m_log.info("GDB/MI symbol table: " + parser.getSymbolTable());
+				m_log.info("GDB output ring: " + ring);
+				writeTrace();
+				closeTranscript();
+			}
+		}
+		catch (Throwable ex)
+		{
+			notifyError(ex);
+		}
+	}
 
-				// Handle the records
-				List<GdbMiRecord> records = parser.getRecords();
-				for (GdbMiRecord record : records)
+	/**
+	 * Thread function for reading GDB's stdout. The data is passed to the parsing thread through
+	 * the given ring.
+	 * @param stream The stream to read.
+	 * @param ring The ring to write the data to.
+	 */
+	private void readOutput(InputStream stream, GdbByteRing ring)
+	{
+		try
+		{
+			GdbOutputReader reader = new GdbOutputReader(stream);
+			ByteBuffer buffer;
+			while ((buffer = reader.read()) != null)
+			{
+				GdbTranscriptWriter transcript = m_transcript;
+				if (transcript != null)
 				{
-					handleRecord(record);
+					recordTranscript(transcript, false, buffer);
+				}
+				if (!ring.write(buffer))
+				{
+					// The parsing thread has stopped
+					break;
 				}
-				records.clear();
 			}
+			ring.close();
 		}
-		catch (Throwable ex)
+		catch (IOException ex)
+		{
+			ring.close(ex);
+		}
+	}
+
+	/**
+	 * Thread function for reading GDB's stderr. Each line is passed to the listener as a log
+	 * stream record.
+	 * @param stream The stream to read.
+	 */
+	private void drainErrorStream(InputStream stream)
+	{
+		try
+		{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(stream, m_utf8));
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				final GdbMiStreamRecord record =
+					new GdbMiStreamRecord(GdbMiRecord.Type.Log, null);
+				record.message = line + "\n";
+				m_callbackExecutor.execute(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							m_listener.onStreamRecordReceived(record);
+						}
+					});
+			}
+		}
+		catch (IOException ex)
 		{
-			m_listener.onGdbError(ex);
+			// The process has gone away; the read thread reports that
+			m_log.debug("Stopped reading GDB stderr", ex);
 		}
 	}
 
@@ -352,58 +799,104 @@ public class Gdb
 	{
 		try
 		{
-			OutputStream stream;
-			List<CommandData> queuedCommands = new ArrayList<CommandData>();
+			writeQueuedCommands();
+		}
+		finally
+		{
+			// Nothing will send the commands which are still queued
+			m_queuedCommands.close();
+			while (!m_queuedCommands.isEmpty())
+			{
+				CommandData command = m_queuedCommands.poll();
+				if (command == null)
+				{
+					// A producer has not finished adding it
+					Thread.yield();
+					continue;
+				}
+				failCommand(command, GDB_EXITED_MESSAGE);
+			}
+		}
+	}
+
+	/**
+	 * Sends the queued commands until the queue is closed or the write fails.
+	 */
+	private void writeQueuedCommands()
+	{
+		try
+		{
+			OutputStream stream = m_transport.getOutputStream();
+			GdbCommandBuffer buffer = new GdbCommandBuffer(4096);
+			List<CommandData> batch = new ArrayList<CommandData>();
 			while (true)
 			{
-				synchronized (this)
+				// Wait for a command, then take every other command which is ready so they can
+				// all be sent with one write
+				CommandData command = m_queuedCommands.take();
+				if (command == null)
+				{
+					// We are stopping
+					return;
+				}
+
+				long batchStart = System.nanoTime();
+				while (command != null)
 				{
-					// Wait for some data to process
-					while (m_queuedCommands.isEmpty())
+					if (command.isAbandoned())
 					{
-						wait();
+						// The command was cancelled or timed out before it was sent
+						command = m_queuedCommands.poll();
+						continue;
 					}
 
-					// Exit cleanly if we are stopping
-					if (m_stopping)
+					// Register the command before sending it so the read thread can always find
+					// it when the response arrives
+					command.sentTime = batchStart;
+					m_pendingCommands.put(command);
+					if (m_stopped)
 					{
-						return;
+						// GDB has gone. The read thread may have failed the pending commands
+						// before this one was added, so fail it unless it already has been
+						if (m_pendingCommands.remove(command.token) != null)
+						{
+							failCommand(command, GDB_EXITED_MESSAGE);
+						}
+						command = m_queuedCommands.poll();
+						continue;
 					}
-
-					// Do the processing we need before dropping out of synchronised mode
-					stream = m_process.getOutputStream();
-
-					// Insert the commands into the pending queue
-					long token = m_token;
-					for (CommandData command : m_queuedCommands)
+					command.histograms[GdbMetrics.Phase.QueueWait.ordinal()].record(
+						batchStart - command.queuedTime);
+					m_metrics.onCommandSent();
+					batch.add(command);
+					notifyCommandSent(command.command, command.token);
+					buffer.append(command.token, command.command);
+
+					if (buffer.size() >= WRITE_BATCH_SIZE)
 					{
-						m_pendingCommands.put(token++, command);
+						break;
 					}
-
-					// Swap the queues
-					List<CommandData> tmp = queuedCommands;
-					queuedCommands = m_queuedCommands;
-					m_queuedCommands = tmp;
+					command = m_queuedCommands.poll();
 				}
 
-				// Send the queued commands to GDB
-				StringBuilder sb = new StringBuilder();
-				for (CommandData command : queuedCommands)
+				// Send the messages
+				if (buffer.size() != 0)
 				{
-					// Construct the message
-					long token = m_token++;
-					m_listener.onGdbCommandSent(command.command, token);
-
-					sb.append(token);
-					sb.append(command.command);
-					sb.append("\r\n");
+					GdbTranscriptWriter transcript = m_transcript;
+					if (transcript != null)
+					{
+						recordTranscript(transcript, true, buffer.asByteBuffer());
+					}
+					buffer.writeTo(stream);
+					stream.flush();
 				}
-				queuedCommands.clear();
 
-				// Send the messages
-				byte[] message = sb.toString().getBytes(m_ascii);
-				stream.write(message);
-				stream.flush();
+				long writeTime = System.nanoTime() - batchStart;
+				for (CommandData sent : batch)
+				{
+					sent.histograms[GdbMetrics.Phase.Write.ordinal()].record(writeTime);
+				}
+				batch.clear();
 			}
 		}
 		catch (InterruptedException ex)
@@ -412,15 +905,97 @@ public class Gdb
 		}
 		catch (Throwable ex)
 		{
-			m_listener.onGdbError(ex);
+			notifyError(ex);
 		}
 	}
 
 	/**
-	 * Handles the given GDB/MI record.
+	 * Queues a record to be handled by the callback executor. Once it has been handled it is
+	 * passed back to the read thread to be released.
 	 * @param record The record.
+	 * @param receivedTime When the output containing the record was read.
+	 * @param parseTime How long the record took to parse.
+	 * @param dispatchTime When the record was queued.
+	 */
+	private void dispatchRecord(final GdbMiRecord record, final long receivedTime,
+		final long parseTime, final long dispatchTime)
+	{
+		m_callbackExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						handleRecord(record, receivedTime, parseTime, dispatchTime);
+					}
+					catch (Throwable ex)
+					{
+						m_listener.onGdbError(ex);
+					}
+					finally
+					{
+						m_handledRecords.offer(record);
+					}
+				}
+			});
+	}
+
+	/**
+	 * Releases the records which the callback executor has finished handling. Must only be called
+	 * on the read thread, since that owns the arena.
 	 */
-	private void handleRecord(GdbMiRecord record)
+	private void releaseHandledRecords()
+	{
+		GdbMiRecord record;
+		while ((record = m_handledRecords.poll()) != null)
+		{
+			record.release();
+		}
+	}
+
+	/**
+	 * Notifies the listener that a command has been sent, on the callback executor.
+	 * @param command The command.
+	 * @param token The token the command was sent with.
+	 */
+	private void notifyCommandSent(final String command, final long token)
+	{
+		m_callbackExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					m_listener.onGdbCommandSent(command, token);
+				}
+			});
+	}
+
+	/**
+	 * Notifies the listener of an error, on the callback executor.
+	 * @param ex The error.
+	 */
+	private void notifyError(final Throwable ex)
+	{
+		m_callbackExecutor.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					m_listener.onGdbError(ex);
+				}
+			});
+	}
+
+	/**
+	 * Handles the given GDB/MI record. Runs on the callback executor.
+	 * @param record The record.
+	 * @param receivedTime When the output containing the record was read.
+	 * @param parseTime How long the record took to parse.
+	 * @param dispatchTime When the record was queued.
+	 */
+	private void handleRecord(GdbMiRecord record, long receivedTime, long parseTime,
+		long dispatchTime)
 	{
 		switch (record.type)
 		{
@@ -434,7 +1009,8 @@ public class Gdb
 		case Exec:
 		case Notify:
 		case Status:
-			handleResultRecord((GdbMiResultRecord) record);
+			handleResultRecord((GdbMiResultRecord) record, receivedTime, parseTime,
+				dispatchTime);
 			break;
 		}
 
@@ -460,9 +1036,16 @@ public class Gdb
 	/**
 	 * Handles the given GDB/MI result record.
 	 * @param record The record.
+	 * @param receivedTime When the output containing the record was read.
+	 * @param parseTime How long the record took to parse.
+	 * @param dispatchTime When the record was queued.
 	 */
-	private void handleResultRecord(GdbMiResultRecord record)
+	private void handleResultRecord(GdbMiResultRecord record, long receivedTime, long parseTime,
+		long dispatchTime)
 	{
+		long handleTime = System.nanoTime();
+		GdbTracer tracer = m_tracer;
+
 		// Notify the listener
 		m_listener.onResultRecordReceived(record);
 
@@ -471,153 +1054,458 @@ public class Gdb
 		String commandType = null;
 		if (record.userToken != null)
 		{
-			synchronized (this)
+			pendingCommand = m_pendingCommands.remove(record.userToken);
+			if (pendingCommand != null)
 			{
-				pendingCommand = m_pendingCommands.remove(record.userToken);
+				commandType = pendingCommand.type;
 			}
+		}
+
+		// Time the command, or the asynchronous record if there is no command
+		GdbLatencyHistogram[] histograms = null;
+		if (pendingCommand != null)
+		{
+			histograms = pendingCommand.histograms;
+			histograms[GdbMetrics.Phase.RoundTrip.ordinal()].record(
+				receivedTime - pendingCommand.sentTime);
+		}
+		else if (record.className != null)
+		{
+			histograms = m_metrics.getRecordHistograms(record.type, record.className);
+		}
+		if (histograms != null)
+		{
+			histograms[GdbMetrics.Phase.Parse.ordinal()].record(parseTime);
+			histograms[GdbMetrics.Phase.Dispatch.ordinal()].record(handleTime - dispatchTime);
+		}
+
+		if (tracer == null)
+		{
+			deliverResultRecord(record, pendingCommand, commandType, histograms, null);
+			return;
+		}
+
+		// Make the span the cause of any command sent while it is being delivered
+		long spanId = pendingCommand != null ? pendingCommand.token : tracer.newRecordSpanId();
+		Long previousCause = m_causeSpan.get();
+		m_causeSpan.set(spanId);
+		long[] convertTimes = new long[2];
+		try
+		{
+			deliverResultRecord(record, pendingCommand, commandType, histograms, convertTimes);
+		}
+		finally
+		{
+			m_causeSpan.set(previousCause);
 			if (pendingCommand != null)
 			{
-				// Get the command type
-				int separatorIndex = pendingCommand.command.indexOf(' ');
-				commandType = separatorIndex == -1 ? pendingCommand.command :
-					pendingCommand.command.substring(0, separatorIndex);
+				tracer.addSpan(spanId, pendingCommand.causeSpan, pendingCommand.type,
+					pendingCommand.command, pendingCommand.queuedTime, pendingCommand.sentTime,
+					receivedTime, handleTime, convertTimes[0], convertTimes[1], System.nanoTime());
+			}
+			else
+			{
+				String name = record.className == null ? "(unknown)" :
+					GdbMetrics.getRecordName(record.type, record.className);
+				tracer.addSpan(spanId, 0, name, null, 0, 0, receivedTime, handleTime,
+					convertTimes[0], convertTimes[1], System.nanoTime());
 			}
 		}
+	}
 
-		// Process the event into something more useful
-		GdbEvent event = GdbMiMessageConverter.processRecord(record, commandType);
-		if (event != null)
+	/**
+	 * Converts a result record to an event and passes it to the listener and the callback of the
+	 * command it is the response to.
+	 * @param record The record.
+	 * @param pendingCommand The command the record is the response to, or null.
+	 * @param commandType The type of the command, or null.
+	 * @param histograms Histograms to time the conversion and callback with, or null.
+	 * @param convertTimes If not null, receives the times conversion started and ended if the
+	 * record is converted.
+	 */
+	private void deliverResultRecord(GdbMiResultRecord record, CommandData pendingCommand,
+		String commandType, GdbLatencyHistogram[] histograms, long[] convertTimes)
+	{
+
+		// Find the event type, and only convert the record if someone needs the event
+		GdbLazyEvent lazyEvent = GdbMiMessageConverter.processRecordLazily(record, commandType);
+		if (lazyEvent == null)
 		{
-			// Notify the listener
-			m_listener.onGdbEventReceived(event);
-			if (pendingCommand != null && pendingCommand.callback != null)
+			if (pendingCommand != null)
+			{
+				failCommand(pendingCommand, "GDB responded with an unknown record type: " +
+					record.className);
+			}
+			return;
+		}
+
+		// Nobody is waiting for the response to a command which was cancelled or timed out
+		GdbEventCallback callback = pendingCommand != null && !pendingCommand.isAbandoned() ?
+			pendingCommand.callback : null;
+		GdbEventFilter.Delivery delivery = getDelivery(lazyEvent.getEventType());
+		GdbEvent event = null;
+		if (callback != null || delivery == GdbEventFilter.Delivery.Eager)
+		{
+			long convertStart = System.nanoTime();
+			event = lazyEvent.get();
+			long convertEnd = System.nanoTime();
+			if (histograms != null)
+			{
+				histograms[GdbMetrics.Phase.Convert.ordinal()].record(convertEnd - convertStart);
+			}
+			if (convertTimes != null)
+			{
+				convertTimes[0] = convertStart;
+				convertTimes[1] = convertEnd;
+			}
+			if (event == null)
 			{
-				pendingCommand.callback.onGdbCommandCompleted(event);
+				if (pendingCommand != null)
+				{
+					failCommand(pendingCommand, "Failed to convert the response from GDB");
+				}
+				return;
 			}
 		}
+
+		// Notify the listener
+		switch (delivery)
+		{
+		case Eager:
+			m_listener.onGdbEventReceived(event);
+			break;
+
+		case Lazy:
+			// The lazy event refers to the record's values, so they must not be recycled. If it
+			// was converted for the callback it holds the converted event, so the listener gets
+			// the same instance rather than converting the record again
+			record.detach();
+			m_listener.onGdbEventReceived(lazyEvent);
+			break;
+		}
+
+		if (callback != null)
+		{
+			long callbackStart = System.nanoTime();
+			callback.onGdbCommandCompleted(event);
+			histograms[GdbMetrics.Phase.Callback.ordinal()].record(
+				System.nanoTime() - callbackStart);
+		}
 	}
 
 	/**
-	 * Callback function for when GDB has responded to our stack variables request.
-	 * @param event The event.
-	 * @param thread The thread on which the frame resides.
-	 * @param frame The frame number.
-	 * @param callback The user-provided callback function.
+	 * Returns how the listener wants to receive events of the given type.
+	 * @param eventType The type of event.
+	 * @return How events of the type are delivered.
 	 */
-	private void onGdbVariablesReady(GdbEvent event, int thread, int frame,
-		final GdbEventCallback callback)
+	private GdbEventFilter.Delivery getDelivery(Class<? extends GdbEvent> eventType)
 	{
-		if (event instanceof GdbErrorEvent)
+		if (!(m_listener instanceof GdbEventFilter))
 		{
-			callback.onGdbCommandCompleted(event);
-			return;
+			return GdbEventFilter.Delivery.Eager;
+		}
+
+		GdbEventFilter.Delivery delivery = m_eventDeliveries.get(eventType);
+		if (delivery == null)
+		{
+			delivery = ((GdbEventFilter) m_listener).getDelivery(eventType);
+			m_eventDeliveries.put(eventType, delivery);
 		}
-		if (!(event instanceof GdbVariables))
+		return delivery;
+	}
+
+	/**
+	 * Returns the span being delivered by the current thread.
+	 * @return The span ID, or zero if the thread is not delivering a span.
+	 */
+	private long getCauseSpan()
+	{
+		Long cause = m_causeSpan.get();
+		return cause != null ? cause : 0;
+	}
+
+	/**
+	 * Writes the trace to the directory given by the TRACE_DIRECTORY_PROPERTY system property, if
+	 * it was set when GDB was created.
+	 */
+	private void writeTrace()
+	{
+		GdbTracer tracer = m_tracer;
+		if (m_traceDirectory == null || tracer == null)
 		{
-			GdbErrorEvent errorEvent = new GdbErrorEvent();
-			errorEvent.message = "Unexpected data received from GDB";
-			callback.onGdbCommandCompleted(errorEvent);
-			m_log.warn("Unexpected event " + event + " received from -stack-list-variables " +
-				"request");
 			return;
 		}
 
-		// Create variable objects for each of the variables if we haven't done so already
-		final GdbVariables variables = (GdbVariables) event;
-		for (final String variable : variables.variables.keySet())
+		File file = new File(m_traceDirectory, "gdb-trace-" + System.currentTimeMillis() +
+			".json");
+		try
 		{
-			GdbVariableObject variableObject = m_variableObjectsByExpression.get(variable);
-			if (variableObject == null)
+			tracer.writeTo(file);
+			m_log.info("Wrote GDB trace to " + file);
+		}
+		catch (IOException ex)
+		{
+			m_log.warn("Failed to write GDB trace to " + file, ex);
+		}
+	}
+
+	/**
+	 * Records a chunk of data to the transcript. If the transcript cannot be written recording is
+	 * stopped, but the session carries on.
+	 * @param transcript The transcript.
+	 * @param input Whether the data was sent to GDB rather than read from it.
+	 * @param data The data. Its position is not changed.
+	 */
+	private void recordTranscript(GdbTranscriptWriter transcript, boolean input, ByteBuffer data)
+	{
+		try
+		{
+			if (input)
 			{
-				String command = "-var-create --thread " + thread + " --frame " + frame + " - @ " +
-					variable;
-				sendCommand(command, new GdbEventCallback()
-				{
-					@Override
-					public void onGdbCommandCompleted(GdbEvent event)
-					{
-						onGdbNewVariableObjectReady(event, variable, callback);
-					}
-				});
+				transcript.recordInput(data);
+			}
+			else
+			{
+				transcript.recordOutput(data);
 			}
 		}
-
-		// Update any existing variable objects
-		sendCommand("-var-update --thread " + thread + " --frame " + frame + " --all-values *",
-			new GdbEventCallback()
+		catch (IOException ex)
+		{
+			if (m_transcript == transcript)
 			{
-				@Override
-				public void onGdbCommandCompleted(GdbEvent event)
-				{
-					onGdbVariableObjectsUpdated(event, variables.variables.keySet(), callback);
-				}
-			});
+				m_transcript = null;
+				m_log.warn("Failed to record GDB transcript; recording stopped", ex);
+			}
+		}
 	}
 
 	/**
-	 * Callback function for when GDB has responded to our new variable object request.
-	 * @param event The event.
-	 * @param expression The expression used to create the variable object.
-	 * @param callback The user-provided callback function.
+	 * Stops recording the session and closes the transcript.
 	 */
-	private void onGdbNewVariableObjectReady(GdbEvent event, String expression,
-		GdbEventCallback callback)
+	private void closeTranscript()
 	{
-		if (event instanceof GdbErrorEvent)
+		GdbTranscriptWriter transcript = m_transcript;
+		if (transcript == null)
 		{
-			callback.onGdbCommandCompleted(event);
 			return;
 		}
-		if (!(event instanceof GdbVariableObject))
+
+		m_transcript = null;
+		try
 		{
-			GdbErrorEvent errorEvent = new GdbErrorEvent();
-			errorEvent.message = "Unexpected data received from GDB";
-			callback.onGdbCommandCompleted(errorEvent);
-			m_log.warn("Unexpected event " + event + " received from -var-create request");
-			return;
+			transcript.close();
+			m_log.info("Recorded " + transcript.size() + " byte GDB transcript");
 		}
+		catch (IOException ex)
+		{
+			m_log.warn("Failed to close GDB transcript", ex);
+		}
+	}
+
+	/**
+	 * Returns the type of a command, which is its first word.
+	 * @param command The command.
+	 * @return The type.
+	 */
+	private static String getCommandType(String command)
+	{
+		int separatorIndex = command.indexOf(' ');
+		return separatorIndex == -1 ? command : command.substring(0, separatorIndex);
+	}
 
-		GdbVariableObject variableObject = (GdbVariableObject) event;
-		if (variableObject.name == null)
+	/**
+	 * Adds a command to the write queue.
+	 * @param command The command.
+	 */
+	private void queueCommand(CommandData command)
+	{
+		if (m_stopped || !m_queuedCommands.offer(command))
 		{
-			GdbErrorEvent errorEvent = new GdbErrorEvent();
-			errorEvent.message = "Unexpected data received from GDB";
-			callback.onGdbCommandCompleted(errorEvent);
-			m_log.warn("Variable object returned by GDB does not have a name");
-			return;
+			m_log.warn("GDB has been stopped; dropping command " + command.command);
+			if (command.future != null)
+			{
+				command.future.completeExceptionally(
+					new IllegalStateException("GDB has been stopped"));
+			}
+		}
+		else if (m_queuedCommands.isClosed())
+		{
+			// The write thread may have drained the queue and stopped before the command was
+			// added. Failing it again is harmless if the write thread failed it too
+			failCommand(command, GDB_EXITED_MESSAGE);
 		}
+	}
 
-		// Save the new variable object
-		variableObject.expression = expression;
-		m_variableObjectsByExpression.put(expression, variableObject);
-		m_variableObjectsByName.put(variableObject.name, variableObject);
+	/**
+	 * Fails the commands which have been sent but will never get a response because GDB has gone.
+	 * This runs on the callback executor, after the responses which were read before GDB went.
+	 */
+	private void failPendingCommands()
+	{
+		Runnable task = new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for (CommandData command : m_pendingCommands.removeAll())
+					{
+						failCommand(command, GDB_EXITED_MESSAGE);
+					}
+				}
+			};
+		try
+		{
+			m_callbackExecutor.execute(task);
+		}
+		catch (RejectedExecutionException ex)
+		{
+			task.run();
+		}
 	}
 
 	/**
-	 * Callback function for when GDB has responded to our variable objects update request.
-	 * @param event The event.
-	 * @param variables The variables the user requested.
-	 * @param callback The user-provided callback function.
+	 * Fails the future of a command sent with sendCommandAsync(). Does nothing for other
+	 * commands, or if the future has already completed.
+	 * @param command The command.
+	 * @param message Description of the problem.
 	 */
-	private void onGdbVariableObjectsUpdated(GdbEvent event, Set<String> variables,
-		GdbEventCallback callback)
+	private static void failCommand(CommandData command, String message)
 	{
-		if (event instanceof GdbErrorEvent)
+		if (command.future != null)
 		{
-			callback.onGdbCommandCompleted(event);
-			return;
+			command.future.completeExceptionally(
+				new GdbCommandException(command.command, message));
 		}
-		if (!(event instanceof GdbVariableObjectChanges))
+	}
+
+	/**
+	 * Completes the future of a command sent with sendCommandAsync().
+	 * @param future The future.
+	 * @param command The command.
+	 * @param resultType The type of event GDB is expected to respond with.
+	 * @param event The event GDB responded with.
+	 */
+	private static <T extends GdbEvent> void completeCommand(CompletableFuture<T> future,
+		String command, Class<T> resultType, GdbEvent event)
+	{
+		if (resultType.isInstance(event))
 		{
-			GdbErrorEvent errorEvent = new GdbErrorEvent();
-			errorEvent.message = "Unexpected data received from GDB";
-			callback.onGdbCommandCompleted(errorEvent);
-			m_log.warn("Unexpected event " + event + " received from -var-create request");
-			return;
+			future.complete(resultType.cast(event));
+		}
+		else if (event instanceof GdbErrorEvent)
+		{
+			future.completeExceptionally(new GdbCommandException(command, (GdbErrorEvent) event));
 		}
+		else
+		{
+			m_log.warn("Unexpected event " + event + " received from " + command + " request");
+			future.completeExceptionally(
+				new GdbCommandException(command, "Unexpected data received from GDB"));
+		}
+	}
+
+	/**
+	 * Creates an adapter which passes the result of a future to a callback, or a GdbErrorEvent if
+	 * the future failed.
+	 * @param callback The callback.
+	 * @return The adapter.
+	 */
+	private static BiConsumer<GdbEvent, Throwable> completeCallback(final GdbEventCallback callback)
+	{
+		return new BiConsumer<GdbEvent, Throwable>()
+			{
+				@Override
+				public void accept(GdbEvent event, Throwable error)
+				{
+					if (error instanceof CompletionException && error.getCause() != null)
+					{
+						error = error.getCause();
+					}
+
+					if (error instanceof GdbCommandException &&
+						((GdbCommandException) error).getError() != null)
+					{
+						event = ((GdbCommandException) error).getError();
+					}
+					else if (error != null)
+					{
+						GdbErrorEvent errorEvent = new GdbErrorEvent();
+						errorEvent.message = error.getMessage();
+						event = errorEvent;
+					}
+					callback.onGdbCommandCompleted(event);
+				}
+			};
+	}
+
+	/**
+	 * Creates a GDB variable object for an expression.
+	 * @param thread The thread to evaluate the expression in.
+	 * @param frame The frame to evaluate the expression in.
+	 * @param expression The expression the variable object is saved under.
+	 * @param gdbExpression The expression as it is passed to GDB.
+	 * @return Future for the new variable object, which has been saved when the future completes.
+	 */
+	private CompletableFuture<GdbVariableObject> createVariableObject(int thread, int frame,
+		final String expression, String gdbExpression)
+	{
+		final String command = "-var-create --thread " + thread + " --frame " + frame + " - @ " +
+			gdbExpression;
+		return sendCommandAsync(command, GdbVariableObject.class).thenApply(
+			new Function<GdbVariableObject, GdbVariableObject>()
+			{
+				@Override
+				public GdbVariableObject apply(GdbVariableObject variableObject)
+				{
+					if (variableObject.name == null)
+					{
+						m_log.warn("Variable object returned by GDB does not have a name");
+						throw new CompletionException(new GdbCommandException(command,
+							"Unexpected data received from GDB"));
+					}
+
+					// Save the new variable object
+					variableObject.expression = expression;
+					m_variableObjectsByExpression.put(expression, variableObject);
+					m_variableObjectsByName.put(variableObject.name, variableObject);
+					return variableObject;
+				}
+			});
+	}
+
+	/**
+	 * Updates every variable object.
+	 * @param thread The thread to evaluate the variables in.
+	 * @param frame The frame to evaluate the variables in.
+	 * @param expressions The expressions whose variable objects should be returned.
+	 * @return Future for the variable objects of the given expressions.
+	 */
+	private CompletableFuture<GdbVariableObjects> updateVariableObjects(int thread, int frame,
+		final Set<String> expressions)
+	{
+		String command = "-var-update --thread " + thread + " --frame " + frame +
+			" --all-values *";
+		return sendCommandAsync(command, GdbVariableObjectChanges.class).thenApply(
+			new Function<GdbVariableObjectChanges, GdbVariableObjects>()
+			{
+				@Override
+				public GdbVariableObjects apply(GdbVariableObjectChanges changes)
+				{
+					return onGdbVariableObjectsUpdated(changes, expressions);
+				}
+			});
+	}
 
+	/**
+	 * Callback function for when GDB has responded to our variable objects update request.
+	 * @param changes The changes.
+	 * @param variables The variables the user requested.
+	 * @return The variable objects for the requested variables.
+	 */
+	private GdbVariableObjects onGdbVariableObjectsUpdated(GdbVariableObjectChanges changes,
+		Set<String> variables)
+	{
 		// Update variable objects with changes
-		GdbVariableObjectChanges changes = (GdbVariableObjectChanges) event;
 		if (changes.changes != null)
 		{
 			for (GdbVariableObjectChange change : changes.changes)
@@ -674,7 +1562,28 @@ public class Gdb
 			}
 		}
 
-		callback.onGdbCommandCompleted(list);
+		return list;
+	}
+
+	/**
+	 * Creates the thread which fails commands that time out.
+	 * @return The scheduler.
+	 */
+	private static ScheduledThreadPoolExecutor createTimeoutScheduler()
+	{
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "GDB command timeouts");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
 	}
 
 	/**
@@ -698,11 +1607,7 @@ public class Gdb
 		GdbFeatures features = (GdbFeatures) event;
 		if (features.features != null)
 		{
-			Set<String> capabilities = new HashSet<String>(features.features);
-			synchronized (this)
-			{
-				m_capabilities = capabilities;
-			}
+			m_capabilities = new HashSet<String>(features.features);
 		}
 	}
 }
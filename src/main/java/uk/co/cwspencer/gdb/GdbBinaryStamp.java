@@ -0,0 +1,260 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Identifies the build of a binary GDB has loaded, so a GDB process which loaded it earlier can
+ * tell whether it still has the current symbols. The modification time and size are compared
+ * first; if either has changed the binary is considered the same only if it is an ELF file whose
+ * GNU build ID is unchanged, as happens when the linker rewrites identical output.
+ */
+public class GdbBinaryStamp
+{
+	// ELF section type of notes
+	private static final int SHT_NOTE = 7;
+
+	// Note type of the GNU build ID
+	private static final int NT_GNU_BUILD_ID = 3;
+
+	// Largest note section which is searched for the build ID
+	private static final long MAX_NOTE_SECTION_SIZE = 64 * 1024;
+
+	// The binary
+	private final File m_file;
+
+	// Modification time and size of the binary when the stamp was taken
+	private final long m_lastModified;
+	private final long m_length;
+
+	// The GNU build ID of the binary, or null if it does not have one
+	private final String m_buildId;
+
+	/**
+	 * Constructor.
+	 * @param file The binary.
+	 * @param lastModified The modification time of the binary.
+	 * @param length The size of the binary.
+	 * @param buildId The build ID of the binary. May be null.
+	 */
+	private GdbBinaryStamp(File file, long lastModified, long length, String buildId)
+	{
+		m_file = file;
+		m_lastModified = lastModified;
+		m_length = length;
+		m_buildId = buildId;
+	}
+
+	/**
+	 * Takes a stamp of a binary as it is now.
+	 * @param file The binary.
+	 * @return The stamp.
+	 */
+	public static GdbBinaryStamp of(File file)
+	{
+		return new GdbBinaryStamp(file, file.lastModified(), file.length(), readBuildId(file));
+	}
+
+	/**
+	 * Returns the binary the stamp was taken of.
+	 * @return The binary.
+	 */
+	public File getFile()
+	{
+		return m_file;
+	}
+
+	/**
+	 * Returns the GNU build ID of the binary when the stamp was taken.
+	 * @return The build ID in hexadecimal, or null if the binary did not have one.
+	 */
+	public String getBuildId()
+	{
+		return m_buildId;
+	}
+
+	/**
+	 * Checks whether the binary is still the build the stamp was taken of.
+	 * @return Whether the binary is unchanged.
+	 */
+	public boolean isCurrent()
+	{
+		if (!m_file.isFile())
+		{
+			return false;
+		}
+		if (m_file.lastModified() == m_lastModified && m_file.length() == m_length)
+		{
+			return true;
+		}
+		return m_buildId != null && m_buildId.equals(readBuildId(m_file));
+	}
+
+	/**
+	 * Reads the GNU build ID from the note sections of an ELF file.
+	 * @param file The file.
+	 * @return The build ID in hexadecimal, or null if the file is not an ELF file, has no build ID
+	 * or cannot be read.
+	 */
+	static String readBuildId(File file)
+	{
+		FileChannel channel = null;
+		try
+		{
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+			// Check the identification bytes and read the section header table location
+			ByteBuffer header = read(channel, 0, 64);
+			if (header == null || header.getInt(0) != 0x7f454c46)
+			{
+				return null;
+			}
+			boolean is64 = header.get(4) == 2;
+			header.order(header.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+			long sectionHeaderOffset = is64 ? header.getLong(0x28) : unsigned(header.getInt(0x20));
+			int sectionHeaderSize = header.getShort(is64 ? 0x3a : 0x2e) & 0xffff;
+			int sectionCount = header.getShort(is64 ? 0x3c : 0x30) & 0xffff;
+			if (sectionHeaderSize < (is64 ? 0x40 : 0x28))
+			{
+				return null;
+			}
+
+			for (int i = 0; i != sectionCount; ++i)
+			{
+				long sectionHeader = sectionHeaderOffset + (long) i * sectionHeaderSize;
+				ByteBuffer section = read(channel, sectionHeader, sectionHeaderSize);
+				if (section == null)
+				{
+					return null;
+				}
+				section.order(header.order());
+				if (section.getInt(4) != SHT_NOTE)
+				{
+					continue;
+				}
+
+				long offset = is64 ? section.getLong(0x18) : unsigned(section.getInt(0x10));
+				long size = is64 ? section.getLong(0x20) : unsigned(section.getInt(0x14));
+				if (size < 0 || size > MAX_NOTE_SECTION_SIZE)
+				{
+					continue;
+				}
+				ByteBuffer notes = read(channel, offset, (int) size);
+				if (notes == null)
+				{
+					continue;
+				}
+				notes.order(header.order());
+				String buildId = findBuildId(notes);
+				if (buildId != null)
+				{
+					return buildId;
+				}
+			}
+			return null;
+		}
+		catch (IOException ex)
+		{
+			return null;
+		}
+		finally
+		{
+			if (channel != null)
+			{
+				try
+				{
+					channel.close();
+				}
+				catch (IOException ex)
+				{
+					// Nothing more can be done with the file
+				}
+			}
+		}
+	}
+
+	/**
+	 * Searches the notes of a note section for the GNU build ID.
+	 * @param notes The contents of the section.
+	 * @return The build ID in hexadecimal, or null if the section does not contain it.
+	 */
+	private static String findBuildId(ByteBuffer notes)
+	{
+		while (notes.remaining() >= 12)
+		{
+			int nameSize = notes.getInt();
+			int descriptorSize = notes.getInt();
+			int type = notes.getInt();
+			int nameStart = notes.position();
+			int descriptorStart = nameStart + align(nameSize);
+			int end = descriptorStart + align(descriptorSize);
+			if (nameSize < 0 || descriptorSize < 0 || descriptorStart < nameStart ||
+				end < descriptorStart || end > notes.limit())
+			{
+				return null;
+			}
+
+			if (type == NT_GNU_BUILD_ID && nameSize == 4 && notes.get(nameStart) == 'G' &&
+				notes.get(nameStart + 1) == 'N' && notes.get(nameStart + 2) == 'U' &&
+				notes.get(nameStart + 3) == 0)
+			{
+				StringBuilder sb = new StringBuilder(descriptorSize * 2);
+				for (int i = 0; i != descriptorSize; ++i)
+				{
+					int b = notes.get(descriptorStart + i) & 0xff;
+					sb.append(Character.forDigit(b >> 4, 16));
+					sb.append(Character.forDigit(b & 0xf, 16));
+				}
+				return sb.toString();
+			}
+			notes.position(end);
+		}
+		return null;
+	}
+
+	/**
+	 * Reads part of a file.
+	 * @param channel The file.
+	 * @param position The offset to read from.
+	 * @param length The number of bytes to read.
+	 * @return The bytes, or null if the file ends first.
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int length)
+		throws IOException
+	{
+		if (position < 0)
+		{
+			return null;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) == -1)
+			{
+				return null;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Rounds a note field size up to the four byte alignment of the fields.
+	 */
+	private static int align(int size)
+	{
+		return (size + 3) & ~3;
+	}
+
+	/**
+	 * Converts an unsigned 32-bit value to a long.
+	 */
+	private static long unsigned(int value)
+	{
+		return value & 0xffffffffL;
+	}
+}
@@ -0,0 +1,293 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer, single-consumer ring of bytes which hands GDB's output from the thread reading
+ * the pipe to the thread parsing it. Neither side takes a lock: each position is written by only
+ * one thread, and a thread which has to wait parks until the other side wakes it.
+ *
+ * The producer only waits when the ring is full. While it waits nothing is reading GDB's stdout,
+ * so once the pipe fills GDB itself blocks; the time the producer spends waiting is therefore
+ * reported as the time GDB was held up by the consumer.
+ */
+class GdbByteRing
+{
+	// The buffer. Its size is a power of two so positions can be masked into it
+	private final byte[] m_buffer;
+	private final int m_mask;
+
+	// Total number of bytes written and read. Each is only modified by one side
+	private final AtomicLong m_writePosition = new AtomicLong();
+	private final AtomicLong m_readPosition = new AtomicLong();
+
+	// Threads which are parked waiting for space or data, or null
+	private volatile Thread m_waitingProducer;
+	private volatile Thread m_waitingConsumer;
+
+	// Whether either side has closed the ring, and the error the producer closed it with
+	private volatile boolean m_closed = false;
+	private volatile IOException m_error;
+
+	// Statistics. Only modified by the producer
+	private volatile int m_peakOccupancy = 0;
+	private volatile long m_blockedCount = 0;
+	private volatile long m_blockedNanos = 0;
+
+	/**
+	 * Constructor.
+	 * @param capacity The size of the ring in bytes. Rounded up to a power of two.
+	 */
+	public GdbByteRing(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1);
+		m_buffer = new byte[size];
+		m_mask = size - 1;
+	}
+
+	/**
+	 * Copies the remaining bytes of the given buffer into the ring, waiting for space as needed.
+	 * Must only be called by the producer.
+	 * @param src The data to write.
+	 * @return Whether all the data was written; false if the consumer has closed the ring.
+	 * @throws InterruptedIOException If the thread is interrupted while waiting.
+	 */
+	public boolean write(ByteBuffer src) throws InterruptedIOException
+	{
+		long writePosition = m_writePosition.get();
+		while (src.hasRemaining())
+		{
+			if (m_closed)
+			{
+				return false;
+			}
+
+			int free = m_buffer.length - (int) (writePosition - m_readPosition.get());
+			if (free == 0)
+			{
+				awaitSpace(writePosition);
+				continue;
+			}
+
+			int offset = (int) writePosition & m_mask;
+			int length = Math.min(Math.min(free, src.remaining()), m_buffer.length - offset);
+			src.get(m_buffer, offset, length);
+			writePosition += length;
+			m_writePosition.set(writePosition);
+
+			int occupancy = (int) (writePosition - m_readPosition.get());
+			if (occupancy > m_peakOccupancy)
+			{
+				m_peakOccupancy = occupancy;
+			}
+
+			Thread consumer = m_waitingConsumer;
+			if (consumer != null)
+			{
+				LockSupport.unpark(consumer);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copies available bytes out of the ring, waiting until there are some. Must only be called by
+	 * the consumer.
+	 * @param dst The array to copy the data into.
+	 * @return The number of bytes read, or -1 if the producer has closed the ring and all the data
+	 * has been read.
+	 * @throws IOException If the producer closed the ring with an error, or the thread is
+	 * interrupted while waiting.
+	 */
+	public int read(byte[] dst) throws IOException
+	{
+		return read(dst, 0, dst.length);
+	}
+
+	/**
+	 * Copies available bytes out of the ring into part of an array, waiting until there are some.
+	 * Must only be called by the consumer.
+	 * @param dst The array to copy the data into.
+	 * @param offset The index in the array to copy the data to.
+	 * @param maxLength The maximum number of bytes to copy.
+	 * @return The number of bytes read, or -1 if the producer has closed the ring and all the data
+	 * has been read.
+	 * @throws IOException If the producer closed the ring with an error, or the thread is
+	 * interrupted while waiting.
+	 */
+	public int read(byte[] dst, int offset, int maxLength) throws IOException
+	{
+		long readPosition = m_readPosition.get();
+		int available = (int) (m_writePosition.get() - readPosition);
+		if (available == 0)
+		{
+			available = awaitData(readPosition);
+			if (available == 0)
+			{
+				if (m_error != null)
+				{
+					throw m_error;
+				}
+				return -1;
+			}
+		}
+
+		int ringOffset = (int) readPosition & m_mask;
+		int length = Math.min(Math.min(available, maxLength), m_buffer.length - ringOffset);
+		System.arraycopy(m_buffer, ringOffset, dst, offset, length);
+		m_readPosition.set(readPosition + length);
+
+		Thread producer = m_waitingProducer;
+		if (producer != null)
+		{
+			LockSupport.unpark(producer);
+		}
+		return length;
+	}
+
+	/**
+	 * Closes the ring. If called by the producer the consumer reads the remaining data and then
+	 * sees the end of the stream; if called by the consumer the producer's next write fails.
+	 */
+	public void close()
+	{
+		m_closed = true;
+		LockSupport.unpark(m_waitingProducer);
+		LockSupport.unpark(m_waitingConsumer);
+	}
+
+	/**
+	 * Closes the ring because the producer failed. The consumer reads the remaining data and then
+	 * gets the given exception.
+	 * @param error The error.
+	 */
+	public void close(IOException error)
+	{
+		m_error = error;
+		close();
+	}
+
+	/**
+	 * Returns the size of the ring.
+	 * @return The capacity in bytes.
+	 */
+	public int getCapacity()
+	{
+		return m_buffer.length;
+	}
+
+	/**
+	 * Returns the number of bytes which have been written but not yet read.
+	 * @return The current occupancy in bytes.
+	 */
+	public int getOccupancy()
+	{
+		return (int) (m_writePosition.get() - m_readPosition.get());
+	}
+
+	/**
+	 * Returns the largest number of bytes which have been waiting to be read at once.
+	 * @return The peak occupancy in bytes.
+	 */
+	public int getPeakOccupancy()
+	{
+		return m_peakOccupancy;
+	}
+
+	/**
+	 * Returns the number of times the producer found the ring full and had to wait.
+	 * @return The number of waits.
+	 */
+	public long getBlockedCount()
+	{
+		return m_blockedCount;
+	}
+
+	/**
+	 * Returns the total time the producer has spent waiting for space.
+	 * @return The time in nanoseconds.
+	 */
+	public long getBlockedNanos()
+	{
+		return m_blockedNanos;
+	}
+
+	/**
+	 * Converts the ring's statistics to a string.
+	 * @return A string describing the occupancy and blocking of the ring.
+	 */
+	public String toString()
+	{
+		return String.format("%d/%d KiB peak occupancy, blocked %d times for %d ms",
+			m_peakOccupancy / 1024, m_buffer.length / 1024, m_blockedCount,
+			m_blockedNanos / 1000000);
+	}
+
+	/**
+	 * Parks the producer until the consumer has read from the ring or closed it.
+	 * @param writePosition The producer's write position.
+	 * @throws InterruptedIOException If the thread is interrupted.
+	 */
+	private void awaitSpace(long writePosition) throws InterruptedIOException
+	{
+		long start = System.nanoTime();
+		m_waitingProducer = Thread.currentThread();
+		try
+		{
+			// The read position is checked after publishing m_waitingProducer, so a read which
+			// frees space either is seen here or sees the waiting thread and unparks it
+			while (writePosition - m_readPosition.get() == m_buffer.length && !m_closed)
+			{
+				LockSupport.park(this);
+				if (Thread.interrupted())
+				{
+					throw new InterruptedIOException("Interrupted while writing GDB output");
+				}
+			}
+		}
+		finally
+		{
+			m_waitingProducer = null;
+			m_blockedCount = m_blockedCount + 1;
+			m_blockedNanos = m_blockedNanos + System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Parks the consumer until the producer has written to the ring or closed it.
+	 * @param readPosition The consumer's read position.
+	 * @return The number of bytes available; zero if the ring was closed and is empty.
+	 * @throws InterruptedIOException If the thread is interrupted.
+	 */
+	private int awaitData(long readPosition) throws InterruptedIOException
+	{
+		m_waitingConsumer = Thread.currentThread();
+		try
+		{
+			while (true)
+			{
+				// Check the closed flag first: the producer closes the ring after its last write,
+				// so if it is set the write position read afterwards is final
+				boolean closed = m_closed;
+				int available = (int) (m_writePosition.get() - readPosition);
+				if (available != 0 || closed)
+				{
+					return available;
+				}
+				LockSupport.park(this);
+				if (Thread.interrupted())
+				{
+					throw new InterruptedIOException("Interrupted while reading GDB output");
+				}
+			}
+		}
+		finally
+		{
+			m_waitingConsumer = null;
+		}
+	}
+}
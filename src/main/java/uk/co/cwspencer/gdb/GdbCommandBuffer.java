@@ -0,0 +1,124 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reusable buffer which the write thread encodes a batch of commands into, so the whole batch can
+ * be sent to GDB with one write. Tokens and commands are encoded straight into the buffer without
+ * building strings or looking up a character set.
+ */
+class GdbCommandBuffer
+{
+	// The encoded commands
+	private byte[] m_buffer;
+	private int m_length = 0;
+
+	/**
+	 * Constructor.
+	 * @param capacity The initial size of the buffer in bytes. It grows as needed.
+	 */
+	public GdbCommandBuffer(int capacity)
+	{
+		m_buffer = new byte[Math.max(capacity, 32)];
+	}
+
+	/**
+	 * Appends a command and its token, followed by a line break. Commands are ASCII; any other
+	 * character is sent as '?', as the US-ASCII character set would encode it.
+	 * @param token The token.
+	 * @param command The command.
+	 */
+	public void append(long token, String command)
+	{
+		// Up to 20 characters for the token, one byte per character of the command and two for
+		// the line break
+		ensureCapacity(m_length + 20 + command.length() + 2);
+
+		m_length = appendNumber(token);
+		for (int i = 0; i != command.length(); ++i)
+		{
+			char ch = command.charAt(i);
+			m_buffer[m_length++] = ch < 0x80 ? (byte) ch : (byte) '?';
+		}
+		m_buffer[m_length++] = '\r';
+		m_buffer[m_length++] = '\n';
+	}
+
+	/**
+	 * Returns the number of bytes in the buffer.
+	 * @return The number of bytes.
+	 */
+	public int size()
+	{
+		return m_length;
+	}
+
+	/**
+	 * Writes the buffer to the given stream and empties it.
+	 * @param stream The stream.
+	 */
+	public void writeTo(OutputStream stream) throws IOException
+	{
+		stream.write(m_buffer, 0, m_length);
+		m_length = 0;
+	}
+
+	/**
+	 * Returns a view of the contents of the buffer, which is only valid until the buffer is next
+	 * changed.
+	 * @return The contents.
+	 */
+	public ByteBuffer asByteBuffer()
+	{
+		return ByteBuffer.wrap(m_buffer, 0, m_length);
+	}
+
+	/**
+	 * Returns a copy of the contents of the buffer.
+	 * @return The contents.
+	 */
+	public byte[] toByteArray()
+	{
+		return Arrays.copyOf(m_buffer, m_length);
+	}
+
+	/**
+	 * Appends a non-negative decimal number.
+	 * @return The new length of the buffer.
+	 */
+	private int appendNumber(long value)
+	{
+		if (value < 0)
+		{
+			throw new IllegalArgumentException("Tokens must not be negative: " + value);
+		}
+
+		int digits = 1;
+		for (long limit = 10; digits != 19 && value >= limit; limit *= 10)
+		{
+			++digits;
+		}
+
+		int end = m_length + digits;
+		for (int i = end - 1; i >= m_length; --i)
+		{
+			m_buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return end;
+	}
+
+	/**
+	 * Grows the buffer so it can hold at least the given number of bytes.
+	 */
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity > m_buffer.length)
+		{
+			m_buffer = Arrays.copyOf(m_buffer, Math.max(capacity, m_buffer.length * 2));
+		}
+	}
+}
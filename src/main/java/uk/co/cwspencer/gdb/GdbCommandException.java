@@ -0,0 +1,60 @@
+package uk.co.cwspencer.gdb;
+
+import uk.co.cwspencer.gdb.messages.GdbErrorEvent;
+
+/**
+ * Exception which completes the future returned by Gdb.sendCommandAsync() when GDB reports an
+ * error for the command, responds with an event of the wrong type or exits before responding.
+ */
+public class GdbCommandException extends Exception
+{
+	private static final long serialVersionUID = 1L;
+
+	// The command
+	private final String m_command;
+
+	// The error reported by GDB, or null if GDB responded with an unexpected event
+	private final GdbErrorEvent m_error;
+
+	/**
+	 * Constructor for errors reported by GDB.
+	 * @param command The command.
+	 * @param error The error event.
+	 */
+	public GdbCommandException(String command, GdbErrorEvent error)
+	{
+		super(error.message);
+		m_command = command;
+		m_error = error;
+	}
+
+	/**
+	 * Constructor for unexpected responses and commands GDB did not answer.
+	 * @param command The command.
+	 * @param message Description of the problem.
+	 */
+	public GdbCommandException(String command, String message)
+	{
+		super(message);
+		m_command = command;
+		m_error = null;
+	}
+
+	/**
+	 * Returns the command which failed.
+	 * @return The command.
+	 */
+	public String getCommand()
+	{
+		return m_command;
+	}
+
+	/**
+	 * Returns the error reported by GDB.
+	 * @return The error event, or null if GDB responded with an unexpected event.
+	 */
+	public GdbErrorEvent getError()
+	{
+		return m_error;
+	}
+}
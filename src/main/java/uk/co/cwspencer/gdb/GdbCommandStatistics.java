@@ -0,0 +1,114 @@
+package uk.co.cwspencer.gdb;
+
+/**
+ * Summary of the time one phase of handling a type of command has taken. Times are in
+ * microseconds.
+ */
+public class GdbCommandStatistics
+{
+	// The type of command, e.g. "-var-update", or the type and class of an asynchronous record,
+	// e.g. "*stopped"
+	private final String m_commandType;
+
+	// The phase
+	private final String m_phase;
+
+	// Summary of the durations
+	private final long m_count;
+	private final double m_meanMicros;
+	private final double m_p50Micros;
+	private final double m_p90Micros;
+	private final double m_p99Micros;
+	private final double m_maxMicros;
+
+	/**
+	 * Constructor; takes a summary of the given histogram.
+	 * @param commandType The type of command.
+	 * @param phase The phase.
+	 * @param histogram The durations of the phase.
+	 */
+	public GdbCommandStatistics(String commandType, GdbMetrics.Phase phase,
+		GdbLatencyHistogram histogram)
+	{
+		m_commandType = commandType;
+		m_phase = phase.name();
+		m_count = histogram.getCount();
+		m_meanMicros = histogram.getMean() / 1000;
+		m_p50Micros = histogram.getPercentile(50) / 1000.0;
+		m_p90Micros = histogram.getPercentile(90) / 1000.0;
+		m_p99Micros = histogram.getPercentile(99) / 1000.0;
+		m_maxMicros = histogram.getMax() / 1000.0;
+	}
+
+	/**
+	 * Returns the type of command.
+	 * @return The type of command.
+	 */
+	public String getCommandType()
+	{
+		return m_commandType;
+	}
+
+	/**
+	 * Returns the name of the phase.
+	 * @return The phase.
+	 */
+	public String getPhase()
+	{
+		return m_phase;
+	}
+
+	/**
+	 * Returns the number of durations recorded.
+	 * @return The count.
+	 */
+	public long getCount()
+	{
+		return m_count;
+	}
+
+	/**
+	 * Returns the mean duration.
+	 * @return The mean in microseconds.
+	 */
+	public double getMeanMicros()
+	{
+		return m_meanMicros;
+	}
+
+	/**
+	 * Returns the median duration.
+	 * @return The median in microseconds.
+	 */
+	public double getP50Micros()
+	{
+		return m_p50Micros;
+	}
+
+	/**
+	 * Returns the 90th percentile duration.
+	 * @return The 90th percentile in microseconds.
+	 */
+	public double getP90Micros()
+	{
+		return m_p90Micros;
+	}
+
+	/**
+	 * Returns the 99th percentile duration.
+	 * @return The 99th percentile in microseconds.
+	 */
+	public double getP99Micros()
+	{
+		return m_p99Micros;
+	}
+
+	/**
+	 * Returns the longest duration.
+	 * @return The maximum in microseconds.
+	 */
+	public double getMaxMicros()
+	{
+		return m_maxMicros;
+	}
+}
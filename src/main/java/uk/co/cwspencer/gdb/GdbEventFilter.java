@@ -0,0 +1,29 @@
+package uk.co.cwspencer.gdb;
+
+import uk.co.cwspencer.gdb.messages.GdbEvent;
+
+/**
+ * Interface that listeners may also implement to choose which events they receive. Records for
+ * events a listener does not want are not converted at all unless a command callback is waiting
+ * for them. Listeners which do not implement this interface receive every event fully converted.
+ */
+public interface GdbEventFilter
+{
+	/**
+	 * How events of a given type are passed to the listener.
+	 */
+	enum Delivery
+	{
+		Skip,  // The event is not passed to the listener
+		Lazy,  // A GdbLazyEvent is passed to the listener, which converts it if it needs to
+		Eager  // The converted event is passed to the listener
+	}
+
+	/**
+	 * Returns how the listener wants to receive events of the given type. This is called once for
+	 * each type, so the answer must not change.
+	 * @param eventType The type of event.
+	 * @return How events of the type are delivered.
+	 */
+	Delivery getDelivery(Class<? extends GdbEvent> eventType);
+}
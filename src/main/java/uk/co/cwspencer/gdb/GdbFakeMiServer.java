@@ -0,0 +1,297 @@
+package uk.co.cwspencer.gdb;
+
+import uk.co.cwspencer.gdb.gdbmi.GdbMiUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory transport which stands in for GDB and answers commands from scripted handlers, for
+ * tests and load tests of everything above the transport. Commands are handled as soon as Gdb
+ * writes them, on Gdb's write thread, and the responses are passed to Gdb's read thread through
+ * a ring, so no process or pipe is involved.
+ *
+ * Handlers are chosen by the first word of the command. Commands without a handler get the error
+ * GDB gives for unknown MI commands, except -list-features, which GDB needs at startup and which
+ * reports no features unless it is given a handler.
+ */
+public class GdbFakeMiServer implements GdbTransport
+{
+	/**
+	 * Handler which answers a type of command.
+	 */
+	public interface Handler
+	{
+		/**
+		 * Handles a command. Called on Gdb's write thread, so it should be quick.
+		 * @param server The server, which the handler may use to emit other records.
+		 * @param command The command, without its token.
+		 * @return The result record to respond with, without the token and '^', e.g.
+		 * "done,value=\"1\"", or null to not respond.
+		 */
+		public String handle(GdbFakeMiServer server, String command);
+	}
+
+	// Handle to the US-ASCII character set
+	private static final Charset m_ascii = Charset.forName("US-ASCII");
+
+	// Size of the ring the output is passed to Gdb through
+	private static final int RING_CAPACITY = 1024 * 1024;
+
+	// The prompt which follows each response
+	private static final String PROMPT = "(gdb) \r\n";
+
+	// Handlers by command type
+	private final Map<String, Handler> m_handlers = new ConcurrentHashMap<String, Handler>();
+
+	// Output for Gdb to read. Written under m_outputLock, since records may be emitted by any
+	// thread
+	private final GdbByteRing m_output = new GdbByteRing(RING_CAPACITY);
+	private final Object m_outputLock = new Object();
+
+	// The line Gdb is writing. Only used by Gdb's write thread
+	private final StringBuilder m_commandLine = new StringBuilder();
+
+	// Response being built. Only used under m_outputLock
+	private final StringBuilder m_response = new StringBuilder();
+
+	// Number of commands handled
+	private final AtomicLong m_commandCount = new AtomicLong();
+
+	// Whether the server has been closed
+	private volatile boolean m_closed = false;
+
+	/**
+	 * Constructor.
+	 */
+	public GdbFakeMiServer()
+	{
+		setResponse("-list-features", "done,features=[]");
+	}
+
+	/**
+	 * Sets the handler for a type of command.
+	 * @param commandType The first word of the command, e.g. "-var-update".
+	 * @param handler The handler.
+	 */
+	public void setHandler(String commandType, Handler handler)
+	{
+		m_handlers.put(commandType, handler);
+	}
+
+	/**
+	 * Makes a type of command always get the same response.
+	 * @param commandType The first word of the command, e.g. "-var-update".
+	 * @param response The result record to respond with, without the token and '^', e.g.
+	 * "done,changelist=[]".
+	 */
+	public void setResponse(String commandType, final String response)
+	{
+		setHandler(commandType, new Handler()
+			{
+				@Override
+				public String handle(GdbFakeMiServer server, String command)
+				{
+					return response;
+				}
+			});
+	}
+
+	/**
+	 * Sends a record to Gdb as if GDB had written it, e.g. "*stopped,reason=\"exited\"". May be
+	 * called from any thread, including by handlers.
+	 * @param record The record, without a line break.
+	 */
+	public void emit(String record) throws IOException
+	{
+		synchronized (m_outputLock)
+		{
+			m_response.setLength(0);
+			m_response.append(record);
+			m_response.append("\r\n");
+			writeResponse();
+		}
+	}
+
+	/**
+	 * Returns the number of commands which have been handled.
+	 * @return The number of commands.
+	 */
+	public long getCommandCount()
+	{
+		return m_commandCount.get();
+	}
+
+	@Override
+	public void open() throws IOException
+	{
+		emit("=thread-group-added,id=\"i1\"");
+		synchronized (m_outputLock)
+		{
+			m_response.setLength(0);
+			m_response.append(PROMPT);
+			writeResponse();
+		}
+	}
+
+	@Override
+	public InputStream getInputStream()
+	{
+		return new InputStream()
+			{
+				@Override
+				public int read() throws IOException
+				{
+					byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException
+				{
+					return len == 0 ? 0 : m_output.read(b, off, len);
+				}
+
+				@Override
+				public void close()
+				{
+					GdbFakeMiServer.this.close();
+				}
+			};
+	}
+
+	@Override
+	public OutputStream getOutputStream()
+	{
+		return new OutputStream()
+			{
+				@Override
+				public void write(int b) throws IOException
+				{
+					onInput((byte) b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException
+				{
+					for (int i = off; i != off + len; ++i)
+					{
+						onInput(b[i]);
+					}
+				}
+			};
+	}
+
+	@Override
+	public InputStream getErrorStream()
+	{
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	public void close()
+	{
+		m_closed = true;
+		m_output.close();
+	}
+
+	/**
+	 * Collects a byte written by Gdb into a line, and handles the line once it is complete.
+	 * @param b The byte.
+	 */
+	private void onInput(byte b) throws IOException
+	{
+		if (m_closed)
+		{
+			throw new IOException("The fake GDB/MI server has been closed");
+		}
+
+		if (b == '\n')
+		{
+			int length = m_commandLine.length();
+			if (length != 0 && m_commandLine.charAt(length - 1) == '\r')
+			{
+				m_commandLine.setLength(length - 1);
+			}
+			handleCommand(m_commandLine);
+			m_commandLine.setLength(0);
+		}
+		else
+		{
+			m_commandLine.append((char) (b & 0xff));
+		}
+	}
+
+	/**
+	 * Handles a command and writes the response.
+	 * @param line The line Gdb wrote: a token followed by the command.
+	 */
+	private void handleCommand(CharSequence line) throws IOException
+	{
+		int tokenEnd = 0;
+		while (tokenEnd != line.length() && Character.isDigit(line.charAt(tokenEnd)))
+		{
+			++tokenEnd;
+		}
+		String command = line.subSequence(tokenEnd, line.length()).toString();
+		int separatorIndex = command.indexOf(' ');
+		String commandType = separatorIndex == -1 ? command :
+			command.substring(0, separatorIndex);
+		m_commandCount.incrementAndGet();
+
+		String result;
+		Handler handler = m_handlers.get(commandType);
+		if (handler == null)
+		{
+			result = "error,msg=" + GdbMiUtil.formatGdbString("Undefined MI command: " +
+				commandType.substring(commandType.startsWith("-") ? 1 : 0)) +
+				",code=\"undefined-command\"";
+		}
+		else
+		{
+			try
+			{
+				result = handler.handle(this, command);
+			}
+			catch (RuntimeException ex)
+			{
+				result = "error,msg=" +
+					GdbMiUtil.formatGdbString("Fake GDB/MI handler failed: " + ex);
+			}
+		}
+		if (result == null)
+		{
+			return;
+		}
+
+		synchronized (m_outputLock)
+		{
+			m_response.setLength(0);
+			m_response.append(line, 0, tokenEnd);
+			m_response.append('^');
+			m_response.append(result);
+			m_response.append("\r\n");
+			m_response.append(PROMPT);
+			writeResponse();
+		}
+	}
+
+	/**
+	 * Writes the response which has been built to the output. Must be called under m_outputLock.
+	 */
+	private void writeResponse() throws IOException
+	{
+		ByteBuffer bytes = m_ascii.encode(m_response.toString());
+		if (!m_output.write(bytes))
+		{
+			throw new IOException("Gdb has stopped reading from the fake GDB/MI server");
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package uk.co.cwspencer.gdb;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds. Buckets are spaced logarithmically with eight linear
+ * sub-buckets per power of two, so any duration is counted to within 12.5% in a fixed 4 KB of
+ * counters. Recording is a few atomic increments with no locking or allocation, so it can be done
+ * for every command on the I/O threads. Readers see a live view which may be slightly behind
+ * concurrent writers.
+ */
+public class GdbLatencyHistogram
+{
+	// Number of bits of precision within each power of two
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	// Enough buckets for any non-negative long
+	private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+	// Number of durations in each bucket
+	private final AtomicLongArray m_counts = new AtomicLongArray(BUCKET_COUNT);
+
+	// Summary values
+	private final AtomicLong m_count = new AtomicLong();
+	private final AtomicLong m_total = new AtomicLong();
+	private final AtomicLong m_max = new AtomicLong();
+
+	/**
+	 * Records a duration. Negative durations are counted as zero.
+	 * @param nanos The duration in nanoseconds.
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+		{
+			nanos = 0;
+		}
+
+		m_counts.incrementAndGet(bucketOf(nanos));
+		m_count.incrementAndGet();
+		m_total.addAndGet(nanos);
+
+		long max = m_max.get();
+		while (nanos > max && !m_max.compareAndSet(max, nanos))
+		{
+			max = m_max.get();
+		}
+	}
+
+	/**
+	 * Returns the number of durations recorded.
+	 * @return The count.
+	 */
+	public long getCount()
+	{
+		return m_count.get();
+	}
+
+	/**
+	 * Returns the sum of the durations recorded.
+	 * @return The total in nanoseconds.
+	 */
+	public long getTotal()
+	{
+		return m_total.get();
+	}
+
+	/**
+	 * Returns the longest duration recorded.
+	 * @return The maximum in nanoseconds, or zero if nothing has been recorded.
+	 */
+	public long getMax()
+	{
+		return m_max.get();
+	}
+
+	/**
+	 * Returns the mean duration.
+	 * @return The mean in nanoseconds, or zero if nothing has been recorded.
+	 */
+	public double getMean()
+	{
+		long count = m_count.get();
+		return count == 0 ? 0 : (double) m_total.get() / count;
+	}
+
+	/**
+	 * Returns the duration which the given percentage of recorded durations do not exceed.
+	 * @param percentile The percentile, from 0 to 100.
+	 * @return The duration in nanoseconds, accurate to within 12.5%, or zero if nothing has been
+	 * recorded.
+	 */
+	public long getPercentile(double percentile)
+	{
+		if (percentile < 0 || percentile > 100)
+		{
+			throw new IllegalArgumentException("Invalid percentile: " + percentile);
+		}
+
+		long count = 0;
+		for (int i = 0; i != BUCKET_COUNT; ++i)
+		{
+			count += m_counts.get(i);
+		}
+		if (count == 0)
+		{
+			return 0;
+		}
+
+		long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i != BUCKET_COUNT; ++i)
+		{
+			seen += m_counts.get(i);
+			if (seen >= target)
+			{
+				return Math.min(highestValueOf(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Clears the histogram. Durations recorded while it is being cleared may be partly lost.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i != BUCKET_COUNT; ++i)
+		{
+			m_counts.set(i, 0);
+		}
+		m_count.set(0);
+		m_total.set(0);
+		m_max.set(0);
+	}
+
+	/**
+	 * Returns the bucket which counts the given duration.
+	 */
+	static int bucketOf(long nanos)
+	{
+		if (nanos < SUB_BUCKET_COUNT)
+		{
+			return (int) nanos;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) ((nanos >>> shift) & (SUB_BUCKET_COUNT - 1));
+	}
+
+	/**
+	 * Returns the highest duration counted by the given bucket.
+	 */
+	static long highestValueOf(int bucket)
+	{
+		if (bucket < SUB_BUCKET_COUNT)
+		{
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKET_COUNT - 1;
+		long lowest = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
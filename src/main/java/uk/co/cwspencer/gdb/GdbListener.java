@@ -6,6 +6,10 @@ import uk.co.cwspencer.gdb.gdbmi.GdbMiStreamRecord;
 
 /**
  * Interface that users of the Gdb class must implement to receive events.
+ *
+ * Methods are called by the callback executor given to Gdb, one at a time and in the order the
+ * events occurred, together with command callbacks. They are never called on the threads which
+ * read from or write to GDB, so slow listeners do not hold up GDB's output.
  */
 public interface GdbListener
 {
@@ -28,7 +32,9 @@ public interface GdbListener
 	void onGdbCommandSent(String command, long token);
 
 	/**
-	 * Called when an event is received from GDB.
+	 * Called when an event is received from GDB. Listeners which implement GdbEventFilter only
+	 * receive the events they ask for, and receive a GdbLazyEvent for types they want delivered
+	 * lazily.
 	 * @param event The event.
 	 */
 	void onGdbEventReceived(GdbEvent event);
@@ -36,7 +42,8 @@ public interface GdbListener
 	/**
 	 * Called when a stream record is received.
 	 * This should only be used for logging or advanced behaviour. Prefer to use
-	 * onGdbEventReceived() instead.
+	 * onGdbEventReceived() instead. Anything GDB writes to stderr is also reported here as log
+	 * records.
 	 * @param record The record.
 	 */
 	void onStreamRecordReceived(GdbMiStreamRecord record);
@@ -44,7 +51,8 @@ public interface GdbListener
 	/**
 	 * Called when a result record is received.
 	 * This should only be used for logging or advanced behaviour. Prefer to use
-	 * onGdbEventReceived() instead.
+	 * onGdbEventReceived() instead. The record's values are recycled once this returns, so
+	 * implementations must not keep references to the record or anything reached through it.
 	 * @param record The record.
 	 */
 	void onResultRecordReceived(GdbMiResultRecord record);
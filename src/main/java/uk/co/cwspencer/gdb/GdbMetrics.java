@@ -0,0 +1,332 @@
+package uk.co.cwspencer.gdb;
+
+import com.intellij.openapi.diagnostic.Logger;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiRecord;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timing and throughput metrics of a Gdb instance. The time each phase of handling a command
+ * takes is recorded in a histogram for each type of command, and for each class of asynchronous
+ * record which arrives without a command.
+ */
+public class GdbMetrics implements GdbMetricsMXBean
+{
+	private static final Logger m_log = Logger.getInstance("#uk.co.cwspencer.gdb.GdbMetrics");
+
+	/**
+	 * Phases of handling a command.
+	 */
+	public enum Phase
+	{
+		QueueWait,  // From sendCommand() until the write thread takes it
+		Write,      // Encoding, writing and flushing the batch the command was sent in
+		RoundTrip,  // From the start of the batch until the output with the response is read
+		Parse,      // Parsing the response, shared equally between the records of a read
+		Dispatch,   // Waiting for the callback executor to handle the response
+		Convert,    // Converting the response to an event
+		Callback    // Running the command callback
+	}
+
+	// Prefix of each type of asynchronous record
+	private static final Map<GdbMiRecord.Type, String> m_recordPrefixes =
+		new EnumMap<GdbMiRecord.Type, String>(GdbMiRecord.Type.class);
+	static
+	{
+		m_recordPrefixes.put(GdbMiRecord.Type.Immediate, "^");
+		m_recordPrefixes.put(GdbMiRecord.Type.Exec, "*");
+		m_recordPrefixes.put(GdbMiRecord.Type.Status, "+");
+		m_recordPrefixes.put(GdbMiRecord.Type.Notify, "=");
+	}
+
+	// Number used to name the next instance registered with JMX
+	private static final AtomicInteger m_nextId = new AtomicInteger(1);
+
+	// Histograms of each phase of each type of command, indexed by phase
+	private final ConcurrentHashMap<String, GdbLatencyHistogram[]> m_commandTypes =
+		new ConcurrentHashMap<String, GdbLatencyHistogram[]>();
+
+	// Histograms for asynchronous records, by record type and class name
+	private final Map<GdbMiRecord.Type, ConcurrentHashMap<String, GdbLatencyHistogram[]>>
+		m_recordTypes =
+		new EnumMap<GdbMiRecord.Type, ConcurrentHashMap<String, GdbLatencyHistogram[]>>(
+			GdbMiRecord.Type.class);
+
+	// Throughput counters
+	private final AtomicLong m_commandsSent = new AtomicLong();
+	private final AtomicLong m_bytesRead = new AtomicLong();
+	private final AtomicLong m_recordsRead = new AtomicLong();
+
+	// Time at which the metrics were started or last reset
+	private volatile long m_startTime = System.nanoTime();
+
+	// Name the metrics are registered with JMX under, or null if they are not registered
+	private ObjectName m_objectName;
+
+	/**
+	 * Constructor.
+	 */
+	public GdbMetrics()
+	{
+		for (GdbMiRecord.Type type : m_recordPrefixes.keySet())
+		{
+			m_recordTypes.put(type, new ConcurrentHashMap<String, GdbLatencyHistogram[]>());
+		}
+	}
+
+	/**
+	 * Returns the histograms for a type of command, creating them if this is the first command of
+	 * the type.
+	 * @param commandType The type of command.
+	 * @return The histograms, indexed by phase.
+	 */
+	GdbLatencyHistogram[] getCommandHistograms(String commandType)
+	{
+		GdbLatencyHistogram[] histograms = m_commandTypes.get(commandType);
+		if (histograms == null)
+		{
+			histograms = createHistograms();
+			GdbLatencyHistogram[] existing = m_commandTypes.putIfAbsent(commandType, histograms);
+			if (existing != null)
+			{
+				histograms = existing;
+			}
+		}
+		return histograms;
+	}
+
+	/**
+	 * Returns the histograms for a class of asynchronous record, creating them if this is the
+	 * first record of the class.
+	 * @param type The type of record. This must be a result record type.
+	 * @param className The class of the record.
+	 * @return The histograms, indexed by phase.
+	 */
+	GdbLatencyHistogram[] getRecordHistograms(GdbMiRecord.Type type, String className)
+	{
+		ConcurrentHashMap<String, GdbLatencyHistogram[]> classes = m_recordTypes.get(type);
+		GdbLatencyHistogram[] histograms = classes.get(className);
+		if (histograms == null)
+		{
+			histograms = createHistograms();
+			GdbLatencyHistogram[] existing = classes.putIfAbsent(className, histograms);
+			if (existing != null)
+			{
+				histograms = existing;
+			}
+		}
+		return histograms;
+	}
+
+	/**
+	 * Returns the name of a class of asynchronous record as it appears in GDB's output, e.g.
+	 * "*stopped".
+	 * @param type The type of record. This must be a result record type.
+	 * @param className The class of the record.
+	 * @return The name.
+	 */
+	static String getRecordName(GdbMiRecord.Type type, String className)
+	{
+		return m_recordPrefixes.get(type) + className;
+	}
+
+	/**
+	 * Counts a command which has been sent.
+	 */
+	void onCommandSent()
+	{
+		m_commandsSent.incrementAndGet();
+	}
+
+	/**
+	 * Counts output which has been read and parsed.
+	 * @param bytes The number of bytes.
+	 * @param records The number of records parsed from them.
+	 */
+	void onOutputRead(int bytes, int records)
+	{
+		m_bytesRead.addAndGet(bytes);
+		m_recordsRead.addAndGet(records);
+	}
+
+	@Override
+	public double getElapsedSeconds()
+	{
+		return (System.nanoTime() - m_startTime) / 1e9;
+	}
+
+	@Override
+	public long getCommandsSent()
+	{
+		return m_commandsSent.get();
+	}
+
+	@Override
+	public long getBytesRead()
+	{
+		return m_bytesRead.get();
+	}
+
+	@Override
+	public long getRecordsRead()
+	{
+		return m_recordsRead.get();
+	}
+
+	@Override
+	public double getBytesReadPerSecond()
+	{
+		return m_bytesRead.get() / getElapsedSeconds();
+	}
+
+	@Override
+	public double getRecordsPerSecond()
+	{
+		return m_recordsRead.get() / getElapsedSeconds();
+	}
+
+	@Override
+	public List<GdbCommandStatistics> getCommandStatistics()
+	{
+		List<GdbCommandStatistics> statistics = new ArrayList<GdbCommandStatistics>();
+		for (Map.Entry<String, GdbLatencyHistogram[]> entry : getAllHistograms().entrySet())
+		{
+			for (Phase phase : Phase.values())
+			{
+				GdbLatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+				if (histogram.getCount() != 0)
+				{
+					statistics.add(new GdbCommandStatistics(entry.getKey(), phase, histogram));
+				}
+			}
+		}
+		return statistics;
+	}
+
+	@Override
+	public String getReport()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.ROOT,
+			"GDB metrics over %.1f s: %d commands sent, %d records (%.1f/s), %d bytes (%.1f/s) " +
+				"read\n",
+			getElapsedSeconds(), getCommandsSent(), getRecordsRead(), getRecordsPerSecond(),
+			getBytesRead(), getBytesReadPerSecond()));
+		sb.append(String.format(Locale.ROOT, "%-28s %-10s %9s %10s %10s %10s %10s %10s\n",
+			"Command", "Phase", "Count", "Mean (us)", "p50 (us)", "p90 (us)", "p99 (us)",
+			"Max (us)"));
+		for (GdbCommandStatistics statistics : getCommandStatistics())
+		{
+			sb.append(String.format(Locale.ROOT,
+				"%-28s %-10s %9d %10.1f %10.1f %10.1f %10.1f %10.1f\n",
+				statistics.getCommandType(), statistics.getPhase(), statistics.getCount(),
+				statistics.getMeanMicros(), statistics.getP50Micros(), statistics.getP90Micros(),
+				statistics.getP99Micros(), statistics.getMaxMicros()));
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public void reset()
+	{
+		for (GdbLatencyHistogram[] histograms : getAllHistograms().values())
+		{
+			for (GdbLatencyHistogram histogram : histograms)
+			{
+				histogram.reset();
+			}
+		}
+		m_commandsSent.set(0);
+		m_bytesRead.set(0);
+		m_recordsRead.set(0);
+		m_startTime = System.nanoTime();
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server. Failures are logged and otherwise
+	 * ignored.
+	 */
+	synchronized void register()
+	{
+		if (m_objectName != null)
+		{
+			return;
+		}
+
+		try
+		{
+			ObjectName name = new ObjectName("uk.co.cwspencer.gdb:type=Gdb,id=" +
+				m_nextId.getAndIncrement());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			m_objectName = name;
+		}
+		catch (Exception ex)
+		{
+			m_log.warn("Failed to register GDB metrics with JMX", ex);
+		}
+	}
+
+	/**
+	 * Unregisters the metrics from the platform MBean server, if they are registered.
+	 */
+	synchronized void unregister()
+	{
+		if (m_objectName == null)
+		{
+			return;
+		}
+
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.unregisterMBean(m_objectName);
+		}
+		catch (Exception ex)
+		{
+			m_log.warn("Failed to unregister GDB metrics from JMX", ex);
+		}
+		m_objectName = null;
+	}
+
+	/**
+	 * Returns the histograms of every command type and record class, sorted by name.
+	 */
+	private Map<String, GdbLatencyHistogram[]> getAllHistograms()
+	{
+		Map<String, GdbLatencyHistogram[]> histograms =
+			new TreeMap<String, GdbLatencyHistogram[]>(m_commandTypes);
+		for (Map.Entry<GdbMiRecord.Type, ConcurrentHashMap<String, GdbLatencyHistogram[]>> type :
+			m_recordTypes.entrySet())
+		{
+			for (Map.Entry<String, GdbLatencyHistogram[]> entry : type.getValue().entrySet())
+			{
+				histograms.put(getRecordName(type.getKey(), entry.getKey()), entry.getValue());
+			}
+		}
+		return histograms;
+	}
+
+	/**
+	 * Creates a histogram for each phase.
+	 */
+	private static GdbLatencyHistogram[] createHistograms()
+	{
+		GdbLatencyHistogram[] histograms = new GdbLatencyHistogram[Phase.values().length];
+		for (int i = 0; i != histograms.length; ++i)
+		{
+			histograms[i] = new GdbLatencyHistogram();
+		}
+		return histograms;
+	}
+}
@@ -0,0 +1,63 @@
+package uk.co.cwspencer.gdb;
+
+import java.util.List;
+
+/**
+ * JMX interface to the metrics of a Gdb instance. Each running instance is registered with the
+ * platform MBean server as uk.co.cwspencer.gdb:type=Gdb,id=N.
+ */
+public interface GdbMetricsMXBean
+{
+	/**
+	 * Returns the number of seconds since the metrics were started or last reset.
+	 * @return The number of seconds.
+	 */
+	double getElapsedSeconds();
+
+	/**
+	 * Returns the number of commands sent to GDB.
+	 * @return The number of commands.
+	 */
+	long getCommandsSent();
+
+	/**
+	 * Returns the number of bytes of output read from GDB.
+	 * @return The number of bytes.
+	 */
+	long getBytesRead();
+
+	/**
+	 * Returns the number of GDB/MI records parsed.
+	 * @return The number of records.
+	 */
+	long getRecordsRead();
+
+	/**
+	 * Returns the average number of bytes of output read from GDB per second.
+	 * @return The rate.
+	 */
+	double getBytesReadPerSecond();
+
+	/**
+	 * Returns the average number of GDB/MI records parsed per second.
+	 * @return The rate.
+	 */
+	double getRecordsPerSecond();
+
+	/**
+	 * Returns a summary of each phase of each type of command which has been seen.
+	 * @return The statistics.
+	 */
+	List<GdbCommandStatistics> getCommandStatistics();
+
+	/**
+	 * Returns the metrics formatted as a table.
+	 * @return The report.
+	 */
+	String getReport();
+
+	/**
+	 * Clears the metrics.
+	 */
+	void reset();
+}
@@ -0,0 +1,176 @@
+package uk.co.cwspencer.gdb;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Unbounded multi-producer, single-consumer queue which hands commands from the threads sending
+ * them to the thread writing them to GDB. Producers never take a lock or wait: each one swaps
+ * itself onto the tail with a single atomic operation and then links the previous tail to it. The
+ * consumer parks when the queue is empty until a producer wakes it.
+ *
+ * A producer which has swapped the tail but not yet linked its node makes the queue look empty to
+ * poll() for a moment; take() spins until the link appears rather than parking.
+ */
+class GdbMpscQueue<T>
+{
+	/**
+	 * Node of the queue.
+	 */
+	private static class Node<T>
+	{
+		// The item, or null once it has been taken
+		T value;
+
+		// The next node, or null if this is the tail or its producer has not linked it yet
+		volatile Node<T> next;
+
+		Node(T value)
+		{
+			this.value = value;
+		}
+	}
+
+	// The last node. Swapped by producers
+	private final AtomicReference<Node<T>> m_tail;
+
+	// The node before the first item. Only used by the consumer
+	private Node<T> m_head;
+
+	// The consumer, if it is parked waiting for an item, or null
+	private volatile Thread m_waitingConsumer;
+
+	// Whether the queue has been closed
+	private volatile boolean m_closed = false;
+
+	/**
+	 * Constructor.
+	 */
+	public GdbMpscQueue()
+	{
+		Node<T> stub = new Node<T>(null);
+		m_head = stub;
+		m_tail = new AtomicReference<Node<T>>(stub);
+	}
+
+	/**
+	 * Adds an item to the queue. May be called by any thread.
+	 * @param item The item.
+	 * @return Whether the item was added; false if the queue has been closed.
+	 */
+	public boolean offer(T item)
+	{
+		if (m_closed)
+		{
+			return false;
+		}
+
+		Node<T> node = new Node<T>(item);
+		Node<T> previous = m_tail.getAndSet(node);
+		previous.next = node;
+
+		// The swap above is ordered before this read, and the consumer sets m_waitingConsumer
+		// before re-checking the tail, so one side always sees the other
+		Thread consumer = m_waitingConsumer;
+		if (consumer != null)
+		{
+			LockSupport.unpark(consumer);
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the next item without waiting. Must only be called by the consumer.
+	 * @return The item, or null if there is no item ready.
+	 */
+	public T poll()
+	{
+		Node<T> next = m_head.next;
+		if (next == null)
+		{
+			return null;
+		}
+
+		T item = next.value;
+		next.value = null;
+		m_head = next;
+		return item;
+	}
+
+	/**
+	 * Checks whether the queue is empty, counting items whose producers have not finished adding
+	 * them. Must only be called by the consumer.
+	 * @return Whether the queue is empty.
+	 */
+	public boolean isEmpty()
+	{
+		return m_tail.get() == m_head;
+	}
+
+	/**
+	 * Checks whether the queue has been closed. A producer which sees the queue open in offer()
+	 * may add its item after the consumer has stopped, so a producer must check this after a
+	 * successful offer() to find out whether the item will be taken. May be called by any thread.
+	 * @return Whether the queue has been closed.
+	 */
+	public boolean isClosed()
+	{
+		return m_closed;
+	}
+
+	/**
+	 * Takes the next item, waiting for one if the queue is empty. Must only be called by the
+	 * consumer.
+	 * @return The item, or null if the queue is empty and has been closed.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public T take() throws InterruptedException
+	{
+		while (true)
+		{
+			T item = poll();
+			if (item != null)
+			{
+				return item;
+			}
+
+			if (m_tail.get() != m_head)
+			{
+				// A producer is between swapping the tail and linking its node
+				Thread.yield();
+				continue;
+			}
+
+			if (m_closed)
+			{
+				return null;
+			}
+
+			m_waitingConsumer = Thread.currentThread();
+			if (m_tail.get() == m_head && !m_closed)
+			{
+				LockSupport.park(this);
+			}
+			m_waitingConsumer = null;
+
+			if (Thread.interrupted())
+			{
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * Closes the queue. Later items are rejected, and the consumer is woken once it has taken the
+	 * items which are already queued. May be called by any thread.
+	 */
+	public void close()
+	{
+		m_closed = true;
+		Thread consumer = m_waitingConsumer;
+		if (consumer != null)
+		{
+			LockSupport.unpark(consumer);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads output from GDB into a buffer whose size follows the size of the bursts GDB writes. When
+ * a read fills the buffer the buffer is doubled, so large dumps are handled in a few big reads
+ * rather than many small ones; when reads have been small for a while it is halved again so an
+ * idle session does not hold on to a large buffer.
+ */
+class GdbOutputReader
+{
+	// Default buffer sizes
+	static final int DEFAULT_MIN_CAPACITY = 4096;
+	static final int DEFAULT_MAX_CAPACITY = 1024 * 1024;
+
+	// Number of consecutive reads which must use less than a quarter of the buffer before it is
+	// shrunk
+	static final int SHRINK_AFTER_READS = 32;
+
+	// The channel to read from
+	private final ReadableByteChannel m_channel;
+
+	// Limits on the size of the buffer
+	private final int m_minCapacity;
+	private final int m_maxCapacity;
+
+	// The buffer
+	private ByteBuffer m_buffer;
+
+	// Number of bytes returned by the last read
+	private int m_lastRead = 0;
+
+	// Number of consecutive reads which used less than a quarter of the buffer
+	private int m_smallReads = 0;
+
+	/**
+	 * Constructor; uses the default buffer sizes.
+	 * @param stream The stream to read from.
+	 */
+	public GdbOutputReader(InputStream stream)
+	{
+		this(Channels.newChannel(stream), DEFAULT_MIN_CAPACITY, DEFAULT_MAX_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 * @param channel The channel to read from.
+	 * @param minCapacity The initial and minimum size of the buffer.
+	 * @param maxCapacity The maximum size of the buffer.
+	 */
+	public GdbOutputReader(ReadableByteChannel channel, int minCapacity, int maxCapacity)
+	{
+		m_channel = channel;
+		m_minCapacity = minCapacity;
+		m_maxCapacity = maxCapacity;
+		m_buffer = ByteBuffer.allocate(minCapacity);
+	}
+
+	/**
+	 * Returns the current size of the buffer.
+	 * @return The capacity of the buffer.
+	 */
+	public int getCapacity()
+	{
+		return m_buffer.capacity();
+	}
+
+	/**
+	 * Reads the next burst of output, blocking until some is available. The returned buffer is
+	 * reused, so its contents are only valid until the next call.
+	 * @return A buffer whose remaining bytes are the data read, or null at the end of the stream.
+	 * @throws IOException If the read fails.
+	 */
+	public ByteBuffer read() throws IOException
+	{
+		// Resize based on the previous read
+		if (m_lastRead != 0)
+		{
+			adapt(m_lastRead);
+		}
+
+		m_buffer.clear();
+		int bytes;
+		do
+		{
+			bytes = m_channel.read(m_buffer);
+		}
+		while (bytes == 0);
+
+		if (bytes == -1)
+		{
+			m_lastRead = 0;
+			return null;
+		}
+		m_lastRead = bytes;
+		m_buffer.flip();
+		return m_buffer;
+	}
+
+	/**
+	 * Adjusts the size of the buffer after a read.
+	 * @param bytesRead The number of bytes the read returned.
+	 */
+	private void adapt(int bytesRead)
+	{
+		int capacity = m_buffer.capacity();
+		if (bytesRead == capacity && capacity < m_maxCapacity)
+		{
+			m_buffer = ByteBuffer.allocate(Math.min(capacity * 2, m_maxCapacity));
+			m_smallReads = 0;
+		}
+		else if (bytesRead < capacity / 4 && capacity > m_minCapacity)
+		{
+			if (++m_smallReads == SHRINK_AFTER_READS)
+			{
+				m_buffer = ByteBuffer.allocate(Math.max(capacity / 2, m_minCapacity));
+				m_smallReads = 0;
+			}
+		}
+		else
+		{
+			m_smallReads = 0;
+		}
+	}
+}
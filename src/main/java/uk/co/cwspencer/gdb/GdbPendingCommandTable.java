@@ -0,0 +1,154 @@
+package uk.co.cwspencer.gdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Table of commands which have been sent to GDB and are awaiting a response, indexed by token.
+ * Tokens are allocated in increasing order and responses arrive roughly in the order commands
+ * were sent, so each entry goes in the slot of a ring given by its token modulo the capacity.
+ * Insertion and removal are a single compare-and-set with no locking and no boxing of tokens.
+ *
+ * An entry whose slot is still held by an older command, because more commands are outstanding
+ * than the ring holds or a command never received a response, goes in an overflow map instead.
+ */
+class GdbPendingCommandTable<T extends GdbPendingCommandTable.Entry>
+{
+	/**
+	 * Interface for entries of the table.
+	 */
+	interface Entry
+	{
+		/**
+		 * Returns the token of the command.
+		 * @return The token.
+		 */
+		long getToken();
+	}
+
+	// The ring of entries
+	private final AtomicReferenceArray<T> m_slots;
+	private final int m_mask;
+
+	// Entries whose slots were taken. Only looked at while it is not empty
+	private final ConcurrentHashMap<Long, T> m_overflow = new ConcurrentHashMap<Long, T>();
+	private final AtomicInteger m_overflowCount = new AtomicInteger();
+
+	/**
+	 * Constructor.
+	 * @param capacity The number of slots in the ring. This is rounded up to a power of two.
+	 */
+	public GdbPendingCommandTable(int capacity)
+	{
+		if (capacity <= 0 || capacity > (1 << 30))
+		{
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size != capacity)
+		{
+			size <<= 1;
+		}
+		m_slots = new AtomicReferenceArray<T>(size);
+		m_mask = size - 1;
+	}
+
+	/**
+	 * Returns the number of slots in the ring.
+	 * @return The capacity.
+	 */
+	public int getCapacity()
+	{
+		return m_mask + 1;
+	}
+
+	/**
+	 * Adds an entry. There must not be another entry with the same token. May be called by any
+	 * thread.
+	 * @param entry The entry.
+	 */
+	public void put(T entry)
+	{
+		long token = entry.getToken();
+		if (!m_slots.compareAndSet(slot(token), null, entry))
+		{
+			// Count first so a concurrent remove() knows to look in the map
+			m_overflowCount.incrementAndGet();
+			m_overflow.put(token, entry);
+		}
+	}
+
+	/**
+	 * Removes the entry with the given token. May be called by any thread.
+	 * @param token The token.
+	 * @return The entry, or null if there is no entry with the token.
+	 */
+	public T remove(long token)
+	{
+		int slot = slot(token);
+		T entry = m_slots.get(slot);
+		if (entry != null && entry.getToken() == token && m_slots.compareAndSet(slot, entry, null))
+		{
+			return entry;
+		}
+
+		if (m_overflowCount.get() != 0)
+		{
+			entry = m_overflow.remove(token);
+			if (entry != null)
+			{
+				m_overflowCount.decrementAndGet();
+				return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Removes every entry. May be called by any thread; entries which are added concurrently may
+	 * or may not be removed.
+	 * @return The entries which were removed.
+	 */
+	public List<T> removeAll()
+	{
+		List<T> entries = new ArrayList<T>();
+		for (int i = 0; i != m_slots.length(); ++i)
+		{
+			T entry = m_slots.getAndSet(i, null);
+			if (entry != null)
+			{
+				entries.add(entry);
+			}
+		}
+		for (Long token : m_overflow.keySet())
+		{
+			T entry = m_overflow.remove(token);
+			if (entry != null)
+			{
+				m_overflowCount.decrementAndGet();
+				entries.add(entry);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Returns the number of entries which did not fit in their slots and are in the overflow map.
+	 * @return The number of overflowing entries.
+	 */
+	public int getOverflowCount()
+	{
+		return m_overflowCount.get();
+	}
+
+	/**
+	 * Returns the slot for the given token.
+	 */
+	private int slot(long token)
+	{
+		return (int) token & m_mask;
+	}
+}
@@ -0,0 +1,411 @@
+package uk.co.cwspencer.gdb;
+
+import com.intellij.openapi.diagnostic.Logger;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pool of GDB processes which have been started ahead of time, so a debug session does not wait
+ * for GDB to launch and, if the session would load it first, the application's symbols. The pool
+ * is kept warm for the last GDB executable, working directory and application it was asked for:
+ * each process has loaded the application with -file-exec-and-symbols, or loaded nothing if no
+ * application was given, and had its output read up to the prompt which follows, so Gdb sees it
+ * as a freshly started GDB.
+ *
+ * A process is only handed out if the application is still the build it loaded, as decided by
+ * GdbBinaryStamp; otherwise it is killed and the session starts GDB itself. The pool is refilled
+ * on a background thread, one process at a time, once the session which took a process reports
+ * through onSessionStarted() that it has finished starting, so symbol loading does not compete
+ * with the session.
+ */
+public class GdbProcessPool
+{
+	private static final Logger m_log = Logger.getInstance("#uk.co.cwspencer.gdb.GdbProcessPool");
+
+	// Handle to the UTF-8 character set
+	private static final Charset m_utf8 = Charset.forName("UTF-8");
+
+	// System property giving the number of processes to keep warm; zero disables the pool
+	public static final String SIZE_PROPERTY = "uk.co.cwspencer.gdb.processPool";
+
+	// Number of processes kept warm unless the property says otherwise
+	public static final int DEFAULT_SIZE = 1;
+
+	// Token of the command which loads the application into a warm process
+	private static final String LOAD_TOKEN = "0";
+
+	/**
+	 * A process which is ready to be handed out.
+	 */
+	private static class WarmProcess
+	{
+		// The process
+		public final Process process;
+
+		// Stamp of the application it loaded, or null if it did not load one
+		public final GdbBinaryStamp stamp;
+
+		public WarmProcess(Process process, GdbBinaryStamp stamp)
+		{
+			this.process = process;
+			this.stamp = stamp;
+		}
+	}
+
+	// Number of processes to keep warm
+	private final int m_size;
+
+	// Starts processes in the background
+	private final ExecutorService m_executor =
+		Executors.newSingleThreadExecutor(new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(Runnable runnable)
+				{
+					Thread thread = new Thread(runnable, "GDB process pool");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	// What the warm processes were started for. Processes started for anything else are killed
+	private String m_gdbPath;
+	private String m_workingDirectory;
+	private String m_appPath;
+
+	// Incremented whenever the above change, so processes started before then are discarded
+	private int m_generation = 0;
+
+	// Processes which are ready, and the number being started for the current generation
+	private final Deque<WarmProcess> m_idle = new ArrayDeque<WarmProcess>();
+	private int m_startingCount = 0;
+
+	// The process being started, so it can be killed if the pool is closed
+	private Process m_starting;
+
+	// Whether the pool has been closed
+	private boolean m_closed = false;
+
+	/**
+	 * Constructor; the number of processes to keep warm is read from SIZE_PROPERTY.
+	 */
+	public GdbProcessPool()
+	{
+		this(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+	}
+
+	/**
+	 * Constructor.
+	 * @param size The number of processes to keep warm. Zero disables the pool.
+	 */
+	public GdbProcessPool(int size)
+	{
+		if (size < 0)
+		{
+			throw new IllegalArgumentException("Pool size must not be negative: " + size);
+		}
+		m_size = size;
+	}
+
+	/**
+	 * Returns a transport for a new debug session, using a warm process if one is ready for the
+	 * same GDB, working directory and application. The session must call onSessionStarted() once
+	 * it has started, so the pool is warmed for the next one.
+	 * @param gdbPath The path to the GDB executable.
+	 * @param workingDirectory Working directory to launch the GDB process in. May be null.
+	 * @param appPath The application to load into warm processes. This should only be given if
+	 * the session's first command would load it with -file-exec-and-symbols. May be null or
+	 * empty, in which case warm processes load nothing.
+	 * @return The transport. If it wraps a warm process, getLoadedFile() returns appPath;
+	 * otherwise it launches GDB when it is opened.
+	 */
+	public synchronized GdbProcessTransport acquire(String gdbPath, String workingDirectory,
+		String appPath)
+	{
+		if (appPath != null && appPath.isEmpty())
+		{
+			appPath = null;
+		}
+		if (m_closed || m_size == 0)
+		{
+			return new GdbProcessTransport(gdbPath, workingDirectory);
+		}
+
+		// Kill processes which were started for something else
+		if (!equal(gdbPath, m_gdbPath) || !equal(workingDirectory, m_workingDirectory) ||
+			!equal(appPath, m_appPath))
+		{
+			discardIdle();
+			m_gdbPath = gdbPath;
+			m_workingDirectory = workingDirectory;
+			m_appPath = appPath;
+			++m_generation;
+			m_startingCount = 0;
+		}
+
+		GdbProcessTransport transport = null;
+		while (transport == null && !m_idle.isEmpty())
+		{
+			WarmProcess warm = m_idle.poll();
+			if (!warm.process.isAlive())
+			{
+				m_log.warn("Warm GDB process exited before it was used");
+			}
+			else if (warm.stamp != null && !warm.stamp.isCurrent())
+			{
+				m_log.info("Discarding warm GDB process because " + appPath + " has changed");
+				warm.process.destroy();
+			}
+			else
+			{
+				transport = new GdbProcessTransport(warm.process, appPath);
+			}
+		}
+
+		return transport != null ? transport : new GdbProcessTransport(gdbPath, workingDirectory);
+	}
+
+	/**
+	 * Starts warming the pool for the GDB executable, working directory and application of the
+	 * last call to acquire(). Called by a session once it has finished starting, so the new
+	 * processes do not compete with it.
+	 */
+	public synchronized void onSessionStarted()
+	{
+		if (!m_closed && m_size != 0 && m_gdbPath != null)
+		{
+			refill();
+		}
+	}
+
+	/**
+	 * Returns the number of processes which are ready to be handed out.
+	 * @return The number of processes.
+	 */
+	public synchronized int getIdleCount()
+	{
+		return m_idle.size();
+	}
+
+	/**
+	 * Kills the warm processes and stops starting new ones.
+	 */
+	public void close()
+	{
+		synchronized (this)
+		{
+			m_closed = true;
+			discardIdle();
+			if (m_starting != null)
+			{
+				m_starting.destroy();
+			}
+		}
+		m_executor.shutdownNow();
+	}
+
+	/**
+	 * Launches a GDB process with the machine interface. Overridden by tests.
+	 * @param gdbPath The path to the GDB executable.
+	 * @param workingDirectory Working directory to launch the GDB process in. May be null.
+	 * @return The process.
+	 */
+	protected Process launch(String gdbPath, String workingDirectory) throws IOException
+	{
+		return GdbProcessTransport.launch(gdbPath, workingDirectory);
+	}
+
+	/**
+	 * Starts enough processes in the background to fill the pool. Must be called with the pool
+	 * locked.
+	 */
+	private void refill()
+	{
+		final String gdbPath = m_gdbPath;
+		final String workingDirectory = m_workingDirectory;
+		final String appPath = m_appPath;
+		final int generation = m_generation;
+		while (m_idle.size() + m_startingCount < m_size)
+		{
+			++m_startingCount;
+			m_executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						warm(gdbPath, workingDirectory, appPath, generation);
+					}
+				});
+		}
+	}
+
+	/**
+	 * Starts a process and adds it to the pool once it has loaded the application.
+	 * @param gdbPath The path to the GDB executable.
+	 * @param workingDirectory Working directory to launch the GDB process in. May be null.
+	 * @param appPath The application to load. May be null.
+	 * @param generation The generation the process is for.
+	 */
+	private void warm(String gdbPath, String workingDirectory, String appPath, int generation)
+	{
+		synchronized (this)
+		{
+			if (m_closed || generation != m_generation)
+			{
+				return;
+			}
+		}
+
+		// Take the stamp before loading, so a rebuild during the load is noticed
+		GdbBinaryStamp stamp = appPath == null ? null : GdbBinaryStamp.of(new File(appPath));
+		Process process = null;
+		try
+		{
+			process = launch(gdbPath, workingDirectory);
+			synchronized (this)
+			{
+				m_starting = process;
+				if (m_closed)
+				{
+					process.destroy();
+				}
+			}
+			if (!load(process, appPath))
+			{
+				process.destroy();
+				process = null;
+			}
+		}
+		catch (IOException ex)
+		{
+			m_log.warn("Failed to start a GDB process for the pool", ex);
+			if (process != null)
+			{
+				process.destroy();
+				process = null;
+			}
+		}
+
+		synchronized (this)
+		{
+			m_starting = null;
+			if (generation == m_generation)
+			{
+				--m_startingCount;
+			}
+			if (process != null)
+			{
+				if (m_closed || generation != m_generation)
+				{
+					process.destroy();
+				}
+				else
+				{
+					m_idle.add(new WarmProcess(process, stamp));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Loads the application into a new GDB process and reads its output up to the prompt which
+	 * follows, so the process can be handed to Gdb as if it had just started.
+	 * @param process The process.
+	 * @param appPath The application to load. May be null, in which case only the output up to
+	 * the first prompt is read.
+	 * @return Whether the process is ready to be used.
+	 */
+	private boolean load(Process process, String appPath) throws IOException
+	{
+		InputStream stream = process.getInputStream();
+		if (appPath != null)
+		{
+			OutputStream output = process.getOutputStream();
+			output.write((LOAD_TOKEN + "-file-exec-and-symbols " +
+				GdbMiUtil.formatGdbString(appPath) + "\n").getBytes(m_utf8));
+			output.flush();
+		}
+
+		// Wait for the response to the load, then for the prompt after it
+		boolean answered = appPath == null;
+		String line;
+		while ((line = readLine(stream)) != null)
+		{
+			if (!answered)
+			{
+				if (line.startsWith(LOAD_TOKEN + "^"))
+				{
+					answered = true;
+					if (!line.startsWith(LOAD_TOKEN + "^done"))
+					{
+						m_log.warn("GDB failed to load " + appPath + ": " + line);
+						return false;
+					}
+				}
+			}
+			else if (line.startsWith("(gdb)"))
+			{
+				return true;
+			}
+		}
+
+		m_log.warn("GDB exited while it was being started for the pool");
+		return false;
+	}
+
+	/**
+	 * Reads a line of output without reading past it, since the rest of the output belongs to
+	 * Gdb.
+	 * @param stream The stream to read from.
+	 * @return The line without its line break, or null if the stream has ended.
+	 */
+	private static String readLine(InputStream stream) throws IOException
+	{
+		StringBuilder sb = new StringBuilder();
+		int b;
+		while ((b = stream.read()) != -1)
+		{
+			if (b == '\n')
+			{
+				int length = sb.length();
+				if (length != 0 && sb.charAt(length - 1) == '\r')
+				{
+					sb.setLength(length - 1);
+				}
+				return sb.toString();
+			}
+			sb.append((char) b);
+		}
+		return null;
+	}
+
+	/**
+	 * Kills the idle processes. Must be called with the pool locked.
+	 */
+	private void discardIdle()
+	{
+		for (WarmProcess warm : m_idle)
+		{
+			warm.process.destroy();
+		}
+		m_idle.clear();
+	}
+
+	/**
+	 * Compares two strings which may be null.
+	 */
+	private static boolean equal(String a, String b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+}
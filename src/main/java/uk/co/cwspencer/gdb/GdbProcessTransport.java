@@ -0,0 +1,126 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Transport which talks to GDB through the standard streams of a process. Either launches GDB
+ * itself or uses a process which is already running, such as a GdbReplayProcess.
+ */
+public class GdbProcessTransport implements GdbTransport
+{
+	// Path to the GDB executable and the directory to launch it in, if the transport launches it
+	private final String m_gdbPath;
+	private final String m_workingDirectory;
+
+	// The process
+	private volatile Process m_process;
+
+	// The file the process was given with -file-exec-and-symbols before the transport was
+	// created, or null
+	private final String m_loadedFile;
+
+	/**
+	 * Constructor; the transport launches GDB when it is opened.
+	 * @param gdbPath The path to the GDB executable.
+	 * @param workingDirectory Working directory to launch the GDB process in. May be null.
+	 */
+	public GdbProcessTransport(String gdbPath, String workingDirectory)
+	{
+		m_gdbPath = gdbPath;
+		m_workingDirectory = workingDirectory;
+		m_loadedFile = null;
+	}
+
+	/**
+	 * Constructor; the transport uses a process which is already running GDB/MI.
+	 * @param process The process.
+	 */
+	public GdbProcessTransport(Process process)
+	{
+		this(process, null);
+	}
+
+	/**
+	 * Constructor; the transport uses a process which is already running GDB/MI and has had its
+	 * output read up to the last prompt.
+	 * @param process The process.
+	 * @param loadedFile The file which has been loaded with -file-exec-and-symbols. May be null.
+	 */
+	public GdbProcessTransport(Process process, String loadedFile)
+	{
+		m_gdbPath = null;
+		m_workingDirectory = null;
+		m_process = process;
+		m_loadedFile = loadedFile;
+	}
+
+	/**
+	 * Returns the file GDB already had loaded when the transport was created, e.g. by
+	 * GdbProcessPool.
+	 * @return The path of the file, or null if none was loaded.
+	 */
+	public String getLoadedFile()
+	{
+		return m_loadedFile;
+	}
+
+	@Override
+	public void open() throws IOException
+	{
+		if (m_process != null)
+		{
+			return;
+		}
+		m_process = launch(m_gdbPath, m_workingDirectory);
+	}
+
+	@Override
+	public InputStream getInputStream()
+	{
+		return m_process.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream()
+	{
+		return m_process.getOutputStream();
+	}
+
+	@Override
+	public InputStream getErrorStream()
+	{
+		return m_process.getErrorStream();
+	}
+
+	@Override
+	public void close()
+	{
+		Process process = m_process;
+		if (process != null)
+		{
+			process.destroy();
+		}
+	}
+
+	/**
+	 * Launches GDB with the machine interface.
+	 * @param gdbPath The path to the GDB executable.
+	 * @param workingDirectory Working directory to launch the GDB process in. May be null.
+	 * @return The process.
+	 */
+	static Process launch(String gdbPath, String workingDirectory) throws IOException
+	{
+		final String[] commandLine = {
+			gdbPath,
+			"--interpreter=mi2" };
+		File workingDirectoryFile = null;
+		if (workingDirectory != null)
+		{
+			workingDirectoryFile = new File(workingDirectory);
+		}
+		return Runtime.getRuntime().exec(commandLine, null, workingDirectoryFile);
+	}
+}
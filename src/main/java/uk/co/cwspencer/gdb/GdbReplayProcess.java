@@ -0,0 +1,324 @@
+package uk.co.cwspencer.gdb;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in for a GDB process which replays a transcript recorded by GdbTranscriptWriter. Output
+ * is written on the recorded schedule: each chunk follows the previous chunk, or the command it
+ * answers, after the recorded delay. Before playing the output which follows a command the
+ * replay waits for the same command to be sent, and stops if a different command is sent
+ * instead, so a session can only be replayed by code which behaves as it did when recorded.
+ *
+ * Pass the process to Gdb in a GdbProcessTransport in place of a real GDB process. When the
+ * transcript has been played the output is closed, as if GDB had exited; the exit value is zero
+ * if every command matched the recording and one otherwise.
+ */
+public class GdbReplayProcess extends Process
+{
+	private static final Logger m_log =
+		Logger.getInstance("#uk.co.cwspencer.gdb.GdbReplayProcess");
+
+	// Handle to the US-ASCII character set
+	private static final Charset m_ascii = Charset.forName("US-ASCII");
+
+	// Size of the ring the output is passed to Gdb through
+	private static final int RING_CAPACITY = 1024 * 1024;
+
+	// Default time to wait for a command before deciding it will never be sent
+	private static final long DEFAULT_COMMAND_TIMEOUT_MS = 30000;
+
+	// The transcript
+	private final GdbTranscriptReader m_transcript;
+
+	// Factor applied to the recorded delays; zero plays the output as fast as possible
+	private final double m_timeScale;
+
+	// Time to wait for each command, in nanoseconds
+	private final long m_commandTimeout;
+
+	// Output for Gdb to read
+	private final GdbByteRing m_output = new GdbByteRing(RING_CAPACITY);
+
+	// Lines Gdb has written, and the line being written
+	private final BlockingQueue<String> m_commands = new LinkedBlockingQueue<String>();
+	private final StringBuilder m_commandLine = new StringBuilder();
+
+	// Thread which plays the transcript
+	private final Thread m_thread;
+	private final CountDownLatch m_finished = new CountDownLatch(1);
+
+	// Description of the first command which did not match the recording, or null
+	private volatile String m_mismatch;
+
+	// Number of commands which matched the recording
+	private volatile int m_matchedCount = 0;
+
+	/**
+	 * Constructor; starts replaying the transcript with the recorded timing.
+	 * @param transcript The transcript file.
+	 */
+	public GdbReplayProcess(File transcript) throws IOException
+	{
+		this(transcript, 1.0, DEFAULT_COMMAND_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Constructor; starts replaying the transcript.
+	 * @param transcript The transcript file.
+	 * @param timeScale Factor to multiply the recorded delays by; zero plays the output as soon as
+	 * the commands it follows have been sent.
+	 * @param commandTimeout How long to wait for each command before stopping the replay.
+	 * @param unit The unit of commandTimeout.
+	 */
+	public GdbReplayProcess(File transcript, double timeScale, long commandTimeout, TimeUnit unit)
+		throws IOException
+	{
+		if (timeScale < 0)
+		{
+			throw new IllegalArgumentException("Time scale must not be negative: " + timeScale);
+		}
+		m_transcript = new GdbTranscriptReader(transcript);
+		m_timeScale = timeScale;
+		m_commandTimeout = unit.toNanos(commandTimeout);
+		m_thread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					replay();
+				}
+			}, "GDB replay");
+		m_thread.setDaemon(true);
+		m_thread.start();
+	}
+
+	/**
+	 * Returns a description of the first command which did not match the recording.
+	 * @return The description, or null if every command so far has matched.
+	 */
+	public String getMismatch()
+	{
+		return m_mismatch;
+	}
+
+	/**
+	 * Returns the number of commands which have matched the recording.
+	 * @return The number of commands.
+	 */
+	public int getMatchedCount()
+	{
+		return m_matchedCount;
+	}
+
+	@Override
+	public OutputStream getOutputStream()
+	{
+		return new OutputStream()
+			{
+				@Override
+				public void write(int b)
+				{
+					onInput((byte) b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len)
+				{
+					for (int i = off; i != off + len; ++i)
+					{
+						onInput(b[i]);
+					}
+				}
+			};
+	}
+
+	@Override
+	public InputStream getInputStream()
+	{
+		return new InputStream()
+			{
+				@Override
+				public int read() throws IOException
+				{
+					byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException
+				{
+					return len == 0 ? 0 : m_output.read(b, off, len);
+				}
+
+				@Override
+				public void close()
+				{
+					m_output.close();
+				}
+			};
+	}
+
+	@Override
+	public InputStream getErrorStream()
+	{
+		return new ByteArrayInputStream(new byte[0]);
+	}
+
+	@Override
+	public int waitFor() throws InterruptedException
+	{
+		m_finished.await();
+		return exitValue();
+	}
+
+	@Override
+	public int exitValue()
+	{
+		if (m_finished.getCount() != 0)
+		{
+			throw new IllegalThreadStateException("The replay has not finished");
+		}
+		return m_mismatch == null ? 0 : 1;
+	}
+
+	@Override
+	public void destroy()
+	{
+		m_thread.interrupt();
+		m_output.close();
+	}
+
+	/**
+	 * Collects a byte written by Gdb into lines.
+	 * @param b The byte.
+	 */
+	private void onInput(byte b)
+	{
+		synchronized (m_commandLine)
+		{
+			if (b == '\n')
+			{
+				m_commands.offer(stripCarriageReturn(m_commandLine.toString()));
+				m_commandLine.setLength(0);
+			}
+			else
+			{
+				m_commandLine.append((char) (b & 0xff));
+			}
+		}
+	}
+
+	/**
+	 * Thread function which plays the transcript.
+	 */
+	private void replay()
+	{
+		try
+		{
+			// Time the last chunk was played, or its command received
+			long lastTime = System.nanoTime();
+			StringBuilder expected = new StringBuilder();
+			while (m_transcript.next())
+			{
+				ByteBuffer data = m_transcript.getData();
+				if (m_transcript.isInput())
+				{
+					// Wait for each complete line of the recorded input to be sent
+					expected.append(m_ascii.decode(data));
+					int lineEnd;
+					while ((lineEnd = expected.indexOf("\n")) != -1)
+					{
+						String line = stripCarriageReturn(expected.substring(0, lineEnd));
+						expected.delete(0, lineEnd + 1);
+						if (!awaitCommand(line))
+						{
+							return;
+						}
+						lastTime = System.nanoTime();
+					}
+				}
+				else
+				{
+					long playTime = lastTime +
+						(long) (m_transcript.getDelay() * 1000 * m_timeScale);
+					long delay;
+					while ((delay = playTime - System.nanoTime()) > 0)
+					{
+						LockSupport.parkNanos(this, delay);
+						if (Thread.interrupted())
+						{
+							return;
+						}
+					}
+					if (!m_output.write(data))
+					{
+						// Gdb has stopped reading
+						return;
+					}
+					lastTime = playTime;
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			m_log.warn("Failed to replay GDB transcript", ex);
+			m_mismatch = "Replay failed: " + ex;
+		}
+		catch (InterruptedException ex)
+		{
+			// We were destroyed
+		}
+		finally
+		{
+			m_output.close();
+			m_finished.countDown();
+		}
+	}
+
+	/**
+	 * Waits for Gdb to send a command and checks it matches the recording.
+	 * @param expected The recorded command.
+	 * @return Whether the command matched.
+	 */
+	private boolean awaitCommand(String expected) throws InterruptedException
+	{
+		String actual = m_commands.poll(m_commandTimeout, TimeUnit.NANOSECONDS);
+		if (actual == null)
+		{
+			m_mismatch = "Expected command \"" + expected + "\" but no command was sent";
+		}
+		else if (!actual.equals(expected))
+		{
+			m_mismatch = "Expected command \"" + expected + "\" but \"" + actual + "\" was sent";
+		}
+		else
+		{
+			++m_matchedCount;
+			return true;
+		}
+
+		m_log.warn("GDB replay stopped after " + m_matchedCount + " commands: " + m_mismatch);
+		return false;
+	}
+
+	/**
+	 * Removes a carriage return from the end of a line.
+	 */
+	private static String stripCarriageReturn(String line)
+	{
+		return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+	}
+}
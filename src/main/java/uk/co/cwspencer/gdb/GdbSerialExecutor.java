@@ -0,0 +1,99 @@
+package uk.co.cwspencer.gdb;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executor which runs tasks one at a time, in the order they were submitted, on another executor.
+ * Whatever threads the underlying executor uses, each task sees the effects of every task before
+ * it. Listener notifications and command callbacks are dispatched through one of these so a pool
+ * can run them without reordering events.
+ *
+ * Only one task of the underlying executor is active at a time; it runs every task which is
+ * queued before it finishes.
+ */
+class GdbSerialExecutor implements Executor
+{
+	private static final Logger m_log =
+		Logger.getInstance("#uk.co.cwspencer.gdb.GdbSerialExecutor");
+
+	// The executor tasks are run on
+	private final Executor m_executor;
+
+	// Tasks waiting to run. Only polled by the active drain task
+	private final GdbMpscQueue<Runnable> m_tasks = new GdbMpscQueue<Runnable>();
+
+	// Whether a drain task has been submitted to the underlying executor and not finished
+	private final AtomicBoolean m_draining = new AtomicBoolean(false);
+
+	// Task which runs queued tasks
+	private final Runnable m_drain = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				drain();
+			}
+		};
+
+	/**
+	 * Constructor.
+	 * @param executor The executor to run tasks on.
+	 */
+	public GdbSerialExecutor(Executor executor)
+	{
+		m_executor = executor;
+	}
+
+	/**
+	 * Queues a task. May be called by any thread.
+	 * @param task The task.
+	 */
+	@Override
+	public void execute(Runnable task)
+	{
+		m_tasks.offer(task);
+		if (m_draining.compareAndSet(false, true))
+		{
+			try
+			{
+				m_executor.execute(m_drain);
+			}
+			catch (RuntimeException ex)
+			{
+				// Let a later task try again rather than leaving the queue stuck
+				m_draining.set(false);
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Runs queued tasks until the queue is empty.
+	 */
+	private void drain()
+	{
+		do
+		{
+			Runnable task;
+			while ((task = m_tasks.poll()) != null)
+			{
+				try
+				{
+					task.run();
+				}
+				catch (Throwable ex)
+				{
+					m_log.error("Unhandled exception in GDB callback", ex);
+				}
+			}
+
+			// A task queued after the last poll either sees the flag cleared and submits a new
+			// drain, or is seen here
+			m_draining.set(false);
+		}
+		while (!m_tasks.isEmpty() && m_draining.compareAndSet(false, true));
+	}
+}
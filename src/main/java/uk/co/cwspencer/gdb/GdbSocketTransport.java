@@ -0,0 +1,146 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Transport which talks to GDB/MI over a stream socket, e.g. a Unix domain socket which a
+ * wrapper such as 'socat UNIX-LISTEN:/tmp/gdb.sock EXEC:"gdb --interpreter=mi2"' serves GDB on.
+ * GDB's error output is not available.
+ *
+ * The streams read and write the channel directly rather than through Channels.newInputStream()
+ * and newOutputStream(), which lock the channel for the duration of each call and so would stop
+ * commands being written while the read thread waits for output.
+ */
+public class GdbSocketTransport implements GdbTransport
+{
+	// The address to connect to
+	private final SocketAddress m_address;
+
+	// The connection
+	private volatile SocketChannel m_channel;
+
+	/**
+	 * Constructor.
+	 * @param address The address GDB is listening on.
+	 */
+	public GdbSocketTransport(SocketAddress address)
+	{
+		m_address = address;
+	}
+
+	/**
+	 * Creates a transport which connects to a Unix domain socket. Requires Java 16 or later.
+	 * @param path The path of the socket.
+	 * @return The transport.
+	 * @throws UnsupportedOperationException If the JVM does not support Unix domain sockets.
+	 */
+	public static GdbSocketTransport forUnixDomainSocket(String path)
+	{
+		try
+		{
+			// Looked up reflectively since the plugin is built for Java 8
+			Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			SocketAddress address =
+				(SocketAddress) addressClass.getMethod("of", String.class).invoke(null, path);
+			return new GdbSocketTransport(address);
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			throw new UnsupportedOperationException(
+				"Unix domain sockets require Java 16 or later", ex);
+		}
+	}
+
+	@Override
+	public void open() throws IOException
+	{
+		m_channel = SocketChannel.open(m_address);
+	}
+
+	@Override
+	public InputStream getInputStream()
+	{
+		final SocketChannel channel = m_channel;
+		return new InputStream()
+			{
+				@Override
+				public int read() throws IOException
+				{
+					byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException
+				{
+					return len == 0 ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+				}
+
+				@Override
+				public void close() throws IOException
+				{
+					channel.close();
+				}
+			};
+	}
+
+	@Override
+	public OutputStream getOutputStream()
+	{
+		final SocketChannel channel = m_channel;
+		return new OutputStream()
+			{
+				@Override
+				public void write(int b) throws IOException
+				{
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException
+				{
+					ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+					while (buffer.hasRemaining())
+					{
+						channel.write(buffer);
+					}
+				}
+
+				@Override
+				public void close() throws IOException
+				{
+					channel.close();
+				}
+			};
+	}
+
+	@Override
+	public InputStream getErrorStream()
+	{
+		return null;
+	}
+
+	@Override
+	public void close()
+	{
+		SocketChannel channel = m_channel;
+		if (channel == null)
+		{
+			return;
+		}
+
+		try
+		{
+			channel.close();
+		}
+		catch (IOException ex)
+		{
+			// Nothing more can be done with the connection
+		}
+	}
+}
@@ -0,0 +1,333 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records a span for every command sent to GDB and every asynchronous record received from it,
+ * and writes them as Chrome trace JSON which can be loaded into chrome://tracing or Perfetto.
+ *
+ * Each span is shown on its own track, divided into the phases it went through: queued, sent
+ * (until the response was read), answered (until the callback executor handled it), converted and
+ * delivered (to the listener and callback). A command sent while the response to another command
+ * or an asynchronous record was being delivered is linked to it with a flow arrow, so the chain of
+ * commands a step causes can be followed from the *stopped record onwards.
+ *
+ * Tracing is opt-in: pass a tracer to Gdb.setTracer(), or set the uk.co.cwspencer.gdb.trace
+ * system property to a directory to have a trace of each session written there when GDB exits.
+ */
+public class GdbTracer
+{
+	// Default maximum number of spans kept
+	private static final int DEFAULT_MAX_SPANS = 100000;
+
+	// Span IDs of asynchronous records start here, so they never clash with command tokens
+	private static final long RECORD_SPAN_BASE = 1L << 40;
+
+	/**
+	 * A finished span. Times are from System.nanoTime(); phases which did not happen are zero.
+	 */
+	private static class Span
+	{
+		long id;
+		long parentId;
+		String name;
+		String command;
+		long queuedTime;
+		long sentTime;
+		long receivedTime;
+		long handleTime;
+		long convertStart;
+		long convertEnd;
+		long endTime;
+	}
+
+	// Maximum number of spans kept
+	private final int m_maxSpans;
+
+	// Finished spans
+	private final ConcurrentLinkedQueue<Span> m_spans = new ConcurrentLinkedQueue<Span>();
+	private final AtomicInteger m_spanCount = new AtomicInteger();
+	private final AtomicInteger m_droppedCount = new AtomicInteger();
+
+	// ID of the next asynchronous record span
+	private final AtomicLong m_nextRecordSpan = new AtomicLong(RECORD_SPAN_BASE);
+
+	// Time which timestamps in the trace are relative to
+	private final long m_startTime = System.nanoTime();
+
+	/**
+	 * Constructor; uses the default maximum number of spans.
+	 */
+	public GdbTracer()
+	{
+		this(DEFAULT_MAX_SPANS);
+	}
+
+	/**
+	 * Constructor.
+	 * @param maxSpans The maximum number of spans to keep. Later spans are dropped.
+	 */
+	public GdbTracer(int maxSpans)
+	{
+		m_maxSpans = maxSpans;
+	}
+
+	/**
+	 * Returns the number of spans recorded.
+	 * @return The number of spans.
+	 */
+	public int getSpanCount()
+	{
+		return Math.min(m_spanCount.get(), m_maxSpans);
+	}
+
+	/**
+	 * Returns the number of spans which were dropped because the tracer was full.
+	 * @return The number of spans.
+	 */
+	public int getDroppedCount()
+	{
+		return m_droppedCount.get();
+	}
+
+	/**
+	 * Allocates an ID for the span of an asynchronous record.
+	 * @return The ID.
+	 */
+	long newRecordSpanId()
+	{
+		return m_nextRecordSpan.getAndIncrement();
+	}
+
+	/**
+	 * Adds a finished span. May be called by any thread.
+	 * @param id The ID of the span: the command's token, or an ID from newRecordSpanId().
+	 * @param parentId The ID of the span which caused this one, or zero if there is none.
+	 * @param name The name of the span, e.g. "-var-update" or "*stopped".
+	 * @param command The full command, or null for asynchronous records.
+	 * @param queuedTime When the command was queued, or zero.
+	 * @param sentTime When the command started being written, or zero.
+	 * @param receivedTime When the output containing the response was read.
+	 * @param handleTime When the callback executor started handling the response.
+	 * @param convertStart When conversion of the response started, or zero if it was not
+	 * converted.
+	 * @param convertEnd When conversion of the response ended, or zero.
+	 * @param endTime When delivery to the listener and callback finished.
+	 */
+	void addSpan(long id, long parentId, String name, String command, long queuedTime,
+		long sentTime, long receivedTime, long handleTime, long convertStart, long convertEnd,
+		long endTime)
+	{
+		if (m_spanCount.incrementAndGet() > m_maxSpans)
+		{
+			m_droppedCount.incrementAndGet();
+			return;
+		}
+
+		Span span = new Span();
+		span.id = id;
+		span.parentId = parentId;
+		span.name = name;
+		span.command = command;
+		span.queuedTime = queuedTime;
+		span.sentTime = sentTime;
+		span.receivedTime = receivedTime;
+		span.handleTime = handleTime;
+		span.convertStart = convertStart;
+		span.convertEnd = convertEnd;
+		span.endTime = endTime;
+		m_spans.add(span);
+	}
+
+	/**
+	 * Writes the spans recorded so far to a file as Chrome trace JSON.
+	 * @param file The file.
+	 */
+	public void writeTo(File file) throws IOException
+	{
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+			Charset.forName("UTF-8")));
+		try
+		{
+			writeTo(writer);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Writes the spans recorded so far as Chrome trace JSON.
+	 * @param writer The writer.
+	 */
+	public void writeTo(Writer writer) throws IOException
+	{
+		List<Span> spans = new ArrayList<Span>(m_spans);
+		writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+		writer.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1," +
+			"\"args\":{\"name\":\"GDB\"}}");
+		for (Span span : spans)
+		{
+			long start = span.queuedTime != 0 ? span.queuedTime : span.receivedTime;
+
+			// Name the track after the span
+			writer.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+			writer.write(Long.toString(span.id));
+			writer.write(",\"args\":{\"name\":");
+			writeString(writer, (span.id < RECORD_SPAN_BASE ? span.id + " " : "") + span.name);
+			writer.write("}}");
+
+			// The whole span, then its phases
+			writeSlice(writer, span.id, span.name, "command", start, span.endTime, span);
+			if (span.queuedTime != 0)
+			{
+				writeSlice(writer, span.id, "queued", "phase", span.queuedTime, span.sentTime,
+					null);
+			}
+			if (span.sentTime != 0)
+			{
+				writeSlice(writer, span.id, "sent", "phase", span.sentTime, span.receivedTime,
+					null);
+			}
+			writeSlice(writer, span.id, "answered", "phase", span.receivedTime, span.handleTime,
+				null);
+			long deliverStart = span.handleTime;
+			if (span.convertStart != 0)
+			{
+				writeSlice(writer, span.id, "converted", "phase", span.convertStart,
+					span.convertEnd, null);
+				deliverStart = span.convertEnd;
+			}
+			writeSlice(writer, span.id, "delivered", "phase", deliverStart, span.endTime, null);
+
+			// Link the span to the one which caused it
+			if (span.parentId != 0)
+			{
+				writeFlow(writer, "s", span.parentId, span.id, start);
+				writeFlow(writer, "f", span.id, span.id, start);
+			}
+		}
+		writer.write("\n]}\n");
+		writer.flush();
+	}
+
+	/**
+	 * Writes a complete event.
+	 * @param span The span to describe in the event's arguments, or null.
+	 */
+	private void writeSlice(Writer writer, long track, String name, String category, long start,
+		long end, Span span) throws IOException
+	{
+		writer.write(",\n{\"name\":");
+		writeString(writer, name);
+		writer.write(",\"cat\":\"");
+		writer.write(category);
+		writer.write("\",\"ph\":\"X\",\"pid\":1,\"tid\":");
+		writer.write(Long.toString(track));
+		writer.write(",\"ts\":");
+		writer.write(formatMicros(start - m_startTime));
+		writer.write(",\"dur\":");
+		writer.write(formatMicros(Math.max(0, end - start)));
+		if (span != null)
+		{
+			writer.write(",\"args\":{");
+			if (span.command != null)
+			{
+				writer.write("\"token\":");
+				writer.write(Long.toString(span.id));
+				writer.write(",\"command\":");
+				writeString(writer, span.command);
+				writer.write(",");
+			}
+			writer.write("\"parent\":");
+			writer.write(Long.toString(span.parentId));
+			writer.write("}");
+		}
+		writer.write("}");
+	}
+
+	/**
+	 * Writes one end of a flow event.
+	 */
+	private void writeFlow(Writer writer, String phase, long track, long id, long time)
+		throws IOException
+	{
+		writer.write(",\n{\"name\":\"caused\",\"cat\":\"flow\",\"ph\":\"");
+		writer.write(phase);
+		writer.write("\",\"bp\":\"e\",\"id\":");
+		writer.write(Long.toString(id));
+		writer.write(",\"pid\":1,\"tid\":");
+		writer.write(Long.toString(track));
+		writer.write(",\"ts\":");
+		writer.write(formatMicros(time - m_startTime));
+		writer.write("}");
+	}
+
+	/**
+	 * Formats a duration in nanoseconds as microseconds.
+	 */
+	private static String formatMicros(long nanos)
+	{
+		long micros = nanos / 1000;
+		long fraction = Math.abs(nanos % 1000);
+		return (nanos < 0 && micros == 0 ? "-" : "") + micros + "." + (fraction < 10 ? "00" :
+			fraction < 100 ? "0" : "") + fraction;
+	}
+
+	/**
+	 * Writes a JSON string literal.
+	 */
+	private static void writeString(Writer writer, String string) throws IOException
+	{
+		writer.write('"');
+		for (int i = 0; i != string.length(); ++i)
+		{
+			char ch = string.charAt(i);
+			switch (ch)
+			{
+			case '"':
+				writer.write("\\\"");
+				break;
+
+			case '\\':
+				writer.write("\\\\");
+				break;
+
+			case '\n':
+				writer.write("\\n");
+				break;
+
+			case '\r':
+				writer.write("\\r");
+				break;
+
+			case '\t':
+				writer.write("\\t");
+				break;
+
+			default:
+				if (ch < 0x20)
+				{
+					writer.write(String.format("\\u%04x", (int) ch));
+				}
+				else
+				{
+					writer.write(ch);
+				}
+			}
+		}
+		writer.write('"');
+	}
+}
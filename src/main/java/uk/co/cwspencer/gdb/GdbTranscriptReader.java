@@ -0,0 +1,181 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a transcript written by GdbTranscriptWriter, one chunk at a time. The file is memory
+ * mapped, so the data of each chunk is a view of the file rather than a copy. Transcripts larger
+ * than 2 GiB are not supported.
+ */
+public class GdbTranscriptReader
+{
+	// Bytes the file starts with
+	static final byte[] MAGIC = { 'G', 'D', 'B', 'M', 'I', 'R', 'E', 'C' };
+
+	// Version of the file format
+	static final int VERSION = 1;
+
+	// Directions of chunks; zero marks the end of the transcript
+	static final byte INPUT = 1;
+	static final byte OUTPUT = 2;
+
+	// The mapped file
+	private final ByteBuffer m_buffer;
+
+	// Wall clock time the recording started, in milliseconds
+	private final long m_startTime;
+
+	// The current chunk
+	private byte m_direction = 0;
+	private long m_delay = 0;
+	private long m_time = 0;
+	private ByteBuffer m_data;
+
+	/**
+	 * Constructor; maps the file and reads the header.
+	 * @param file The transcript.
+	 * @throws IOException If the file cannot be read or is not a transcript.
+	 */
+	public GdbTranscriptReader(File file) throws IOException
+	{
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = randomAccessFile.getChannel();
+			m_buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		finally
+		{
+			randomAccessFile.close();
+		}
+
+		byte[] magic = new byte[MAGIC.length];
+		if (m_buffer.remaining() < MAGIC.length + 12)
+		{
+			throw new IOException(file + " is not a GDB transcript");
+		}
+		m_buffer.get(magic);
+		if (!Arrays.equals(magic, MAGIC))
+		{
+			throw new IOException(file + " is not a GDB transcript");
+		}
+		int version = m_buffer.getInt();
+		if (version != VERSION)
+		{
+			throw new IOException(file + " is a version " + version + " GDB transcript; only " +
+				"version " + VERSION + " is supported");
+		}
+		m_startTime = m_buffer.getLong();
+	}
+
+	/**
+	 * Returns the wall clock time the recording started.
+	 * @return The time in milliseconds since the epoch.
+	 */
+	public long getStartTime()
+	{
+		return m_startTime;
+	}
+
+	/**
+	 * Moves to the next chunk.
+	 * @return Whether there was another chunk; false at the end of the transcript, or if the last
+	 * chunk was cut short because the recording was not closed.
+	 */
+	public boolean next()
+	{
+		m_direction = 0;
+		m_data = null;
+		if (!m_buffer.hasRemaining())
+		{
+			return false;
+		}
+
+		byte direction = m_buffer.get();
+		if (direction != INPUT && direction != OUTPUT)
+		{
+			m_buffer.position(m_buffer.limit());
+			return false;
+		}
+
+		long delay = getNumber();
+		long length = getNumber();
+		if (delay < 0 || length < 0 || length > m_buffer.remaining())
+		{
+			m_buffer.position(m_buffer.limit());
+			return false;
+		}
+
+		m_direction = direction;
+		m_delay = delay;
+		m_time += delay;
+		m_data = m_buffer.slice();
+		m_data.limit((int) length);
+		m_buffer.position(m_buffer.position() + (int) length);
+		return true;
+	}
+
+	/**
+	 * Checks whether the current chunk was sent to GDB.
+	 * @return Whether the chunk is input; false if it was read from GDB.
+	 */
+	public boolean isInput()
+	{
+		return m_direction == INPUT;
+	}
+
+	/**
+	 * Returns the time between the previous chunk and the current one.
+	 * @return The delay in microseconds.
+	 */
+	public long getDelay()
+	{
+		return m_delay;
+	}
+
+	/**
+	 * Returns the time the current chunk was recorded at.
+	 * @return The time in microseconds since the recording started.
+	 */
+	public long getTime()
+	{
+		return m_time;
+	}
+
+	/**
+	 * Returns the data of the current chunk.
+	 * @return A read-only view of the data, or null if there is no current chunk.
+	 */
+	public ByteBuffer getData()
+	{
+		return m_data == null ? null : m_data.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Reads an unsigned variable length integer.
+	 * @return The value, or -1 if the transcript ends or the value is too long.
+	 */
+	private long getNumber()
+	{
+		long value = 0;
+		for (int shift = 0; shift < 63; shift += 7)
+		{
+			if (!m_buffer.hasRemaining())
+			{
+				return -1;
+			}
+			byte b = m_buffer.get();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,188 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records the raw bytes a GDB session sends and receives, with the time each chunk was sent or
+ * read, to an append-only transcript file. The file is written through a memory mapping which is
+ * extended a region at a time, so recording a chunk is a copy rather than a system call.
+ *
+ * The file starts with a header holding GdbTranscriptReader.MAGIC, the format version and the
+ * wall clock time the recording started in milliseconds. Each chunk follows as a direction byte
+ * (GdbTranscriptReader.INPUT or OUTPUT), the microseconds since the previous chunk and the length
+ * of the data as unsigned variable length integers, then the data. The unused end of the last
+ * region is zero, which marks the end of the transcript if the recording was not closed.
+ *
+ * Input and output are recorded by different threads, so the methods are synchronized.
+ */
+public class GdbTranscriptWriter
+{
+	// Size of the regions the file is mapped in
+	private static final int REGION_SIZE = 1024 * 1024;
+
+	// Largest header of a chunk: a direction byte and two ten byte integers
+	private static final int MAX_CHUNK_HEADER = 21;
+
+	// The file
+	private final RandomAccessFile m_file;
+	private final FileChannel m_channel;
+
+	// The mapped region being written to, and the position of the region in the file
+	private MappedByteBuffer m_region;
+	private long m_regionStart;
+
+	// Time the last chunk was recorded
+	private long m_lastTime;
+
+	// Size of the file once the writer has been closed, or -1 while it is open
+	private long m_closedSize = -1;
+
+	/**
+	 * Constructor; creates or replaces the file and writes the header.
+	 * @param file The file to record to.
+	 */
+	public GdbTranscriptWriter(File file) throws IOException
+	{
+		m_file = new RandomAccessFile(file, "rw");
+		m_file.setLength(0);
+		m_channel = m_file.getChannel();
+		m_region = m_channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+		m_regionStart = 0;
+		m_lastTime = System.nanoTime();
+
+		m_region.put(GdbTranscriptReader.MAGIC);
+		m_region.putInt(GdbTranscriptReader.VERSION);
+		m_region.putLong(System.currentTimeMillis());
+	}
+
+	/**
+	 * Records bytes sent to GDB.
+	 * @param data The data. Its remaining bytes are recorded; its position is not changed.
+	 */
+	public void recordInput(ByteBuffer data) throws IOException
+	{
+		record(GdbTranscriptReader.INPUT, data);
+	}
+
+	/**
+	 * Records bytes read from GDB.
+	 * @param data The data. Its remaining bytes are recorded; its position is not changed.
+	 */
+	public void recordOutput(ByteBuffer data) throws IOException
+	{
+		record(GdbTranscriptReader.OUTPUT, data);
+	}
+
+	/**
+	 * Returns the number of bytes written to the file so far.
+	 * @return The size of the transcript.
+	 */
+	public synchronized long size()
+	{
+		return m_closedSize != -1 ? m_closedSize : m_regionStart + m_region.position();
+	}
+
+	/**
+	 * Truncates the file to the data written and closes it. Does nothing if the writer has already
+	 * been closed.
+	 */
+	public synchronized void close() throws IOException
+	{
+		if (m_closedSize != -1)
+		{
+			return;
+		}
+
+		long size = size();
+		m_closedSize = size;
+		m_region.force();
+		m_region = null;
+		try
+		{
+			m_file.setLength(size);
+		}
+		catch (IOException ex)
+		{
+			// Some platforms refuse to truncate a file which is still mapped; the zero padding
+			// is harmless, since it reads as the end of the transcript
+		}
+		m_file.close();
+	}
+
+	/**
+	 * Records a chunk of data.
+	 * @param direction The direction byte.
+	 * @param data The data.
+	 */
+	private synchronized void record(byte direction, ByteBuffer data) throws IOException
+	{
+		if (m_closedSize != -1)
+		{
+			throw new IOException("The transcript has been closed");
+		}
+
+		long now = System.nanoTime();
+		long delta = Math.max(0, (now - m_lastTime) / 1000);
+		m_lastTime = now;
+
+		ensureSpace(MAX_CHUNK_HEADER);
+		m_region.put(direction);
+		putNumber(delta);
+		putNumber(data.remaining());
+
+		// The data may span several regions
+		ByteBuffer src = data.duplicate();
+		while (src.hasRemaining())
+		{
+			if (!m_region.hasRemaining())
+			{
+				mapNextRegion();
+			}
+			int length = Math.min(src.remaining(), m_region.remaining());
+			ByteBuffer part = src.duplicate();
+			part.limit(part.position() + length);
+			m_region.put(part);
+			src.position(src.position() + length);
+		}
+	}
+
+	/**
+	 * Maps the next region if there are fewer than the given number of bytes left in the current
+	 * one.
+	 */
+	private void ensureSpace(int length) throws IOException
+	{
+		if (m_region.remaining() < length)
+		{
+			mapNextRegion();
+		}
+	}
+
+	/**
+	 * Maps the region which starts where the data written so far ends.
+	 */
+	private void mapNextRegion() throws IOException
+	{
+		m_regionStart += m_region.position();
+		m_region = m_channel.map(FileChannel.MapMode.READ_WRITE, m_regionStart, REGION_SIZE);
+	}
+
+	/**
+	 * Writes an unsigned variable length integer: seven bits per byte, least significant first,
+	 * with the top bit set on every byte but the last.
+	 */
+	private void putNumber(long value)
+	{
+		while ((value & ~0x7fL) != 0)
+		{
+			m_region.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		m_region.put((byte) value);
+	}
+}
@@ -0,0 +1,43 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Connection to GDB's machine interface. Gdb opens the transport on its read thread, then writes
+ * commands to the output stream on its write thread while other threads read the input and error
+ * streams, so the streams must be usable concurrently.
+ */
+public interface GdbTransport
+{
+	/**
+	 * Opens the connection, e.g. by launching GDB. Called once, before any other method.
+	 * @throws IOException If the connection cannot be opened.
+	 */
+	public void open() throws IOException;
+
+	/**
+	 * Returns the stream GDB's output is read from.
+	 * @return The stream.
+	 */
+	public InputStream getInputStream();
+
+	/**
+	 * Returns the stream commands are written to.
+	 * @return The stream.
+	 */
+	public OutputStream getOutputStream();
+
+	/**
+	 * Returns the stream GDB's error output is read from.
+	 * @return The stream, or null if the transport has no separate error output.
+	 */
+	public InputStream getErrorStream();
+
+	/**
+	 * Closes the connection, killing GDB if the transport launched it. May be called from any
+	 * thread, and more than once.
+	 */
+	public void close();
+}
@@ -0,0 +1,264 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of the objects that make up GDB/MI value trees. A parser which is given an arena takes
+ * values, results and lists from it rather than allocating new ones, and the records it produces
+ * return them when they are released with GdbMiRecord.release().
+ *
+ * Arenas are not thread safe; records must be released on the thread which parses them.
+ */
+public class GdbMiArena
+{
+	// Default maximum number of free objects of each kind that are kept
+	private static final int DEFAULT_CAPACITY = 4096;
+
+	// Lists which have held more items than this are not kept, so one huge response does not pin
+	// large backing arrays for the rest of the session
+	private static final int MAX_POOLED_LIST_SIZE = 1024;
+
+	// Maximum number of free objects of each kind that are kept
+	private final int m_capacity;
+
+	// Free objects
+	private final ArrayList<GdbMiValue> m_values;
+	private final ArrayList<GdbMiResult> m_results;
+	private final ArrayList<GdbMiList> m_lists;
+	private final ArrayList<List<GdbMiResult>> m_resultLists;
+	private final ArrayList<List<GdbMiValue>> m_valueLists;
+
+	// Statistics
+	private long m_allocated = 0;
+	private long m_reused = 0;
+
+	/**
+	 * Constructor; uses the default capacity.
+	 */
+	public GdbMiArena()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor.
+	 * @param capacity The maximum number of free objects of each kind to keep.
+	 */
+	public GdbMiArena(int capacity)
+	{
+		m_capacity = capacity;
+		m_values = new ArrayList<GdbMiValue>();
+		m_results = new ArrayList<GdbMiResult>();
+		m_lists = new ArrayList<GdbMiList>();
+		m_resultLists = new ArrayList<List<GdbMiResult>>();
+		m_valueLists = new ArrayList<List<GdbMiValue>>();
+	}
+
+	/**
+	 * Returns the number of objects which had to be allocated because the pool was empty.
+	 * @return The number of objects allocated.
+	 */
+	public long getAllocatedCount()
+	{
+		return m_allocated;
+	}
+
+	/**
+	 * Returns the number of objects which were taken from the pool.
+	 * @return The number of objects reused.
+	 */
+	public long getReusedCount()
+	{
+		return m_reused;
+	}
+
+	/**
+	 * Gets a value of the given type.
+	 * @param type The type of the value.
+	 * @return The value. All other fields are null.
+	 */
+	public GdbMiValue newValue(GdbMiValue.Type type)
+	{
+		GdbMiValue value = take(m_values);
+		if (value == null)
+		{
+			++m_allocated;
+			return new GdbMiValue(type);
+		}
+		value.type = type;
+		return value;
+	}
+
+	/**
+	 * Gets a result with the given name. The value of the result has no type.
+	 * @param variable The name of the variable.
+	 * @return The result.
+	 */
+	public GdbMiResult newResult(String variable)
+	{
+		GdbMiResult result = take(m_results);
+		if (result == null)
+		{
+			++m_allocated;
+			return new GdbMiResult(variable);
+		}
+		result.variable = variable;
+		return result;
+	}
+
+	/**
+	 * Gets an empty list.
+	 * @return The list.
+	 */
+	public GdbMiList newList()
+	{
+		GdbMiList list = take(m_lists);
+		if (list == null)
+		{
+			++m_allocated;
+			return new GdbMiList();
+		}
+		return list;
+	}
+
+	/**
+	 * Gets an empty list of results.
+	 * @return The list.
+	 */
+	public List<GdbMiResult> newResultList()
+	{
+		List<GdbMiResult> list = take(m_resultLists);
+		if (list == null)
+		{
+			++m_allocated;
+			return new ArrayList<GdbMiResult>();
+		}
+		return list;
+	}
+
+	/**
+	 * Gets an empty list of values.
+	 * @return The list.
+	 */
+	public List<GdbMiValue> newValueList()
+	{
+		List<GdbMiValue> list = take(m_valueLists);
+		if (list == null)
+		{
+			++m_allocated;
+			return new ArrayList<GdbMiValue>();
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the values of the given record to the pool. The record's list of results is emptied.
+	 * @param record The record.
+	 */
+	void release(GdbMiRecord record)
+	{
+		if (record instanceof GdbMiResultRecord)
+		{
+			List<GdbMiResult> results = ((GdbMiResultRecord) record).results;
+			for (GdbMiResult result : results)
+			{
+				releaseResult(result);
+			}
+			results.clear();
+		}
+	}
+
+	/**
+	 * Returns the given result and its value to the pool.
+	 */
+	private void releaseResult(GdbMiResult result)
+	{
+		// The value stays attached to the result
+		clearValue(result.value);
+		result.variable = null;
+		give(m_results, result);
+	}
+
+	/**
+	 * Returns the contents of the given value to the pool and resets it.
+	 */
+	private void clearValue(GdbMiValue value)
+	{
+		if (value.tuple != null)
+		{
+			releaseResultList(value.tuple);
+		}
+		if (value.list != null)
+		{
+			GdbMiList list = value.list;
+			if (list.results != null)
+			{
+				releaseResultList(list.results);
+			}
+			if (list.values != null)
+			{
+				for (GdbMiValue item : list.values)
+				{
+					clearValue(item);
+					give(m_values, item);
+				}
+				if (list.values.size() <= MAX_POOLED_LIST_SIZE)
+				{
+					list.values.clear();
+					give(m_valueLists, list.values);
+				}
+			}
+			list.type = GdbMiList.Type.Empty;
+			list.results = null;
+			list.values = null;
+			give(m_lists, list);
+		}
+		value.type = null;
+		value.string = null;
+		value.tuple = null;
+		value.list = null;
+	}
+
+	/**
+	 * Returns the given list of results and its contents to the pool.
+	 */
+	private void releaseResultList(List<GdbMiResult> results)
+	{
+		for (GdbMiResult result : results)
+		{
+			releaseResult(result);
+		}
+		if (results.size() <= MAX_POOLED_LIST_SIZE)
+		{
+			results.clear();
+			give(m_resultLists, results);
+		}
+	}
+
+	/**
+	 * Takes an object from the given free list.
+	 * @return The object, or null if the list is empty.
+	 */
+	private <T> T take(ArrayList<T> free)
+	{
+		int size = free.size();
+		if (size == 0)
+		{
+			return null;
+		}
+		++m_reused;
+		return free.remove(size - 1);
+	}
+
+	/**
+	 * Puts an object on the given free list if there is room.
+	 */
+	private <T> void give(ArrayList<T> free, T object)
+	{
+		if (free.size() < m_capacity)
+		{
+			free.add(object);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package uk.co.cwspencer.gdb.gdbmi;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -28,18 +30,88 @@ public class GdbMiLexer
 		CrLf                   // Ready to optionally read LF
 	}
 
+	/**
+	 * Possible ways for the lexer to store the tokens it reads.
+	 */
+	public enum TokenMode
+	{
+		/**
+		 * Tokens are stored as GdbMiToken objects. See getTokens().
+		 */
+		Objects,
+
+		/**
+		 * Token types and the locations of their values are written to reusable primitive arrays,
+		 * so no objects are created per token. See getTokenCount().
+		 */
+		Compact
+	}
+
+	// Size of the buffer used to copy data out of direct byte buffers
+	private static final int SCRATCH_SIZE = 8192;
+
+	// Token types indexed by ordinal
+	private static final GdbMiToken.Type[] m_tokenTypeValues = GdbMiToken.Type.values();
+
+	// How tokens are stored
+	private final TokenMode m_mode;
+
 	// State of the lexer FSM
 	private FsmState m_state = FsmState.Idle;
 
-	// Temporary store for partially read tokens
-	private StringBuilder m_partialToken;
+	// Raw bytes of token values. In compact mode this holds the values of all unprocessed tokens;
+	// in object mode it only holds the partially read token
+	private byte[] m_text = new byte[256];
+	private int m_textLength = 0;
+
+	// Offset of the partially read token within m_text
+	private int m_partialStart = 0;
 
-	// List of unprocessed tokens
+	// List of unprocessed tokens (object mode)
 	private List<GdbMiToken> m_tokens = new ArrayList<GdbMiToken>();
 
+	// Unprocessed tokens (compact mode). Types are stored as GdbMiToken.Type ordinals. Spans hold
+	// the offset of the value within m_text in the upper 32 bits and its length in the lower 32
+	private int[] m_tokenTypes = new int[64];
+	private long[] m_tokenSpans = new long[64];
+	private int m_tokenCount = 0;
+
+	// Buffer used to copy data out of direct byte buffers. Created on first use
+	private byte[] m_scratch;
+
+	// Canonical strings for identifiers and short string values
+	private final GdbMiSymbolTable m_symbols = new GdbMiSymbolTable();
+
+	/**
+	 * Constructor; stores tokens as GdbMiToken objects.
+	 */
+	public GdbMiLexer()
+	{
+		this(TokenMode.Objects);
+	}
+
+	/**
+	 * Constructor.
+	 * @param mode How the lexer should store the tokens it reads.
+	 */
+	public GdbMiLexer(TokenMode mode)
+	{
+		m_mode = mode;
+	}
+
+	/**
+	 * Returns the table used to intern identifiers. Parsers reading tokens from this lexer may use
+	 * it for string values too.
+	 * @return The symbol table.
+	 */
+	public GdbMiSymbolTable getSymbolTable()
+	{
+		return m_symbols;
+	}
+
 	/**
 	 * Returns a list of unprocessed tokens. The caller should erase items from this list as they
-	 * are processed.
+	 * are processed. Only used in object mode.
 	 * @return A list of unprocessed tokens.
 	 */
 	public List<GdbMiToken> getTokens()
@@ -47,6 +119,87 @@ public class GdbMiLexer
 		return m_tokens;
 	}
 
+	/**
+	 * Returns the number of unprocessed tokens. Only used in compact mode.
+	 * @return The number of unprocessed tokens.
+	 */
+	public int getTokenCount()
+	{
+		return m_tokenCount;
+	}
+
+	/**
+	 * Returns the type of the given unprocessed token. Only used in compact mode.
+	 * @param index The index of the token.
+	 * @return The type of the token.
+	 */
+	public GdbMiToken.Type getTokenType(int index)
+	{
+		return m_tokenTypeValues[m_tokenTypes[index]];
+	}
+
+	/**
+	 * Returns the buffer which holds the values of the unprocessed tokens. Only used in compact
+	 * mode. The buffer is reused, so its contents are only valid until clearTokens() is called.
+	 * @return The token value buffer.
+	 */
+	public byte[] getTokenText()
+	{
+		return m_text;
+	}
+
+	/**
+	 * Returns the offset of the value of the given token within getTokenText(). Only used in
+	 * compact mode.
+	 * @param index The index of the token.
+	 * @return The offset of the value.
+	 */
+	public int getTokenOffset(int index)
+	{
+		return (int) (m_tokenSpans[index] >>> 32);
+	}
+
+	/**
+	 * Returns the length of the value of the given token. This is zero for tokens without a
+	 * value. Only used in compact mode.
+	 * @param index The index of the token.
+	 * @return The length of the value.
+	 */
+	public int getTokenLength(int index)
+	{
+		return (int) m_tokenSpans[index];
+	}
+
+	/**
+	 * Returns the value of the given token as a string. The string is looked up in the symbol
+	 * table, so repeated identifiers share one instance. Only used in compact mode.
+	 * @param index The index of the token.
+	 * @return The value of the token.
+	 */
+	public String getTokenValue(int index)
+	{
+		return m_symbols.intern(m_text, getTokenOffset(index), getTokenLength(index));
+	}
+
+	/**
+	 * Discards all unprocessed tokens. In compact mode this must be called once the tokens
+	 * returned by the last call to process() have been handled.
+	 */
+	public void clearTokens()
+	{
+		m_tokens.clear();
+		m_tokenCount = 0;
+
+		// Keep any partially read token, moving it to the start of the buffer
+		int partialLength = m_textLength - m_partialStart;
+		if (partialLength != 0 && m_partialStart != 0)
+		{
+			System.arraycopy(m_text, m_partialStart, m_text, 0, partialLength);
+		}
+		m_textLength = partialLength;
+		m_partialStart = 0;
+	}
+
 	/**
 	 * Processes the given data.
 	 * @param data Data read from the GDB process.
@@ -54,7 +207,46 @@ public class GdbMiLexer
 	 */
 	public void process(byte[] data, int length)
 	{
-		for (int i = 0; i != length; ++i)
+		process(data, 0, length);
+	}
+
+	/**
+	 * Processes the remaining bytes of the given buffer, which may be a direct buffer. The
+	 * buffer's position is advanced to its limit.
+	 * @param buffer Data read from the GDB process.
+	 */
+	public void process(ByteBuffer buffer)
+	{
+		if (buffer.hasArray())
+		{
+			process(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+
+		// Copy direct buffers out in chunks; a bulk get is a single memory copy
+		if (m_scratch == null)
+		{
+			m_scratch = new byte[SCRATCH_SIZE];
+		}
+		while (buffer.hasRemaining())
+		{
+			int length = Math.min(buffer.remaining(), m_scratch.length);
+			buffer.get(m_scratch, 0, length);
+			process(m_scratch, 0, length);
+		}
+	}
+
+	/**
+	 * Processes the given data.
+	 * @param data Data read from the GDB process.
+	 * @param offset Offset of the first byte to process.
+	 * @param length Number of bytes from data to process.
+	 */
+	public void process(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+		for (int i = offset; i != end; ++i)
 		{
 			switch (m_state)
 			{
@@ -77,63 +269,63 @@ public class GdbMiLexer
 				case '7':
 				case '8':
 				case '9':
-					m_partialToken = new StringBuilder();
-					m_partialToken.append((char) data[i]);
+					beginPartialToken();
+					appendPartialToken(data[i]);
 					m_state = FsmState.UserToken;
 					break;
 
 				case '^':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.ResultRecordPrefix));
+					addToken(GdbMiToken.Type.ResultRecordPrefix);
 					break;
 
 				case '*':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.ExecAsyncOutputPrefix));
+					addToken(GdbMiToken.Type.ExecAsyncOutputPrefix);
 					break;
 
 				case '+':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StatusAsyncOutputPrefix));
+					addToken(GdbMiToken.Type.StatusAsyncOutputPrefix);
 					break;
 
 				case '=':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.NotifyAsyncOutputPrefix));
+					addToken(GdbMiToken.Type.NotifyAsyncOutputPrefix);
 					break;
 
 				case '~':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.ConsoleStreamOutputPrefix));
+					addToken(GdbMiToken.Type.ConsoleStreamOutputPrefix);
 					break;
 
 				case '@':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.TargetStreamOutputPrefix));
+					addToken(GdbMiToken.Type.TargetStreamOutputPrefix);
 					break;
 
 				case '&':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.LogStreamOutputPrefix));
+					addToken(GdbMiToken.Type.LogStreamOutputPrefix);
 					break;
 
 				case ',':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.ResultSeparator));
+					addToken(GdbMiToken.Type.ResultSeparator);
 					break;
 
 				case '"':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringPrefix));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringPrefix);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case '{':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.TuplePrefix));
+					addToken(GdbMiToken.Type.TuplePrefix);
 					break;
 
 				case '}':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.TupleSuffix));
+					addToken(GdbMiToken.Type.TupleSuffix);
 					break;
 
 				case '[':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.ListPrefix));
+					addToken(GdbMiToken.Type.ListPrefix);
 					break;
 
 				case ']':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.ListSuffix));
+					addToken(GdbMiToken.Type.ListSuffix);
 					break;
 
 				case '(':
@@ -141,7 +333,7 @@ public class GdbMiLexer
 					break;
 
 				case '\r':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.NewLine));
+					addToken(GdbMiToken.Type.NewLine);
 					m_state = FsmState.CrLf;
 					break;
 
@@ -198,8 +390,8 @@ public class GdbMiLexer
 				case 'X':
 				case 'Y':
 				case 'Z':
-					m_partialToken = new StringBuilder();
-					m_partialToken.append((char) data[i]);
+					beginPartialToken();
+					appendPartialToken(data[i]);
 					m_state = FsmState.Identifier;
 					break;
 
@@ -224,12 +416,11 @@ public class GdbMiLexer
 				case '7':
 				case '8':
 				case '9':
-					m_partialToken.append((char) data[i]);
+					appendPartialToken(data[i]);
 					break;
 
 				default:
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.UserToken,
-						m_partialToken.toString()));
+					addPartialToken(GdbMiToken.Type.UserToken);
 					m_state = FsmState.Idle;
 					--i;
 				}
@@ -246,21 +437,17 @@ public class GdbMiLexer
 					(data[i] >= 'a' && data[i] <= 'z') ||
 					(data[i] >= 'A' && data[i] <= 'Z'))
 				{
-					m_partialToken.append((char) data[i]);
+					appendPartialToken(data[i]);
 				}
 				else if (data[i] == '=')
 				{
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.Identifier,
-						m_partialToken.toString()));
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.Equals));
-					m_partialToken = null;
+					addPartialToken(GdbMiToken.Type.Identifier);
+					addToken(GdbMiToken.Type.Equals);
 					m_state = FsmState.Idle;
 				}
 				else
 				{
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.Identifier,
-						m_partialToken.toString()));
-					m_partialToken = null;
+					addPartialToken(GdbMiToken.Type.Identifier);
 					m_state = FsmState.Idle;
 					--i;
 				}
@@ -286,25 +473,21 @@ public class GdbMiLexer
 				switch (data[i])
 				{
 				case '"':
-					if (m_partialToken.length() != 0)
+					if (m_textLength != m_partialStart)
 					{
-						m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringFragment,
-							m_partialToken.toString()));
+						addPartialToken(GdbMiToken.Type.StringFragment);
 					}
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringSuffix));
-					m_partialToken = null;
+					addToken(GdbMiToken.Type.StringSuffix);
 					m_state = FsmState.Idle;
 					break;
 
 				case '\\':
-					if (m_partialToken.length() != 0)
+					if (m_textLength != m_partialStart)
 					{
-						m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringFragment,
-							m_partialToken.toString()));
+						addPartialToken(GdbMiToken.Type.StringFragment);
 					}
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapePrefix));
+					addToken(GdbMiToken.Type.StringEscapePrefix);
 					m_state = FsmState.CStringEscape;
-					m_partialToken = null;
 					break;
 
 				case '\r':
@@ -312,7 +495,13 @@ public class GdbMiLexer
 					throw new IllegalArgumentException("Unexpected character: '" + data[i] + "'");
 
 				default:
-					m_partialToken.append((char) data[i]);
+					// Copy the whole run of ordinary characters at once; the loop resumes on the
+					// character which ended it
+					{
+						int runEnd = GdbMiStringBuffer.scanRun(data, i, end);
+						appendPartialToken(data, i, runEnd - i);
+						i = runEnd - 1;
+					}
 				}
 				break;
 
@@ -322,74 +511,74 @@ public class GdbMiLexer
 				switch (data[i])
 				{
 				case '\'':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeApostrophe));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeApostrophe);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case '"':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeQuote));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeQuote);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case '?':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeQuestion));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeQuestion);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case '\\':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeBackslash));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeBackslash);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case 'a':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeAlarm));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeAlarm);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case 'b':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeBackspace));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeBackspace);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case 'f':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeFormFeed));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeFormFeed);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case 'n':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeNewLine));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeNewLine);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case 'r':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeCarriageReturn));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeCarriageReturn);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case 't':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeHorizontalTab));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeHorizontalTab);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case 'v':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeVerticalTab));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeVerticalTab);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					break;
 
 				case 'x':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeHexPrefix));
-					m_partialToken = new StringBuilder();
+					addToken(GdbMiToken.Type.StringEscapeHexPrefix);
+					beginPartialToken();
 					m_state = FsmState.CStringEscapeHexHead;
 					break;
 
@@ -401,8 +590,8 @@ public class GdbMiLexer
 				case '5':
 				case '6':
 				case '7':
-					m_partialToken = new StringBuilder();
-					m_partialToken.append((char) data[i]);
+					beginPartialToken();
+					appendPartialToken(data[i]);
 					m_state = FsmState.CStringEscapeOct1;
 					break;
 
@@ -418,7 +607,7 @@ public class GdbMiLexer
 					(data[i] >= 'a' && data[i] <= 'f') ||
 					(data[i] >= 'A' && data[i] <= 'F'))
 				{
-					m_partialToken.append((char) data[i]);
+					appendPartialToken(data[i]);
 					m_state = FsmState.CStringEscapeHex;
 				}
 				else
@@ -435,13 +624,12 @@ public class GdbMiLexer
 					(data[i] >= 'a' && data[i] <= 'f') ||
 					(data[i] >= 'A' && data[i] <= 'F'))
 				{
-					m_partialToken.append((char) data[i]);
+					appendPartialToken(data[i]);
 				}
 				else
 				{
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeHexValue,
-						m_partialToken.toString()));
-					m_partialToken = new StringBuilder();
+					addPartialToken(GdbMiToken.Type.StringEscapeHexValue);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					--i;
 				}
@@ -453,14 +641,13 @@ public class GdbMiLexer
 				// Else reprocess as normal C string character
 				if (data[i] >= '0' && data[i] <= '7')
 				{
-					m_partialToken.append((char) data[i]);
+					appendPartialToken(data[i]);
 					m_state = FsmState.CStringEscapeOct2;
 				}
 				else
 				{
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeOctValue,
-						m_partialToken.toString()));
-					m_partialToken = new StringBuilder();
+					addPartialToken(GdbMiToken.Type.StringEscapeOctValue);
+					beginPartialToken();
 					m_state = FsmState.CString;
 					--i;
 				}
@@ -472,15 +659,14 @@ public class GdbMiLexer
 				// Else reprocess as normal C string character
 				if (data[i] >= '0' && data[i] <= '7')
 				{
-					m_partialToken.append((char) data[i]);
+					appendPartialToken(data[i]);
 				}
 				else
 				{
 					--i;
 				}
-				m_tokens.add(new GdbMiToken(GdbMiToken.Type.StringEscapeOctValue,
-					m_partialToken.toString()));
-				m_partialToken = new StringBuilder();
+				addPartialToken(GdbMiToken.Type.StringEscapeOctValue);
+				beginPartialToken();
 				m_state = FsmState.CString;
 				break;
 
@@ -528,7 +714,7 @@ public class GdbMiLexer
 				switch (data[i])
 				{
 				case ')':
-					m_tokens.add(new GdbMiToken(GdbMiToken.Type.GdbSuffix));
+					addToken(GdbMiToken.Type.GdbSuffix);
 					m_state = FsmState.GdbSuffix5;
 					break;
 
@@ -576,4 +762,107 @@ public class GdbMiLexer
 			}
 		}
 	}
+
+	/**
+	 * Records a token which has no value.
+	 * @param type The type of the token.
+	 */
+	private void addToken(GdbMiToken.Type type)
+	{
+		if (m_mode == TokenMode.Objects)
+		{
+			m_tokens.add(new GdbMiToken(type));
+		}
+		else
+		{
+			addCompactToken(type, m_textLength, 0);
+		}
+	}
+
+	/**
+	 * Records a token whose value is the partially read token.
+	 * @param type The type of the token.
+	 */
+	private void addPartialToken(GdbMiToken.Type type)
+	{
+		int length = m_textLength - m_partialStart;
+		if (m_mode == TokenMode.Objects)
+		{
+			String value = type == GdbMiToken.Type.Identifier ?
+				m_symbols.intern(m_text, m_partialStart, length) : decodeText(m_partialStart, length);
+			m_tokens.add(new GdbMiToken(type, value));
+			m_textLength = 0;
+		}
+		else
+		{
+			addCompactToken(type, m_partialStart, length);
+		}
+		m_partialStart = m_textLength;
+	}
+
+	/**
+	 * Appends a token to the primitive token arrays.
+	 * @param type The type of the token.
+	 * @param offset The offset of the value within m_text.
+	 * @param length The length of the value.
+	 */
+	private void addCompactToken(GdbMiToken.Type type, int offset, int length)
+	{
+		if (m_tokenCount == m_tokenTypes.length)
+		{
+			m_tokenTypes = Arrays.copyOf(m_tokenTypes, m_tokenCount * 2);
+			m_tokenSpans = Arrays.copyOf(m_tokenSpans, m_tokenCount * 2);
+		}
+		m_tokenTypes[m_tokenCount] = type.ordinal();
+		m_tokenSpans[m_tokenCount] = ((long) offset << 32) | length;
+		++m_tokenCount;
+	}
+
+	/**
+	 * Starts reading a new partial token.
+	 */
+	private void beginPartialToken()
+	{
+		m_partialStart = m_textLength;
+	}
+
+	/**
+	 * Appends a byte to the partially read token.
+	 * @param ch The byte.
+	 */
+	private void appendPartialToken(byte ch)
+	{
+		if (m_textLength == m_text.length)
+		{
+			m_text = Arrays.copyOf(m_text, m_textLength * 2);
+		}
+		m_text[m_textLength++] = ch;
+	}
+
+	/**
+	 * Appends a range of bytes to the partially read token.
+	 * @param data The array containing the bytes.
+	 * @param offset The offset of the first byte.
+	 * @param length The number of bytes.
+	 */
+	private void appendPartialToken(byte[] data, int offset, int length)
+	{
+		if (m_textLength + length > m_text.length)
+		{
+			m_text = Arrays.copyOf(m_text, Math.max(m_text.length * 2, m_textLength + length));
+		}
+		System.arraycopy(data, offset, m_text, m_textLength, length);
+		m_textLength += length;
+	}
+
+	/**
+	 * Converts a range of m_text to a string, decoding it as UTF-8.
+	 * @param offset The offset of the range.
+	 * @param length The length of the range.
+	 * @return The string.
+	 */
+	private String decodeText(int offset, int length)
+	{
+		return GdbMiStringBuffer.decode(m_text, offset, length);
+	}
 }
@@ -1,11 +1,15 @@
 package uk.co.cwspencer.gdb.gdbmi;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
 
 /**
- * Parser for GDB/MI output.
+ * Parser for GDB/MI output. The parser reports the structure of each record to a GdbMiVisitor as
+ * it is read. By default this is a GdbMiTreeBuilder, which builds GdbMiRecord objects that can be
+ * retrieved with getRecords(); consumers of very large responses can supply their own visitor to
+ * handle values as they arrive instead.
  */
 public class GdbMiParser
 {
@@ -39,23 +43,48 @@ public class GdbMiParser
 	private Stack<FsmState> m_state;
 
 	// Lexer
-	private GdbMiLexer m_lexer = new GdbMiLexer();
+	private GdbMiLexer m_lexer = new GdbMiLexer(GdbMiLexer.TokenMode.Compact);
 
 	// Partially processed record
-	private GdbMiResultRecord m_resultRecord;
-	private GdbMiStreamRecord m_streamRecord;
-	private Stack<GdbMiValue> m_valueStack = new Stack<GdbMiValue>();
+	private GdbMiRecord.Type m_recordType;
 	private Long m_userToken;
-	private StringBuilder m_sb;
+	private boolean m_inStreamRecord = false;
+	private final GdbMiStringBuffer m_string = new GdbMiStringBuffer();
 
-	// List of unprocessed records
-	private List<GdbMiRecord> m_records = new ArrayList<GdbMiRecord>();
+	// Visitor to which the records are reported
+	private final GdbMiVisitor m_visitor;
+
+	// The visitor if it is the default tree builder; null otherwise
+	private final GdbMiTreeBuilder m_treeBuilder;
 
 	/**
-	 * Constructor.
+	 * Constructor; builds GdbMiRecord objects which can be retrieved with getRecords().
 	 */
 	public GdbMiParser()
 	{
+		this(new GdbMiTreeBuilder());
+	}
+
+	/**
+	 * Constructor; builds GdbMiRecord objects whose values are taken from the given arena. Each
+	 * record must be released with GdbMiRecord.release() once the caller has finished with it so
+	 * its values can be reused for later records.
+	 * @param arena The arena to take values from.
+	 */
+	public GdbMiParser(GdbMiArena arena)
+	{
+		this(new GdbMiTreeBuilder(arena));
+	}
+
+	/**
+	 * Constructor; reports records to the given visitor. If the visitor is not a GdbMiTreeBuilder
+	 * no record objects are built and getRecords() always returns an empty list.
+	 * @param visitor The visitor.
+	 */
+	public GdbMiParser(GdbMiVisitor visitor)
+	{
+		m_visitor = visitor;
+		m_treeBuilder = visitor instanceof GdbMiTreeBuilder ? (GdbMiTreeBuilder) visitor : null;
 		m_state = new Stack<FsmState>();
 		m_state.push(FsmState.Idle);
 	}
@@ -67,7 +96,21 @@ public class GdbMiParser
 	 */
 	public List<GdbMiRecord> getRecords()
 	{
-		return m_records;
+		if (m_treeBuilder == null)
+		{
+			return Collections.emptyList();
+		}
+		return m_treeBuilder.getRecords();
+	}
+
+	/**
+	 * Returns the table used to intern identifiers and short string values. Its counters show how
+	 * effective interning has been over the session.
+	 * @return The symbol table.
+	 */
+	public GdbMiSymbolTable getSymbolTable()
+	{
+		return m_lexer.getSymbolTable();
 	}
 
 	/**
@@ -88,11 +131,30 @@ public class GdbMiParser
 	{
 		// Run the data through the lexer first
 		m_lexer.process(data, length);
+		parseTokens();
+	}
 
-		// Parse the data
-		List<GdbMiToken> tokens = m_lexer.getTokens();
-		for (GdbMiToken token : tokens)
+	/**
+	 * Processes the remaining bytes of the given buffer, which may be a direct buffer. The
+	 * buffer's position is advanced to its limit.
+	 * @param buffer Data read from the GDB process.
+	 */
+	public void process(ByteBuffer buffer)
+	{
+		m_lexer.process(buffer);
+		parseTokens();
+	}
+
+	/**
+	 * Parses the tokens produced by the lexer.
+	 */
+	private void parseTokens()
+	{
+		int tokenCount = m_lexer.getTokenCount();
+		byte[] tokenText = m_lexer.getTokenText();
+		for (int token = 0; token != tokenCount; ++token)
 		{
+			GdbMiToken.Type tokenType = m_lexer.getTokenType(token);
 			if (m_state.isEmpty())
 			{
 				throw new IllegalArgumentException("Mismatched tuple or list detected");
@@ -111,61 +173,20 @@ public class GdbMiParser
 				// TargetStreamOutputPrefix
 				// LogStreamOutputPrefix
 				// GdbSuffix
-				switch (token.type)
+				switch (tokenType)
 				{
 				case UserToken:
-					m_userToken = Long.parseLong(token.value);
+					m_userToken = parseDigits(tokenText, m_lexer.getTokenOffset(token),
+						m_lexer.getTokenLength(token), 10);
 					setState(FsmState.Record);
 					break;
 
-				case ResultRecordPrefix:
-					m_resultRecord = new GdbMiResultRecord(GdbMiRecord.Type.Immediate, m_userToken);
-					m_userToken = null;
-					setState(FsmState.ResultRecord);
-					break;
-
-				case StatusAsyncOutputPrefix:
-					m_resultRecord = new GdbMiResultRecord(GdbMiRecord.Type.Status, m_userToken);
-					m_userToken = null;
-					setState(FsmState.ResultRecord);
-					break;
-
-				case ExecAsyncOutputPrefix:
-					m_resultRecord = new GdbMiResultRecord(GdbMiRecord.Type.Exec, m_userToken);
-					m_userToken = null;
-					setState(FsmState.ResultRecord);
-					break;
-
-				case NotifyAsyncOutputPrefix:
-					m_resultRecord = new GdbMiResultRecord(GdbMiRecord.Type.Notify, m_userToken);
-					m_userToken = null;
-					setState(FsmState.ResultRecord);
-					break;
-
-				case ConsoleStreamOutputPrefix:
-					m_streamRecord = new GdbMiStreamRecord(GdbMiRecord.Type.Console, m_userToken);
-					m_userToken = null;
-					setState(FsmState.StreamRecord);
-					break;
-
-				case TargetStreamOutputPrefix:
-					m_streamRecord = new GdbMiStreamRecord(GdbMiRecord.Type.Target, m_userToken);
-					m_userToken = null;
-					setState(FsmState.StreamRecord);
-					break;
-
-				case LogStreamOutputPrefix:
-					m_streamRecord = new GdbMiStreamRecord(GdbMiRecord.Type.Log, m_userToken);
-					m_userToken = null;
-					setState(FsmState.StreamRecord);
-					break;
-
 				case GdbSuffix:
 					setState(FsmState.MessageSuffix);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					beginRecord(tokenType);
 				}
 				break;
 
@@ -178,67 +199,22 @@ public class GdbMiParser
 				// ConsoleStreamOutputPrefix
 				// TargetStreamOutputPrefix
 				// LogStreamOutputPrefix
-				switch (token.type)
-				{
-				case ResultRecordPrefix:
-					m_resultRecord = new GdbMiResultRecord(GdbMiRecord.Type.Immediate, m_userToken);
-					m_userToken = null;
-					setState(FsmState.ResultRecord);
-					break;
-
-				case StatusAsyncOutputPrefix:
-					m_resultRecord = new GdbMiResultRecord(GdbMiRecord.Type.Status, m_userToken);
-					m_userToken = null;
-					setState(FsmState.ResultRecord);
-					break;
-
-				case ExecAsyncOutputPrefix:
-					m_resultRecord = new GdbMiResultRecord(GdbMiRecord.Type.Exec, m_userToken);
-					m_userToken = null;
-					setState(FsmState.ResultRecord);
-					break;
-
-				case NotifyAsyncOutputPrefix:
-					m_resultRecord = new GdbMiResultRecord(GdbMiRecord.Type.Notify, m_userToken);
-					m_userToken = null;
-					setState(FsmState.ResultRecord);
-					break;
-
-				case ConsoleStreamOutputPrefix:
-					m_streamRecord = new GdbMiStreamRecord(GdbMiRecord.Type.Console, m_userToken);
-					m_userToken = null;
-					setState(FsmState.StreamRecord);
-					break;
-
-				case TargetStreamOutputPrefix:
-					m_streamRecord = new GdbMiStreamRecord(GdbMiRecord.Type.Target, m_userToken);
-					m_userToken = null;
-					setState(FsmState.StreamRecord);
-					break;
-
-				case LogStreamOutputPrefix:
-					m_streamRecord = new GdbMiStreamRecord(GdbMiRecord.Type.Log, m_userToken);
-					m_userToken = null;
-					setState(FsmState.StreamRecord);
-					break;
-
-				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
-				}
+				beginRecord(tokenType);
 				break;
 
 			case ResultRecord:
 				// Legal tokens:
 				// Identifier
-				switch (token.type)
+				switch (tokenType)
 				{
 				case Identifier:
-					m_resultRecord.className = token.value;
+					m_visitor.onRecordStart(m_recordType, m_userToken, m_lexer.getTokenValue(token));
+					m_userToken = null;
 					setState(FsmState.ResultRecordResults);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -246,53 +222,48 @@ public class GdbMiParser
 				// Legal tokens:
 				// ResultSeparator
 				// NewLine
-				switch (token.type)
+				switch (tokenType)
 				{
 				case ResultSeparator:
 					m_state.push(FsmState.ResultRecordResult);
 					break;
 
 				case NewLine:
-					m_records.add(m_resultRecord);
-					m_resultRecord = null;
+					m_visitor.onRecordEnd();
 					setState(FsmState.Idle);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
 			case ResultRecordResult:
 				// Legal tokens:
 				// Identifier
-				switch (token.type)
+				switch (tokenType)
 				{
 				case Identifier:
-					{
-						GdbMiResult result = new GdbMiResult(token.value);
-						m_valueStack.push(result.value);
-						m_resultRecord.results.add(result);
-					}
+					m_visitor.onResult(m_lexer.getTokenValue(token));
 					setState(FsmState.ResultRecordResultEquals);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
 			case ResultRecordResultEquals:
 				// Legal tokens:
 				// Equals
-				switch (token.type)
+				switch (tokenType)
 				{
 				case Equals:
 					setState(FsmState.ResultRecordResultValue);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -301,43 +272,43 @@ public class GdbMiParser
 				// StringPrefix
 				// TuplePrefix
 				// ListPrefix
-				switch (token.type)
+				switch (tokenType)
 				{
 				case StringPrefix:
-					m_valueStack.lastElement().type = GdbMiValue.Type.String;
-					m_sb = new StringBuilder();
+					m_string.clear();
 					setState(FsmState.String);
 					break;
 
 				case TuplePrefix:
-					m_valueStack.lastElement().type = GdbMiValue.Type.Tuple;
-					m_valueStack.lastElement().tuple = new ArrayList<GdbMiResult>();
+					m_visitor.onTupleStart();
 					setState(FsmState.Tuple);
 					break;
 
 				case ListPrefix:
-					m_valueStack.lastElement().type = GdbMiValue.Type.List;
-					m_valueStack.lastElement().list = new GdbMiList();
+					m_visitor.onListStart();
 					setState(FsmState.List);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
 			case StreamRecord:
 				// Legal tokens:
 				// StringPrefix
-				switch (token.type)
+				switch (tokenType)
 				{
 				case StringPrefix:
-					m_sb = new StringBuilder();
+					m_visitor.onRecordStart(m_recordType, m_userToken, null);
+					m_userToken = null;
+					m_inStreamRecord = true;
+					m_string.clear();
 					setState(FsmState.String);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -346,10 +317,11 @@ public class GdbMiParser
 				// StringFragment
 				// StringEscapePrefix
 				// StringSuffix
-				switch (token.type)
+				switch (tokenType)
 				{
 				case StringFragment:
-					m_sb.append(token.value);
+					m_string.append(tokenText, m_lexer.getTokenOffset(token),
+						m_lexer.getTokenLength(token));
 					break;
 
 				case StringEscapePrefix:
@@ -357,27 +329,23 @@ public class GdbMiParser
 					break;
 
 				case StringSuffix:
-					assert !m_valueStack.isEmpty() || m_streamRecord != null;
-					assert !(!m_valueStack.isEmpty() && m_streamRecord != null);
-
-					if (!m_valueStack.isEmpty())
+					// Stream records are mostly unique console output, so only values are interned
+					m_visitor.onString(m_inStreamRecord ? m_string.toString() :
+						m_string.toString(m_lexer.getSymbolTable()));
+					if (m_inStreamRecord)
 					{
-						// Currently reading a value
-						GdbMiValue value = m_valueStack.pop();
-						assert value.type == GdbMiValue.Type.String;
-						value.string = m_sb.toString();
-						m_state.pop();
+						m_inStreamRecord = false;
+						setState(FsmState.StreamRecordSuffix);
 					}
 					else
 					{
-						m_streamRecord.message = m_sb.toString();
-						setState(FsmState.StreamRecordSuffix);
+						// Currently reading a value
+						m_state.pop();
 					}
-					m_sb = null;
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -396,60 +364,60 @@ public class GdbMiParser
 				// StringEscapeVerticalTab
 				// StringEscapeHexPrefix
 				// StringEscapeOctValue
-				switch (token.type)
+				switch (tokenType)
 				{
 				case StringEscapeApostrophe:
-					m_sb.append('\'');
+					m_string.append((byte) '\'');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeQuote:
-					m_sb.append('"');
+					m_string.append((byte) '"');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeQuestion:
-					m_sb.append('?');
+					m_string.append((byte) '?');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeBackslash:
-					m_sb.append('\\');
+					m_string.append((byte) '\\');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeAlarm:
-					m_sb.append('\u0007');
+					m_string.append((byte) '\u0007');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeBackspace:
-					m_sb.append('\b');
+					m_string.append((byte) '\b');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeFormFeed:
-					m_sb.append('\f');
+					m_string.append((byte) '\f');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeNewLine:
-					m_sb.append('\n');
+					m_string.append((byte) '\n');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeCarriageReturn:
-					m_sb.append('\r');
+					m_string.append((byte) '\r');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeHorizontalTab:
-					m_sb.append('\t');
+					m_string.append((byte) '\t');
 					setState(FsmState.String);
 					break;
 
 				case StringEscapeVerticalTab:
-					m_sb.append('\u000b');
+					m_string.append((byte) '\u000b');
 					setState(FsmState.String);
 					break;
 
@@ -460,44 +428,46 @@ public class GdbMiParser
 				case StringEscapeOctValue:
 					// Octal values can be up to three characters long, which has a maximum value of
 					// 0x1ff. As such, we need to parse it as an integer and then truncate it to
-					// 8 bits before casting it to a 16-bit char to match the behaviour of C strings
+					// 8 bits to match the behaviour of C strings. The byte is decoded as part of
+					// the UTF-8 string once the whole string has been read
 					{
-						int ch = Integer.parseInt(token.value, 8) & 0xff;
-						m_sb.append((char) ch);
+						int ch = (int) parseDigits(tokenText, m_lexer.getTokenOffset(token),
+							m_lexer.getTokenLength(token), 8) & 0xff;
+						m_string.append((byte) ch);
 					}
 					setState(FsmState.String);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
 			case StringEscapeHex:
 				// Legal tokens:
 				// StringEscapeHexValue
-				switch (token.type)
+				switch (tokenType)
 				{
 				case StringEscapeHexValue:
 					// Hex values are not limited in length, so we need to truncate it to the last
 					// two characters to prevent Integer.parseInt from throwing an exception if it
 					// is too long
 					{
-						int tokenLen = token.value.length();
+						int offset = m_lexer.getTokenOffset(token);
+						int tokenLen = m_lexer.getTokenLength(token);
 						if (tokenLen > 2)
 						{
-							token.value = token.value.substring(tokenLen - 2, tokenLen);
+							offset += tokenLen - 2;
+							tokenLen = 2;
 						}
-					}
-					{
-						int ch = Integer.parseInt(token.value, 16);
-						m_sb.append((char) ch);
+						int ch = (int) parseDigits(tokenText, offset, tokenLen, 16);
+						m_string.append((byte) ch);
 					}
 					setState(FsmState.String);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -505,26 +475,22 @@ public class GdbMiParser
 				// Legal tokens:
 				// TupleSuffix
 				// Identifier
-				switch (token.type)
+				switch (tokenType)
 				{
 				case TupleSuffix:
-					m_valueStack.pop();
+					m_visitor.onTupleEnd();
 					m_state.pop();
 					break;
 
 				case Identifier:
-					{
-						GdbMiResult result = new GdbMiResult(token.value);
-						m_valueStack.lastElement().tuple.add(result);
-						m_valueStack.push(result.value);
-					}
+					m_visitor.onResult(m_lexer.getTokenValue(token));
 					m_state.pop();
 					m_state.push(FsmState.TupleSeparator);
 					m_state.push(FsmState.ResultRecordResultEquals);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -532,10 +498,10 @@ public class GdbMiParser
 				// Legal tokens:
 				// TupleSuffix
 				// ResultSeparator
-				switch (token.type)
+				switch (tokenType)
 				{
 				case TupleSuffix:
-					m_valueStack.pop();
+					m_visitor.onTupleEnd();
 					m_state.pop();
 					break;
 
@@ -544,28 +510,24 @@ public class GdbMiParser
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
 			case TupleItem:
 				// Legal tokens:
 				// Identifier
-				switch (token.type)
+				switch (tokenType)
 				{
 				case Identifier:
-					{
-						GdbMiResult result = new GdbMiResult(token.value);
-						m_valueStack.lastElement().tuple.add(result);
-						m_valueStack.push(result.value);
-					}
+					m_visitor.onResult(m_lexer.getTokenValue(token));
 					m_state.pop();
 					m_state.push(FsmState.TupleSeparator);
 					m_state.push(FsmState.ResultRecordResultEquals);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -574,61 +536,37 @@ public class GdbMiParser
 				// ListSuffix
 				// StringPrefix
 				// TuplePrefix
-				// ListPrefix
 				// Identifier
-				switch (token.type)
+				switch (tokenType)
 				{
 				case ListSuffix:
-					m_valueStack.pop();
+					m_visitor.onListEnd();
 					m_state.pop();
 					break;
 
 				case StringPrefix:
-					{
-						GdbMiList list = m_valueStack.lastElement().list;
-						list.type = GdbMiList.Type.Values;
-						list.values = new ArrayList<GdbMiValue>();
-						GdbMiValue value = new GdbMiValue(GdbMiValue.Type.String);
-						list.values.add(value);
-						m_valueStack.push(value);
-					}
 					m_state.pop();
 					m_state.push(FsmState.ListValueSeparator);
 					m_state.push(FsmState.String);
-					m_sb = new StringBuilder();
+					m_string.clear();
 					break;
 
 				case TuplePrefix:
-					{
-						GdbMiList list = m_valueStack.lastElement().list;
-						list.type = GdbMiList.Type.Values;
-						list.values = new ArrayList<GdbMiValue>();
-						GdbMiValue value = new GdbMiValue(GdbMiValue.Type.Tuple);
-						value.tuple = new ArrayList<GdbMiResult>();
-						list.values.add(value);
-						m_valueStack.push(value);
-					}
+					m_visitor.onTupleStart();
 					m_state.pop();
 					m_state.push(FsmState.ListValueSeparator);
 					m_state.push(FsmState.Tuple);
 					break;
 
 				case Identifier:
-					{
-						GdbMiList list = m_valueStack.lastElement().list;
-						list.type = GdbMiList.Type.Results;
-						list.results = new ArrayList<GdbMiResult>();
-						GdbMiResult result = new GdbMiResult(token.value);
-						list.results.add(result);
-						m_valueStack.push(result.value);
-					}
+					m_visitor.onResult(m_lexer.getTokenValue(token));
 					m_state.pop();
 					m_state.push(FsmState.ListResultSeparator);
 					m_state.push(FsmState.ResultRecordResultEquals);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -636,10 +574,10 @@ public class GdbMiParser
 				// Legal tokens:
 				// ListSuffix
 				// ResultSeparator
-				switch (token.type)
+				switch (tokenType)
 				{
 				case ListSuffix:
-					m_valueStack.pop();
+					m_visitor.onListEnd();
 					m_state.pop();
 					break;
 
@@ -648,7 +586,7 @@ public class GdbMiParser
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -657,46 +595,31 @@ public class GdbMiParser
 				// StringPrefix
 				// TuplePrefix
 				// ListPrefix
-				switch (token.type)
+				switch (tokenType)
 				{
 				case StringPrefix:
-					{
-						GdbMiValue value = new GdbMiValue(GdbMiValue.Type.String);
-						m_valueStack.lastElement().list.values.add(value);
-						m_valueStack.push(value);
-					}
 					m_state.pop();
 					m_state.push(FsmState.ListValueSeparator);
 					m_state.push(FsmState.String);
-					m_sb = new StringBuilder();
+					m_string.clear();
 					break;
 
 				case TuplePrefix:
-					{
-						GdbMiValue value = new GdbMiValue(GdbMiValue.Type.Tuple);
-						value.tuple = new ArrayList<GdbMiResult>();
-						m_valueStack.lastElement().list.values.add(value);
-						m_valueStack.push(value);
-					}
+					m_visitor.onTupleStart();
 					m_state.pop();
 					m_state.push(FsmState.ListValueSeparator);
 					m_state.push(FsmState.Tuple);
 					break;
 
 				case ListPrefix:
-					{
-						GdbMiValue value = new GdbMiValue(GdbMiValue.Type.List);
-						value.list = new GdbMiList();
-						m_valueStack.lastElement().list.values.add(value);
-						m_valueStack.push(value);
-					}
+					m_visitor.onListStart();
 					m_state.pop();
 					m_state.push(FsmState.ListValueSeparator);
 					m_state.push(FsmState.List);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -704,10 +627,10 @@ public class GdbMiParser
 				// Legal tokens:
 				// ListSuffix
 				// ResultSeparator
-				switch (token.type)
+				switch (tokenType)
 				{
 				case ListSuffix:
-					m_valueStack.pop();
+					m_visitor.onListEnd();
 					m_state.pop();
 					break;
 
@@ -716,59 +639,53 @@ public class GdbMiParser
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
 			case ListResultItem:
 				// Legal tokens:
 				// Identifier
-				switch (token.type)
+				switch (tokenType)
 				{
 				case Identifier:
-					{
-						GdbMiList list = m_valueStack.lastElement().list;
-						GdbMiResult result = new GdbMiResult(token.value);
-						list.results.add(result);
-						m_valueStack.push(result.value);
-					}
+					m_visitor.onResult(m_lexer.getTokenValue(token));
 					m_state.pop();
 					m_state.push(FsmState.ListResultSeparator);
 					m_state.push(FsmState.ResultRecordResultEquals);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
 			case StreamRecordSuffix:
 				// Legal tokens:
 				// NewLine
-				switch (token.type)
+				switch (tokenType)
 				{
 				case NewLine:
-					m_records.add(m_streamRecord);
-					m_streamRecord = null;
+					m_visitor.onRecordEnd();
 					setState(FsmState.Idle);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
 			case MessageSuffix:
 				// Legal tokens:
 				// NewLine
-				switch (token.type)
+				switch (tokenType)
 				{
 				case NewLine:
 					setState(FsmState.Idle);
 					break;
 
 				default:
-					throw new IllegalArgumentException("Unexpected token of type " + token.type);
+					throw new IllegalArgumentException("Unexpected token of type " + tokenType);
 				}
 				break;
 
@@ -777,7 +694,79 @@ public class GdbMiParser
 					m_state.lastElement());
 			}
 		}
-		tokens.clear();
+		m_lexer.clearTokens();
+	}
+
+	/**
+	 * Starts reading a record with the given prefix.
+	 * @param tokenType The record prefix token.
+	 */
+	private void beginRecord(GdbMiToken.Type tokenType)
+	{
+		switch (tokenType)
+		{
+		case ResultRecordPrefix:
+			m_recordType = GdbMiRecord.Type.Immediate;
+			setState(FsmState.ResultRecord);
+			break;
+
+		case StatusAsyncOutputPrefix:
+			m_recordType = GdbMiRecord.Type.Status;
+			setState(FsmState.ResultRecord);
+			break;
+
+		case ExecAsyncOutputPrefix:
+			m_recordType = GdbMiRecord.Type.Exec;
+			setState(FsmState.ResultRecord);
+			break;
+
+		case NotifyAsyncOutputPrefix:
+			m_recordType = GdbMiRecord.Type.Notify;
+			setState(FsmState.ResultRecord);
+			break;
+
+		case ConsoleStreamOutputPrefix:
+			m_recordType = GdbMiRecord.Type.Console;
+			setState(FsmState.StreamRecord);
+			break;
+
+		case TargetStreamOutputPrefix:
+			m_recordType = GdbMiRecord.Type.Target;
+			setState(FsmState.StreamRecord);
+			break;
+
+		case LogStreamOutputPrefix:
+			m_recordType = GdbMiRecord.Type.Log;
+			setState(FsmState.StreamRecord);
+			break;
+
+		default:
+			throw new IllegalArgumentException("Unexpected token of type " + tokenType);
+		}
+	}
+
+	/**
+	 * Parses a string of digits read by the lexer.
+	 * @param text The lexer's token value buffer.
+	 * @param offset The offset of the digits within the buffer.
+	 * @param length The number of digits.
+	 * @param radix The radix of the digits.
+	 * @return The value.
+	 */
+	private static long parseDigits(byte[] text, int offset, int length, int radix)
+	{
+		long value = 0;
+		for (int i = offset; i != offset + length; ++i)
+		{
+			int digit = Character.digit(text[i], radix);
+			if (digit == -1 || value > (Long.MAX_VALUE - digit) / radix)
+			{
+				throw new NumberFormatException("Invalid number: " + new String(text, offset,
+					length));
+			}
+			value = value * radix + digit;
+		}
+		return value;
 	}
 
 	/**
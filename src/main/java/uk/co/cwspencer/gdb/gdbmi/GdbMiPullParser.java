@@ -0,0 +1,827 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-pass parser for GDB/MI output. This combines the state machines of GdbMiLexer and
+ * GdbMiParser into one which is driven directly by the bytes read from GDB and builds records
+ * without an intermediate list of tokens. It produces the same records as GdbMiParser.
+ */
+public class GdbMiPullParser
+{
+	// Possible states of the parser FSM
+	private enum FsmState
+	{
+		Idle,                  // Ready to read a message
+		UserToken,             // Reading a user-token
+		Record,                // Read a user-token; ready to read the record type
+		ClassNameHead,         // Ready to read the first character of a result/async class
+		ClassName,             // Reading a result/async class
+		Results,               // Ready to read a ',' or the end of a result record
+		ResultNameHead,        // Ready to read the first character of a result name
+		ResultName,            // Reading a result name
+		ResultEquals,          // Ready to read the '=' after a result name
+		Value,                 // Ready to read a value
+		StreamRecord,          // Ready to read the string of a stream record
+		String,                // Reading a string
+		StringEscape,          // Reading a string escape sequence
+		StringEscapeHexHead,   // Ready to read the first digit from a hexadecimal escape sequence
+		StringEscapeHex,       // Reading a hexadecimal escape sequence
+		StringEscapeOct1,      // Read the first digit of an octal escape sequence
+		StringEscapeOct2,      // Read the second digit of an octal escape sequence
+		TupleHead,             // Ready to read the first result of a tuple or its end
+		TupleSeparator,        // Between results in a tuple
+		ListHead,              // Ready to read the first item of a list or its end
+		ListValueSeparator,    // Between items in a list of values
+		ListResultSeparator,   // Between items in a list of results
+		StreamRecordSuffix,    // Ready to read the new line at the end of a stream record
+		GdbSuffix1,            // Partially read GDB suffix "("
+		GdbSuffix2,            // Partially read GDB suffix "(g"
+		GdbSuffix3,            // Partially read GDB suffix "(gd"
+		GdbSuffix4,            // Partially read GDB suffix "(gdb"
+		GdbSuffix5,            // Read GDB suffix
+		MessageSuffix,         // Ready to read the new line at the end of a message
+		CrLf                   // Ready to optionally read LF
+	}
+
+	// State of the parser FSM
+	private FsmState m_state = FsmState.Idle;
+
+	// Partially processed record
+	private GdbMiResultRecord m_resultRecord;
+	private GdbMiStreamRecord m_streamRecord;
+	private GdbMiRecord.Type m_recordType;
+	private Long m_userToken;
+
+	// Values which are currently being read. The top of the stack is the innermost value
+	private GdbMiValue[] m_valueStack = new GdbMiValue[16];
+	private int m_valueStackSize = 0;
+
+	// Partially read identifier
+	private final GdbMiStringBuffer m_name = new GdbMiStringBuffer();
+
+	// Partially read string
+	private final GdbMiStringBuffer m_string = new GdbMiStringBuffer();
+
+	// Partially read number (user token or escape sequence)
+	private long m_number;
+	private int m_digits;
+
+	// Canonical strings for identifiers and short string values
+	private final GdbMiSymbolTable m_symbols = new GdbMiSymbolTable();
+
+	// List of unprocessed records
+	private List<GdbMiRecord> m_records = new ArrayList<GdbMiRecord>();
+
+	/**
+	 * Returns the table used to intern identifiers and short string values.
+	 * @return The symbol table.
+	 */
+	public GdbMiSymbolTable getSymbolTable()
+	{
+		return m_symbols;
+	}
+
+	/**
+	 * Returns a list of unprocessed records. The caller should erase items from this list as they
+	 * are processed.
+	 * @return A list of unprocessed records.
+	 */
+	public List<GdbMiRecord> getRecords()
+	{
+		return m_records;
+	}
+
+	/**
+	 * Processes the given data.
+	 * @param data Data read from the GDB process.
+	 */
+	public void process(byte[] data)
+	{
+		process(data, 0, data.length);
+	}
+
+	/**
+	 * Processes the given data.
+	 * @param data Data read from the GDB process.
+	 * @param length Number of bytes from data to process.
+	 */
+	public void process(byte[] data, int length)
+	{
+		process(data, 0, length);
+	}
+
+	/**
+	 * Processes the given data.
+	 * @param data Data read from the GDB process.
+	 * @param offset Offset of the first byte to process.
+	 * @param length Number of bytes from data to process.
+	 */
+	public void process(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+		for (int i = offset; i != end; ++i)
+		{
+			byte ch = data[i];
+			switch (m_state)
+			{
+			case Idle:
+				// Legal characters:
+				// User token (digits)
+				// ^, *, +, =, ~, @, &
+				// "(gdb)"
+				if (ch >= '0' && ch <= '9')
+				{
+					m_number = ch - '0';
+					m_digits = 1;
+					m_state = FsmState.UserToken;
+				}
+				else if (ch == '(')
+				{
+					m_state = FsmState.GdbSuffix1;
+				}
+				else
+				{
+					beginRecord(ch);
+				}
+				break;
+
+			case UserToken:
+				// Legal characters:
+				// User token (digits)
+				// Anything else is reprocessed as the start of the record
+				if (ch >= '0' && ch <= '9')
+				{
+					if (m_number > (Long.MAX_VALUE - (ch - '0')) / 10)
+					{
+						throw new NumberFormatException("User token is out of range");
+					}
+					m_number = m_number * 10 + (ch - '0');
+				}
+				else
+				{
+					m_userToken = m_number;
+					m_state = FsmState.Record;
+					--i;
+				}
+				break;
+
+			case Record:
+				// Legal characters:
+				// ^, *, +, =, ~, @, &
+				beginRecord(ch);
+				break;
+
+			case ClassNameHead:
+				// Legal characters:
+				// Identifier head: "_", a-z, A-Z
+				if (!isIdentifierHead(ch))
+				{
+					throw unexpected(ch);
+				}
+				m_name.clear();
+				m_name.append((byte) ch);
+				m_state = FsmState.ClassName;
+				break;
+
+			case ClassName:
+				// Legal characters:
+				// Identifier: "_", "-", 0-9, a-z, A-Z
+				// Anything else is reprocessed
+				if (isIdentifier(ch))
+				{
+					m_name.append((byte) ch);
+				}
+				else
+				{
+					m_resultRecord = new GdbMiResultRecord(m_recordType, m_userToken);
+					m_resultRecord.className = m_name.toString(m_symbols);
+					m_userToken = null;
+					m_state = FsmState.Results;
+					--i;
+				}
+				break;
+
+			case Results:
+				// Legal characters:
+				// ","
+				// New line
+				switch (ch)
+				{
+				case ',':
+					m_state = FsmState.ResultNameHead;
+					break;
+
+				case '\r':
+					m_records.add(m_resultRecord);
+					m_resultRecord = null;
+					m_state = FsmState.CrLf;
+					break;
+
+				default:
+					throw unexpected(ch);
+				}
+				break;
+
+			case ResultNameHead:
+				// Legal characters:
+				// Identifier head: "_", a-z, A-Z
+				if (!isIdentifierHead(ch))
+				{
+					throw unexpected(ch);
+				}
+				m_name.clear();
+				m_name.append((byte) ch);
+				m_state = FsmState.ResultName;
+				break;
+
+			case ResultName:
+				// Legal characters:
+				// Identifier: "_", "-", 0-9, a-z, A-Z
+				// "=" ends the name
+				if (isIdentifier(ch))
+				{
+					m_name.append((byte) ch);
+				}
+				else
+				{
+					beginResult(m_name.toString(m_symbols));
+					m_state = FsmState.ResultEquals;
+					--i;
+				}
+				break;
+
+			case ResultEquals:
+				// Legal characters:
+				// "="
+				if (ch != '=')
+				{
+					throw unexpected(ch);
+				}
+				m_state = FsmState.Value;
+				break;
+
+			case Value:
+				// Legal characters:
+				// """, "{", "["
+				// The value object was created along with its result
+				beginValue(m_valueStack[m_valueStackSize - 1], ch);
+				break;
+
+			case StreamRecord:
+				// Legal characters:
+				// """
+				if (ch != '"')
+				{
+					throw unexpected(ch);
+				}
+				m_streamRecord = new GdbMiStreamRecord(m_recordType, m_userToken);
+				m_userToken = null;
+				m_string.clear();
+				m_state = FsmState.String;
+				break;
+
+			case String:
+				// Legal characters:
+				// Anything except CR or LF
+				switch (ch)
+				{
+				case '"':
+					if (m_streamRecord != null)
+					{
+						m_streamRecord.message = m_string.toString();
+						m_state = FsmState.StreamRecordSuffix;
+					}
+					else
+					{
+						GdbMiValue value = m_valueStack[m_valueStackSize - 1];
+						assert value.type == GdbMiValue.Type.String;
+						value.string = m_string.toString(m_symbols);
+						endValue();
+					}
+					break;
+
+				case '\\':
+					m_state = FsmState.StringEscape;
+					break;
+
+				case '\r':
+				case '\n':
+					throw unexpected(ch);
+
+				default:
+					// Copy the whole run of ordinary characters at once; the loop resumes on the
+					// character which ended it
+					{
+						int runEnd = GdbMiStringBuffer.scanRun(data, i, end);
+						m_string.append(data, i, runEnd - i);
+						i = runEnd - 1;
+					}
+				}
+				break;
+
+			case StringEscape:
+				// Legal characters:
+				// "'", """, "?", "\", "a", "b", "f", "n", "r", "t", "v", "x", 0-7
+				m_state = FsmState.String;
+				switch (ch)
+				{
+				case '\'':
+					m_string.append((byte) '\'');
+					break;
+
+				case '"':
+					m_string.append((byte) '"');
+					break;
+
+				case '?':
+					m_string.append((byte) '?');
+					break;
+
+				case '\\':
+					m_string.append((byte) '\\');
+					break;
+
+				case 'a':
+					m_string.append((byte) '\u0007');
+					break;
+
+				case 'b':
+					m_string.append((byte) '\b');
+					break;
+
+				case 'f':
+					m_string.append((byte) '\f');
+					break;
+
+				case 'n':
+					m_string.append((byte) '\n');
+					break;
+
+				case 'r':
+					m_string.append((byte) '\r');
+					break;
+
+				case 't':
+					m_string.append((byte) '\t');
+					break;
+
+				case 'v':
+					m_string.append((byte) '\u000b');
+					break;
+
+				case 'x':
+					m_number = 0;
+					m_state = FsmState.StringEscapeHexHead;
+					break;
+
+				case '0':
+				case '1':
+				case '2':
+				case '3':
+				case '4':
+				case '5':
+				case '6':
+				case '7':
+					m_number = ch - '0';
+					m_state = FsmState.StringEscapeOct1;
+					break;
+
+				default:
+					throw unexpected(ch);
+				}
+				break;
+
+			case StringEscapeHexHead:
+				// Legal characters:
+				// Hex digits: 0-9, a-f, A-F
+				{
+					int digit = Character.digit(ch, 16);
+					if (digit == -1)
+					{
+						throw unexpected(ch);
+					}
+					m_number = digit;
+					m_state = FsmState.StringEscapeHex;
+				}
+				break;
+
+			case StringEscapeHex:
+				// Legal characters:
+				// Hex digits: 0-9, a-f, A-F
+				// Else reprocess as normal string character. Hex escapes are not limited in length,
+				// so only the last two digits are kept
+				{
+					int digit = Character.digit(ch, 16);
+					if (digit != -1)
+					{
+						m_number = ((m_number << 4) | digit) & 0xff;
+					}
+					else
+					{
+						m_string.append((byte) m_number);
+						m_state = FsmState.String;
+						--i;
+					}
+				}
+				break;
+
+			case StringEscapeOct1:
+			case StringEscapeOct2:
+				// Legal characters:
+				// Oct digits: 0-7
+				// Else reprocess as normal string character. Octal values can be up to three
+				// characters long, which has a maximum value of 0x1ff, so the value is truncated to
+				// 8 bits to match the behaviour of C strings
+				if (ch >= '0' && ch <= '7')
+				{
+					m_number = (m_number << 3) | (ch - '0');
+					if (m_state == FsmState.StringEscapeOct1)
+					{
+						m_state = FsmState.StringEscapeOct2;
+						break;
+					}
+				}
+				else
+				{
+					--i;
+				}
+				m_string.append((byte) m_number);
+				m_state = FsmState.String;
+				break;
+
+			case TupleHead:
+				// Legal characters:
+				// "}"
+				// Identifier head
+				if (ch == '}')
+				{
+					endValue();
+				}
+				else
+				{
+					m_state = FsmState.ResultNameHead;
+					--i;
+				}
+				break;
+
+			case TupleSeparator:
+				// Legal characters:
+				// "}", ","
+				switch (ch)
+				{
+				case '}':
+					endValue();
+					break;
+
+				case ',':
+					m_state = FsmState.ResultNameHead;
+					break;
+
+				default:
+					throw unexpected(ch);
+				}
+				break;
+
+			case ListHead:
+				// Legal characters:
+				// "]"
+				// """, "{", "[" for a list of values
+				// Identifier head for a list of results
+				switch (ch)
+				{
+				case ']':
+					endValue();
+					break;
+
+				case '"':
+				case '{':
+				case '[':
+					{
+						GdbMiList list = m_valueStack[m_valueStackSize - 1].list;
+						list.type = GdbMiList.Type.Values;
+						list.values = new ArrayList<GdbMiValue>();
+					}
+					beginListValue(ch);
+					break;
+
+				default:
+					{
+						GdbMiList list = m_valueStack[m_valueStackSize - 1].list;
+						list.type = GdbMiList.Type.Results;
+						list.results = new ArrayList<GdbMiResult>();
+					}
+					m_state = FsmState.ResultNameHead;
+					--i;
+				}
+				break;
+
+			case ListValueSeparator:
+				// Legal characters:
+				// "]", ","
+				switch (ch)
+				{
+				case ']':
+					endValue();
+					break;
+
+				case ',':
+					m_state = FsmState.Value;
+					pushValue(new GdbMiValue());
+					m_valueStack[m_valueStackSize - 2].list.values.add(
+						m_valueStack[m_valueStackSize - 1]);
+					break;
+
+				default:
+					throw unexpected(ch);
+				}
+				break;
+
+			case ListResultSeparator:
+				// Legal characters:
+				// "]", ","
+				switch (ch)
+				{
+				case ']':
+					endValue();
+					break;
+
+				case ',':
+					m_state = FsmState.ResultNameHead;
+					break;
+
+				default:
+					throw unexpected(ch);
+				}
+				break;
+
+			case StreamRecordSuffix:
+				// Legal characters:
+				// New line
+				if (ch != '\r')
+				{
+					throw unexpected(ch);
+				}
+				m_records.add(m_streamRecord);
+				m_streamRecord = null;
+				m_state = FsmState.CrLf;
+				break;
+
+			case GdbSuffix1:
+				// Read so far: "("
+				expect(ch, 'g', FsmState.GdbSuffix2);
+				break;
+
+			case GdbSuffix2:
+				// Read so far: "(g"
+				expect(ch, 'd', FsmState.GdbSuffix3);
+				break;
+
+			case GdbSuffix3:
+				// Read so far: "(gd"
+				expect(ch, 'b', FsmState.GdbSuffix4);
+				break;
+
+			case GdbSuffix4:
+				// Read so far: "(gdb"
+				expect(ch, ')', FsmState.GdbSuffix5);
+				break;
+
+			case GdbSuffix5:
+				// GDB seems to print a space here, even though the documentation doesn't mention
+				// this. We just ignore it if it does
+				m_state = FsmState.MessageSuffix;
+				if (ch != ' ')
+				{
+					--i;
+				}
+				break;
+
+			case MessageSuffix:
+				// Legal characters:
+				// New line
+				expect(ch, '\r', FsmState.CrLf);
+				break;
+
+			case CrLf:
+				// Legal characters:
+				// \n
+				// If the character is not '\n' the state is changed to Idle and the character
+				// reprocessed
+				m_state = FsmState.Idle;
+				if (ch != '\n')
+				{
+					--i;
+				}
+				break;
+
+			default:
+				throw new IllegalArgumentException("Unexpected parser FSM state: " + m_state);
+			}
+		}
+	}
+
+	/**
+	 * Starts reading a record with the given type prefix.
+	 * @param ch The record type prefix.
+	 */
+	private void beginRecord(byte ch)
+	{
+		switch (ch)
+		{
+		case '^':
+			m_recordType = GdbMiRecord.Type.Immediate;
+			m_state = FsmState.ClassNameHead;
+			break;
+
+		case '*':
+			m_recordType = GdbMiRecord.Type.Exec;
+			m_state = FsmState.ClassNameHead;
+			break;
+
+		case '+':
+			m_recordType = GdbMiRecord.Type.Status;
+			m_state = FsmState.ClassNameHead;
+			break;
+
+		case '=':
+			m_recordType = GdbMiRecord.Type.Notify;
+			m_state = FsmState.ClassNameHead;
+			break;
+
+		case '~':
+			m_recordType = GdbMiRecord.Type.Console;
+			m_state = FsmState.StreamRecord;
+			break;
+
+		case '@':
+			m_recordType = GdbMiRecord.Type.Target;
+			m_state = FsmState.StreamRecord;
+			break;
+
+		case '&':
+			m_recordType = GdbMiRecord.Type.Log;
+			m_state = FsmState.StreamRecord;
+			break;
+
+		default:
+			throw unexpected(ch);
+		}
+	}
+
+	/**
+	 * Creates a result with the given name in the innermost tuple, list or record and makes its
+	 * value the current value.
+	 * @param name The name of the result.
+	 */
+	private void beginResult(String name)
+	{
+		GdbMiResult result = new GdbMiResult(name);
+		if (m_valueStackSize == 0)
+		{
+			m_resultRecord.results.add(result);
+		}
+		else
+		{
+			GdbMiValue parent = m_valueStack[m_valueStackSize - 1];
+			if (parent.type == GdbMiValue.Type.Tuple)
+			{
+				parent.tuple.add(result);
+			}
+			else
+			{
+				parent.list.results.add(result);
+			}
+		}
+		pushValue(result.value);
+	}
+
+	/**
+	 * Starts reading the given value.
+	 * @param value The value, which must be at the top of the value stack.
+	 * @param ch The first character of the value.
+	 */
+	private void beginValue(GdbMiValue value, byte ch)
+	{
+		switch (ch)
+		{
+		case '"':
+			value.type = GdbMiValue.Type.String;
+			m_string.clear();
+			m_state = FsmState.String;
+			break;
+
+		case '{':
+			value.type = GdbMiValue.Type.Tuple;
+			value.tuple = new ArrayList<GdbMiResult>();
+			m_state = FsmState.TupleHead;
+			break;
+
+		case '[':
+			value.type = GdbMiValue.Type.List;
+			value.list = new GdbMiList();
+			m_state = FsmState.ListHead;
+			break;
+
+		default:
+			throw unexpected(ch);
+		}
+	}
+
+	/**
+	 * Creates a new item in the innermost list of values and starts reading it.
+	 * @param ch The first character of the value.
+	 */
+	private void beginListValue(byte ch)
+	{
+		GdbMiValue value = new GdbMiValue();
+		m_valueStack[m_valueStackSize - 1].list.values.add(value);
+		pushValue(value);
+		beginValue(value, ch);
+	}
+
+	/**
+	 * Finishes reading the current value and returns to its parent.
+	 */
+	private void endValue()
+	{
+		m_valueStack[--m_valueStackSize] = null;
+		if (m_valueStackSize == 0)
+		{
+			m_state = FsmState.Results;
+			return;
+		}
+
+		GdbMiValue parent = m_valueStack[m_valueStackSize - 1];
+		if (parent.type == GdbMiValue.Type.Tuple)
+		{
+			m_state = FsmState.TupleSeparator;
+		}
+		else if (parent.list.type == GdbMiList.Type.Values)
+		{
+			m_state = FsmState.ListValueSeparator;
+		}
+		else
+		{
+			m_state = FsmState.ListResultSeparator;
+		}
+	}
+
+	/**
+	 * Pushes a value onto the value stack.
+	 * @param value The value.
+	 */
+	private void pushValue(GdbMiValue value)
+	{
+		if (m_valueStackSize == m_valueStack.length)
+		{
+			m_valueStack = Arrays.copyOf(m_valueStack, m_valueStackSize * 2);
+		}
+		m_valueStack[m_valueStackSize++] = value;
+	}
+
+	/**
+	 * Checks the given character matches the expected one and moves to the next state.
+	 * @param ch The character.
+	 * @param expected The expected character.
+	 * @param nextState The state to move to.
+	 */
+	private void expect(byte ch, char expected, FsmState nextState)
+	{
+		if (ch != expected)
+		{
+			throw unexpected(ch);
+		}
+		m_state = nextState;
+	}
+
+	/**
+	 * Creates the exception thrown when an unexpected character is read.
+	 * @param ch The character.
+	 * @return The exception.
+	 */
+	private IllegalArgumentException unexpected(byte ch)
+	{
+		return new IllegalArgumentException("Unexpected character: '" + ch + "' in state " +
+			m_state);
+	}
+
+	/**
+	 * Checks whether the given character may start an identifier.
+	 */
+	private static boolean isIdentifierHead(byte ch)
+	{
+		return ch == '_' || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z');
+	}
+
+	/**
+	 * Checks whether the given character may appear within an identifier.
+	 */
+	private static boolean isIdentifier(byte ch)
+	{
+		return ch == '_' || ch == '-' || (ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'z') ||
+			(ch >= 'A' && ch <= 'Z');
+	}
+}
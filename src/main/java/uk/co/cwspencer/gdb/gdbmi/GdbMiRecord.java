@@ -28,4 +28,32 @@ public abstract class GdbMiRecord
 	 * The user token from the record. May be null if none was specified.
 	 */
 	public Long userToken;
+
+	// Arena which owns the record's values, if any
+	GdbMiArena arena;
+
+	/**
+	 * Releases the record's values. Records produced by a parser with an arena share their values
+	 * with later records, so once this has been called neither the record nor any value, result or
+	 * list reached through it may be used again. Records which are not owned by an arena are left
+	 * untouched, so it is always safe to call this when the caller is finished with a record.
+	 */
+	public void release()
+	{
+		if (arena != null)
+		{
+			arena.release(this);
+			arena = null;
+		}
+	}
+
+	/**
+	 * Detaches the record from its arena, so its values are never recycled and may be kept for as
+	 * long as required. release() then has no effect. The arena allocates new values to replace
+	 * them.
+	 */
+	public void detach()
+	{
+		arena = null;
+	}
 }
@@ -0,0 +1,117 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Growable buffer for the raw bytes of a GDB/MI C string. GDB writes strings as bytes, with any
+ * byte outside printable ASCII escaped in octal or hexadecimal, so escapes are collected as bytes
+ * and the whole string is decoded as UTF-8 once it is complete. This keeps multi-byte characters
+ * intact regardless of how they were escaped or split between reads.
+ */
+class GdbMiStringBuffer
+{
+	// Encoding used by GDB for strings
+	private static final Charset m_charset = Charset.forName("UTF-8");
+
+	// The bytes of the string
+	private byte[] m_bytes = new byte[256];
+	private int m_length = 0;
+
+	/**
+	 * Discards the contents of the buffer.
+	 */
+	public void clear()
+	{
+		m_length = 0;
+	}
+
+	/**
+	 * Appends a byte to the buffer.
+	 * @param ch The byte.
+	 */
+	public void append(byte ch)
+	{
+		if (m_length == m_bytes.length)
+		{
+			m_bytes = Arrays.copyOf(m_bytes, m_length * 2);
+		}
+		m_bytes[m_length++] = ch;
+	}
+
+	/**
+	 * Appends a range of bytes to the buffer.
+	 * @param data The array containing the bytes.
+	 * @param offset The offset of the first byte.
+	 * @param length The number of bytes.
+	 */
+	public void append(byte[] data, int offset, int length)
+	{
+		if (m_length + length > m_bytes.length)
+		{
+			m_bytes = Arrays.copyOf(m_bytes, Math.max(m_bytes.length * 2, m_length + length));
+		}
+		System.arraycopy(data, offset, m_bytes, m_length, length);
+		m_length += length;
+	}
+
+	/**
+	 * Decodes the contents of the buffer. Malformed sequences are replaced with U+FFFD.
+	 * @return The string.
+	 */
+	public String toString()
+	{
+		return decode(m_bytes, 0, m_length);
+	}
+
+	/**
+	 * Decodes the contents of the buffer, returning the canonical instance from the given symbol
+	 * table if the string is short enough to be interned.
+	 * @param symbols The symbol table.
+	 * @return The string.
+	 */
+	public String toString(GdbMiSymbolTable symbols)
+	{
+		return symbols.intern(m_bytes, 0, m_length);
+	}
+
+	/**
+	 * Decodes a range of bytes written by GDB. Malformed sequences are replaced with U+FFFD.
+	 * @param data The array containing the bytes.
+	 * @param offset The offset of the first byte.
+	 * @param length The number of bytes.
+	 * @return The string.
+	 */
+	public static String decode(byte[] data, int offset, int length)
+	{
+		return new String(data, offset, length, m_charset);
+	}
+
+	/**
+	 * Finds the end of a run of bytes within a C string which can be copied verbatim, i.e. the
+	 * next quote, backslash or new line character.
+	 * @param data The array to search.
+	 * @param offset The offset to start searching from.
+	 * @param end The offset at which to stop searching.
+	 * @return The offset of the first special character, or end if there is none.
+	 */
+	public static int scanRun(byte[] data, int offset, int end)
+	{
+		int i = offset;
+		while (i != end)
+		{
+			byte ch = data[i];
+
+			// All of the special characters are below ']', so most letters need one comparison
+			if (ch > '\\' || (ch != '"' && ch != '\\' && ch != '\r' && ch != '\n'))
+			{
+				++i;
+			}
+			else
+			{
+				break;
+			}
+		}
+		return i;
+	}
+}
@@ -0,0 +1,161 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.util.Arrays;
+
+/**
+ * Bounded table of canonical strings for GDB/MI identifiers and short values. GDB repeats the
+ * same names ("frame", "addr", "func", ...) in every record and the same file names, function
+ * names and addresses across thousands of frames and breakpoints; looking them up here returns
+ * one shared String for each rather than decoding a new copy every time.
+ *
+ * The table is direct-mapped: each distinct byte sequence hashes to one slot, and a miss replaces
+ * whatever was there. Lookups that hit allocate nothing. The memory used is bounded by the
+ * number of slots and the maximum length of an interned string.
+ *
+ * Tables are not thread safe.
+ */
+public class GdbMiSymbolTable
+{
+	// Default number of slots. Must be a power of two
+	private static final int DEFAULT_SIZE = 4096;
+
+	// Default maximum length in bytes of a string which is interned
+	private static final int DEFAULT_MAX_LENGTH = 128;
+
+	// Estimated size of a String and its backing array excluding the characters, in bytes
+	private static final int STRING_OVERHEAD = 40;
+
+	// Keys and values. A null key means the slot is empty
+	private final byte[][] m_keys;
+	private final String[] m_values;
+
+	// Maximum length in bytes of a string which is interned
+	private final int m_maxLength;
+
+	// Statistics
+	private long m_hits = 0;
+	private long m_misses = 0;
+	private long m_bytesSaved = 0;
+
+	/**
+	 * Constructor; uses the default size.
+	 */
+	public GdbMiSymbolTable()
+	{
+		this(DEFAULT_SIZE, DEFAULT_MAX_LENGTH);
+	}
+
+	/**
+	 * Constructor.
+	 * @param size The number of slots. Rounded up to a power of two.
+	 * @param maxLength The maximum length in bytes of a string which is interned. Longer strings
+	 * are decoded without being added to the table.
+	 */
+	public GdbMiSymbolTable(int size, int maxLength)
+	{
+		int slots = Integer.highestOneBit(Math.max(size, 1) * 2 - 1);
+		m_keys = new byte[slots][];
+		m_values = new String[slots];
+		m_maxLength = maxLength;
+	}
+
+	/**
+	 * Returns the canonical string for the given UTF-8 bytes.
+	 * @param data The array containing the bytes.
+	 * @param offset The offset of the first byte.
+	 * @param length The number of bytes.
+	 * @return The string.
+	 */
+	public String intern(byte[] data, int offset, int length)
+	{
+		if (length > m_maxLength)
+		{
+			return GdbMiStringBuffer.decode(data, offset, length);
+		}
+
+		int hash = 0;
+		for (int i = offset; i != offset + length; ++i)
+		{
+			hash = hash * 31 + data[i];
+		}
+		int slot = (hash ^ (hash >>> 16)) & (m_keys.length - 1);
+
+		byte[] key = m_keys[slot];
+		if (key != null && key.length == length && regionEquals(key, data, offset))
+		{
+			++m_hits;
+			m_bytesSaved += STRING_OVERHEAD + 2 * m_values[slot].length();
+			return m_values[slot];
+		}
+
+		++m_misses;
+		String value = GdbMiStringBuffer.decode(data, offset, length);
+		m_keys[slot] = Arrays.copyOfRange(data, offset, offset + length);
+		m_values[slot] = value;
+		return value;
+	}
+
+	/**
+	 * Returns the number of lookups which returned an existing string.
+	 * @return The number of hits.
+	 */
+	public long getHitCount()
+	{
+		return m_hits;
+	}
+
+	/**
+	 * Returns the number of lookups which had to decode a new string. Strings which are too long
+	 * to be interned are not counted.
+	 * @return The number of misses.
+	 */
+	public long getMissCount()
+	{
+		return m_misses;
+	}
+
+	/**
+	 * Returns the proportion of lookups which returned an existing string.
+	 * @return The hit rate between 0 and 1, or 0 if there have been no lookups.
+	 */
+	public double getHitRate()
+	{
+		long lookups = m_hits + m_misses;
+		return lookups == 0 ? 0 : (double) m_hits / lookups;
+	}
+
+	/**
+	 * Returns an estimate of the memory saved by sharing strings, assuming each hit would
+	 * otherwise have created a String with a UTF-16 backing array.
+	 * @return The estimated number of bytes saved.
+	 */
+	public long getBytesSaved()
+	{
+		return m_bytesSaved;
+	}
+
+	/**
+	 * Converts the table's statistics to a string.
+	 * @return A string describing the hit rate and memory saved.
+	 */
+	public String toString()
+	{
+		return String.format("%d hits, %d misses (%.1f%% hit rate), ~%d KiB saved", m_hits,
+			m_misses, getHitRate() * 100, m_bytesSaved / 1024);
+	}
+
+	/**
+	 * Checks whether key matches the bytes of data starting at offset.
+	 */
+	private static boolean regionEquals(byte[] key, byte[] data, int offset)
+	{
+		for (int i = 0; i != key.length; ++i)
+		{
+			if (key[i] != data[offset + i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
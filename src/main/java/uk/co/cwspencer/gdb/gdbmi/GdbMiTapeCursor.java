@@ -0,0 +1,209 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.util.Arrays;
+
+/**
+ * Cursor which walks a GdbMiTapeRecord without creating any objects. The cursor is positioned on
+ * one item of a container: a result of the record or of a tuple or list of results, or a value of
+ * a list of values. It can move to the next item, and enter and leave containers. Numbers are
+ * parsed straight from the record's bytes, and strings can be looked up in a symbol table, so
+ * hot fields can be decoded into primitive fields with no allocation at all.
+ *
+ * Cursors can be reused for any number of records with reset().
+ */
+public class GdbMiTapeCursor
+{
+	// The record
+	private GdbMiTapeRecord m_record;
+
+	// Tape index of the current item
+	private int m_index;
+
+	// Tape index at which the current container ends
+	private int m_end;
+
+	// Current item and end index of each enclosing container
+	private int[] m_stack = new int[16];
+	private int m_depth = 0;
+
+	/**
+	 * Positions the cursor on the first result of the given record.
+	 * @param record The record.
+	 * @return The cursor.
+	 */
+	public GdbMiTapeCursor reset(GdbMiTapeRecord record)
+	{
+		m_record = record;
+		m_index = 0;
+		m_end = record.tapeLength();
+		m_depth = 0;
+		return this;
+	}
+
+	/**
+	 * Checks whether the cursor is on an item, rather than past the end of its container.
+	 * @return Whether there is a current item.
+	 */
+	public boolean hasItem()
+	{
+		return m_index != m_end;
+	}
+
+	/**
+	 * Moves to the next item in the container.
+	 */
+	public void next()
+	{
+		m_index = m_record.skip(valueIndex());
+	}
+
+	/**
+	 * Moves forward to the first result with the given name, starting with the current item.
+	 * @param name The name of the result.
+	 * @return Whether the result was found. If not the cursor is left at the end of the container.
+	 */
+	public boolean find(String name)
+	{
+		while (m_index != m_end)
+		{
+			if (isName(name))
+			{
+				return true;
+			}
+			next();
+		}
+		return false;
+	}
+
+	/**
+	 * Checks whether the current item is a result with the given name.
+	 * @param name The name.
+	 * @return Whether the names match.
+	 */
+	public boolean isName(String name)
+	{
+		return m_record.kind(m_index) == GdbMiTapeRecord.NAME && m_record.nameEquals(m_index, name);
+	}
+
+	/**
+	 * Returns the name of the current item.
+	 * @param symbols Symbol table to look the name up in.
+	 * @return The name, or null if the item is a value rather than a result.
+	 */
+	public String getName(GdbMiSymbolTable symbols)
+	{
+		return m_record.kind(m_index) == GdbMiTapeRecord.NAME ?
+			m_record.decode(m_index, symbols) : null;
+	}
+
+	/**
+	 * Returns the type of the current item's value.
+	 * @return The type.
+	 */
+	public GdbMiValue.Type getType()
+	{
+		switch (m_record.kind(valueIndex()))
+		{
+		case GdbMiTapeRecord.TUPLE_START:
+			return GdbMiValue.Type.Tuple;
+
+		case GdbMiTapeRecord.LIST_START:
+			return GdbMiValue.Type.List;
+
+		default:
+			return GdbMiValue.Type.String;
+		}
+	}
+
+	/**
+	 * Decodes the current item's value.
+	 * @param symbols Symbol table to look the string up in.
+	 * @return The string, or null if the value is not a string.
+	 */
+	public String getString(GdbMiSymbolTable symbols)
+	{
+		return getType() == GdbMiValue.Type.String ? m_record.decode(valueIndex(), symbols) : null;
+	}
+
+	/**
+	 * Checks whether the current item's value is a string equal to the given one, without
+	 * decoding it.
+	 * @param string The string, which must be plain ASCII.
+	 * @return Whether the strings match.
+	 */
+	public boolean isString(String string)
+	{
+		return m_record.stringEquals(valueIndex(), string);
+	}
+
+	/**
+	 * Parses the current item's value as a decimal number or a hexadecimal number with a "0x"
+	 * prefix.
+	 * @param defaultValue The value to return if the value is not a number.
+	 * @return The number.
+	 */
+	public long getLong(long defaultValue)
+	{
+		return m_record.parseLong(valueIndex(), defaultValue);
+	}
+
+	/**
+	 * Parses the current item's value as a decimal number or a hexadecimal number with a "0x"
+	 * prefix.
+	 * @param defaultValue The value to return if the value is not a number or does not fit in an
+	 * int.
+	 * @return The number.
+	 */
+	public int getInt(int defaultValue)
+	{
+		long value = m_record.parseLong(valueIndex(), defaultValue);
+		return value == (int) value ? (int) value : defaultValue;
+	}
+
+	/**
+	 * Enters the tuple or list which is the current item's value. The cursor is positioned on its
+	 * first item, if it has any.
+	 * @return Whether the value is a tuple or list. If not the cursor does not move.
+	 */
+	public boolean enter()
+	{
+		int valueIndex = valueIndex();
+		int kind = m_record.kind(valueIndex);
+		if (kind != GdbMiTapeRecord.TUPLE_START && kind != GdbMiTapeRecord.LIST_START)
+		{
+			return false;
+		}
+
+		if (m_depth == m_stack.length)
+		{
+			m_stack = Arrays.copyOf(m_stack, m_depth * 2);
+		}
+		m_stack[m_depth++] = m_index;
+		m_stack[m_depth++] = m_end;
+		m_end = m_record.end(valueIndex);
+		m_index = valueIndex + 1;
+		return true;
+	}
+
+	/**
+	 * Leaves the current container. The cursor is positioned back on the item whose value is the
+	 * container.
+	 */
+	public void exit()
+	{
+		if (m_depth == 0)
+		{
+			throw new IllegalStateException("The cursor is not inside a tuple or list");
+		}
+		m_end = m_stack[--m_depth];
+		m_index = m_stack[--m_depth];
+	}
+
+	/**
+	 * Returns the tape index of the current item's value.
+	 */
+	private int valueIndex()
+	{
+		return m_record.kind(m_index) == GdbMiTapeRecord.NAME ? m_index + 1 : m_index;
+	}
+}
@@ -0,0 +1,474 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parser for GDB/MI output which produces GdbMiTapeRecord objects. Each record is validated and
+ * indexed in a single pass over its bytes, but no strings are decoded and no value objects are
+ * created; that only happens when the record's values are accessed. This is much cheaper than
+ * GdbMiParser for consumers which only look at part of each record.
+ *
+ * Records are framed by their new line, which GDB never writes inside a string, so a record is
+ * indexed as soon as its last byte arrives.
+ */
+public class GdbMiTapeParser
+{
+	// Bytes of the record currently being read, if it was split between calls to process()
+	private byte[] m_line = new byte[256];
+	private int m_lineLength = 0;
+
+	// Whether the last byte processed was a carriage return
+	private boolean m_afterCr = false;
+
+	// Tape of the record being indexed. This is reused; each record gets a trimmed copy
+	private long[] m_tape = new long[256];
+	private int m_tapeLength;
+
+	// Text of the record being indexed and the current position within it
+	private byte[] m_text;
+	private int m_pos;
+	private int m_end;
+
+	// List of unprocessed records
+	private List<GdbMiTapeRecord> m_records = new ArrayList<GdbMiTapeRecord>();
+
+	/**
+	 * Returns a list of unprocessed records. The caller should erase items from this list as they
+	 * are processed.
+	 * @return A list of unprocessed records.
+	 */
+	public List<GdbMiTapeRecord> getRecords()
+	{
+		return m_records;
+	}
+
+	/**
+	 * Processes the given data.
+	 * @param data Data read from the GDB process.
+	 */
+	public void process(byte[] data)
+	{
+		process(data, 0, data.length);
+	}
+
+	/**
+	 * Processes the given data.
+	 * @param data Data read from the GDB process.
+	 * @param length Number of bytes from data to process.
+	 */
+	public void process(byte[] data, int length)
+	{
+		process(data, 0, length);
+	}
+
+	/**
+	 * Processes the given data.
+	 * @param data Data read from the GDB process.
+	 * @param offset Offset of the first byte to process.
+	 * @param length Number of bytes from data to process.
+	 */
+	public void process(byte[] data, int offset, int length)
+	{
+		int end = offset + length;
+		int lineStart = offset;
+		for (int i = offset; i != end; ++i)
+		{
+			byte ch = data[i];
+			if (ch != '\r' && ch != '\n')
+			{
+				m_afterCr = false;
+				continue;
+			}
+
+			// An LF straight after a CR is part of the same new line
+			boolean lf = ch == '\n' && m_afterCr && m_lineLength == 0 && i == lineStart;
+			m_afterCr = ch == '\r';
+			if (!lf)
+			{
+				if (m_lineLength == 0)
+				{
+					indexLine(Arrays.copyOfRange(data, lineStart, i));
+				}
+				else
+				{
+					appendLine(data, lineStart, i - lineStart);
+					byte[] line = Arrays.copyOf(m_line, m_lineLength);
+					m_lineLength = 0;
+					indexLine(line);
+				}
+			}
+			lineStart = i + 1;
+		}
+
+		// Keep the start of any incomplete record
+		appendLine(data, lineStart, end - lineStart);
+	}
+
+	/**
+	 * Appends bytes to the incomplete record.
+	 */
+	private void appendLine(byte[] data, int offset, int length)
+	{
+		if (m_lineLength + length > m_line.length)
+		{
+			m_line = Arrays.copyOf(m_line, Math.max(m_line.length * 2, m_lineLength + length));
+		}
+		System.arraycopy(data, offset, m_line, m_lineLength, length);
+		m_lineLength += length;
+	}
+
+	/**
+	 * Validates and indexes a complete line of output.
+	 * @param text The line, excluding the new line.
+	 */
+	private void indexLine(byte[] text)
+	{
+		m_text = text;
+		m_pos = 0;
+		m_end = text.length;
+		m_tapeLength = 0;
+		if (m_end >= GdbMiTapeRecord.SPAN_MASK)
+		{
+			throw new IllegalArgumentException("Record too long: " + m_end + " bytes");
+		}
+
+		// User token
+		Long userToken = null;
+		if (m_pos != m_end && m_text[m_pos] >= '0' && m_text[m_pos] <= '9')
+		{
+			long token = 0;
+			while (m_pos != m_end && m_text[m_pos] >= '0' && m_text[m_pos] <= '9')
+			{
+				int digit = m_text[m_pos++] - '0';
+				if (token > (Long.MAX_VALUE - digit) / 10)
+				{
+					throw new NumberFormatException("Invalid number: " + new String(m_text));
+				}
+				token = token * 10 + digit;
+			}
+			userToken = token;
+		}
+
+		GdbMiRecord.Type type;
+		switch (next())
+		{
+		case '^':
+			type = GdbMiRecord.Type.Immediate;
+			break;
+
+		case '*':
+			type = GdbMiRecord.Type.Exec;
+			break;
+
+		case '+':
+			type = GdbMiRecord.Type.Status;
+			break;
+
+		case '=':
+			type = GdbMiRecord.Type.Notify;
+			break;
+
+		case '~':
+			type = GdbMiRecord.Type.Console;
+			break;
+
+		case '@':
+			type = GdbMiRecord.Type.Target;
+			break;
+
+		case '&':
+			type = GdbMiRecord.Type.Log;
+			break;
+
+		case '(':
+			// "(gdb)", optionally followed by a space
+			if (userToken == null && expectSuffix())
+			{
+				return;
+			}
+			throw unexpected(m_pos - 1);
+
+		default:
+			throw unexpected(m_pos - 1);
+		}
+
+		long headSpan;
+		if (type == GdbMiRecord.Type.Console || type == GdbMiRecord.Type.Target ||
+			type == GdbMiRecord.Type.Log)
+		{
+			if (next() != '"')
+			{
+				throw unexpected(m_pos - 1);
+			}
+			headSpan = scanString();
+		}
+		else
+		{
+			headSpan = scanIdentifier();
+			while (m_pos != m_end)
+			{
+				if (next() != ',')
+				{
+					throw unexpected(m_pos - 1);
+				}
+				scanResult();
+			}
+		}
+		if (m_pos != m_end)
+		{
+			throw unexpected(m_pos);
+		}
+
+		m_records.add(new GdbMiTapeRecord(type, userToken, m_text, headSpan,
+			Arrays.copyOf(m_tape, m_tapeLength), m_tapeLength));
+		m_text = null;
+	}
+
+	/**
+	 * Checks the rest of the line is "gdb)" or "gdb) ".
+	 */
+	private boolean expectSuffix()
+	{
+		int length = m_end - m_pos;
+		return (length == 4 || (length == 5 && m_text[m_pos + 4] == ' ')) &&
+			m_text[m_pos] == 'g' && m_text[m_pos + 1] == 'd' && m_text[m_pos + 2] == 'b' &&
+			m_text[m_pos + 3] == ')';
+	}
+
+	/**
+	 * Reads a result, adding it to the tape.
+	 */
+	private void scanResult()
+	{
+		addEntry(scanIdentifier());
+		if (next() != '=')
+		{
+			throw unexpected(m_pos - 1);
+		}
+		scanValue();
+	}
+
+	/**
+	 * Reads a value, adding it to the tape.
+	 */
+	private void scanValue()
+	{
+		switch (next())
+		{
+		case '"':
+			addEntry(scanString());
+			break;
+
+		case '{':
+			{
+				int start = addEntry(0);
+				if (peek() != '}')
+				{
+					scanResult();
+					while (peek() == ',')
+					{
+						++m_pos;
+						scanResult();
+					}
+				}
+				if (next() != '}')
+				{
+					throw unexpected(m_pos - 1);
+				}
+				int end = addEntry(GdbMiTapeRecord.container(GdbMiTapeRecord.TUPLE_END, start));
+				m_tape[start] = GdbMiTapeRecord.container(GdbMiTapeRecord.TUPLE_START, end);
+			}
+			break;
+
+		case '[':
+			{
+				int start = addEntry(0);
+				if (peek() != ']')
+				{
+					// A list holds either results or values; the first item decides which
+					boolean results = isIdentifierHead(peek());
+					scanListItem(results);
+					while (peek() == ',')
+					{
+						++m_pos;
+						scanListItem(results);
+					}
+				}
+				if (next() != ']')
+				{
+					throw unexpected(m_pos - 1);
+				}
+				int end = addEntry(GdbMiTapeRecord.container(GdbMiTapeRecord.LIST_END, start));
+				m_tape[start] = GdbMiTapeRecord.container(GdbMiTapeRecord.LIST_START, end);
+			}
+			break;
+
+		default:
+			throw unexpected(m_pos - 1);
+		}
+	}
+
+	/**
+	 * Reads an item from a list.
+	 * @param result Whether the list holds results rather than values.
+	 */
+	private void scanListItem(boolean result)
+	{
+		if (result)
+		{
+			scanResult();
+		}
+		else
+		{
+			scanValue();
+		}
+	}
+
+	/**
+	 * Reads an identifier.
+	 * @return The name entry for the identifier.
+	 */
+	private long scanIdentifier()
+	{
+		int start = m_pos;
+		if (!isIdentifierHead(peek()))
+		{
+			throw unexpected(m_pos);
+		}
+		++m_pos;
+		while (m_pos != m_end && isIdentifier(m_text[m_pos]))
+		{
+			++m_pos;
+		}
+		return GdbMiTapeRecord.span(GdbMiTapeRecord.NAME, start, m_pos - start);
+	}
+
+	/**
+	 * Reads the rest of a string whose opening quote has been read, validating any escape
+	 * sequences.
+	 * @return The string entry for the string.
+	 */
+	private long scanString()
+	{
+		int start = m_pos;
+		boolean escaped = false;
+		while (true)
+		{
+			m_pos = GdbMiStringBuffer.scanRun(m_text, m_pos, m_end);
+			switch (next())
+			{
+			case '"':
+				return GdbMiTapeRecord.span(escaped ? GdbMiTapeRecord.ESCAPED_STRING :
+					GdbMiTapeRecord.STRING, start, m_pos - 1 - start);
+
+			case '\\':
+				escaped = true;
+				switch (next())
+				{
+				case '\'':
+				case '"':
+				case '?':
+				case '\\':
+				case 'a':
+				case 'b':
+				case 'f':
+				case 'n':
+				case 'r':
+				case 't':
+				case 'v':
+				case '0':
+				case '1':
+				case '2':
+				case '3':
+				case '4':
+				case '5':
+				case '6':
+				case '7':
+					break;
+
+				case 'x':
+					if (Character.digit(next(), 16) == -1)
+					{
+						throw unexpected(m_pos - 1);
+					}
+					break;
+
+				default:
+					throw unexpected(m_pos - 1);
+				}
+				break;
+
+			default:
+				// The new line characters cannot occur within a line, so this is unreachable
+				throw unexpected(m_pos - 1);
+			}
+		}
+	}
+
+	/**
+	 * Adds an entry to the tape.
+	 * @return The index of the entry.
+	 */
+	private int addEntry(long entry)
+	{
+		if (m_tapeLength == m_tape.length)
+		{
+			m_tape = Arrays.copyOf(m_tape, m_tapeLength * 2);
+		}
+		m_tape[m_tapeLength] = entry;
+		return m_tapeLength++;
+	}
+
+	/**
+	 * Returns the next character without consuming it.
+	 */
+	private byte peek()
+	{
+		if (m_pos == m_end)
+		{
+			throw new IllegalArgumentException("Unexpected end of record: " +
+				GdbMiStringBuffer.decode(m_text, 0, m_end));
+		}
+		return m_text[m_pos];
+	}
+
+	/**
+	 * Consumes the next character.
+	 */
+	private byte next()
+	{
+		byte ch = peek();
+		++m_pos;
+		return ch;
+	}
+
+	/**
+	 * Creates the exception thrown when an unexpected character is read.
+	 * @param pos The position of the character.
+	 * @return The exception.
+	 */
+	private IllegalArgumentException unexpected(int pos)
+	{
+		return new IllegalArgumentException("Unexpected character: '" + m_text[pos] + "' at " +
+			pos + " in record: " + GdbMiStringBuffer.decode(m_text, 0, m_end));
+	}
+
+	/**
+	 * Checks whether the given character may start an identifier.
+	 */
+	private static boolean isIdentifierHead(byte ch)
+	{
+		return ch == '_' || (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z');
+	}
+
+	/**
+	 * Checks whether the given character may appear within an identifier.
+	 */
+	private static boolean isIdentifier(byte ch)
+	{
+		return ch == '_' || ch == '-' || (ch >= '0' && ch <= '9') || (ch >= 'a' && ch <= 'z') ||
+			(ch >= 'A' && ch <= 'Z');
+	}
+}
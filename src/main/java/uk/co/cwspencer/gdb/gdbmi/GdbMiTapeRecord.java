@@ -0,0 +1,501 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A record read by GdbMiTapeParser. Rather than a tree of values the record holds its raw bytes
+ * and a tape: a flat array with one entry per name, string, tuple or list, in the order they
+ * appear in the record. Containers store the index of their matching end entry so they can be
+ * skipped in constant time. Strings are only decoded when they are accessed, so consumers which
+ * look at a handful of fields do not pay for the rest of the record.
+ */
+public class GdbMiTapeRecord extends GdbMiRecord
+{
+	// Kinds of tape entries. These are stored in the top four bits of each entry
+	static final int NAME = 1;            // Name of a result; span of the identifier
+	static final int STRING = 2;          // String without escape sequences; span of the contents
+	static final int ESCAPED_STRING = 3;  // String with escape sequences; span of the contents
+	static final int TUPLE_START = 4;     // "{"; index of the matching TUPLE_END
+	static final int TUPLE_END = 5;       // "}"
+	static final int LIST_START = 6;      // "["; index of the matching LIST_END
+	static final int LIST_END = 7;        // "]"
+
+	// Maximum offset and length of a span
+	static final int SPAN_MASK = (1 << 30) - 1;
+
+	// The raw bytes of the record, excluding the new line
+	private final byte[] m_text;
+
+	// The tape. Empty for stream records
+	private final long[] m_tape;
+	private final int m_tapeLength;
+
+	// Name entry for the class name of a result record, or string entry for the message of a
+	// stream record
+	private final long m_headSpan;
+
+	// Cached class name or message
+	private String m_head;
+
+	/**
+	 * Constructor.
+	 * @param type The record type.
+	 * @param userToken The user token. May be null.
+	 * @param text The raw bytes of the record.
+	 * @param headSpan The span of the class name for result records, or the message string entry
+	 * for stream records.
+	 * @param tape The tape.
+	 * @param tapeLength The number of entries in the tape.
+	 */
+	GdbMiTapeRecord(Type type, Long userToken, byte[] text, long headSpan, long[] tape,
+		int tapeLength)
+	{
+		this.type = type;
+		this.userToken = userToken;
+		m_text = text;
+		m_headSpan = headSpan;
+		m_tape = tape;
+		m_tapeLength = tapeLength;
+	}
+
+	/**
+	 * Checks whether this is a stream record.
+	 * @return True for console, target and log records; false for result records.
+	 */
+	public boolean isStreamRecord()
+	{
+		return type == Type.Console || type == Type.Target || type == Type.Log;
+	}
+
+	/**
+	 * Returns the result/async class of a result record.
+	 * @return The class name, or null for stream records.
+	 */
+	public String getClassName()
+	{
+		if (isStreamRecord())
+		{
+			return null;
+		}
+		if (m_head == null)
+		{
+			m_head = decodeSpan(m_headSpan);
+		}
+		return m_head;
+	}
+
+	/**
+	 * Returns the message of a stream record. The message is decoded on the first call.
+	 * @return The message, or null for result records.
+	 */
+	public String getMessage()
+	{
+		if (!isStreamRecord())
+		{
+			return null;
+		}
+		if (m_head == null)
+		{
+			m_head = decodeString(m_headSpan);
+		}
+		return m_head;
+	}
+
+	/**
+	 * Returns the results of a result record.
+	 * @return The results. Empty for stream records.
+	 */
+	public List<GdbMiTapeResult> getResults()
+	{
+		return getResults(0, m_tapeLength);
+	}
+
+	/**
+	 * Finds a result of a result record by name.
+	 * @param name The name of the result.
+	 * @return The value of the first result with the given name, or null if there is none.
+	 */
+	public GdbMiTapeValue getResult(String name)
+	{
+		return findResult(0, m_tapeLength, name);
+	}
+
+	/**
+	 * Converts the record to an ordinary record, decoding every value.
+	 * @return A GdbMiResultRecord or GdbMiStreamRecord equivalent to this record.
+	 */
+	public GdbMiRecord toRecord()
+	{
+		if (isStreamRecord())
+		{
+			GdbMiStreamRecord record = new GdbMiStreamRecord(type, userToken);
+			record.message = getMessage();
+			return record;
+		}
+
+		GdbMiResultRecord record = new GdbMiResultRecord(type, userToken);
+		record.className = getClassName();
+		for (GdbMiTapeResult result : getResults())
+		{
+			record.results.add(result.toResult());
+		}
+		return record;
+	}
+
+	/**
+	 * Converts the record to a string.
+	 * @return A string in the same format as the equivalent ordinary record.
+	 */
+	public String toString()
+	{
+		return toRecord().toString();
+	}
+
+	/**
+	 * Returns a cursor positioned on the first result of a result record.
+	 * @return The cursor.
+	 */
+	public GdbMiTapeCursor cursor()
+	{
+		return new GdbMiTapeCursor().reset(this);
+	}
+
+	/**
+	 * Returns the number of entries in the tape.
+	 */
+	int tapeLength()
+	{
+		return m_tapeLength;
+	}
+
+	/**
+	 * Returns the kind of the given tape entry.
+	 */
+	int kind(int index)
+	{
+		return (int) (m_tape[index] >>> 60);
+	}
+
+	/**
+	 * Returns the index of the entry following the value at the given index.
+	 */
+	int skip(int index)
+	{
+		int kind = kind(index);
+		if (kind == TUPLE_START || kind == LIST_START)
+		{
+			return (int) m_tape[index] + 1;
+		}
+		return index + 1;
+	}
+
+	/**
+	 * Returns the index of the end entry of the container at the given index.
+	 */
+	int end(int index)
+	{
+		return (int) m_tape[index];
+	}
+
+	/**
+	 * Decodes the name or string at the given index.
+	 */
+	String decode(int index)
+	{
+		return kind(index) == NAME ? decodeSpan(m_tape[index]) : decodeString(m_tape[index]);
+	}
+
+	/**
+	 * Decodes the name or string at the given index, looking it up in a symbol table if it has no
+	 * escape sequences.
+	 */
+	String decode(int index, GdbMiSymbolTable symbols)
+	{
+		long entry = m_tape[index];
+		if ((int) (entry >>> 60) == ESCAPED_STRING)
+		{
+			return decodeString(entry);
+		}
+		return symbols.intern(m_text, spanOffset(entry), spanLength(entry));
+	}
+
+	/**
+	 * Parses the string at the given index as a decimal number, or as a hexadecimal number if it
+	 * starts with "0x", straight from the record text. Hexadecimal numbers of up to 16 digits are
+	 * accepted, so 64-bit addresses above Long.MAX_VALUE are returned as negative numbers.
+	 * @return The number, or defaultValue if the entry is not a valid number.
+	 */
+	long parseLong(int index, long defaultValue)
+	{
+		long entry = m_tape[index];
+		if ((int) (entry >>> 60) != STRING)
+		{
+			// Numbers never contain escape sequences
+			return defaultValue;
+		}
+
+		int i = spanOffset(entry);
+		int end = i + spanLength(entry);
+		if (end - i > 2 && m_text[i] == '0' && m_text[i + 1] == 'x')
+		{
+			if (end - i > 18)
+			{
+				return defaultValue;
+			}
+			long value = 0;
+			for (i += 2; i != end; ++i)
+			{
+				int digit = hexDigit(m_text[i]);
+				if (digit == -1)
+				{
+					return defaultValue;
+				}
+				value = (value << 4) | digit;
+			}
+			return value;
+		}
+
+		// Accumulate negatively so Long.MIN_VALUE can be represented
+		boolean negative = i != end && m_text[i] == '-';
+		if (negative)
+		{
+			++i;
+		}
+		if (i == end)
+		{
+			return defaultValue;
+		}
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		for (; i != end; ++i)
+		{
+			int digit = m_text[i] - '0';
+			if (digit < 0 || digit > 9 || value < (limit + digit) / 10)
+			{
+				return defaultValue;
+			}
+			value = value * 10 - digit;
+		}
+		return negative ? value : -value;
+	}
+
+	/**
+	 * Checks whether the string at the given index equals the given string without decoding it.
+	 * Only plain ASCII strings without escape sequences are compared.
+	 */
+	boolean stringEquals(int index, String string)
+	{
+		return kind(index) == STRING && nameEquals(index, string);
+	}
+
+	/**
+	 * Checks whether the name at the given index equals the given string without decoding it.
+	 * Names are plain ASCII.
+	 */
+	boolean nameEquals(int index, String name)
+	{
+		long entry = m_tape[index];
+		int offset = spanOffset(entry);
+		int length = spanLength(entry);
+		if (length != name.length())
+		{
+			return false;
+		}
+		for (int i = 0; i != length; ++i)
+		{
+			if (m_text[offset + i] != name.charAt(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the results between the given tape indices.
+	 */
+	List<GdbMiTapeResult> getResults(int start, int end)
+	{
+		List<GdbMiTapeResult> results = new ArrayList<GdbMiTapeResult>();
+		for (int i = start; i != end; i = skip(i + 1))
+		{
+			results.add(new GdbMiTapeResult(this, i));
+		}
+		return results;
+	}
+
+	/**
+	 * Finds a result by name between the given tape indices.
+	 */
+	GdbMiTapeValue findResult(int start, int end, String name)
+	{
+		for (int i = start; i != end; i = skip(i + 1))
+		{
+			if (nameEquals(i, name))
+			{
+				return new GdbMiTapeValue(this, i + 1);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a tape entry for a span of the record text.
+	 */
+	static long span(int kind, int offset, int length)
+	{
+		return ((long) kind << 60) | ((long) offset << 30) | length;
+	}
+
+	/**
+	 * Creates a tape entry for the start of a container.
+	 */
+	static long container(int kind, int endIndex)
+	{
+		return ((long) kind << 60) | endIndex;
+	}
+
+	/**
+	 * Returns the offset of a span.
+	 */
+	private static int spanOffset(long entry)
+	{
+		return (int) (entry >>> 30) & SPAN_MASK;
+	}
+
+	/**
+	 * Returns the length of a span.
+	 */
+	private static int spanLength(long entry)
+	{
+		return (int) entry & SPAN_MASK;
+	}
+
+	/**
+	 * Returns the value of a hexadecimal digit, or -1 if the byte is not one. This is much cheaper
+	 * than Character.digit(), which handles every Unicode digit.
+	 */
+	private static int hexDigit(byte ch)
+	{
+		if (ch >= '0' && ch <= '9')
+		{
+			return ch - '0';
+		}
+		if (ch >= 'a' && ch <= 'f')
+		{
+			return ch - 'a' + 10;
+		}
+		if (ch >= 'A' && ch <= 'F')
+		{
+			return ch - 'A' + 10;
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes a span which contains no escape sequences.
+	 */
+	private String decodeSpan(long entry)
+	{
+		return GdbMiStringBuffer.decode(m_text, spanOffset(entry), spanLength(entry));
+	}
+
+	/**
+	 * Decodes the contents of a string, resolving any escape sequences.
+	 */
+	private String decodeString(long entry)
+	{
+		if ((int) (entry >>> 60) == STRING)
+		{
+			return decodeSpan(entry);
+		}
+
+		// The escape sequences were validated when the tape was built
+		GdbMiStringBuffer buffer = new GdbMiStringBuffer();
+		int i = spanOffset(entry);
+		int end = i + spanLength(entry);
+		while (i != end)
+		{
+			int runEnd = GdbMiStringBuffer.scanRun(m_text, i, end);
+			buffer.append(m_text, i, runEnd - i);
+			if (runEnd == end)
+			{
+				break;
+			}
+
+			// m_text[runEnd] is a backslash
+			i = runEnd + 2;
+			byte ch = m_text[runEnd + 1];
+			switch (ch)
+			{
+			case 'a':
+				buffer.append((byte) '\u0007');
+				break;
+
+			case 'b':
+				buffer.append((byte) '\b');
+				break;
+
+			case 'f':
+				buffer.append((byte) '\f');
+				break;
+
+			case 'n':
+				buffer.append((byte) '\n');
+				break;
+
+			case 'r':
+				buffer.append((byte) '\r');
+				break;
+
+			case 't':
+				buffer.append((byte) '\t');
+				break;
+
+			case 'v':
+				buffer.append((byte) '\u000b');
+				break;
+
+			case 'x':
+				// Hex escapes are not limited in length, so only the last two digits are kept
+				{
+					int value = 0;
+					while (i != end && Character.digit(m_text[i], 16) != -1)
+					{
+						value = ((value << 4) | Character.digit(m_text[i], 16)) & 0xff;
+						++i;
+					}
+					buffer.append((byte) value);
+				}
+				break;
+
+			case '0':
+			case '1':
+			case '2':
+			case '3':
+			case '4':
+			case '5':
+			case '6':
+			case '7':
+				// Up to three octal digits, truncated to 8 bits
+				{
+					int value = ch - '0';
+					for (int digits = 1; digits != 3 && i != end && m_text[i] >= '0' &&
+						m_text[i] <= '7'; ++digits)
+					{
+						value = (value << 3) | (m_text[i] - '0');
+						++i;
+					}
+					buffer.append((byte) value);
+				}
+				break;
+
+			default:
+				// \' \" \? and \\ stand for themselves
+				buffer.append(ch);
+			}
+		}
+		return buffer.toString();
+	}
+}
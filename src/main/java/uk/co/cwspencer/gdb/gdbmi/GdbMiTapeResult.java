@@ -0,0 +1,73 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+/**
+ * A result within a GdbMiTapeRecord. This is a view onto the record's tape; nothing is decoded
+ * until it is accessed.
+ */
+public class GdbMiTapeResult
+{
+	// The record
+	private final GdbMiTapeRecord m_record;
+
+	// Index of the name entry on the tape
+	private final int m_index;
+
+	/**
+	 * Constructor.
+	 * @param record The record.
+	 * @param index The index of the name entry on the record's tape.
+	 */
+	GdbMiTapeResult(GdbMiTapeRecord record, int index)
+	{
+		m_record = record;
+		m_index = index;
+	}
+
+	/**
+	 * Returns the name of the variable.
+	 * @return The name of the variable.
+	 */
+	public String getVariable()
+	{
+		return m_record.decode(m_index);
+	}
+
+	/**
+	 * Checks whether the variable has the given name without decoding it.
+	 * @param name The name.
+	 * @return Whether the names match.
+	 */
+	public boolean isVariable(String name)
+	{
+		return m_record.nameEquals(m_index, name);
+	}
+
+	/**
+	 * Returns the value of the variable.
+	 * @return The value.
+	 */
+	public GdbMiTapeValue getValue()
+	{
+		return new GdbMiTapeValue(m_record, m_index + 1);
+	}
+
+	/**
+	 * Converts the result to an ordinary result, decoding its value.
+	 * @return The result.
+	 */
+	public GdbMiResult toResult()
+	{
+		GdbMiResult result = new GdbMiResult(getVariable());
+		result.value = getValue().toValue();
+		return result;
+	}
+
+	/**
+	 * Converts the result to a string.
+	 * @return A string containing the name of the variable and its value.
+	 */
+	public String toString()
+	{
+		return toResult().toString();
+	}
+}
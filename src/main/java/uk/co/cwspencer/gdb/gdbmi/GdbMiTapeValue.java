@@ -0,0 +1,181 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A value within a GdbMiTapeRecord. This is a view onto the record's tape; strings are only
+ * decoded when getString() is called, and tuples and lists are only walked when their contents
+ * are requested.
+ */
+public class GdbMiTapeValue
+{
+	// The record
+	private final GdbMiTapeRecord m_record;
+
+	// Index of the value's entry on the tape
+	private final int m_index;
+
+	/**
+	 * Constructor.
+	 * @param record The record.
+	 * @param index The index of the value's entry on the record's tape.
+	 */
+	GdbMiTapeValue(GdbMiTapeRecord record, int index)
+	{
+		m_record = record;
+		m_index = index;
+	}
+
+	/**
+	 * Returns the type of the value.
+	 * @return The type of the value.
+	 */
+	public GdbMiValue.Type getType()
+	{
+		switch (m_record.kind(m_index))
+		{
+		case GdbMiTapeRecord.TUPLE_START:
+			return GdbMiValue.Type.Tuple;
+
+		case GdbMiTapeRecord.LIST_START:
+			return GdbMiValue.Type.List;
+
+		default:
+			return GdbMiValue.Type.String;
+		}
+	}
+
+	/**
+	 * Decodes the value of a string.
+	 * @return The string, or null if the value is not a string.
+	 */
+	public String getString()
+	{
+		return getType() == GdbMiValue.Type.String ? m_record.decode(m_index) : null;
+	}
+
+	/**
+	 * Returns the type of a list.
+	 * @return The type of the list, or null if the value is not a list.
+	 */
+	public GdbMiList.Type getListType()
+	{
+		if (getType() != GdbMiValue.Type.List)
+		{
+			return null;
+		}
+		if (m_record.end(m_index) == m_index + 1)
+		{
+			return GdbMiList.Type.Empty;
+		}
+		return m_record.kind(m_index + 1) == GdbMiTapeRecord.NAME ? GdbMiList.Type.Results :
+			GdbMiList.Type.Values;
+	}
+
+	/**
+	 * Returns the results of a tuple or list of results.
+	 * @return The results, or null if the value is neither.
+	 */
+	public List<GdbMiTapeResult> getResults()
+	{
+		if (getType() == GdbMiValue.Type.Tuple || getListType() == GdbMiList.Type.Results)
+		{
+			return m_record.getResults(m_index + 1, m_record.end(m_index));
+		}
+		return null;
+	}
+
+	/**
+	 * Finds a result within a tuple or list of results by name.
+	 * @param name The name of the result.
+	 * @return The value of the first result with the given name, or null if there is none or
+	 * the value is not a tuple or list of results.
+	 */
+	public GdbMiTapeValue getResult(String name)
+	{
+		if (getType() == GdbMiValue.Type.String)
+		{
+			return null;
+		}
+		int end = m_record.end(m_index);
+		if (end == m_index + 1 || m_record.kind(m_index + 1) != GdbMiTapeRecord.NAME)
+		{
+			return null;
+		}
+		return m_record.findResult(m_index + 1, end, name);
+	}
+
+	/**
+	 * Returns the items of a list of values.
+	 * @return The values, or null if the value is not a list of values.
+	 */
+	public List<GdbMiTapeValue> getValues()
+	{
+		if (getListType() != GdbMiList.Type.Values)
+		{
+			return null;
+		}
+		List<GdbMiTapeValue> values = new ArrayList<GdbMiTapeValue>();
+		int end = m_record.end(m_index);
+		for (int i = m_index + 1; i != end; i = m_record.skip(i))
+		{
+			values.add(new GdbMiTapeValue(m_record, i));
+		}
+		return values;
+	}
+
+	/**
+	 * Converts the value to an ordinary value, decoding it and everything within it.
+	 * @return The value.
+	 */
+	public GdbMiValue toValue()
+	{
+		GdbMiValue value = new GdbMiValue(getType());
+		switch (value.type)
+		{
+		case String:
+			value.string = getString();
+			break;
+
+		case Tuple:
+			value.tuple = new ArrayList<GdbMiResult>();
+			for (GdbMiTapeResult result : getResults())
+			{
+				value.tuple.add(result.toResult());
+			}
+			break;
+
+		case List:
+			value.list = new GdbMiList();
+			value.list.type = getListType();
+			if (value.list.type == GdbMiList.Type.Results)
+			{
+				value.list.results = new ArrayList<GdbMiResult>();
+				for (GdbMiTapeResult result : getResults())
+				{
+					value.list.results.add(result.toResult());
+				}
+			}
+			else if (value.list.type == GdbMiList.Type.Values)
+			{
+				value.list.values = new ArrayList<GdbMiValue>();
+				for (GdbMiTapeValue item : getValues())
+				{
+					value.list.values.add(item.toValue());
+				}
+			}
+			break;
+		}
+		return value;
+	}
+
+	/**
+	 * Converts the value to a string.
+	 * @return A string containing the value.
+	 */
+	public String toString()
+	{
+		return toValue().toString();
+	}
+}
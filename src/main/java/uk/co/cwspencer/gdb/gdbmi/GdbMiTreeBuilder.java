@@ -0,0 +1,206 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Visitor which builds GdbMiRecord objects from the structure reported by GdbMiParser. This is
+ * what the parser uses unless it is given a visitor of its own.
+ */
+public class GdbMiTreeBuilder implements GdbMiVisitor
+{
+	// Arena from which values are taken. May be null
+	private final GdbMiArena m_arena;
+
+	// Partially built record
+	private GdbMiResultRecord m_resultRecord;
+	private GdbMiStreamRecord m_streamRecord;
+
+	// Tuples and lists which are currently open. The top of the stack is the innermost
+	private GdbMiValue[] m_valueStack = new GdbMiValue[16];
+	private int m_valueStackSize = 0;
+
+	// Value of the last result, which is filled in by the next value callback
+	private GdbMiValue m_resultValue;
+
+	// List of unprocessed records
+	private List<GdbMiRecord> m_records = new ArrayList<GdbMiRecord>();
+
+	/**
+	 * Constructor; allocates values normally.
+	 */
+	public GdbMiTreeBuilder()
+	{
+		this(null);
+	}
+
+	/**
+	 * Constructor.
+	 * @param arena The arena to take values from. May be null.
+	 */
+	public GdbMiTreeBuilder(GdbMiArena arena)
+	{
+		m_arena = arena;
+	}
+
+	/**
+	 * Returns a list of unprocessed records. The caller should erase items from this list as they
+	 * are processed.
+	 * @return A list of unprocessed records.
+	 */
+	public List<GdbMiRecord> getRecords()
+	{
+		return m_records;
+	}
+
+	@Override
+	public void onRecordStart(GdbMiRecord.Type type, Long userToken, String className)
+	{
+		m_valueStackSize = 0;
+		m_resultValue = null;
+		if (className == null)
+		{
+			m_streamRecord = new GdbMiStreamRecord(type, userToken);
+		}
+		else
+		{
+			m_resultRecord = new GdbMiResultRecord(type, userToken);
+			m_resultRecord.className = className;
+			m_resultRecord.arena = m_arena;
+		}
+	}
+
+	@Override
+	public void onRecordEnd()
+	{
+		if (m_streamRecord != null)
+		{
+			m_records.add(m_streamRecord);
+			m_streamRecord = null;
+		}
+		else
+		{
+			m_records.add(m_resultRecord);
+			m_resultRecord = null;
+		}
+	}
+
+	@Override
+	public void onResult(String variable)
+	{
+		GdbMiResult result = m_arena == null ? new GdbMiResult(variable) :
+			m_arena.newResult(variable);
+		if (m_valueStackSize == 0)
+		{
+			m_resultRecord.results.add(result);
+		}
+		else
+		{
+			GdbMiValue parent = m_valueStack[m_valueStackSize - 1];
+			if (parent.type == GdbMiValue.Type.Tuple)
+			{
+				parent.tuple.add(result);
+			}
+			else
+			{
+				GdbMiList list = parent.list;
+				if (list.type == GdbMiList.Type.Empty)
+				{
+					list.type = GdbMiList.Type.Results;
+					list.results = newResultList();
+				}
+				list.results.add(result);
+			}
+		}
+		m_resultValue = result.value;
+	}
+
+	@Override
+	public void onString(String value)
+	{
+		if (m_streamRecord != null)
+		{
+			m_streamRecord.message = value;
+		}
+		else
+		{
+			beginValue(GdbMiValue.Type.String).string = value;
+		}
+	}
+
+	@Override
+	public void onTupleStart()
+	{
+		GdbMiValue value = beginValue(GdbMiValue.Type.Tuple);
+		value.tuple = newResultList();
+		pushValue(value);
+	}
+
+	@Override
+	public void onTupleEnd()
+	{
+		m_valueStack[--m_valueStackSize] = null;
+	}
+
+	@Override
+	public void onListStart()
+	{
+		GdbMiValue value = beginValue(GdbMiValue.Type.List);
+		value.list = m_arena == null ? new GdbMiList() : m_arena.newList();
+		pushValue(value);
+	}
+
+	@Override
+	public void onListEnd()
+	{
+		m_valueStack[--m_valueStackSize] = null;
+	}
+
+	/**
+	 * Gets the object for a new value: either the value of the last result or a new item in the
+	 * innermost list.
+	 * @param type The type of the value.
+	 * @return The value.
+	 */
+	private GdbMiValue beginValue(GdbMiValue.Type type)
+	{
+		GdbMiValue value = m_resultValue;
+		if (value != null)
+		{
+			m_resultValue = null;
+			value.type = type;
+			return value;
+		}
+
+		value = m_arena == null ? new GdbMiValue(type) : m_arena.newValue(type);
+		GdbMiList list = m_valueStack[m_valueStackSize - 1].list;
+		if (list.type == GdbMiList.Type.Empty)
+		{
+			list.type = GdbMiList.Type.Values;
+			list.values = m_arena == null ? new ArrayList<GdbMiValue>() : m_arena.newValueList();
+		}
+		list.values.add(value);
+		return value;
+	}
+
+	/**
+	 * Pushes a tuple or list onto the value stack.
+	 */
+	private void pushValue(GdbMiValue value)
+	{
+		if (m_valueStackSize == m_valueStack.length)
+		{
+			m_valueStack = Arrays.copyOf(m_valueStack, m_valueStackSize * 2);
+		}
+		m_valueStack[m_valueStackSize++] = value;
+	}
+
+	/**
+	 * Gets a list of results from the arena, or allocates one if there is no arena.
+	 */
+	private List<GdbMiResult> newResultList()
+	{
+		return m_arena == null ? new ArrayList<GdbMiResult>() : m_arena.newResultList();
+	}
+}
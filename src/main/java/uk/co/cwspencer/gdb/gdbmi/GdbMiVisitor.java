@@ -0,0 +1,68 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+/**
+ * Callbacks for records parsed by a streaming GdbMiParser. Rather than building a tree of values
+ * for each record, the parser reports the structure of the record as it is read, so consumers of
+ * very large responses can handle each element as it arrives and keep only what they need.
+ *
+ * For a result record the calls are:
+ * <pre>
+ * onRecordStart(type, userToken, className)
+ *   onResult(name), then exactly one value          (repeated for each result)
+ * onRecordEnd()
+ * </pre>
+ * where a value is either onString(), or onTupleStart() followed by any number of results and
+ * onTupleEnd(), or onListStart() followed by any number of results or values and onListEnd().
+ *
+ * A stream record produces onRecordStart(type, userToken, null), onString(message) and
+ * onRecordEnd().
+ *
+ * If the parser throws an exception no further calls are made for the current record.
+ */
+public interface GdbMiVisitor
+{
+	/**
+	 * Called at the start of a record.
+	 * @param type The type of the record.
+	 * @param userToken The user token. May be null.
+	 * @param className The result/async class for result records, or null for stream records.
+	 */
+	void onRecordStart(GdbMiRecord.Type type, Long userToken, String className);
+
+	/**
+	 * Called at the end of a record.
+	 */
+	void onRecordEnd();
+
+	/**
+	 * Called for the name of a result. The next value is the value of the result.
+	 * @param variable The name of the variable.
+	 */
+	void onResult(String variable);
+
+	/**
+	 * Called for a string value, or the message of a stream record.
+	 * @param value The string.
+	 */
+	void onString(String value);
+
+	/**
+	 * Called at the start of a tuple.
+	 */
+	void onTupleStart();
+
+	/**
+	 * Called at the end of a tuple.
+	 */
+	void onTupleEnd();
+
+	/**
+	 * Called at the start of a list.
+	 */
+	void onListStart();
+
+	/**
+	 * Called at the end of a list.
+	 */
+	void onListEnd();
+}
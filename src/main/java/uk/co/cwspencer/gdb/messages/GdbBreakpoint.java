@@ -321,10 +321,10 @@ public class GdbBreakpoint extends GdbDoneEvent
 		{
 			try
 			{
-				Long.parseLong(value.string.substring(2), 16);
+				GdbMiValueConverters.parseHex(value.string);
 				return AddressAvailability.Available;
 			}
-			catch (Throwable ex)
+			catch (NumberFormatException ex)
 			{
 				return null;
 			}
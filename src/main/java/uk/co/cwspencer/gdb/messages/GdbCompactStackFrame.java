@@ -0,0 +1,149 @@
+package uk.co.cwspencer.gdb.messages;
+
+import uk.co.cwspencer.gdb.gdbmi.GdbMiSymbolTable;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeCursor;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
+
+/**
+ * Stack frame with primitive fields, decoded straight from a GdbMiTapeRecord. This holds the same
+ * information as GdbStackFrame apart from the function arguments, but numbers are parsed from the
+ * record's bytes without creating strings or boxed values, and frames can be reused, so large
+ * stacks can be decoded without allocating anything but new strings.
+ */
+public class GdbCompactStackFrame
+{
+	/**
+	 * Value of level and line when they are unknown.
+	 */
+	public static final int UNKNOWN = -1;
+
+	/**
+	 * Value of address when it is unknown.
+	 */
+	public static final long NO_ADDRESS = -1;
+
+	/**
+	 * The position of the frame within the stack, where zero is the top of the stack.
+	 */
+	public int level;
+
+	/**
+	 * The execution address.
+	 */
+	public long address;
+
+	/**
+	 * The name of the function, or null if it is not known.
+	 */
+	public String function;
+
+	/**
+	 * The relative path to the file being executed.
+	 */
+	public String fileRelative;
+
+	/**
+	 * The absolute path to the file being executed.
+	 */
+	public String fileAbsolute;
+
+	/**
+	 * The line number being executed.
+	 */
+	public int line;
+
+	/**
+	 * The module where the function is defined.
+	 */
+	public String module;
+
+	/**
+	 * Constructor; creates an empty frame.
+	 */
+	public GdbCompactStackFrame()
+	{
+		clear();
+	}
+
+	/**
+	 * Resets every field to its unknown value.
+	 */
+	public void clear()
+	{
+		level = UNKNOWN;
+		address = NO_ADDRESS;
+		function = null;
+		fileRelative = null;
+		fileAbsolute = null;
+		line = UNKNOWN;
+		module = null;
+	}
+
+	/**
+	 * Decodes the frame from the tuple which is the cursor's current item. Afterwards the cursor
+	 * is left on the current item.
+	 * @param cursor The cursor.
+	 * @param symbols Symbol table to look strings up in.
+	 * @return Whether the item was a tuple.
+	 */
+	public boolean decode(GdbMiTapeCursor cursor, GdbMiSymbolTable symbols)
+	{
+		clear();
+		if (cursor.getType() != GdbMiValue.Type.Tuple)
+		{
+			return false;
+		}
+
+		cursor.enter();
+		for (; cursor.hasItem(); cursor.next())
+		{
+			if (cursor.isName("level"))
+			{
+				level = cursor.getInt(UNKNOWN);
+			}
+			else if (cursor.isName("addr"))
+			{
+				address = cursor.getLong(NO_ADDRESS);
+			}
+			else if (cursor.isName("func"))
+			{
+				function = cursor.isString("??") ? null : cursor.getString(symbols);
+			}
+			else if (cursor.isName("file"))
+			{
+				fileRelative = cursor.getString(symbols);
+			}
+			else if (cursor.isName("fullname"))
+			{
+				fileAbsolute = cursor.getString(symbols);
+			}
+			else if (cursor.isName("line"))
+			{
+				line = cursor.getInt(UNKNOWN);
+			}
+			else if (cursor.isName("from"))
+			{
+				module = cursor.getString(symbols);
+			}
+		}
+		cursor.exit();
+		return true;
+	}
+
+	/**
+	 * Converts the frame to a GdbStackFrame. Its arguments are left null.
+	 * @return The frame.
+	 */
+	public GdbStackFrame toStackFrame()
+	{
+		GdbStackFrame frame = new GdbStackFrame();
+		frame.level = level == UNKNOWN ? null : level;
+		frame.address = address == NO_ADDRESS ? null : address;
+		frame.function = function;
+		frame.fileRelative = fileRelative;
+		frame.fileAbsolute = fileAbsolute;
+		frame.line = line == UNKNOWN ? null : line;
+		frame.module = module;
+		return frame;
+	}
+}
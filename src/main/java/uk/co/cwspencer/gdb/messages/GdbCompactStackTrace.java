@@ -0,0 +1,97 @@
+package uk.co.cwspencer.gdb.messages;
+
+import uk.co.cwspencer.gdb.gdbmi.GdbMiSymbolTable;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeCursor;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stack trace made of GdbCompactStackFrame objects, decoded straight from the tape record of a
+ * response to -stack-list-frames. The frames are kept when the trace is decoded again, so a trace
+ * which is reused for every response only allocates when the stack grows deeper than before.
+ */
+public class GdbCompactStackTrace
+{
+	// The frames. Entries beyond m_size are spare
+	private GdbCompactStackFrame[] m_frames = new GdbCompactStackFrame[16];
+	private int m_size = 0;
+
+	/**
+	 * Decodes the stack trace from a response to -stack-list-frames.
+	 * @param record The record.
+	 * @param cursor Cursor to walk the record with.
+	 * @param symbols Symbol table to look strings up in.
+	 * @return Whether the record contained a stack.
+	 */
+	public boolean decode(GdbMiTapeRecord record, GdbMiTapeCursor cursor,
+		GdbMiSymbolTable symbols)
+	{
+		m_size = 0;
+		if (!cursor.reset(record).find("stack") || !cursor.enter())
+		{
+			return false;
+		}
+
+		for (; cursor.hasItem(); cursor.next())
+		{
+			if (m_size == m_frames.length)
+			{
+				m_frames = Arrays.copyOf(m_frames, m_size * 2);
+			}
+			GdbCompactStackFrame frame = m_frames[m_size];
+			if (frame == null)
+			{
+				frame = new GdbCompactStackFrame();
+				m_frames[m_size] = frame;
+			}
+			if (frame.decode(cursor, symbols))
+			{
+				++m_size;
+			}
+		}
+		cursor.exit();
+		return true;
+	}
+
+	/**
+	 * Returns the number of frames.
+	 * @return The number of frames.
+	 */
+	public int size()
+	{
+		return m_size;
+	}
+
+	/**
+	 * Returns a frame. The frame is overwritten when the trace is decoded again.
+	 * @param index The index of the frame, where zero is the top of the stack.
+	 * @return The frame.
+	 */
+	public GdbCompactStackFrame get(int index)
+	{
+		if (index >= m_size)
+		{
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + m_size);
+		}
+		return m_frames[index];
+	}
+
+	/**
+	 * Converts the trace to a GdbStackTrace.
+	 * @return The stack trace.
+	 */
+	public GdbStackTrace toStackTrace()
+	{
+		GdbStackTrace stackTrace = new GdbStackTrace();
+		List<GdbStackFrame> stack = new ArrayList<GdbStackFrame>(m_size);
+		for (int i = 0; i != m_size; ++i)
+		{
+			stack.add(m_frames[i].toStackFrame());
+		}
+		stackTrace.stack = stack;
+		return stackTrace;
+	}
+}
@@ -0,0 +1,160 @@
+package uk.co.cwspencer.gdb.messages;
+
+import uk.co.cwspencer.gdb.gdbmi.GdbMiSymbolTable;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeCursor;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
+
+/**
+ * Execution thread with primitive fields, decoded straight from a GdbMiTapeRecord. This holds the
+ * same information as GdbThread; see GdbCompactStackFrame.
+ */
+public class GdbCompactThread
+{
+	/**
+	 * Value of id and core when they are unknown.
+	 */
+	public static final int UNKNOWN = -1;
+
+	/**
+	 * Flag indicating whether this is the current thread.
+	 */
+	public boolean current;
+
+	/**
+	 * The GDB identifier.
+	 */
+	public int id;
+
+	/**
+	 * The target identifier.
+	 */
+	public String targetId;
+
+	/**
+	 * Extra information about the thread in a target-specific format
+	 */
+	public String details;
+
+	/**
+	 * The name of the thread, if available.
+	 */
+	public String name;
+
+	/**
+	 * Whether the thread has a frame.
+	 */
+	public boolean hasFrame;
+
+	/**
+	 * The stack frame currently executing in the thread. Only valid if hasFrame is set.
+	 */
+	public final GdbCompactStackFrame frame = new GdbCompactStackFrame();
+
+	/**
+	 * The thread's state, or null if it is not known.
+	 */
+	public GdbThread.State state;
+
+	/**
+	 * The core on which the thread is running, if known.
+	 */
+	public int core;
+
+	/**
+	 * Constructor; creates an empty thread.
+	 */
+	public GdbCompactThread()
+	{
+		clear();
+	}
+
+	/**
+	 * Resets every field to its unknown value.
+	 */
+	public void clear()
+	{
+		current = false;
+		id = UNKNOWN;
+		targetId = null;
+		details = null;
+		name = null;
+		hasFrame = false;
+		frame.clear();
+		state = null;
+		core = UNKNOWN;
+	}
+
+	/**
+	 * Decodes the thread from the tuple which is the cursor's current item. Afterwards the cursor
+	 * is left on the current item.
+	 * @param cursor The cursor.
+	 * @param symbols Symbol table to look strings up in.
+	 * @return Whether the item was a tuple.
+	 */
+	public boolean decode(GdbMiTapeCursor cursor, GdbMiSymbolTable symbols)
+	{
+		clear();
+		if (cursor.getType() != GdbMiValue.Type.Tuple)
+		{
+			return false;
+		}
+
+		cursor.enter();
+		for (; cursor.hasItem(); cursor.next())
+		{
+			if (cursor.isName("current"))
+			{
+				current = cursor.isString("*") || cursor.isString("y") || cursor.isString("true");
+			}
+			else if (cursor.isName("id"))
+			{
+				id = cursor.getInt(UNKNOWN);
+			}
+			else if (cursor.isName("target-id"))
+			{
+				targetId = cursor.getString(symbols);
+			}
+			else if (cursor.isName("details"))
+			{
+				details = cursor.getString(symbols);
+			}
+			else if (cursor.isName("name"))
+			{
+				name = cursor.getString(symbols);
+			}
+			else if (cursor.isName("frame"))
+			{
+				hasFrame = frame.decode(cursor, symbols);
+			}
+			else if (cursor.isName("state"))
+			{
+				state = cursor.isString("stopped") ? GdbThread.State.Stopped :
+					cursor.isString("running") ? GdbThread.State.Running : null;
+			}
+			else if (cursor.isName("core"))
+			{
+				core = cursor.getInt(UNKNOWN);
+			}
+		}
+		cursor.exit();
+		return true;
+	}
+
+	/**
+	 * Converts the thread to a GdbThread.
+	 * @return The thread.
+	 */
+	public GdbThread toThread()
+	{
+		GdbThread thread = new GdbThread();
+		thread.current = current;
+		thread.id = id == UNKNOWN ? null : id;
+		thread.targetId = targetId;
+		thread.details = details;
+		thread.name = name;
+		thread.frame = hasFrame ? frame.toStackFrame() : null;
+		thread.state = state;
+		thread.core = core == UNKNOWN ? null : Integer.toString(core);
+		return thread;
+	}
+}
@@ -0,0 +1,104 @@
+package uk.co.cwspencer.gdb.messages;
+
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResult;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
+
+import java.util.List;
+
+/**
+ * An event whose type is known but which has not been converted yet. The results it was created
+ * from are kept, and are only converted into the event object the first time it is requested, so
+ * listeners which only need the type of an event, or only look at it some of the time, do not pay
+ * for the conversion.
+ */
+public class GdbLazyEvent extends GdbEvent
+{
+	// The type of the event
+	private final Class<? extends GdbEvent> m_eventType;
+
+	// The results the event is converted from
+	private final List<GdbMiResult> m_results;
+
+	// The converted event, or null if it has not been converted yet. Published by m_converted
+	private GdbEvent m_event;
+
+	// Whether conversion has been attempted. Set under the lock once m_event has been set
+	private volatile boolean m_converted = false;
+
+	/**
+	 * Constructor.
+	 * @param eventType The type of the event.
+	 * @param results The results the event is converted from. These must not be recycled while
+	 * the lazy event is in use.
+	 */
+	GdbLazyEvent(Class<? extends GdbEvent> eventType, List<GdbMiResult> results)
+	{
+		m_eventType = eventType;
+		m_results = results;
+	}
+
+	/**
+	 * Returns the type of the event without converting it.
+	 * @return The event type.
+	 */
+	public Class<? extends GdbEvent> getEventType()
+	{
+		return m_eventType;
+	}
+
+	/**
+	 * Returns the raw value of a result without converting the event.
+	 * @param name The name of the result.
+	 * @return The value of the first result with the given name, or null if there is none.
+	 */
+	public GdbMiValue getValue(String name)
+	{
+		for (GdbMiResult result : m_results)
+		{
+			if (name.equals(result.variable))
+			{
+				return result.value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the event, converting it if this is the first time it has been requested. This may
+	 * be called from any thread; the event is only converted once, so every caller gets the same
+	 * instance.
+	 * @return The event, or null if it could not be converted.
+	 */
+	public GdbEvent get()
+	{
+		if (!m_converted)
+		{
+			synchronized (this)
+			{
+				if (!m_converted)
+				{
+					m_event = (GdbEvent) GdbMiMessageConverter.processObject(m_eventType,
+						m_results);
+					m_converted = true;
+				}
+			}
+		}
+		return m_event;
+	}
+
+	/**
+	 * Returns the event if it is of the given type, converting it if necessary.
+	 * @param eventType The expected type of the event.
+	 * @return The event, or null if it is of a different type or could not be converted.
+	 */
+	public <T extends GdbEvent> T get(Class<T> eventType)
+	{
+		return eventType.isAssignableFrom(m_eventType) ? eventType.cast(get()) : null;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "GdbLazyEvent[" + m_eventType.getSimpleName() + "]";
+	}
+}
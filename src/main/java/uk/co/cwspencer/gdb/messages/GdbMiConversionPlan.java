@@ -0,0 +1,220 @@
+package uk.co.cwspencer.gdb.messages;
+
+import com.intellij.openapi.diagnostic.Logger;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResult;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
+import uk.co.cwspencer.gdb.messages.annotations.GdbMiField;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed description of how GDB/MI results are converted to an object of one class: which
+ * field each result name maps to, and everything about each field that would otherwise be looked
+ * up by reflection for every record. Plans are built once per class by GdbMiMessageConverter, and
+ * are used to convert classes which do not have a generated decoder.
+ */
+class GdbMiConversionPlan implements GdbMiDecoder<Object>
+{
+	private static final Logger m_log =
+		Logger.getInstance("#uk.co.cwspencer.gdb.messages.GdbMiConversionPlan");
+
+	/**
+	 * How a result is converted into a single field.
+	 */
+	static class FieldPlan
+	{
+		// The field
+		final Field field;
+
+		// The generic type of the field, or null if it is not parameterised
+		final ParameterizedType genericType;
+
+		// The GDB/MI value types the field accepts
+		final GdbMiValue.Type[] valueTypes;
+
+		// The value processor, or null if the value is converted with the conversion rules
+		final Method valueProcessor;
+
+		// The converter for the field's type, used if there is no value processor or it passes
+		// the value through
+		final GdbMiValueConverter<?> converter;
+
+		// Index of the field within the plan
+		final int index;
+
+		// The next field which is populated from a result with the same name, or null
+		FieldPlan next;
+
+		FieldPlan(Field field, GdbMiField annotation, Method valueProcessor, int index)
+		{
+			Type genericType = field.getGenericType();
+			this.field = field;
+			this.genericType = genericType instanceof ParameterizedType ?
+				(ParameterizedType) genericType : null;
+			this.valueTypes = annotation.valueType();
+			this.valueProcessor = valueProcessor;
+			this.converter = GdbMiValueConverters.forType(field.getType(), this.genericType);
+			this.index = index;
+		}
+
+		/**
+		 * Checks whether the field accepts values of the given type.
+		 * @param type The type of the value.
+		 * @return Whether the type is accepted.
+		 */
+		boolean acceptsValueType(GdbMiValue.Type type)
+		{
+			for (GdbMiValue.Type valueType : valueTypes)
+			{
+				if (valueType == type)
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	// The class
+	private final Class<?> m_class;
+
+	// Fields indexed by the name of the result they are populated from
+	private final Map<String, FieldPlan> m_fields = new HashMap<String, FieldPlan>();
+
+	// Number of fields in the plan
+	private int m_fieldCount = 0;
+
+	/**
+	 * Builds the plan for the given class.
+	 * @param clazz The class.
+	 */
+	GdbMiConversionPlan(Class<?> clazz)
+	{
+		m_class = clazz;
+		for (Field field : clazz.getFields())
+		{
+			GdbMiField annotation = field.getAnnotation(GdbMiField.class);
+			if (annotation == null)
+			{
+				continue;
+			}
+
+			Method valueProcessor = null;
+			if (!annotation.valueProcessor().isEmpty())
+			{
+				valueProcessor = resolveValueProcessor(clazz, field, annotation.valueProcessor());
+				if (valueProcessor == null)
+				{
+					// The field can never be converted
+					continue;
+				}
+			}
+
+			// Fields sharing a name are chained in declaration order
+			FieldPlan fieldPlan = new FieldPlan(field, annotation, valueProcessor, m_fieldCount++);
+			FieldPlan existing = m_fields.get(annotation.name());
+			if (existing == null)
+			{
+				m_fields.put(annotation.name(), fieldPlan);
+			}
+			else
+			{
+				while (existing.next != null)
+				{
+					existing = existing.next;
+				}
+				existing.next = fieldPlan;
+			}
+		}
+	}
+
+	/**
+	 * Creates an object and populates its fields from the given results by reflection. Each field
+	 * takes the first result with its name.
+	 * @param results The results from GDB.
+	 * @return The new object.
+	 */
+	@Override
+	public Object decode(List<GdbMiResult> results)
+	{
+		try
+		{
+			Object object = m_class.newInstance();
+			boolean[] converted = new boolean[m_fieldCount];
+			for (GdbMiResult result : results)
+			{
+				for (FieldPlan field = m_fields.get(result.variable); field != null;
+					field = field.next)
+				{
+					if (!converted[field.index])
+					{
+						converted[field.index] = true;
+						GdbMiMessageConverter.convertField(object, field, result);
+					}
+				}
+			}
+			return object;
+		}
+		catch (InstantiationException ex)
+		{
+			throw new IllegalStateException("Failed to create " + m_class, ex);
+		}
+		catch (IllegalAccessException ex)
+		{
+			throw new IllegalStateException("Failed to populate " + m_class, ex);
+		}
+		catch (InvocationTargetException ex)
+		{
+			throw new IllegalStateException("Failed to populate " + m_class, ex.getCause());
+		}
+	}
+
+	/**
+	 * Finds the value processor function named by a GdbMiField annotation.
+	 * @param clazz The class containing the field.
+	 * @param field The field.
+	 * @param valueProcessorName The name of the function; either a method on clazz or a fully
+	 * qualified name.
+	 * @return The function, or null if it could not be found.
+	 */
+	private static Method resolveValueProcessor(Class<?> clazz, Field field,
+		String valueProcessorName)
+	{
+		try
+		{
+			int lastDotIndex = valueProcessorName.lastIndexOf('.');
+			if (lastDotIndex == -1)
+			{
+				// Value processor is a function on the parent class
+				return clazz.getMethod(valueProcessorName, GdbMiValue.class);
+			}
+
+			// Value processor is a fully-qualified name
+			String className = valueProcessorName.substring(0, lastDotIndex);
+			String methodName = valueProcessorName.substring(lastDotIndex + 1);
+
+			Class<?> valueProcessorClass = Class.forName(className);
+			return valueProcessorClass.getMethod(methodName, GdbMiValue.class);
+		}
+		catch (NoSuchMethodException ex)
+		{
+			m_log.warn("Annotation on " + field.getName() + " has value processor " +
+				valueProcessorName + ", but no such function exists on the class " +
+				"(or it does not take the right arguments)", ex);
+			return null;
+		}
+		catch (ClassNotFoundException ex)
+		{
+			m_log.warn("Annotation on " + field.getName() + " has value processor " +
+				valueProcessorName + ", but the referenced class does not exist", ex);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package uk.co.cwspencer.gdb.messages;
+
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResult;
+
+import java.util.List;
+
+/**
+ * Converts a list of GDB/MI results to an object of a particular class. The build generates a
+ * decoder named after the class with the suffix GENERATED_SUFFIX for every class annotated with
+ * GdbMiObject, GdbMiEvent or GdbMiDoneEvent; GdbMiMessageConverter uses those in preference to
+ * converting the results by reflection.
+ */
+public interface GdbMiDecoder<T>
+{
+	/**
+	 * Suffix appended to the name of a class (with nested class names separated by underscores) to
+	 * give the name of its generated decoder.
+	 */
+	String GENERATED_SUFFIX = "_GdbMiDecoder";
+
+	/**
+	 * Creates an object and populates its fields from the given results.
+	 * @param results The results from GDB.
+	 * @return The new object.
+	 */
+	T decode(List<GdbMiResult> results);
+}
@@ -1,12 +1,24 @@
 package uk.co.cwspencer.gdb.messages;
 
+import uk.co.cwspencer.gdb.gdbmi.GdbMiRecord;
+import uk.co.cwspencer.gdb.messages.annotations.GdbMiDoneEvent;
+import uk.co.cwspencer.gdb.messages.annotations.GdbMiEvent;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
- * Class which holds a reference to all the available GDB event type wrappers.
+ * Class which holds a reference to all the available GDB event type wrappers. The built-in types
+ * are listed in the arrays below; further types can be added at any time with
+ * registerEventType() and registerDoneEventType(), and removed again with the matching
+ * unregister methods.
  */
 public class GdbMiEventTypes
 {
 	/**
-	 * An array of the event classes.
+	 * An array of the built-in event classes. These are registered when this class is loaded;
+	 * changing the array afterwards has no effect.
 	 */
 	public static Class<?>[] classes = {
 		GdbDoneEvent.class,
@@ -17,7 +29,8 @@ public class GdbMiEventTypes
 		GdbStoppedEvent.class };
 
 	/**
-	 * An array of types of 'done' events.
+	 * An array of the built-in types of 'done' events. These are registered when this class is
+	 * loaded; changing the array afterwards has no effect.
 	 */
 	public static Class<?>[] doneEventTypes = {
 		GdbBreakpoint.class,
@@ -28,4 +41,150 @@ public class GdbMiEventTypes
 		GdbVariableObjectChanges.class,
 		GdbVariableObjects.class,
 		GdbVariables.class };
+
+	/**
+	 * A registered type of 'done' event.
+	 */
+	static class DoneEventType
+	{
+		// The event class
+		final Class<? extends GdbEvent> clazz;
+
+		// The name of the result whose contents populate the class, or null to use the whole
+		// record
+		final String transpose;
+
+		DoneEventType(Class<? extends GdbEvent> clazz, String transpose)
+		{
+			this.clazz = clazz;
+			this.transpose = transpose.isEmpty() ? null : transpose;
+		}
+	}
+
+	// Event classes indexed by record type and class name
+	private static final Map<GdbMiRecord.Type, Map<String, Class<? extends GdbEvent>>>
+		m_eventTypes = new EnumMap<GdbMiRecord.Type, Map<String, Class<? extends GdbEvent>>>(
+			GdbMiRecord.Type.class);
+
+	// 'Done' event types indexed by command
+	private static final Map<String, DoneEventType> m_doneEventTypes =
+		new ConcurrentHashMap<String, DoneEventType>();
+
+	static
+	{
+		for (GdbMiRecord.Type type : GdbMiRecord.Type.values())
+		{
+			m_eventTypes.put(type, new ConcurrentHashMap<String, Class<? extends GdbEvent>>());
+		}
+		for (Class<?> clazz : classes)
+		{
+			registerEventType(clazz.asSubclass(GdbEvent.class));
+		}
+		for (Class<?> clazz : doneEventTypes)
+		{
+			registerDoneEventType(clazz.asSubclass(GdbDoneEvent.class));
+		}
+	}
+
+	/**
+	 * Registers an event class. The class must have a GdbMiEvent annotation; it replaces any class
+	 * previously registered for the same record type and class name.
+	 * @param clazz The event class.
+	 */
+	public static void registerEventType(Class<? extends GdbEvent> clazz)
+	{
+		GdbMiEvent eventAnnotation = clazz.getAnnotation(GdbMiEvent.class);
+		if (eventAnnotation == null)
+		{
+			throw new IllegalArgumentException("Class " + clazz.getName() + " does not have a " +
+				"GdbMiEvent annotation");
+		}
+
+		Map<String, Class<? extends GdbEvent>> types =
+			m_eventTypes.get(eventAnnotation.recordType());
+		for (String className : eventAnnotation.className())
+		{
+			types.put(className, clazz);
+		}
+	}
+
+	/**
+	 * Registers a 'done' event class. The class must have a GdbMiDoneEvent annotation; it replaces
+	 * any class previously registered for the same command.
+	 * @param clazz The event class.
+	 */
+	public static void registerDoneEventType(Class<? extends GdbDoneEvent> clazz)
+	{
+		GdbMiDoneEvent doneEventAnnotation = clazz.getAnnotation(GdbMiDoneEvent.class);
+		if (doneEventAnnotation == null)
+		{
+			throw new IllegalArgumentException("Class " + clazz.getName() + " does not have a " +
+				"GdbMiDoneEvent annotation");
+		}
+
+		m_doneEventTypes.put(doneEventAnnotation.command(),
+			new DoneEventType(clazz, doneEventAnnotation.transpose()));
+	}
+
+	/**
+	 * Unregisters an event class registered with registerEventType(). Built-in classes which it
+	 * replaced are not restored.
+	 * @param clazz The event class.
+	 */
+	public static void unregisterEventType(Class<? extends GdbEvent> clazz)
+	{
+		GdbMiEvent eventAnnotation = clazz.getAnnotation(GdbMiEvent.class);
+		if (eventAnnotation == null)
+		{
+			return;
+		}
+
+		Map<String, Class<? extends GdbEvent>> types =
+			m_eventTypes.get(eventAnnotation.recordType());
+		for (String className : eventAnnotation.className())
+		{
+			types.remove(className, clazz);
+		}
+	}
+
+	/**
+	 * Unregisters a 'done' event class registered with registerDoneEventType(). Built-in classes
+	 * which it replaced are not restored.
+	 * @param clazz The event class.
+	 */
+	public static void unregisterDoneEventType(Class<? extends GdbDoneEvent> clazz)
+	{
+		GdbMiDoneEvent doneEventAnnotation = clazz.getAnnotation(GdbMiDoneEvent.class);
+		if (doneEventAnnotation == null)
+		{
+			return;
+		}
+
+		DoneEventType type = m_doneEventTypes.get(doneEventAnnotation.command());
+		if (type != null && type.clazz == clazz)
+		{
+			m_doneEventTypes.remove(doneEventAnnotation.command(), type);
+		}
+	}
+
+	/**
+	 * Finds the event class for a record.
+	 * @param recordType The type of the record.
+	 * @param className The class name of the record.
+	 * @return The event class, or null if there is none.
+	 */
+	static Class<? extends GdbEvent> getEventType(GdbMiRecord.Type recordType, String className)
+	{
+		return className == null ? null : m_eventTypes.get(recordType).get(className);
+	}
+
+	/**
+	 * Finds the 'done' event class for a command.
+	 * @param command The command, excluding any parameters.
+	 * @return The event type, or null if there is none.
+	 */
+	static DoneEventType getDoneEventType(String command)
+	{
+		return m_doneEventTypes.get(command);
+	}
 }
@@ -6,15 +6,11 @@ import uk.co.cwspencer.gdb.gdbmi.GdbMiResult;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiResultRecord;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
 import uk.co.cwspencer.gdb.messages.annotations.GdbMiConversionRule;
-import uk.co.cwspencer.gdb.messages.annotations.GdbMiDoneEvent;
-import uk.co.cwspencer.gdb.messages.annotations.GdbMiEvent;
-import uk.co.cwspencer.gdb.messages.annotations.GdbMiField;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -32,6 +28,26 @@ public class GdbMiMessageConverter
 	 */
 	public static final Object ValueProcessorPassThrough = new Object();
 
+	// Conversion rules, in the order they are tried
+	private static final Method[] m_conversionRules = findConversionRules();
+
+	// Whether generated decoders are ignored, so every object is converted by reflection
+	private static final boolean m_reflectiveDecoders =
+		Boolean.getBoolean("uk.co.cwspencer.gdb.reflectiveDecoders");
+
+	// Decoders for each class, found the first time an object of the class is converted. Classes
+	// without a generated decoder get a conversion plan, which converts them by reflection
+	private static final ClassValue<GdbMiDecoder<?>> m_decoders =
+		new ClassValue<GdbMiDecoder<?>>()
+		{
+			@Override
+			protected GdbMiDecoder<?> computeValue(Class<?> clazz)
+			{
+				GdbMiDecoder<?> decoder = m_reflectiveDecoders ? null : findGeneratedDecoder(clazz);
+				return decoder != null ? decoder : new GdbMiConversionPlan(clazz);
+			}
+		};
+
 	/**
 	 * Converts the given GDB/MI result record into a suitable Java object.
 	 * @param record The GDB result record.
@@ -52,102 +68,74 @@ public class GdbMiMessageConverter
 	 */
 	public static GdbEvent processRecord(GdbMiResultRecord record, String commandType)
 	{
-		// Iterate through the list of event types
-		GdbEvent event = null;
-		for (Class<?> clazz : GdbMiEventTypes.classes)
+		GdbLazyEvent event = processRecordLazily(record, commandType);
+		return event == null ? null : event.get();
+	}
+
+	/**
+	 * Finds the event type for the given GDB/MI result record without converting it.
+	 * @param record The GDB result record. The lazy event refers to the record's values, so they
+	 * must not be recycled while it is in use.
+	 * @param commandType The original command type (excluding any parameters) that was sent which
+	 * caused GDB to send the record. This is used for mapping 'done' events to the appropriate
+	 * type.
+	 * @return The lazy event, or null if the record does not correspond to a known event type.
+	 */
+	public static GdbLazyEvent processRecordLazily(GdbMiResultRecord record, String commandType)
+	{
+		// Find the event type for the record
+		Class<? extends GdbEvent> clazz =
+			GdbMiEventTypes.getEventType(record.type, record.className);
+		if (clazz == null)
 		{
-			// Verify the type has a GdbMiEvent annotation
-			GdbMiEvent eventAnnotation = clazz.getAnnotation(GdbMiEvent.class);
-			if (eventAnnotation == null)
-			{
-				m_log.warn("Class " + clazz.getName() + " is in the GdbMiEventTypes.classes list " +
-					"but does not have a GdbMiEvent annotation");
-				continue;
-			}
+			return null;
+		}
 
-			// Check if this type is appropriate for the record
-			if (eventAnnotation.recordType() == record.type)
+		// If it is a 'done' event then look for a more specific event type
+		List<GdbMiResult> results = record.results;
+		if (commandType != null && clazz == GdbDoneEvent.class)
+		{
+			GdbMiEventTypes.DoneEventType doneEventType =
+				GdbMiEventTypes.getDoneEventType(commandType);
+			if (doneEventType != null)
 			{
-				boolean match = false;
-				for (String className : eventAnnotation.className())
+				// Check if we need to transpose a specific result onto this class
+				List<GdbMiResult> transposedResults = results;
+				if (doneEventType.transpose != null)
 				{
-					if (className.equals(record.className))
+					transposedResults = transposeDoneEvent(record, doneEventType.transpose);
+					if (transposedResults == null)
 					{
-						match = true;
-						break;
+						m_log.warn("Class " + doneEventType.clazz.getName() + " is trying to " +
+							"transpose '" + doneEventType.transpose + "', but the result does " +
+							"not exist or is not a tuple or list of results");
 					}
 				}
 
-				if (match)
+				if (transposedResults != null)
 				{
-					// Found a matching event type wrapper
-					List<GdbMiResult> results = record.results;
-
-					// If it is a 'done' event then search for a more specific event type
-					if (commandType != null && clazz.equals(GdbDoneEvent.class))
-					{
-						for (Class<?> doneEventClass : GdbMiEventTypes.doneEventTypes)
-						{
-							GdbMiDoneEvent doneEventAnnotation =
-								doneEventClass.getAnnotation(GdbMiDoneEvent.class);
-							if (doneEventAnnotation == null)
-							{
-								m_log.warn("Class " + doneEventClass.getName() + " is in the " +
-									"GdbMiEventTypes.doneEventTypes list but does not have a" +
-									"GdbMiDoneEvent annotation");
-								continue;
-							}
-
-							if (doneEventAnnotation.command().equals(commandType))
-							{
-								// Found a match; check if we need to transpose a specific result
-								// onto this class
-								if (!doneEventAnnotation.transpose().isEmpty())
-								{
-									List<GdbMiResult> transposedResults = transposeDoneEvent(record,
-										doneEventAnnotation);
-									if (transposedResults == null)
-									{
-										m_log.warn("Class " + doneEventClass.getName() + " is " +
-											"trying to transpose '" +
-											doneEventAnnotation.transpose() + "', but the result " +
-											"does not exist or is not a tuple or list of results");
-										break;
-									}
-
-									results = transposedResults;
-								}
-
-								clazz = doneEventClass;
-								break;
-							}
-						}
-					}
-
-					// Process the object
-					event = (GdbEvent) processObject(clazz, results);
-					break;
+					clazz = doneEventType.clazz;
+					results = transposedResults;
 				}
-
 			}
-
 		}
-		return event;
+
+		return new GdbLazyEvent(clazz, results);
 	}
 
 	/**
 	 * Extracts data from the result requested by the class.
 	 * @param record The result record.
-	 * @param doneEventAnnotation The annotation on the class.
+	 * @param transpose The name of the result requested by the class.
 	 * @return The new list of results, or null if it could not be transposed.
 	 */
 	private static List<GdbMiResult> transposeDoneEvent(GdbMiResultRecord record,
-		GdbMiDoneEvent doneEventAnnotation)
+		String transpose)
 	{
 		// Search for the requested result
 		for (GdbMiResult result : record.results)
 		{
-			if (result.variable.equals(doneEventAnnotation.transpose()))
+			if (transpose.equals(result.variable))
 			{
 				// Found it; check it is an appropriate type (it must be a tuple or a list of
 				// results)
@@ -176,37 +164,47 @@ public class GdbMiMessageConverter
 	{
 		try
 		{
-			Object object = clazz.newInstance();
-
-			// Populate the fields with data from the result
-			Field[] fields = clazz.getFields();
-			for (Field field : fields)
-			{
-				GdbMiField fieldAnnotation = field.getAnnotation(GdbMiField.class);
-				if (fieldAnnotation == null)
-				{
-					continue;
-				}
-
-				// Find a result with the requested variable name
-				for (GdbMiResult result : results)
-				{
-					if (!fieldAnnotation.name().equals(result.variable))
-					{
-						continue;
-					}
+			return m_decoders.get(clazz).decode(results);
+		}
+		catch (Throwable ex)
+		{
+			m_log.warn("Failed to convert GDB/MI message to a Java object", ex);
+			return null;
+		}
+	}
 
-					// Found a matching field; convert the value
-					convertField(object, clazz, field, fieldAnnotation, result);
-					break;
-				}
-			}
+	/**
+	 * Returns the decoder used to convert results to objects of the given type. This is the
+	 * generated decoder for the class if there is one, or a GdbMiConversionPlan otherwise.
+	 * @param clazz The type of object.
+	 * @return The decoder.
+	 */
+	static GdbMiDecoder<?> getDecoder(Class<?> clazz)
+	{
+		return m_decoders.get(clazz);
+	}
 
-			return object;
+	/**
+	 * Finds the generated decoder for the given class.
+	 * @param clazz The class.
+	 * @return The decoder, or null if the class does not have one.
+	 */
+	private static GdbMiDecoder<?> findGeneratedDecoder(Class<?> clazz)
+	{
+		String name = clazz.getName().replace('$', '_') + GdbMiDecoder.GENERATED_SUFFIX;
+		try
+		{
+			Class<?> decoderClass = Class.forName(name, true, clazz.getClassLoader());
+			return (GdbMiDecoder<?>) decoderClass.getField("INSTANCE").get(null);
+		}
+		catch (ClassNotFoundException ex)
+		{
+			return null;
 		}
 		catch (Throwable ex)
 		{
-			m_log.warn("Failed to convert GDB/MI message to a Java object", ex);
+			m_log.warn("Failed to load generated decoder " + name + "; converting " +
+				clazz.getName() + " by reflection", ex);
 			return null;
 		}
 	}
@@ -215,36 +213,24 @@ public class GdbMiMessageConverter
 	 * Converts a GdbMiResult into a suitable Java type and puts it in the given field on the given
 	 * object.
 	 * @param event The object to put the value into.
-	 * @param clazz The class of the object.
-	 * @param field The field on the object to put the value into.
-	 * @param fieldAnnotation The GdbMiField annotation on the field.
+	 * @param field The plan for the field on the object to put the value into.
 	 * @param result The result to get the data from.
 	 */
-	private static void convertField(Object event, Class<?> clazz, Field field,
-		GdbMiField fieldAnnotation, GdbMiResult result) throws InvocationTargetException,
-		IllegalAccessException
+	static void convertField(Object event, GdbMiConversionPlan.FieldPlan field,
+		GdbMiResult result) throws InvocationTargetException, IllegalAccessException
 	{
 		// Check the result type is supported by the field
-		boolean foundValueType = false;
-		for (GdbMiValue.Type valueType : fieldAnnotation.valueType())
+		if (!field.acceptsValueType(result.value.type))
 		{
-			if (valueType == result.value.type)
-			{
-				foundValueType = true;
-				break;
-			}
-		}
-		if (!foundValueType)
-		{
-			m_log.warn("Annotation on " + field.getName() + " requires on of GDB/MI types " +
-				Arrays.toString(fieldAnnotation.valueType()) + "; got " + result.value.type);
+			GdbMiValueConverters.warnValueType(field.field.getName(),
+				Arrays.toString(field.valueTypes), result.value.type);
 			return;
 		}
 
-		if (!fieldAnnotation.valueProcessor().isEmpty())
+		if (field.valueProcessor != null)
 		{
 			// Field has a custom value processor
-			convertFieldUsingValueProcessor(event, clazz, field, fieldAnnotation, result);
+			convertFieldUsingValueProcessor(event, field, result);
 		}
 		else
 		{
@@ -257,61 +243,22 @@ public class GdbMiMessageConverter
 	 * Converts a GdbMiResult into a suitable Java type and puts it in the given field on the given
 	 * object using a custom value processor defined by the field.
 	 * @param event The object to put the value into.
-	 * @param clazz The class of the object.
-	 * @param field The field on the object to put the value into.
-	 * @param fieldAnnotation The GdbMiField annotation on the field.
+	 * @param field The plan for the field on the object to put the value into.
 	 * @param result The result to get the data from.
 	 */
-	private static  void convertFieldUsingValueProcessor(Object event, Class<?> clazz, Field field,
-		GdbMiField fieldAnnotation, GdbMiResult result) throws InvocationTargetException,
+	private static void convertFieldUsingValueProcessor(Object event,
+		GdbMiConversionPlan.FieldPlan field, GdbMiResult result) throws InvocationTargetException,
 		IllegalAccessException
 	{
-		// Get the value processor function
-		Method valueProcessor;
-		try
-		{
-			String valueProcessorName = fieldAnnotation.valueProcessor();
-			int lastDotIndex = valueProcessorName.lastIndexOf('.');
-			if (lastDotIndex == -1)
-			{
-				// Value processor is a function on the parent class
-				valueProcessor = clazz.getMethod(valueProcessorName, GdbMiValue.class);
-			}
-			else
-			{
-				// Value processor is a fully-qualified name
-				String className = valueProcessorName.substring(0, lastDotIndex);
-				String methodName = valueProcessorName.substring(lastDotIndex + 1);
-
-				Class<?> valueProcessorClass = Class.forName(className);
-				valueProcessor = valueProcessorClass.getMethod(methodName, GdbMiValue.class);
-			}
-		}
-		catch (NoSuchMethodException ex)
-		{
-			m_log.warn("Annotation on " + field.getName() + " has value processor " +
-				fieldAnnotation.valueProcessor() + ", but no such function exists on the class " +
-				"(or it does not take the right arguments)", ex);
-			return;
-		}
-		catch (ClassNotFoundException ex)
-		{
-			m_log.warn("Annotation on " + field.getName() + " has value processor " +
-				fieldAnnotation.valueProcessor() + ", but the referenced class does not exist", ex);
-			return;
-		}
-
 		// Invoke the method
-		Object resultValue = null;
 		Object value;
 		try
 		{
-			value = valueProcessor.invoke(event, result.value);
+			value = field.valueProcessor.invoke(event, result.value);
 		}
 		catch (Throwable ex)
 		{
-			m_log.warn("Field to invoke value processor for field " + field.getName() + " with " +
-				"value " + resultValue, ex);
+			GdbMiValueConverters.warnValueProcessorFailed(field.field.getName(), result.value, ex);
 			return;
 		}
 
@@ -330,53 +277,45 @@ public class GdbMiMessageConverter
 		}
 
 		// Check the returned value is of the correct type
-		if (!field.getType().isAssignableFrom(value.getClass()))
+		Class<?> fieldType = field.field.getType();
+		if (!fieldType.isAssignableFrom(value.getClass()))
 		{
-			m_log.warn("Field " + field.getName() + " is of type " + field.getType() + ", but " +
-				"the value processor returned " + value + " [type=" + value.getClass() + "]");
+			GdbMiValueConverters.warnValueProcessorType(field.field.getName(), fieldType, value);
 			return;
 		}
 
 		// Set the value on the field
 		try
 		{
-			field.set(event, value);
+			field.field.set(event, value);
 		}
 		catch (IllegalAccessException ex)
 		{
-			m_log.warn("Failed to set value on field " + field, ex);
+			m_log.warn("Failed to set value on field " + field.field, ex);
 			return;
 		}
 	}
 
 	/**
 	 * Converts a GdbMiResult into a suitable Java type and puts it in the given field on the given
-	 * object using built-in value processors.
+	 * object using the converter for the field's type.
 	 * @param event The object to put the value into.
-	 * @param field The field on the object to put the value into.
+	 * @param field The plan for the field on the object to put the value into.
 	 * @param result The result to get the data from.
 	 */
-	static void convertFieldManually(Object event, Field field, GdbMiResult result) throws
-		InvocationTargetException, IllegalAccessException
+	static void convertFieldManually(Object event, GdbMiConversionPlan.FieldPlan field,
+		GdbMiResult result) throws InvocationTargetException, IllegalAccessException
 	{
-		ParameterizedType genericType = null;
-		{
-			Type basicGenericType = field.getGenericType();
-			if (basicGenericType instanceof ParameterizedType)
-			{
-				genericType = (ParameterizedType) basicGenericType;
-			}
-		}
-
-		Object value = applyConversionRules(field.getType(), genericType, result.value);
+		Object value = field.converter.convert(result.value);
 		if (value != null)
 		{
-			field.set(event, value);
+			field.field.set(event, value);
 		}
 		else
 		{
-			m_log.warn("No conversion rules were available to convert GDB/MI result '" +
-				result + "' for field " + field);
+			GdbMiValueConverters.warnNotConverted(
+				field.field.getDeclaringClass().getSimpleName() + "." + field.field.getName(),
+				result);
 		}
 	}
 
@@ -391,22 +330,32 @@ public class GdbMiMessageConverter
 		GdbMiValue value) throws InvocationTargetException, IllegalAccessException
 	{
 		// Apply the conversion rules until we get a match
-		Object jValue = null;
-		Method[] methods = GdbMiValueConversionRules.class.getMethods();
-		for (Method method : methods)
+		for (Method rule : m_conversionRules)
 		{
-			// Verify it is a conversion rule
-			if (method.getAnnotation(GdbMiConversionRule.class) == null)
+			Object jValue = rule.invoke(null, targetType, genericTargetType, value);
+			if (jValue != null)
 			{
-				continue;
+				return jValue;
 			}
+		}
+		return null;
+	}
 
-			jValue = method.invoke(null, targetType, genericTargetType, value);
-			if (jValue != null)
+	/**
+	 * Finds the conversion rules on GdbMiValueConversionRules.
+	 * @return The rules, in the order they are to be tried.
+	 */
+	private static Method[] findConversionRules()
+	{
+		List<Method> rules = new ArrayList<Method>();
+		for (Method method : GdbMiValueConversionRules.class.getMethods())
+		{
+			// Verify it is a conversion rule
+			if (method.getAnnotation(GdbMiConversionRule.class) != null)
 			{
-				break;
+				rules.add(method);
 			}
 		}
-		return jValue;
+		return rules.toArray(new Method[rules.size()]);
 	}
 }
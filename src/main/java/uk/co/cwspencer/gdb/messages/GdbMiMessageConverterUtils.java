@@ -14,12 +14,11 @@ public class GdbMiMessageConverterUtils
 	 */
 	public static Long hexStringToLong(GdbMiValue value)
 	{
-		Long longValue = null;
-		if (value.type == GdbMiValue.Type.String && value.string.substring(0, 2).equals("0x"))
+		if (value.type != GdbMiValue.Type.String || !value.string.startsWith("0x"))
 		{
-			longValue = Long.parseLong(value.string.substring(2), 16);
+			return null;
 		}
-		return longValue;
+		return GdbMiValueConverters.parseHex(value.string);
 	}
 
 	/**
@@ -167,6 +167,10 @@ public class GdbMiValueConversionRules
 			{
 				return Integer.parseInt(value.string);
 			}
+			else if (type.equals(Long.class))
+			{
+				return Long.parseLong(value.string);
+			}
 			else if (type.equals(Boolean.class))
 			{
 				if (value.string.equals("y") || value.string.equals("true") ||
@@ -0,0 +1,16 @@
+package uk.co.cwspencer.gdb.messages;
+
+import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
+
+/**
+ * Converts a GDB/MI value to a Java object of a particular type.
+ */
+public interface GdbMiValueConverter<T>
+{
+	/**
+	 * Converts the given value.
+	 * @param value The value from GDB.
+	 * @return The converted value, or null if it could not be converted.
+	 */
+	T convert(GdbMiValue value);
+}
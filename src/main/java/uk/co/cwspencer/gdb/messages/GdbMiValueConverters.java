@@ -0,0 +1,567 @@
+package uk.co.cwspencer.gdb.messages;
+
+import com.intellij.openapi.diagnostic.Logger;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResult;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
+import uk.co.cwspencer.gdb.messages.annotations.GdbMiEnum;
+import uk.co.cwspencer.gdb.messages.annotations.GdbMiObject;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Value converters used by generated decoders and conversion plans. Each converter applies the
+ * same conversion as the matching rule in GdbMiValueConversionRules, but is chosen when the decoder
+ * is generated or the plan is built rather than by trying every rule for each value. The warnings
+ * logged when a field cannot be converted are defined here too, so generated decoders and
+ * GdbMiMessageConverter report problems in the same way.
+ */
+public class GdbMiValueConverters
+{
+	private static final Logger m_log =
+		Logger.getInstance("#uk.co.cwspencer.gdb.messages.GdbMiValueConverters");
+
+	/**
+	 * Converts strings to strings.
+	 */
+	public static final GdbMiValueConverter<String> STRING = new GdbMiValueConverter<String>()
+		{
+			@Override
+			public String convert(GdbMiValue value)
+			{
+				return value.type == GdbMiValue.Type.String ? value.string : null;
+			}
+		};
+
+	/**
+	 * Converts strings to integers.
+	 */
+	public static final GdbMiValueConverter<Integer> INTEGER = new GdbMiValueConverter<Integer>()
+		{
+			@Override
+			public Integer convert(GdbMiValue value)
+			{
+				return value.type == GdbMiValue.Type.String ? Integer.parseInt(value.string) : null;
+			}
+		};
+
+	/**
+	 * Converts strings to longs.
+	 */
+	public static final GdbMiValueConverter<Long> LONG = new GdbMiValueConverter<Long>()
+		{
+			@Override
+			public Long convert(GdbMiValue value)
+			{
+				return value.type == GdbMiValue.Type.String ? Long.parseLong(value.string) : null;
+			}
+		};
+
+	/**
+	 * Converts strings to booleans. "y", "true" and "*" are true, "n" and "false" are false, and
+	 * integers are true if they are non-zero.
+	 */
+	public static final GdbMiValueConverter<Boolean> BOOLEAN = new GdbMiValueConverter<Boolean>()
+		{
+			@Override
+			public Boolean convert(GdbMiValue value)
+			{
+				if (value.type != GdbMiValue.Type.String)
+				{
+					return null;
+				}
+				if (value.string.equals("y") || value.string.equals("true") ||
+					value.string.equals("*"))
+				{
+					return true;
+				}
+				if (value.string.equals("n") || value.string.equals("false"))
+				{
+					return false;
+				}
+
+				// Try parsing it as an integer
+				try
+				{
+					return Integer.parseInt(value.string) != 0;
+				}
+				catch (NumberFormatException ex)
+				{
+					// Don't know how to convert this to a bool
+					return null;
+				}
+			}
+		};
+
+	// Converters for each field type, resolved the first time the type is converted. Keys are the
+	// class for plain types and the ParameterizedType for generic ones
+	private static final Map<Type, GdbMiValueConverter<?>> m_typeConverters =
+		new ConcurrentHashMap<Type, GdbMiValueConverter<?>>();
+
+	// Converters for each enum
+	private static final ClassValue<GdbMiValueConverter<?>> m_enumConverters =
+		new ClassValue<GdbMiValueConverter<?>>()
+		{
+			@SuppressWarnings("unchecked")
+			@Override
+			protected GdbMiValueConverter<?> computeValue(Class<?> type)
+			{
+				return new EnumConverter(type);
+			}
+		};
+
+	/**
+	 * Converter for enums with a GdbMiEnum annotation. Strings are converted to enum value names
+	 * by stripping hyphens and capitalising the first letter of each word; the result for each
+	 * string is cached.
+	 */
+	private static class EnumConverter<E extends Enum<E>> implements GdbMiValueConverter<E>
+	{
+		// The enum type
+		private final Class<E> m_type;
+
+		// Enum values indexed by the GDB/MI strings which have been converted to them
+		private final Map<String, E> m_values = new ConcurrentHashMap<String, E>();
+
+		EnumConverter(Class<E> type)
+		{
+			m_type = type;
+		}
+
+		@Override
+		public E convert(GdbMiValue value)
+		{
+			// Only strings can be converted
+			if (value.type != GdbMiValue.Type.String)
+			{
+				m_log.warn(m_type + " is an enum, but expects a " + value.type + "; only " +
+					"strings can be converted to enums");
+				return null;
+			}
+
+			E jValue = m_values.get(value.string);
+			if (jValue != null)
+			{
+				return jValue;
+			}
+
+			if (m_type.getAnnotation(GdbMiEnum.class) == null)
+			{
+				m_log.warn(m_type + " is an enum, but the does not have a GdbMiEnum annotation");
+				return null;
+			}
+
+			// Convert the GDB/MI string into an enum value name
+			boolean capitalise = true;
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i != value.string.length(); ++i)
+			{
+				char ch = value.string.charAt(i);
+				if (ch == '-')
+				{
+					capitalise = true;
+					continue;
+				}
+				if (capitalise)
+				{
+					capitalise = false;
+					ch = Character.toUpperCase(ch);
+				}
+				sb.append(ch);
+			}
+			String name = sb.toString();
+
+			// Search the enum
+			for (E enumValue : m_type.getEnumConstants())
+			{
+				if (enumValue.name().equals(name))
+				{
+					m_values.put(value.string, enumValue);
+					return enumValue;
+				}
+			}
+
+			m_log.warn("Could not find an appropriate enum value for string '" + value.string +
+				"' for type " + m_type);
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the converter for values of the given type. The converter is chosen by the same
+	 * criteria as the rules in GdbMiValueConversionRules, but only once for each type; types none
+	 * of the built-in converters handle get a converter which applies the rules to each value.
+	 * @param type The type.
+	 * @param genericType The generic type. May be null.
+	 * @return The converter.
+	 */
+	public static GdbMiValueConverter<?> forType(Class<?> type, ParameterizedType genericType)
+	{
+		Type key = genericType != null ? genericType : type;
+		GdbMiValueConverter<?> converter = m_typeConverters.get(key);
+		if (converter == null)
+		{
+			converter = resolveConverter(type, genericType);
+			m_typeConverters.put(key, converter);
+		}
+		return converter;
+	}
+
+	/**
+	 * Chooses the converter for values of the given type.
+	 * @param type The type.
+	 * @param genericType The generic type. May be null.
+	 * @return The converter.
+	 */
+	@SuppressWarnings("unchecked")
+	private static GdbMiValueConverter<?> resolveConverter(Class<?> type,
+		ParameterizedType genericType)
+	{
+		if (type.getAnnotation(GdbMiObject.class) != null)
+		{
+			return forObject(type);
+		}
+		if (type.isEnum())
+		{
+			return forEnum((Class) type);
+		}
+		if (type.equals(String.class))
+		{
+			return STRING;
+		}
+		if (type.equals(Integer.class))
+		{
+			return INTEGER;
+		}
+		if (type.equals(Long.class))
+		{
+			return LONG;
+		}
+		if (type.equals(Boolean.class))
+		{
+			return BOOLEAN;
+		}
+
+		if (genericType != null)
+		{
+			Type[] typeArguments = genericType.getActualTypeArguments();
+			if (type.equals(List.class) && typeArguments.length == 1 &&
+				typeArguments[0] instanceof Class)
+			{
+				return forList(forType((Class<?>) typeArguments[0], null));
+			}
+			if (type.equals(Map.class) && typeArguments.length == 2 &&
+				typeArguments[0] instanceof Class && typeArguments[1] instanceof Class)
+			{
+				return forMap(forType((Class<?>) typeArguments[0], null),
+					forType((Class<?>) typeArguments[1], null));
+			}
+		}
+
+		return new RuleConverter(type, genericType);
+	}
+
+	/**
+	 * Converter which applies the conversion rules to each value, for types which none of the
+	 * built-in converters handle.
+	 */
+	private static class RuleConverter implements GdbMiValueConverter<Object>
+	{
+		// The type of the converted values
+		private final Class<?> m_type;
+
+		// The generic type of the converted values, or null
+		private final ParameterizedType m_genericType;
+
+		RuleConverter(Class<?> type, ParameterizedType genericType)
+		{
+			m_type = type;
+			m_genericType = genericType;
+		}
+
+		@Override
+		public Object convert(GdbMiValue value)
+		{
+			try
+			{
+				return GdbMiMessageConverter.applyConversionRules(m_type, m_genericType, value);
+			}
+			catch (InvocationTargetException ex)
+			{
+				throw new IllegalStateException("Conversion rule failed for " + m_type,
+					ex.getCause());
+			}
+			catch (IllegalAccessException ex)
+			{
+				throw new IllegalStateException("Conversion rule failed for " + m_type, ex);
+			}
+		}
+	}
+
+	/**
+	 * Returns a converter from strings to values of the given enum, which must have a GdbMiEnum
+	 * annotation.
+	 * @param type The enum type.
+	 * @return The converter.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <E extends Enum<E>> GdbMiValueConverter<E> forEnum(Class<E> type)
+	{
+		return (GdbMiValueConverter<E>) m_enumConverters.get(type);
+	}
+
+	/**
+	 * Returns a converter from tuples and lists of results to objects of the given type, which
+	 * must have a GdbMiObject annotation. The objects are created by GdbMiMessageConverter, so the
+	 * type's generated decoder is used if it has one.
+	 * @param type The object type.
+	 * @return The converter.
+	 */
+	public static <T> GdbMiValueConverter<T> forObject(final Class<T> type)
+	{
+		return new GdbMiValueConverter<T>()
+			{
+				@Override
+				public T convert(GdbMiValue value)
+				{
+					// Get the list of results
+					List<GdbMiResult> results;
+					if (value.type == GdbMiValue.Type.Tuple)
+					{
+						results = value.tuple;
+					}
+					else if (value.type == GdbMiValue.Type.String)
+					{
+						m_log.warn(type + " has a GdbMiObject annotation, but a string is " +
+							"expected from GDB; it must be a list or tuple");
+						return null;
+					}
+					else
+					{
+						switch (value.list.type)
+						{
+						case Results:
+							results = value.list.results;
+							break;
+
+						case Empty:
+							results = Collections.emptyList();
+							break;
+
+						default:
+							m_log.warn(type + " has a GdbMiObject annotation and expects a " +
+								"list, but GDB returned a list of values rather than a list of " +
+								"results, so it cannot be processed");
+							return null;
+						}
+					}
+
+					return type.cast(GdbMiMessageConverter.processObject(type, results));
+				}
+			};
+	}
+
+	/**
+	 * Returns a converter from lists to lists. If the GDB/MI list is a list of results then the
+	 * variable names are discarded.
+	 * @param itemConverter Converter for the items in the list.
+	 * @return The converter.
+	 */
+	public static <T> GdbMiValueConverter<List<T>> forList(
+		final GdbMiValueConverter<T> itemConverter)
+	{
+		return new GdbMiValueConverter<List<T>>()
+			{
+				@Override
+				public List<T> convert(GdbMiValue value)
+				{
+					if (value.type != GdbMiValue.Type.List)
+					{
+						return null;
+					}
+
+					switch (value.list.type)
+					{
+					case Values:
+						List<T> list = new ArrayList<T>(value.list.values.size());
+						for (GdbMiValue subValue : value.list.values)
+						{
+							T item = itemConverter.convert(subValue);
+							if (item == null)
+							{
+								return null;
+							}
+							list.add(item);
+						}
+						return list;
+
+					case Results:
+						list = new ArrayList<T>(value.list.results.size());
+						for (GdbMiResult result : value.list.results)
+						{
+							T item = itemConverter.convert(result.value);
+							if (item == null)
+							{
+								return null;
+							}
+							list.add(item);
+						}
+						return list;
+
+					default:
+						return new ArrayList<T>();
+					}
+				}
+			};
+	}
+
+	/**
+	 * Returns a converter from lists of tuples to maps. The tuples must all have one or two
+	 * elements each. If a tuple only has one value then that value is used as the key and the
+	 * value will be null. The variable names of the tuples are discarded.
+	 * @param keyConverter Converter for the first value of each tuple.
+	 * @param valueConverter Converter for the second value of each tuple.
+	 * @return The converter.
+	 */
+	public static <K, V> GdbMiValueConverter<Map<K, V>> forMap(
+		final GdbMiValueConverter<K> keyConverter, final GdbMiValueConverter<V> valueConverter)
+	{
+		return new GdbMiValueConverter<Map<K, V>>()
+			{
+				@Override
+				public Map<K, V> convert(GdbMiValue value)
+				{
+					if (value.type != GdbMiValue.Type.List)
+					{
+						return null;
+					}
+
+					switch (value.list.type)
+					{
+					case Values:
+						break;
+
+					case Results:
+						// Only value lists can be converted
+						return null;
+
+					default:
+						return new LinkedHashMap<K, V>();
+					}
+
+					Map<K, V> map = new LinkedHashMap<K, V>();
+					for (GdbMiValue subValue : value.list.values)
+					{
+						// Verify the value is a tuple and contains one or two elements
+						if (subValue.type != GdbMiValue.Type.Tuple || subValue.tuple.size() < 1 ||
+							subValue.tuple.size() > 2)
+						{
+							return null;
+						}
+
+						K key = keyConverter.convert(subValue.tuple.get(0).value);
+						if (key == null)
+						{
+							return null;
+						}
+
+						V jValue = null;
+						if (subValue.tuple.size() == 2)
+						{
+							jValue = valueConverter.convert(subValue.tuple.get(1).value);
+							if (jValue == null)
+							{
+								return null;
+							}
+						}
+
+						map.put(key, jValue);
+					}
+					return map;
+				}
+			};
+	}
+
+	/**
+	 * Parses a hexadecimal string with a "0x" prefix without creating any intermediate objects.
+	 * Values of up to 16 digits are accepted; those above Long.MAX_VALUE are returned as negative
+	 * numbers, so addresses in the upper half of the address space can be represented.
+	 * @param string The string.
+	 * @return The value.
+	 * @throws NumberFormatException If the string is not a valid hexadecimal number.
+	 */
+	public static long parseHex(String string)
+	{
+		int length = string.length();
+		if (length < 3 || length > 18 || string.charAt(0) != '0' || string.charAt(1) != 'x')
+		{
+			throw new NumberFormatException("Invalid hexadecimal number: " + string);
+		}
+
+		long value = 0;
+		for (int i = 2; i != length; ++i)
+		{
+			int digit = Character.digit(string.charAt(i), 16);
+			if (digit == -1)
+			{
+				throw new NumberFormatException("Invalid hexadecimal number: " + string);
+			}
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	/**
+	 * Logs that a result had a type a field does not accept.
+	 * @param field The name of the field.
+	 * @param valueTypes The types the field accepts.
+	 * @param type The type of the result.
+	 */
+	public static void warnValueType(String field, String valueTypes, GdbMiValue.Type type)
+	{
+		m_log.warn("Annotation on " + field + " requires one of GDB/MI types " + valueTypes +
+			"; got " + type);
+	}
+
+	/**
+	 * Logs that a result could not be converted for a field.
+	 * @param field The name of the field.
+	 * @param result The result.
+	 */
+	public static void warnNotConverted(String field, GdbMiResult result)
+	{
+		m_log.warn("No conversion rules were available to convert GDB/MI result '" + result +
+			"' for field " + field);
+	}
+
+	/**
+	 * Logs that a value processor threw an exception.
+	 * @param field The name of the field.
+	 * @param value The value which was being processed.
+	 * @param ex The exception.
+	 */
+	public static void warnValueProcessorFailed(String field, GdbMiValue value, Throwable ex)
+	{
+		m_log.warn("Field to invoke value processor for field " + field + " with value " + value,
+			ex);
+	}
+
+	/**
+	 * Logs that a value processor returned a value of the wrong type.
+	 * @param field The name of the field.
+	 * @param fieldType The type of the field.
+	 * @param value The value returned by the processor.
+	 */
+	public static void warnValueProcessorType(String field, Class<?> fieldType, Object value)
+	{
+		m_log.warn("Field " + field + " is of type " + fieldType + ", but the value processor " +
+			"returned " + value + " [type=" + value.getClass() + "]");
+	}
+}
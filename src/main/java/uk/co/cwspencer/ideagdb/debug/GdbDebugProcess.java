@@ -11,6 +11,7 @@ import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.ui.content.Content;
+import com.intellij.util.concurrency.AppExecutorUtil;
 import com.intellij.xdebugger.XDebugProcess;
 import com.intellij.xdebugger.XDebugSession;
 import com.intellij.xdebugger.XSourcePosition;
@@ -21,9 +22,12 @@ import com.intellij.xdebugger.frame.XSuspendContext;
 import com.intellij.xdebugger.ui.XDebugTabLayouter;
 import org.jetbrains.annotations.NotNull;
 import uk.co.cwspencer.gdb.Gdb;
+import uk.co.cwspencer.gdb.GdbEventFilter;
 import uk.co.cwspencer.gdb.GdbListener;
+import uk.co.cwspencer.gdb.GdbProcessTransport;
 import uk.co.cwspencer.gdb.messages.GdbErrorEvent;
 import uk.co.cwspencer.gdb.messages.GdbEvent;
+import uk.co.cwspencer.gdb.messages.GdbLazyEvent;
 import uk.co.cwspencer.gdb.messages.GdbRunningEvent;
 import uk.co.cwspencer.gdb.messages.GdbStoppedEvent;
 import uk.co.cwspencer.gdb.messages.GdbThread;
@@ -32,15 +36,17 @@ import uk.co.cwspencer.ideagdb.debug.breakpoints.GdbBreakpointHandler;
 import uk.co.cwspencer.ideagdb.debug.breakpoints.GdbBreakpointProperties;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiResultRecord;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiStreamRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiUtil;
 import uk.co.cwspencer.ideagdb.run.GdbExecutionResult;
 import uk.co.cwspencer.ideagdb.run.GdbRunConfiguration;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-public class GdbDebugProcess extends XDebugProcess implements GdbListener {
+public class GdbDebugProcess extends XDebugProcess implements GdbListener, GdbEventFilter {
 
     private static final Logger m_log = Logger.getInstance(GdbDebugProcess.class);
 
@@ -56,6 +62,9 @@ public class GdbDebugProcess extends XDebugProcess implements GdbListener {
     // The GDB instance
     private Gdb m_gdb;
 
+    // The application GDB had already loaded when it was taken from the pool, or null
+    private String m_preloadedFile;
+
     // The breakpoint handler
     private GdbBreakpointHandler m_breakpointHandler;
 
@@ -74,8 +83,17 @@ public class GdbDebugProcess extends XDebugProcess implements GdbListener {
         // TODO: Make this an option on the run configuration
         String workingDirectory = new File(m_configuration.APP_PATH).getParent();
 
-        // Prepare GDB
-        m_gdb = new Gdb(m_configuration.GDB_PATH, workingDirectory, this);
+        // Prepare GDB, using a warm process if one is ready. Warm processes have already loaded
+        // the application only if the startup commands begin by loading it. Events and callbacks
+        // are handled on the application pool, so slow UI updates never stop GDB's output from
+        // being read
+        String[] commands = getStartupCommands();
+        String preloadFile = commands.length != 0 &&
+            isLoadCommand(commands[0], m_configuration.APP_PATH) ? m_configuration.APP_PATH : null;
+        GdbProcessTransport transport = GdbProcessPoolService.getInstance().getPool().acquire(
+            m_configuration.GDB_PATH, workingDirectory, preloadFile);
+        m_preloadedFile = transport.getLoadedFile();
+        m_gdb = new Gdb(transport, this, AppExecutorUtil.getAppExecutorService());
 
         // Create the GDB console
         m_gdbConsole = new GdbConsoleView(m_gdb, session.getProject());
@@ -175,6 +193,7 @@ public class GdbDebugProcess extends XDebugProcess implements GdbListener {
                 for (AnAction action : actions) {
                     consoleActions.add(action);
                 }
+                consoleActions.add(new GdbShowMetricsAction(m_gdb, m_gdbConsole.getConsole()));
                 gdbConsoleContent.setActions(consoleActions, ActionPlaces.DEBUGGER_TOOLBAR,
                     m_gdbConsole.getConsole().getPreferredFocusableComponent());
 
@@ -198,14 +217,60 @@ public class GdbDebugProcess extends XDebugProcess implements GdbListener {
      */
     @Override
     public void onGdbStarted() {
-        // Send startup commands
-        String[] commandsArray = m_configuration.STARTUP_COMMANDS.split("\\r?\\n");
-        for (String command : commandsArray) {
+        // Send startup commands, skipping the load of the application if GDB came from the pool
+        // with it already loaded. Once they have completed the pool can warm GDB for the next
+        // session without competing with this one
+        String[] commands = getStartupCommands();
+        int first = commands.length != 0 && isLoadCommand(commands[0], m_preloadedFile) ? 1 : 0;
+        Gdb.GdbEventCallback startedCallback = new Gdb.GdbEventCallback() {
+            @Override
+            public void onGdbCommandCompleted(GdbEvent event) {
+                GdbProcessPoolService.getInstance().getPool().onSessionStarted();
+            }
+        };
+        if (first == commands.length) {
+            startedCallback.onGdbCommandCompleted(null);
+        }
+        for (int i = first; i != commands.length; ++i) {
+            if (i == commands.length - 1) {
+                m_gdb.sendCommand(commands[i], startedCallback);
+            } else {
+                m_gdb.sendCommand(commands[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the non-empty startup commands from the run configuration.
+     *
+     * @return The commands.
+     */
+    private String[] getStartupCommands() {
+        List<String> commands = new ArrayList<String>();
+        for (String command : m_configuration.STARTUP_COMMANDS.split("\\r?\\n")) {
             command = command.trim();
             if (!command.isEmpty()) {
-                m_gdb.sendCommand(command);
+                commands.add(command);
             }
         }
+        return commands.toArray(new String[commands.size()]);
+    }
+
+    /**
+     * Checks whether a startup command is exactly the command which loads a file with
+     * -file-exec-and-symbols, as GdbProcessPool does for warm processes.
+     *
+     * @param command The command.
+     * @param file    The file. May be null.
+     * @return Whether the command loads the file.
+     */
+    private static boolean isLoadCommand(String command, String file) {
+        if (file == null || file.isEmpty()) {
+            return false;
+        }
+        String prefix = "-file-exec-and-symbols ";
+        return command.equals(prefix + file) ||
+            command.equals(prefix + GdbMiUtil.formatGdbString(file));
     }
 
     /**
@@ -230,12 +295,31 @@ public class GdbDebugProcess extends XDebugProcess implements GdbListener {
         if (event instanceof GdbStoppedEvent) {
             // Target has stopped
             onGdbStoppedEvent((GdbStoppedEvent) event);
-        } else if (event instanceof GdbRunningEvent) {
+        } else if (event instanceof GdbLazyEvent &&
+            ((GdbLazyEvent) event).getEventType() == GdbRunningEvent.class) {
             // Target has started
             getSession().sessionResumed();
         }
     }
 
+    /**
+     * Chooses which GDB events are received. Only the type of 'running' events is used, so they
+     * are never converted, and events which are not handled are skipped.
+     *
+     * @param eventType The type of event.
+     * @return How events of the type are delivered.
+     */
+    @Override
+    public Delivery getDelivery(Class<? extends GdbEvent> eventType) {
+        if (eventType == GdbStoppedEvent.class) {
+            return Delivery.Eager;
+        }
+        if (eventType == GdbRunningEvent.class) {
+            return Delivery.Lazy;
+        }
+        return Delivery.Skip;
+    }
+
     /**
      * Handles a 'target stopped' event from GDB.
      *
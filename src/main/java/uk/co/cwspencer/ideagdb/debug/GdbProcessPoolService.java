@@ -0,0 +1,39 @@
+package uk.co.cwspencer.ideagdb.debug;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import uk.co.cwspencer.gdb.GdbProcessPool;
+
+/**
+ * Application service which owns the pool of warm GDB processes shared by every debug session,
+ * and kills them when the IDE exits.
+ */
+public class GdbProcessPoolService implements Disposable
+{
+	// The pool
+	private final GdbProcessPool m_pool = new GdbProcessPool();
+
+	/**
+	 * Returns the service.
+	 * @return The service.
+	 */
+	public static GdbProcessPoolService getInstance()
+	{
+		return ServiceManager.getService(GdbProcessPoolService.class);
+	}
+
+	/**
+	 * Returns the pool.
+	 * @return The pool.
+	 */
+	public GdbProcessPool getPool()
+	{
+		return m_pool;
+	}
+
+	@Override
+	public void dispose()
+	{
+		m_pool.close();
+	}
+}
@@ -0,0 +1,41 @@
+package uk.co.cwspencer.ideagdb.debug;
+
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import uk.co.cwspencer.gdb.Gdb;
+
+/**
+ * Diagnostic action for the GDB console which prints the command latency histograms and
+ * throughput of the session.
+ */
+public class GdbShowMetricsAction extends AnAction
+{
+	// The GDB instance
+	private final Gdb m_gdb;
+
+	// The console to print to
+	private final ConsoleView m_console;
+
+	/**
+	 * Constructor.
+	 * @param gdb Handle to the GDB instance.
+	 * @param console The console to print the metrics to.
+	 */
+	public GdbShowMetricsAction(Gdb gdb, ConsoleView console)
+	{
+		super("Show GDB Metrics", "Print command timings and throughput to the GDB console",
+			AllIcons.General.Information);
+		m_gdb = gdb;
+		m_console = console;
+	}
+
+	@Override
+	public void actionPerformed(AnActionEvent e)
+	{
+		m_console.print("\n" + m_gdb.getMetrics().getReport(),
+			ConsoleViewContentType.SYSTEM_OUTPUT);
+	}
+}
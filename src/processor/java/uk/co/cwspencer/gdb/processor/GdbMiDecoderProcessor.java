@@ -0,0 +1,645 @@
+package uk.co.cwspencer.gdb.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor which generates a GdbMiDecoder for every class annotated with GdbMiObject,
+ * GdbMiEvent or GdbMiDoneEvent. The decoder populates the class's GdbMiField fields with plain
+ * field assignments and converters chosen at compile time, so records can be converted without
+ * reflection.
+ *
+ * Classes using a field type or value processor the processor cannot handle are reported with a
+ * note and no decoder is generated for them; GdbMiMessageConverter then converts them by
+ * reflection as before.
+ */
+@SupportedAnnotationTypes({
+	GdbMiDecoderProcessor.OBJECT_ANNOTATION,
+	GdbMiDecoderProcessor.EVENT_ANNOTATION,
+	GdbMiDecoderProcessor.DONE_EVENT_ANNOTATION })
+public class GdbMiDecoderProcessor extends AbstractProcessor
+{
+	// Names of the annotations and classes the generated code refers to
+	private static final String ANNOTATIONS = "uk.co.cwspencer.gdb.messages.annotations.";
+	static final String OBJECT_ANNOTATION = ANNOTATIONS + "GdbMiObject";
+	static final String EVENT_ANNOTATION = ANNOTATIONS + "GdbMiEvent";
+	static final String DONE_EVENT_ANNOTATION = ANNOTATIONS + "GdbMiDoneEvent";
+	private static final String FIELD_ANNOTATION = ANNOTATIONS + "GdbMiField";
+	private static final String ENUM_ANNOTATION = ANNOTATIONS + "GdbMiEnum";
+
+	private static final String MESSAGES = "uk.co.cwspencer.gdb.messages.";
+	private static final String DECODER = MESSAGES + "GdbMiDecoder";
+	private static final String CONVERTER = MESSAGES + "GdbMiValueConverter";
+	private static final String CONVERTERS = MESSAGES + "GdbMiValueConverters";
+	private static final String PASS_THROUGH =
+		MESSAGES + "GdbMiMessageConverter.ValueProcessorPassThrough";
+	private static final String RESULT = "uk.co.cwspencer.gdb.gdbmi.GdbMiResult";
+	private static final String VALUE_TYPE = "uk.co.cwspencer.gdb.gdbmi.GdbMiValue.Type";
+
+	// Must match GdbMiDecoder.GENERATED_SUFFIX
+	private static final String SUFFIX = "_GdbMiDecoder";
+
+	// Maximum number of fields in a class; one bit is used to track each
+	private static final int MAX_FIELDS = 64;
+
+	/**
+	 * A field with a GdbMiField annotation.
+	 */
+	private static class FieldInfo
+	{
+		// The field
+		VariableElement element;
+
+		// The name of the result the field is populated from
+		String resultName;
+
+		// Names of the GdbMiValue.Type constants the field accepts
+		List<String> valueTypes = new ArrayList<String>();
+
+		// Expression for the converter for the field's type, or null if there is none
+		String converter;
+
+		// The value processor method and its owner, or null if there is none
+		ExecutableElement valueProcessor;
+		TypeElement valueProcessorOwner;
+	}
+
+	/**
+	 * Thrown when a class cannot be handled by the processor.
+	 */
+	private static class UnsupportedException extends Exception
+	{
+		UnsupportedException(String message)
+		{
+			super(message);
+		}
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion()
+	{
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv)
+	{
+		Set<TypeElement> classes = new LinkedHashSet<TypeElement>();
+		for (TypeElement annotation : annotations)
+		{
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation))
+			{
+				if (element.getKind() == ElementKind.CLASS)
+				{
+					classes.add((TypeElement) element);
+				}
+			}
+		}
+
+		for (TypeElement clazz : classes)
+		{
+			try
+			{
+				generateDecoder(clazz);
+			}
+			catch (UnsupportedException ex)
+			{
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+					"No GDB/MI decoder generated for " + clazz.getQualifiedName() + ": " +
+						ex.getMessage() + "; it will be converted by reflection", clazz);
+			}
+			catch (IOException ex)
+			{
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Failed to write GDB/MI decoder for " + clazz.getQualifiedName() + ": " + ex,
+					clazz);
+			}
+		}
+
+		// Other processors may be interested in the annotations too
+		return false;
+	}
+
+	/**
+	 * Generates the decoder for the given class.
+	 * @param clazz The class.
+	 */
+	private void generateDecoder(TypeElement clazz) throws UnsupportedException, IOException
+	{
+		if (clazz.getModifiers().contains(Modifier.ABSTRACT))
+		{
+			throw new UnsupportedException("the class is abstract");
+		}
+		if (clazz.getNestingKind().isNested() && !clazz.getModifiers().contains(Modifier.STATIC))
+		{
+			throw new UnsupportedException("the class is an inner class");
+		}
+		if (!hasDefaultConstructor(clazz))
+		{
+			throw new UnsupportedException("the class does not have an accessible no-argument " +
+				"constructor");
+		}
+
+		// Collect the fields, grouped by the name of the result they are populated from
+		List<FieldInfo> fields = getFields(clazz);
+		if (fields.size() > MAX_FIELDS)
+		{
+			throw new UnsupportedException("the class has more than " + MAX_FIELDS + " fields");
+		}
+		Map<String, List<Integer>> fieldsByName = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i != fields.size(); ++i)
+		{
+			String name = fields.get(i).resultName;
+			if (!fieldsByName.containsKey(name))
+			{
+				fieldsByName.put(name, new ArrayList<Integer>());
+			}
+			fieldsByName.get(name).add(i);
+		}
+
+		String packageName =
+			processingEnv.getElementUtils().getPackageOf(clazz).getQualifiedName().toString();
+		String decoderName = getDecoderName(clazz);
+		String className = clazz.getQualifiedName().toString();
+
+		StringBuilder sb = new StringBuilder();
+		if (!packageName.isEmpty())
+		{
+			sb.append("package ").append(packageName).append(";\n\n");
+		}
+		sb.append("/**\n");
+		sb.append(" * GDB/MI decoder for ").append(clazz.getSimpleName()).append(". Generated by ")
+			.append(GdbMiDecoderProcessor.class.getSimpleName()).append(" from the GdbMiField\n");
+		sb.append(" * annotations on the class; do not edit.\n");
+		sb.append(" */\n");
+		sb.append("public final class ").append(decoderName).append(" implements ")
+			.append(DECODER).append("<").append(className).append(">\n");
+		sb.append("{\n");
+		sb.append("\tpublic static final ").append(decoderName).append(" INSTANCE = new ")
+			.append(decoderName).append("();\n");
+
+		// Converters for the field types
+		for (FieldInfo field : fields)
+		{
+			if (field.converter != null)
+			{
+				sb.append("\n\tprivate static final ").append(CONVERTER).append("<")
+					.append(field.element.asType()).append("> m_")
+					.append(field.element.getSimpleName()).append(" =\n\t\t")
+					.append(field.converter).append(";\n");
+			}
+		}
+
+		sb.append("\n\t@SuppressWarnings(\"unchecked\")\n");
+		sb.append("\t@Override\n");
+		sb.append("\tpublic ").append(className).append(" decode(java.util.List<").append(RESULT)
+			.append("> results)\n");
+		sb.append("\t{\n");
+		sb.append("\t\t").append(className).append(" object = new ").append(className)
+			.append("();\n");
+		if (!fields.isEmpty())
+		{
+			sb.append("\t\tlong converted = 0;\n");
+			sb.append("\t\tfor (").append(RESULT).append(" result : results)\n");
+			sb.append("\t\t{\n");
+			sb.append("\t\t\tif (result.variable == null)\n");
+			sb.append("\t\t\t{\n");
+			sb.append("\t\t\t\tcontinue;\n");
+			sb.append("\t\t\t}\n");
+			sb.append("\t\t\tswitch (result.variable)\n");
+			sb.append("\t\t\t{\n");
+			for (Map.Entry<String, List<Integer>> entry : fieldsByName.entrySet())
+			{
+				sb.append("\t\t\tcase \"").append(escape(entry.getKey())).append("\":\n");
+				for (int index : entry.getValue())
+				{
+					appendFieldConversion(sb, fields.get(index), index);
+				}
+				sb.append("\t\t\t\tbreak;\n");
+			}
+			sb.append("\t\t\t}\n");
+			sb.append("\t\t}\n");
+		}
+		sb.append("\t\treturn object;\n");
+		sb.append("\t}\n");
+		sb.append("}\n");
+
+		String qualifiedName = packageName.isEmpty() ? decoderName :
+			packageName + "." + decoderName;
+		Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, clazz)
+			.openWriter();
+		try
+		{
+			writer.write(sb.toString());
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * Appends the code which converts a result into a field, if the field has not already been
+	 * populated.
+	 * @param sb The builder to append the code to.
+	 * @param field The field.
+	 * @param index The index of the field.
+	 */
+	private void appendFieldConversion(StringBuilder sb, FieldInfo field, int index)
+	{
+		String name = field.element.getSimpleName().toString();
+		String bit = "0x" + Long.toHexString(1L << index) + "L";
+		String indent = "\t\t\t\t\t\t";
+
+		sb.append("\t\t\t\tif ((converted & ").append(bit).append(") == 0)\n");
+		sb.append("\t\t\t\t{\n");
+		sb.append("\t\t\t\t\tconverted |= ").append(bit).append(";\n");
+
+		// Check the result type is supported by the field
+		sb.append("\t\t\t\t\tif (");
+		for (int i = 0; i != field.valueTypes.size(); ++i)
+		{
+			if (i != 0)
+			{
+				sb.append(" ||\n\t\t\t\t\t\t");
+			}
+			sb.append("result.value.type == ").append(VALUE_TYPE).append(".")
+				.append(field.valueTypes.get(i));
+		}
+		sb.append(")\n");
+		sb.append("\t\t\t\t\t{\n");
+		if (field.valueProcessor == null)
+		{
+			appendConverterCall(sb, field, indent);
+		}
+		else
+		{
+			appendValueProcessorCall(sb, field, indent);
+		}
+		sb.append("\t\t\t\t\t}\n");
+		sb.append("\t\t\t\t\telse\n");
+		sb.append("\t\t\t\t\t{\n");
+		sb.append("\t\t\t\t\t\t").append(CONVERTERS).append(".warnValueType(\"").append(name)
+			.append("\", \"").append(field.valueTypes.toString()).append("\", result.value.type);\n");
+		sb.append("\t\t\t\t\t}\n");
+		sb.append("\t\t\t\t}\n");
+	}
+
+	/**
+	 * Appends the code which converts a result into a field with the field's converter.
+	 * @param sb The builder to append the code to.
+	 * @param field The field.
+	 * @param indent The indentation of the code.
+	 */
+	private void appendConverterCall(StringBuilder sb, FieldInfo field, String indent)
+	{
+		String name = field.element.getSimpleName().toString();
+		sb.append(indent).append(field.element.asType()).append(" value = m_").append(name)
+			.append(".convert(result.value);\n");
+		sb.append(indent).append("if (value != null)\n");
+		sb.append(indent).append("{\n");
+		sb.append(indent).append("\tobject.").append(name).append(" = value;\n");
+		sb.append(indent).append("}\n");
+		sb.append(indent).append("else\n");
+		sb.append(indent).append("{\n");
+		sb.append(indent).append("\t").append(CONVERTERS).append(".warnNotConverted(\"")
+			.append(((TypeElement) field.element.getEnclosingElement()).getSimpleName())
+			.append(".").append(name).append("\", result);\n");
+		sb.append(indent).append("}\n");
+	}
+
+	/**
+	 * Appends the code which converts a result into a field with the field's value processor.
+	 * @param sb The builder to append the code to.
+	 * @param field The field.
+	 * @param indent The indentation of the code.
+	 */
+	private void appendValueProcessorCall(StringBuilder sb, FieldInfo field, String indent)
+	{
+		String name = field.element.getSimpleName().toString();
+		TypeMirror fieldType = field.element.asType();
+		TypeMirror returnType = field.valueProcessor.getReturnType();
+		boolean assignable = processingEnv.getTypeUtils().isAssignable(returnType, fieldType);
+
+		String call;
+		if (field.valueProcessor.getModifiers().contains(Modifier.STATIC))
+		{
+			call = field.valueProcessorOwner.getQualifiedName() + "." +
+				field.valueProcessor.getSimpleName() + "(result.value)";
+		}
+		else
+		{
+			call = "object." + field.valueProcessor.getSimpleName() + "(result.value)";
+		}
+
+		sb.append(indent).append(assignable ? returnType.toString() : "Object")
+			.append(" processed;\n");
+		sb.append(indent).append("try\n");
+		sb.append(indent).append("{\n");
+		sb.append(indent).append("\tprocessed = ").append(call).append(";\n");
+		sb.append(indent).append("}\n");
+		sb.append(indent).append("catch (Throwable ex)\n");
+		sb.append(indent).append("{\n");
+		sb.append(indent).append("\t").append(CONVERTERS).append(".warnValueProcessorFailed(\"")
+			.append(name).append("\", result.value, ex);\n");
+		sb.append(indent).append("\tprocessed = null;\n");
+		sb.append(indent).append("}\n");
+
+		if (assignable)
+		{
+			sb.append(indent).append("if (processed != null)\n");
+			sb.append(indent).append("{\n");
+			sb.append(indent).append("\tobject.").append(name).append(" = processed;\n");
+			sb.append(indent).append("}\n");
+			return;
+		}
+
+		String erasure = processingEnv.getTypeUtils().erasure(fieldType).toString();
+		sb.append(indent).append("if (processed == ").append(PASS_THROUGH).append(")\n");
+		sb.append(indent).append("{\n");
+		appendConverterCall(sb, field, indent + "\t");
+		sb.append(indent).append("}\n");
+		sb.append(indent).append("else if (processed instanceof ").append(erasure).append(")\n");
+		sb.append(indent).append("{\n");
+		sb.append(indent).append("\tobject.").append(name).append(" = (").append(fieldType)
+			.append(") processed;\n");
+		sb.append(indent).append("}\n");
+		sb.append(indent).append("else if (processed != null)\n");
+		sb.append(indent).append("{\n");
+		sb.append(indent).append("\t").append(CONVERTERS).append(".warnValueProcessorType(\"")
+			.append(name).append("\", ").append(erasure).append(".class, processed);\n");
+		sb.append(indent).append("}\n");
+	}
+
+	/**
+	 * Finds the fields of the class and its superclasses which have a GdbMiField annotation.
+	 * @param clazz The class.
+	 * @return The fields.
+	 */
+	private List<FieldInfo> getFields(TypeElement clazz) throws UnsupportedException
+	{
+		List<FieldInfo> fields = new ArrayList<FieldInfo>();
+		for (TypeElement type = clazz; type != null; type = getSuperclass(type))
+		{
+			for (VariableElement element : ElementFilter.fieldsIn(type.getEnclosedElements()))
+			{
+				AnnotationMirror annotation = getAnnotation(element, FIELD_ANNOTATION);
+				if (annotation == null || !element.getModifiers().contains(Modifier.PUBLIC) ||
+					element.getModifiers().contains(Modifier.STATIC))
+				{
+					continue;
+				}
+				if (element.getModifiers().contains(Modifier.FINAL))
+				{
+					throw new UnsupportedException(element.getSimpleName() + " is final");
+				}
+
+				FieldInfo field = new FieldInfo();
+				field.element = element;
+				String valueProcessor = "";
+				for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+					processingEnv.getElementUtils().getElementValuesWithDefaults(annotation)
+						.entrySet())
+				{
+					String key = entry.getKey().getSimpleName().toString();
+					Object value = entry.getValue().getValue();
+					if (key.equals("name"))
+					{
+						field.resultName = (String) value;
+					}
+					else if (key.equals("valueProcessor"))
+					{
+						valueProcessor = (String) value;
+					}
+					else if (key.equals("valueType"))
+					{
+						for (Object item : (List<?>) value)
+						{
+							VariableElement constant =
+								(VariableElement) ((AnnotationValue) item).getValue();
+							field.valueTypes.add(constant.getSimpleName().toString());
+						}
+					}
+				}
+
+				field.converter = getConverter(element.asType());
+				if (!valueProcessor.isEmpty())
+				{
+					resolveValueProcessor(clazz, field, valueProcessor);
+				}
+				else if (field.converter == null)
+				{
+					throw new UnsupportedException("there is no converter for " +
+						element.getSimpleName() + " [type=" + element.asType() + "]");
+				}
+				fields.add(field);
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Finds the value processor for a field.
+	 * @param clazz The class containing the field.
+	 * @param field The field.
+	 * @param name The name of the value processor; either a method on clazz or a fully qualified
+	 * name of a static method.
+	 */
+	private void resolveValueProcessor(TypeElement clazz, FieldInfo field, String name)
+		throws UnsupportedException
+	{
+		TypeElement owner = clazz;
+		String methodName = name;
+		int lastDotIndex = name.lastIndexOf('.');
+		if (lastDotIndex != -1)
+		{
+			owner = processingEnv.getElementUtils().getTypeElement(name.substring(0, lastDotIndex));
+			methodName = name.substring(lastDotIndex + 1);
+			if (owner == null)
+			{
+				throw new UnsupportedException("the class of value processor " + name +
+					" does not exist");
+			}
+		}
+
+		for (TypeElement type = owner; type != null; type = getSuperclass(type))
+		{
+			for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements()))
+			{
+				if (method.getSimpleName().contentEquals(methodName) &&
+					method.getParameters().size() == 1 &&
+					method.getModifiers().contains(Modifier.PUBLIC) &&
+					(type == clazz || lastDotIndex == -1 ||
+						method.getModifiers().contains(Modifier.STATIC)))
+				{
+					field.valueProcessor = method;
+					field.valueProcessorOwner = type;
+					return;
+				}
+			}
+		}
+		throw new UnsupportedException("value processor " + name + " does not exist");
+	}
+
+	/**
+	 * Returns an expression for the converter for values of the given type.
+	 * @param type The type.
+	 * @return The expression, or null if the type is not supported.
+	 */
+	private String getConverter(TypeMirror type)
+	{
+		if (type.getKind() != TypeKind.DECLARED)
+		{
+			return null;
+		}
+
+		DeclaredType declaredType = (DeclaredType) type;
+		TypeElement element = (TypeElement) declaredType.asElement();
+		String name = element.getQualifiedName().toString();
+		List<? extends TypeMirror> typeArguments = declaredType.getTypeArguments();
+
+		if (name.equals("java.lang.String"))
+		{
+			return CONVERTERS + ".STRING";
+		}
+		if (name.equals("java.lang.Integer"))
+		{
+			return CONVERTERS + ".INTEGER";
+		}
+		if (name.equals("java.lang.Long"))
+		{
+			return CONVERTERS + ".LONG";
+		}
+		if (name.equals("java.lang.Boolean"))
+		{
+			return CONVERTERS + ".BOOLEAN";
+		}
+		if (element.getKind() == ElementKind.ENUM && getAnnotation(element, ENUM_ANNOTATION) != null)
+		{
+			return CONVERTERS + ".forEnum(" + name + ".class)";
+		}
+		if (getAnnotation(element, OBJECT_ANNOTATION) != null)
+		{
+			return CONVERTERS + ".forObject(" + name + ".class)";
+		}
+		if (name.equals("java.util.List") && typeArguments.size() == 1)
+		{
+			String itemConverter = getConverter(typeArguments.get(0));
+			return itemConverter == null ? null : CONVERTERS + ".forList(" + itemConverter + ")";
+		}
+		if (name.equals("java.util.Map") && typeArguments.size() == 2)
+		{
+			String keyConverter = getConverter(typeArguments.get(0));
+			String valueConverter = getConverter(typeArguments.get(1));
+			if (keyConverter == null || valueConverter == null)
+			{
+				return null;
+			}
+			return CONVERTERS + ".forMap(" + keyConverter + ", " + valueConverter + ")";
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the simple name of the decoder for the given class. Nested class names are separated
+	 * by underscores.
+	 * @param clazz The class.
+	 * @return The name of the decoder.
+	 */
+	private static String getDecoderName(TypeElement clazz)
+	{
+		String name = clazz.getSimpleName().toString();
+		for (Element outer = clazz.getEnclosingElement(); outer instanceof TypeElement;
+			outer = outer.getEnclosingElement())
+		{
+			name = outer.getSimpleName() + "_" + name;
+		}
+		return name + SUFFIX;
+	}
+
+	/**
+	 * Checks whether the class has a no-argument constructor the decoder can call.
+	 * @param clazz The class.
+	 * @return Whether it has one.
+	 */
+	private static boolean hasDefaultConstructor(TypeElement clazz)
+	{
+		for (ExecutableElement constructor :
+			ElementFilter.constructorsIn(clazz.getEnclosedElements()))
+		{
+			if (constructor.getParameters().isEmpty() &&
+				!constructor.getModifiers().contains(Modifier.PRIVATE))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the superclass of the given class.
+	 * @param type The class.
+	 * @return The superclass, or null if there is none.
+	 */
+	private static TypeElement getSuperclass(TypeElement type)
+	{
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED)
+		{
+			return null;
+		}
+		return (TypeElement) ((DeclaredType) superclass).asElement();
+	}
+
+	/**
+	 * Finds the annotation of the given type on an element.
+	 * @param element The element.
+	 * @param annotationName The qualified name of the annotation type.
+	 * @return The annotation, or null if the element does not have it.
+	 */
+	private static AnnotationMirror getAnnotation(Element element, String annotationName)
+	{
+		for (AnnotationMirror annotation : element.getAnnotationMirrors())
+		{
+			TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+			if (annotationType.getQualifiedName().contentEquals(annotationName))
+			{
+				return annotation;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Escapes a string for use in a Java string literal.
+	 * @param str The string.
+	 * @return The escaped string.
+	 */
+	private static String escape(String str)
+	{
+		return str.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
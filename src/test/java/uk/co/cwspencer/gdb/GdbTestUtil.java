@@ -0,0 +1,60 @@
+package uk.co.cwspencer.gdb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Helpers shared by the tests which write transcripts or talk to GDB processes.
+ */
+final class GdbTestUtil
+{
+	// The character set GDB/MI commands and output are written in by the tests
+	static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private GdbTestUtil()
+	{
+	}
+
+	/**
+	 * Creates a temporary file which is deleted when the tests finish.
+	 * @param suffix The suffix of the file name.
+	 * @return The file.
+	 */
+	static File newFile(String suffix) throws Exception
+	{
+		File file = File.createTempFile("gdb", suffix);
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Reads a stream to the end. The stream is read a few bytes at a time, so output is split
+	 * across reads as it would be by a slow process.
+	 * @param stream The stream.
+	 * @return The bytes read, decoded as ASCII.
+	 */
+	static String readAll(InputStream stream) throws Exception
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7];
+		int length;
+		while ((length = stream.read(buffer, 0, buffer.length)) != -1)
+		{
+			bytes.write(buffer, 0, length);
+		}
+		return new String(bytes.toByteArray(), ASCII);
+	}
+
+	/**
+	 * Encodes a string as ASCII.
+	 * @param string The string.
+	 * @return The encoded string.
+	 */
+	static ByteBuffer ascii(String string)
+	{
+		return ByteBuffer.wrap(string.getBytes(ASCII));
+	}
+}
@@ -0,0 +1,141 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Tests for GdbByteRing.
+ */
+public class TestGdbByteRing
+{
+	/**
+	 * Verifies data passes through a small ring intact and in order when the producer and consumer
+	 * run on different threads.
+	 */
+	@Test
+	public void testTransfer() throws Exception
+	{
+		final int total = 4 * 1024 * 1024;
+		final GdbByteRing ring = new GdbByteRing(100);
+		Assert.assertEquals(128, ring.getCapacity());
+
+		final Throwable[] producerError = new Throwable[1];
+		Thread producer = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Random random = new Random(0);
+						byte[] data = new byte[1000];
+						int written = 0;
+						while (written != total)
+						{
+							int length = Math.min(random.nextInt(data.length) + 1, total - written);
+							for (int i = 0; i != length; ++i)
+							{
+								data[i] = (byte) (written + i);
+							}
+							if (!ring.write(ByteBuffer.wrap(data, 0, length)))
+							{
+								throw new AssertionError("Ring closed by consumer");
+							}
+							written += length;
+						}
+						ring.close();
+					}
+					catch (Throwable ex)
+					{
+						producerError[0] = ex;
+					}
+				}
+			});
+		producer.start();
+
+		Random random = new Random(1);
+		int read = 0;
+		int length;
+		byte[] chunk = new byte[random.nextInt(300) + 1];
+		while ((length = ring.read(chunk)) != -1)
+		{
+			Assert.assertTrue(length > 0);
+			for (int i = 0; i != length; ++i)
+			{
+				Assert.assertEquals((byte) (read + i), chunk[i]);
+			}
+			read += length;
+			chunk = new byte[random.nextInt(300) + 1];
+		}
+		producer.join();
+
+		Assert.assertNull(producerError[0]);
+		Assert.assertEquals(total, read);
+		Assert.assertEquals(0, ring.getOccupancy());
+		Assert.assertTrue(ring.getPeakOccupancy() <= ring.getCapacity());
+		Assert.assertTrue(ring.getBlockedCount() > 0);
+	}
+
+	/**
+	 * Verifies the consumer receives the remaining data and then the producer's error.
+	 */
+	@Test
+	public void testProducerError() throws IOException
+	{
+		GdbByteRing ring = new GdbByteRing(16);
+		Assert.assertTrue(ring.write(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+		ring.close(new IOException("Pipe broken"));
+
+		byte[] chunk = new byte[16];
+		Assert.assertEquals(3, ring.read(chunk));
+		try
+		{
+			ring.read(chunk);
+			Assert.fail("Expected an IOException");
+		}
+		catch (IOException ex)
+		{
+			Assert.assertEquals("Pipe broken", ex.getMessage());
+		}
+	}
+
+	/**
+	 * Verifies a producer waiting for space is released when the consumer closes the ring.
+	 */
+	@Test
+	public void testConsumerClose() throws Exception
+	{
+		final GdbByteRing ring = new GdbByteRing(16);
+		final boolean[] result = { true };
+		Thread producer = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						result[0] = ring.write(ByteBuffer.wrap(new byte[64]));
+					}
+					catch (IOException ex)
+					{
+						throw new RuntimeException(ex);
+					}
+				}
+			});
+		producer.start();
+
+		while (ring.getOccupancy() != ring.getCapacity())
+		{
+			Thread.sleep(1);
+		}
+		ring.close();
+		producer.join();
+
+		Assert.assertFalse(result[0]);
+		Assert.assertEquals(16, ring.getPeakOccupancy());
+	}
+}
@@ -0,0 +1,36 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Tests for GdbCommandBuffer.
+ */
+public class TestGdbCommandBuffer
+{
+	/**
+	 * Verifies commands are encoded with their tokens as the US-ASCII character set would encode
+	 * them.
+	 */
+	@Test
+	public void testCommandBuffer() throws Exception
+	{
+		GdbCommandBuffer buffer = new GdbCommandBuffer(0);
+		buffer.append(1, "-list-features");
+		buffer.append(9876543210L, "-exec-run");
+		buffer.append(0, "print \u00e9");
+		buffer.append(Long.MAX_VALUE, "");
+
+		String expected = "1-list-features\r\n9876543210-exec-run\r\n0print \u00e9\r\n" +
+			Long.MAX_VALUE + "\r\n";
+		byte[] expectedBytes = expected.getBytes("US-ASCII");
+		Assert.assertArrayEquals(expectedBytes, buffer.toByteArray());
+
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		buffer.writeTo(stream);
+		Assert.assertArrayEquals(expectedBytes, stream.toByteArray());
+		Assert.assertEquals(0, buffer.size());
+	}
+}
@@ -0,0 +1,71 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for GdbLatencyHistogram.
+ */
+public class TestGdbLatencyHistogram
+{
+	/**
+	 * Verifies every value falls in a bucket whose range contains it and is within 12.5% of the
+	 * bucket's highest value.
+	 */
+	@Test
+	public void testBuckets()
+	{
+		long[] values = { 0, 1, 7, 8, 9, 15, 16, 17, 31, 32, 1000, 123456789, 1L << 40,
+			(1L << 40) - 1, Long.MAX_VALUE };
+		for (long value : values)
+		{
+			int bucket = GdbLatencyHistogram.bucketOf(value);
+			long highest = GdbLatencyHistogram.highestValueOf(bucket);
+			Assert.assertTrue(value + " above bucket " + bucket, value <= highest);
+			Assert.assertTrue(value + " too far below " + highest, highest - value <= highest / 8);
+			if (bucket != 0)
+			{
+				Assert.assertTrue(GdbLatencyHistogram.highestValueOf(bucket - 1) < value);
+			}
+		}
+	}
+
+	/**
+	 * Verifies the summary values and percentiles of a known distribution.
+	 */
+	@Test
+	public void testPercentiles()
+	{
+		GdbLatencyHistogram histogram = new GdbLatencyHistogram();
+		Assert.assertEquals(0, histogram.getPercentile(99));
+
+		for (int i = 1; i <= 1000; ++i)
+		{
+			histogram.record(i * 1000);
+		}
+		histogram.record(-5);
+
+		Assert.assertEquals(1001, histogram.getCount());
+		Assert.assertEquals(1000000, histogram.getMax());
+		Assert.assertEquals(500500000L, histogram.getTotal());
+		assertWithin(500000, histogram.getPercentile(50));
+		assertWithin(900000, histogram.getPercentile(90));
+		assertWithin(990000, histogram.getPercentile(99));
+		Assert.assertEquals(1000000, histogram.getPercentile(100));
+		Assert.assertEquals(0, histogram.getPercentile(0));
+
+		histogram.reset();
+		Assert.assertEquals(0, histogram.getCount());
+		Assert.assertEquals(0, histogram.getMax());
+		Assert.assertEquals(0, histogram.getPercentile(50));
+	}
+
+	/**
+	 * Asserts that a percentile is no lower than expected and within 12.5% of it.
+	 */
+	private static void assertWithin(long expected, long actual)
+	{
+		Assert.assertTrue(actual + " below " + expected, actual >= expected);
+		Assert.assertTrue(actual + " too far above " + expected, actual - expected <= actual / 8);
+	}
+}
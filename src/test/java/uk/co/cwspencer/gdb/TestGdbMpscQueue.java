@@ -0,0 +1,95 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for GdbMpscQueue.
+ */
+public class TestGdbMpscQueue
+{
+	/**
+	 * Verifies items from several producers all arrive, each producer's in the order they were
+	 * offered, when the consumer waits on another thread.
+	 */
+	@Test
+	public void testProducers() throws Exception
+	{
+		final int producerCount = 4;
+		final int itemCount = 100000;
+		final GdbMpscQueue<long[]> queue = new GdbMpscQueue<long[]>();
+
+		Thread[] producers = new Thread[producerCount];
+		for (int i = 0; i != producerCount; ++i)
+		{
+			final int producer = i;
+			producers[i] = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						for (int j = 0; j != itemCount; ++j)
+						{
+							queue.offer(new long[] { producer, j });
+						}
+					}
+				});
+			producers[i].start();
+		}
+
+		int[] expected = new int[producerCount];
+		for (int i = 0; i != producerCount * itemCount; ++i)
+		{
+			long[] item = queue.take();
+			Assert.assertNotNull(item);
+			int producer = (int) item[0];
+			Assert.assertEquals(expected[producer], item[1]);
+			++expected[producer];
+		}
+		for (Thread producer : producers)
+		{
+			producer.join();
+		}
+		Assert.assertNull(queue.poll());
+	}
+
+	/**
+	 * Verifies closing the queue wakes a waiting consumer once the queue is drained, and rejects
+	 * later items.
+	 */
+	@Test
+	public void testClose() throws Exception
+	{
+		final GdbMpscQueue<String> queue = new GdbMpscQueue<String>();
+		final String[] taken = new String[2];
+		Thread consumer = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						taken[0] = queue.take();
+						taken[1] = queue.take();
+					}
+					catch (InterruptedException ex)
+					{
+						taken[1] = "interrupted";
+					}
+				}
+			});
+
+		Assert.assertTrue(queue.offer("first"));
+		consumer.start();
+		Thread.sleep(50);
+		Assert.assertFalse(queue.isClosed());
+		queue.close();
+		Assert.assertTrue(queue.isClosed());
+		consumer.join(5000);
+
+		Assert.assertFalse(consumer.isAlive());
+		Assert.assertEquals("first", taken[0]);
+		Assert.assertNull(taken[1]);
+		Assert.assertFalse(queue.offer("second"));
+	}
+}
@@ -0,0 +1,97 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Tests for GdbOutputReader.
+ */
+public class TestGdbOutputReader
+{
+	/**
+	 * Channel which returns reads of predetermined sizes.
+	 */
+	private static class ScriptedChannel implements ReadableByteChannel
+	{
+		// Sizes of the reads to return; -1 means the end of the stream
+		private final int[] m_reads;
+		private int m_next = 0;
+
+		ScriptedChannel(int... reads)
+		{
+			m_reads = reads;
+		}
+
+		@Override
+		public int read(ByteBuffer dst)
+		{
+			int bytes = m_next == m_reads.length ? -1 : m_reads[m_next++];
+			if (bytes == -1)
+			{
+				return -1;
+			}
+			bytes = Math.min(bytes, dst.remaining());
+			for (int i = 0; i != bytes; ++i)
+			{
+				dst.put((byte) 'x');
+			}
+			return bytes;
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return true;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	/**
+	 * Verifies the buffer grows while reads fill it and shrinks again once reads are small.
+	 */
+	@Test
+	public void testAdaptiveCapacity() throws IOException
+	{
+		int[] reads = new int[4 + GdbOutputReader.SHRINK_AFTER_READS * 2];
+		for (int i = 0; i != 4; ++i)
+		{
+			reads[i] = Integer.MAX_VALUE;
+		}
+		for (int i = 4; i != reads.length; ++i)
+		{
+			reads[i] = 10;
+		}
+
+		GdbOutputReader reader = new GdbOutputReader(new ScriptedChannel(reads), 1024, 4096);
+		Assert.assertEquals(reader.getCapacity(), 1024);
+
+		// Full reads double the buffer up to the maximum
+		Assert.assertEquals(reader.read().remaining(), 1024);
+		Assert.assertEquals(reader.read().remaining(), 2048);
+		Assert.assertEquals(reader.read().remaining(), 4096);
+		Assert.assertEquals(reader.read().remaining(), 4096);
+		Assert.assertEquals(reader.getCapacity(), 4096);
+
+		// A run of small reads halves it, but not below the minimum
+		for (int i = 0; i != GdbOutputReader.SHRINK_AFTER_READS; ++i)
+		{
+			Assert.assertEquals(reader.read().remaining(), 10);
+		}
+		Assert.assertEquals(reader.getCapacity(), 4096);
+		for (int i = 0; i != GdbOutputReader.SHRINK_AFTER_READS; ++i)
+		{
+			reader.read();
+		}
+		Assert.assertEquals(reader.getCapacity(), 2048);
+
+		Assert.assertNull(reader.read());
+	}
+}
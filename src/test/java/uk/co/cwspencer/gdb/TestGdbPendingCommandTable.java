@@ -0,0 +1,133 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for GdbPendingCommandTable.
+ */
+public class TestGdbPendingCommandTable
+{
+	/**
+	 * Simple table entry.
+	 */
+	private static class Command implements GdbPendingCommandTable.Entry
+	{
+		final long token;
+
+		Command(long token)
+		{
+			this.token = token;
+		}
+
+		@Override
+		public long getToken()
+		{
+			return token;
+		}
+	}
+
+	/**
+	 * Verifies entries are found by token, including ones whose slots are taken by older entries.
+	 */
+	@Test
+	public void testPutRemove()
+	{
+		GdbPendingCommandTable<Command> table = new GdbPendingCommandTable<Command>(3);
+		Assert.assertEquals(4, table.getCapacity());
+
+		Command first = new Command(1);
+		table.put(first);
+		Assert.assertNull(table.remove(2));
+		Assert.assertNull(table.remove(5));
+		Assert.assertSame(first, table.remove(1));
+		Assert.assertNull(table.remove(1));
+
+		// Token 1 is never answered, so token 5 overflows
+		Command stale = new Command(1);
+		table.put(stale);
+		for (long token = 2; token != 7; ++token)
+		{
+			table.put(new Command(token));
+		}
+		Assert.assertEquals(2, table.getOverflowCount());
+		for (long token = 2; token != 7; ++token)
+		{
+			Assert.assertEquals(token, table.remove(token).token);
+		}
+		Assert.assertEquals(0, table.getOverflowCount());
+		Assert.assertSame(stale, table.remove(1));
+	}
+
+	/**
+	 * Verifies removeAll() removes the entries in slots and in the overflow map.
+	 */
+	@Test
+	public void testRemoveAll()
+	{
+		GdbPendingCommandTable<Command> table = new GdbPendingCommandTable<Command>(4);
+		for (long token = 1; token != 7; ++token)
+		{
+			table.put(new Command(token));
+		}
+		Assert.assertEquals(2, table.getOverflowCount());
+
+		long tokenSum = 0;
+		for (Command command : table.removeAll())
+		{
+			tokenSum += command.token;
+		}
+		Assert.assertEquals(21, tokenSum);
+		Assert.assertEquals(0, table.getOverflowCount());
+		Assert.assertNull(table.remove(1));
+		Assert.assertNull(table.remove(6));
+		Assert.assertTrue(table.removeAll().isEmpty());
+	}
+
+	/**
+	 * Verifies entries added by several threads are all removed exactly once by another thread.
+	 */
+	@Test
+	public void testConcurrentUse() throws Exception
+	{
+		final int count = 200000;
+		final GdbPendingCommandTable<Command> table = new GdbPendingCommandTable<Command>(64);
+		final AtomicLong nextToken = new AtomicLong(1);
+
+		Thread[] producers = new Thread[4];
+		for (int i = 0; i != producers.length; ++i)
+		{
+			producers[i] = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						for (int j = 0; j != count / 4; ++j)
+						{
+							table.put(new Command(nextToken.getAndIncrement()));
+						}
+					}
+				});
+			producers[i].start();
+		}
+
+		// Remove the entries in token order, waiting for each one to be added
+		for (long token = 1; token <= count; ++token)
+		{
+			Command command;
+			while ((command = table.remove(token)) == null)
+			{
+				Thread.yield();
+			}
+			Assert.assertEquals(token, command.token);
+		}
+		for (Thread producer : producers)
+		{
+			producer.join();
+		}
+		Assert.assertNull(table.remove(1));
+		Assert.assertEquals(0, table.getOverflowCount());
+	}
+}
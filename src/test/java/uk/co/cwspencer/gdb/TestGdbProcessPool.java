@@ -0,0 +1,166 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for GdbProcessPool and GdbBinaryStamp.
+ */
+public class TestGdbProcessPool
+{
+	/**
+	 * Verifies the build ID is read from an ELF file, and a binary is only considered changed if
+	 * its build ID changes once its modification time has.
+	 */
+	@Test
+	public void testBinaryStamp() throws Exception
+	{
+		File binary = GdbTestUtil.newFile(".elf");
+		writeElf(binary, new byte[] { 0x12, 0x34, (byte) 0xab, (byte) 0xcd });
+		GdbBinaryStamp stamp = GdbBinaryStamp.of(binary);
+		Assert.assertEquals("1234abcd", stamp.getBuildId());
+		Assert.assertTrue(stamp.isCurrent());
+
+		// Relinked with the same build ID
+		writeElf(binary, new byte[] { 0x12, 0x34, (byte) 0xab, (byte) 0xcd });
+		binary.setLastModified(binary.lastModified() + 10000);
+		Assert.assertTrue(stamp.isCurrent());
+
+		// Rebuilt
+		writeElf(binary, new byte[] { 0x12, 0x34, (byte) 0xab, (byte) 0xce });
+		binary.setLastModified(binary.lastModified() + 10000);
+		Assert.assertFalse(stamp.isCurrent());
+
+		// Not an ELF file
+		File text = GdbTestUtil.newFile(".txt");
+		Assert.assertNull(GdbBinaryStamp.of(text).getBuildId());
+	}
+
+	/**
+	 * Verifies warm processes are only started once a session has started, are handed out with
+	 * the application loaded and their startup output consumed, are discarded once the
+	 * application is rebuilt, and load nothing if no application is given.
+	 */
+	@Test
+	public void testPool() throws Exception
+	{
+		final File binary = GdbTestUtil.newFile(".elf");
+		writeElf(binary, new byte[] { 1, 2, 3, 4 });
+		final File transcript = GdbTestUtil.newFile(".gdbmi");
+		GdbTranscriptWriter writer = new GdbTranscriptWriter(transcript);
+		writer.recordOutput(
+			GdbTestUtil.ascii("=thread-group-added,id=\"i1\"\r\n(gdb) \r\n"));
+		writer.recordInput(GdbTestUtil.ascii("0-file-exec-and-symbols " +
+			GdbMiUtil.formatGdbString(binary.getPath()) + "\n"));
+		writer.recordOutput(GdbTestUtil.ascii("0^done\r\n(gdb) \r\n"));
+		writer.recordInput(GdbTestUtil.ascii("1-list-features\n"));
+		writer.recordOutput(GdbTestUtil.ascii("1^done,features=[]\r\n(gdb) \r\n"));
+		writer.close();
+
+		GdbProcessPool pool = new GdbProcessPool(1)
+			{
+				@Override
+				protected Process launch(String gdbPath, String workingDirectory)
+					throws IOException
+				{
+					return new GdbReplayProcess(transcript, 0, 10, TimeUnit.SECONDS);
+				}
+			};
+		try
+		{
+			// Nothing is warm for the first session, and nothing is warmed until it has started
+			Assert.assertNull(pool.acquire("gdb", null, binary.getPath()).getLoadedFile());
+			Assert.assertEquals(0, pool.getIdleCount());
+			pool.onSessionStarted();
+			awaitIdle(pool);
+
+			// The next session gets a process which is waiting for its first command
+			GdbProcessTransport transport = pool.acquire("gdb", null, binary.getPath());
+			Assert.assertEquals(binary.getPath(), transport.getLoadedFile());
+			transport.open();
+			OutputStream output = transport.getOutputStream();
+			output.write("1-list-features\n".getBytes(GdbTestUtil.ASCII));
+			output.flush();
+			Assert.assertEquals("1^done,features=[]\r\n(gdb) \r\n",
+				GdbTestUtil.readAll(transport.getInputStream()));
+			transport.close();
+
+			// A rebuild makes the warm process useless
+			pool.onSessionStarted();
+			awaitIdle(pool);
+			writeElf(binary, new byte[] { 1, 2, 3, 5 });
+			binary.setLastModified(binary.lastModified() + 10000);
+			Assert.assertNull(pool.acquire("gdb", null, binary.getPath()).getLoadedFile());
+			Assert.assertEquals(0, pool.getIdleCount());
+
+			// Sessions which do not load the application first get a process which loaded nothing
+			pool.acquire("gdb", null, null);
+			pool.onSessionStarted();
+			awaitIdle(pool);
+			Assert.assertNull(pool.acquire("gdb", null, null).getLoadedFile());
+			Assert.assertEquals(0, pool.getIdleCount());
+		}
+		finally
+		{
+			pool.close();
+		}
+	}
+
+	/**
+	 * Waits for the pool to have a process ready.
+	 */
+	private static void awaitIdle(GdbProcessPool pool) throws Exception
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (pool.getIdleCount() == 0)
+		{
+			Assert.assertTrue("No process was warmed", System.nanoTime() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	/**
+	 * Writes a 64-bit little-endian ELF file whose only section is a GNU build ID note.
+	 */
+	private static void writeElf(File file, byte[] buildId) throws Exception
+	{
+		ByteBuffer elf = ByteBuffer.allocate(64 + 2 * 64 + 16 + buildId.length);
+		elf.order(ByteOrder.LITTLE_ENDIAN);
+		elf.put(new byte[] { 0x7f, 'E', 'L', 'F', 2, 1, 1 });
+		elf.putLong(0x28, 64); // Section header table offset
+		elf.putShort(0x3a, (short) 64); // Section header size
+		elf.putShort(0x3c, (short) 2); // Section count
+
+		// The first section header is the null section
+		int note = 64 + 2 * 64;
+		elf.putInt(128 + 4, 7); // SHT_NOTE
+		elf.putLong(128 + 0x18, note);
+		elf.putLong(128 + 0x20, 16 + buildId.length);
+
+		elf.position(note);
+		elf.putInt(4);
+		elf.putInt(buildId.length);
+		elf.putInt(3); // NT_GNU_BUILD_ID
+		elf.put(new byte[] { 'G', 'N', 'U', 0 });
+		elf.put(buildId);
+
+		FileOutputStream stream = new FileOutputStream(file);
+		try
+		{
+			stream.write(elf.array());
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+}
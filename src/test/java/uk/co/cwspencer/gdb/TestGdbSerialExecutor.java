@@ -0,0 +1,132 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests for GdbSerialExecutor.
+ */
+public class TestGdbSerialExecutor
+{
+	/**
+	 * Verifies tasks submitted from several threads to a serial executor backed by a pool never
+	 * run concurrently, and each thread's tasks run in the order they were submitted.
+	 */
+	@Test
+	public void testOrdering() throws Exception
+	{
+		final int submitterCount = 4;
+		final int taskCount = 20000;
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try
+		{
+			final GdbSerialExecutor executor = new GdbSerialExecutor(pool);
+			final AtomicInteger running = new AtomicInteger();
+			final int[] next = new int[submitterCount];
+			final boolean[] failed = new boolean[1];
+			final CountDownLatch done = new CountDownLatch(submitterCount * taskCount);
+
+			Thread[] submitters = new Thread[submitterCount];
+			for (int i = 0; i != submitterCount; ++i)
+			{
+				final int submitter = i;
+				submitters[i] = new Thread(new Runnable()
+					{
+						@Override
+						public void run()
+						{
+							for (int j = 0; j != taskCount; ++j)
+							{
+								final int task = j;
+								executor.execute(new Runnable()
+									{
+										@Override
+										public void run()
+										{
+											// Plain fields are safe since tasks never overlap
+											if (running.incrementAndGet() != 1 ||
+												next[submitter] != task)
+											{
+												failed[0] = true;
+											}
+											++next[submitter];
+											running.decrementAndGet();
+											done.countDown();
+										}
+									});
+							}
+						}
+					});
+				submitters[i].start();
+			}
+
+			Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+			for (Thread submitter : submitters)
+			{
+				submitter.join();
+			}
+
+			// Run one more task so the results of the others are visible here
+			final CountDownLatch last = new CountDownLatch(1);
+			executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						last.countDown();
+					}
+				});
+			Assert.assertTrue(last.await(30, TimeUnit.SECONDS));
+			Assert.assertFalse(failed[0]);
+			for (int i = 0; i != submitterCount; ++i)
+			{
+				Assert.assertEquals(taskCount, next[i]);
+			}
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Verifies a task which throws does not stop later tasks from running.
+	 */
+	@Test
+	public void testFailingTask() throws Exception
+	{
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		try
+		{
+			GdbSerialExecutor executor = new GdbSerialExecutor(pool);
+			final CountDownLatch done = new CountDownLatch(1);
+			executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						throw new IllegalStateException("Expected by the test");
+					}
+				});
+			executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						done.countDown();
+					}
+				});
+			Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+}
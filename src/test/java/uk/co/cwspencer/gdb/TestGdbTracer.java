@@ -0,0 +1,67 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+/**
+ * Tests for GdbTracer.
+ */
+public class TestGdbTracer
+{
+	/**
+	 * Verifies a command and the record which caused it are written with their phases and a flow
+	 * between them.
+	 */
+	@Test
+	public void testTrace() throws Exception
+	{
+		GdbTracer tracer = new GdbTracer();
+		long start = System.nanoTime();
+
+		long recordSpan = tracer.newRecordSpanId();
+		tracer.addSpan(recordSpan, 0, "*stopped", null, 0, 0, start, start + 1000, start + 2000,
+			start + 3000, start + 10000);
+		tracer.addSpan(7, recordSpan, "-var-update", "-var-update --all-values \"x\"",
+			start + 5000, start + 6000, start + 8000, start + 9000, 0, 0, start + 12500);
+		Assert.assertEquals(2, tracer.getSpanCount());
+
+		StringWriter writer = new StringWriter();
+		tracer.writeTo(writer);
+		String json = writer.toString();
+
+		Assert.assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+		Assert.assertTrue(json.contains("\"args\":{\"name\":\"7 -var-update\"}"));
+		Assert.assertTrue(json.contains("\"args\":{\"name\":\"*stopped\"}"));
+		Assert.assertTrue(json.contains(
+			"\"args\":{\"token\":7,\"command\":\"-var-update --all-values \\\"x\\\"\",\"parent\":" +
+				recordSpan + "}"));
+		Assert.assertTrue(json.contains("\"name\":\"queued\",\"cat\":\"phase\",\"ph\":\"X\"," +
+			"\"pid\":1,\"tid\":7,"));
+		Assert.assertTrue(json.contains("\"name\":\"converted\",\"cat\":\"phase\",\"ph\":\"X\"," +
+			"\"pid\":1,\"tid\":" + recordSpan + ","));
+		Assert.assertFalse(json.contains("\"name\":\"converted\",\"cat\":\"phase\",\"ph\":\"X\"," +
+			"\"pid\":1,\"tid\":7,"));
+		Assert.assertTrue(json.contains("\"dur\":7.500"));
+		Assert.assertTrue(json.contains("\"ph\":\"s\",\"bp\":\"e\",\"id\":7,\"pid\":1,\"tid\":" +
+			recordSpan + ","));
+		Assert.assertTrue(json.contains("\"ph\":\"f\",\"bp\":\"e\",\"id\":7,\"pid\":1,\"tid\":7,"));
+		Assert.assertTrue(json.trim().endsWith("]}"));
+	}
+
+	/**
+	 * Verifies spans beyond the limit are dropped and counted.
+	 */
+	@Test
+	public void testLimit()
+	{
+		GdbTracer tracer = new GdbTracer(2);
+		for (int i = 1; i <= 5; ++i)
+		{
+			tracer.addSpan(i, 0, "-exec-next", "-exec-next", 1, 2, 3, 4, 0, 0, 5);
+		}
+		Assert.assertEquals(2, tracer.getSpanCount());
+		Assert.assertEquals(3, tracer.getDroppedCount());
+	}
+}
@@ -0,0 +1,117 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for GdbTranscriptWriter, GdbTranscriptReader and GdbReplayProcess.
+ */
+public class TestGdbTranscript
+{
+	/**
+	 * Verifies chunks are read back in order with their direction and data, including a chunk
+	 * which spans several mapped regions.
+	 */
+	@Test
+	public void testRoundTrip() throws Exception
+	{
+		byte[] large = new byte[3 * 1024 * 1024 + 17];
+		for (int i = 0; i != large.length; ++i)
+		{
+			large[i] = (byte) (i * 31);
+		}
+
+		File file = GdbTestUtil.newFile(".gdbmi");
+		GdbTranscriptWriter writer = new GdbTranscriptWriter(file);
+		writer.recordInput(GdbTestUtil.ascii("1-list-features\r\n"));
+		ByteBuffer output = GdbTestUtil.ascii("1^done\r\n");
+		writer.recordOutput(output);
+		Assert.assertEquals(0, output.position());
+		writer.recordOutput(ByteBuffer.wrap(large));
+		writer.close();
+		Assert.assertEquals(file.length(), writer.size());
+
+		GdbTranscriptReader reader = new GdbTranscriptReader(file);
+		Assert.assertTrue(reader.getStartTime() > 0);
+		Assert.assertTrue(reader.next());
+		Assert.assertTrue(reader.isInput());
+		Assert.assertEquals("1-list-features\r\n",
+			GdbTestUtil.ASCII.decode(reader.getData()).toString());
+		Assert.assertTrue(reader.next());
+		Assert.assertFalse(reader.isInput());
+		Assert.assertEquals("1^done\r\n",
+			GdbTestUtil.ASCII.decode(reader.getData()).toString());
+		Assert.assertTrue(reader.next());
+		Assert.assertEquals(ByteBuffer.wrap(large), reader.getData());
+		Assert.assertTrue(reader.getTime() >= reader.getDelay());
+		Assert.assertFalse(reader.next());
+	}
+
+	/**
+	 * Verifies output is replayed once the recorded command has been sent, and the replay ends
+	 * with a zero exit value.
+	 */
+	@Test
+	public void testReplay() throws Exception
+	{
+		File file = record();
+		GdbReplayProcess process = new GdbReplayProcess(file, 0, 5, TimeUnit.SECONDS);
+		OutputStream stdin = process.getOutputStream();
+		stdin.write("1-list-features\r\n2-exec-run\r\n".getBytes(GdbTestUtil.ASCII));
+		stdin.flush();
+
+		Assert.assertEquals("=thread-group-added,id=\"i1\"\r\n(gdb)\r\n" +
+			"1^done,features=[]\r\n(gdb)\r\n2^running\r\n(gdb)\r\n",
+			GdbTestUtil.readAll(process.getInputStream()));
+		Assert.assertEquals(0, process.waitFor());
+		Assert.assertNull(process.getMismatch());
+		Assert.assertEquals(2, process.getMatchedCount());
+	}
+
+	/**
+	 * Verifies the replay stops when a command does not match the recording.
+	 */
+	@Test
+	public void testMismatch() throws Exception
+	{
+		File file = GdbTestUtil.newFile(".gdbmi");
+		GdbTranscriptWriter writer = new GdbTranscriptWriter(file);
+		writer.recordOutput(GdbTestUtil.ascii("=thread-group-added,id=\"i1\"\r\n(gdb)\r\n"));
+		writer.recordInput(GdbTestUtil.ascii("1-list-features\r\n"));
+		writer.recordOutput(GdbTestUtil.ascii("1^done,features=[]\r\n(gdb)\r\n"));
+		writer.recordInput(GdbTestUtil.ascii("2-exec-run\r\n"));
+		writer.recordOutput(GdbTestUtil.ascii("2^running\r\n(gdb)\r\n"));
+		writer.close();
+
+		GdbReplayProcess process = new GdbReplayProcess(file, 0, 5, TimeUnit.SECONDS);
+		OutputStream stdin = process.getOutputStream();
+		stdin.write("1-list-features\r\n2-exec-next\r\n".getBytes(GdbTestUtil.ASCII));
+
+		Assert.assertEquals("=thread-group-added,id=\"i1\"\r\n(gdb)\r\n" +
+			"1^done,features=[]\r\n(gdb)\r\n", GdbTestUtil.readAll(process.getInputStream()));
+		Assert.assertEquals(1, process.waitFor());
+		Assert.assertEquals(1, process.getMatchedCount());
+		Assert.assertEquals("Expected command \"2-exec-run\" but \"2-exec-next\" was sent",
+			process.getMismatch());
+	}
+
+	/**
+	 * Records a short session in which two commands are sent in one batch.
+	 */
+	private File record() throws Exception
+	{
+		File file = GdbTestUtil.newFile(".gdbmi");
+		GdbTranscriptWriter writer = new GdbTranscriptWriter(file);
+		writer.recordOutput(GdbTestUtil.ascii("=thread-group-added,id=\"i1\"\r\n(gdb)\r\n"));
+		writer.recordInput(GdbTestUtil.ascii("1-list-features\r\n2-exec-run\r\n"));
+		writer.recordOutput(GdbTestUtil.ascii("1^done,features=[]\r\n(gdb)\r\n"));
+		writer.recordOutput(GdbTestUtil.ascii("2^running\r\n(gdb)\r\n"));
+		writer.close();
+		return file;
+	}
+}
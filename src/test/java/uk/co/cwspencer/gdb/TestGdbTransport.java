@@ -0,0 +1,252 @@
+package uk.co.cwspencer.gdb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResultRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiStreamRecord;
+import uk.co.cwspencer.gdb.messages.GdbDoneEvent;
+import uk.co.cwspencer.gdb.messages.GdbEvent;
+import uk.co.cwspencer.gdb.messages.GdbStoppedEvent;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the GdbTransport implementations.
+ */
+public class TestGdbTransport
+{
+	/**
+	 * Verifies Gdb gets scripted responses, errors for unknown commands and emitted records from
+	 * the fake server.
+	 */
+	@Test
+	public void testFakeMiServer() throws Exception
+	{
+		GdbFakeMiServer server = new GdbFakeMiServer();
+		server.setResponse("-exec-next", "running");
+		server.setHandler("-exec-step", new GdbFakeMiServer.Handler()
+			{
+				@Override
+				public String handle(GdbFakeMiServer server, String command)
+				{
+					try
+					{
+						server.emit("*stopped,reason=\"end-stepping-range\",thread-id=\"1\"");
+					}
+					catch (Exception ex)
+					{
+						throw new RuntimeException(ex);
+					}
+					return "running";
+				}
+			});
+
+		final BlockingQueue<GdbEvent> events = new LinkedBlockingQueue<GdbEvent>();
+		final Throwable[] gdbError = new Throwable[1];
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Gdb gdb = new Gdb(server, new GdbListener()
+			{
+				@Override
+				public void onGdbError(Throwable ex)
+				{
+					gdbError[0] = ex;
+				}
+
+				@Override
+				public void onGdbStarted()
+				{
+				}
+
+				@Override
+				public void onGdbCommandSent(String command, long token)
+				{
+				}
+
+				@Override
+				public void onGdbEventReceived(GdbEvent event)
+				{
+					if (event instanceof GdbStoppedEvent)
+					{
+						events.add(event);
+					}
+				}
+
+				@Override
+				public void onStreamRecordReceived(GdbMiStreamRecord record)
+				{
+				}
+
+				@Override
+				public void onResultRecordReceived(GdbMiResultRecord record)
+				{
+				}
+			}, executor);
+		gdb.start();
+		try
+		{
+			Assert.assertNotNull(gdb.sendCommandAsync("-exec-next", GdbDoneEvent.class)
+				.get(10, TimeUnit.SECONDS));
+
+			try
+			{
+				gdb.sendCommandAsync("-no-such-command", GdbDoneEvent.class)
+					.get(10, TimeUnit.SECONDS);
+				Assert.fail("Unknown command succeeded");
+			}
+			catch (ExecutionException ex)
+			{
+				GdbCommandException cause = (GdbCommandException) ex.getCause();
+				Assert.assertEquals("Undefined MI command: no-such-command",
+					cause.getError().message);
+			}
+
+			gdb.sendCommand("-exec-step");
+			GdbStoppedEvent stopped = (GdbStoppedEvent) events.poll(10, TimeUnit.SECONDS);
+			Assert.assertNotNull(stopped);
+			Assert.assertEquals(GdbStoppedEvent.Reason.EndSteppingRange, stopped.reason);
+			Assert.assertEquals(4, server.getCommandCount());
+
+			// Commands which GDB has not answered when it exits fail, as do later commands
+			server.setHandler("-exec-finish", new GdbFakeMiServer.Handler()
+				{
+					@Override
+					public String handle(GdbFakeMiServer server, String command)
+					{
+						return null;
+					}
+				});
+			CompletableFuture<GdbDoneEvent> unanswered =
+				gdb.sendCommandAsync("-exec-finish", GdbDoneEvent.class);
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+			while (server.getCommandCount() != 5 && System.nanoTime() < deadline)
+			{
+				Thread.sleep(10);
+			}
+			server.close();
+			try
+			{
+				unanswered.get(10, TimeUnit.SECONDS);
+				Assert.fail("Unanswered command succeeded");
+			}
+			catch (ExecutionException ex)
+			{
+				Assert.assertTrue(ex.getCause() instanceof GdbCommandException);
+			}
+			try
+			{
+				gdb.sendCommandAsync("-exec-next", GdbDoneEvent.class).get(10, TimeUnit.SECONDS);
+				Assert.fail("Command sent after GDB exited succeeded");
+			}
+			catch (ExecutionException ex)
+			{
+				Assert.assertTrue(ex.getCause() instanceof IllegalStateException);
+			}
+		}
+		finally
+		{
+			server.close();
+			executor.shutdown();
+		}
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertNull(gdbError[0]);
+	}
+
+	/**
+	 * Verifies commands can be written to a socket transport while its input stream is waiting
+	 * for output.
+	 */
+	@Test
+	public void testSocketTransport() throws Exception
+	{
+		final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		final Throwable[] serverError = new Throwable[1];
+		Thread serverThread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Socket socket = serverSocket.accept();
+						BufferedReader reader = new BufferedReader(new InputStreamReader(
+							socket.getInputStream(), GdbTestUtil.ASCII));
+						OutputStream stream = socket.getOutputStream();
+						String line;
+						while ((line = reader.readLine()) != null)
+						{
+							stream.write((line.substring(0, line.indexOf('-')) +
+								"^done\r\n(gdb) \r\n").getBytes(GdbTestUtil.ASCII));
+						}
+						socket.close();
+					}
+					catch (Throwable ex)
+					{
+						serverError[0] = ex;
+					}
+				}
+			});
+		serverThread.start();
+
+		GdbSocketTransport transport = new GdbSocketTransport(
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+		transport.open();
+		Assert.assertNull(transport.getErrorStream());
+
+		// Start reading before anything has been written
+		final InputStream input = transport.getInputStream();
+		final StringBuffer received = new StringBuffer();
+		Thread readThread = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						byte[] buffer = new byte[64];
+						int length;
+						while ((length = input.read(buffer, 0, buffer.length)) != -1)
+						{
+							received.append(new String(buffer, 0, length, GdbTestUtil.ASCII));
+						}
+					}
+					catch (Exception ex)
+					{
+						// The transport was closed
+					}
+				}
+			});
+		readThread.start();
+
+		OutputStream output = transport.getOutputStream();
+		output.write("1-exec-next\r\n2-exec-step\r\n".getBytes(GdbTestUtil.ASCII));
+		output.flush();
+
+		String expected = "1^done\r\n(gdb) \r\n2^done\r\n(gdb) \r\n";
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (received.length() < expected.length() && System.nanoTime() < deadline)
+		{
+			Thread.sleep(10);
+		}
+		transport.close();
+		readThread.join(10000);
+		serverThread.join(10000);
+		serverSocket.close();
+
+		Assert.assertNull(serverError[0]);
+		Assert.assertEquals(expected, received.toString());
+	}
+}
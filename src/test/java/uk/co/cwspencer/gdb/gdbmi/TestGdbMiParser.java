@@ -4,6 +4,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -462,10 +464,34 @@ public class TestGdbMiParser
 
 		GdbMiStreamRecord streamRecord = (GdbMiStreamRecord) record;
 
-		String expected = ">>\u0007\b\f\n\r\t\u000b\'||\"\\?\u00056\u00ff\u00038\ng\u00af\u00cd<<";
+		// Strings are decoded as UTF-8, so the bytes 0xff, 0xaf and 0xcd on their own are invalid
+		String expected = ">>\u0007\b\f\n\r\t\u000b\'||\"\\?\u00056\ufffd\u00038\ng\ufffd\ufffd<<";
 		Assert.assertEquals(streamRecord.message, expected);
 	}
 
+	/**
+	 * Tests the decoding of UTF-8 strings, both escaped and raw.
+	 */
+	@Test
+	public void testUtf8() throws UnsupportedEncodingException
+	{
+		GdbMiParser parser = new GdbMiParser();
+		String messageStr =
+			"~\"caf\\303\\251 \\xe2\\x82\\xac \u00e9\u4e2d\"\r\n" +
+			"^done,value=\"\\316\\273\u00e9\"\r\n" +
+			"(gdb)\r\n";
+		parser.process(messageStr.getBytes("UTF-8"));
+
+		List<GdbMiRecord> records = parser.getRecords();
+		Assert.assertEquals(records.size(), 2);
+
+		GdbMiStreamRecord streamRecord = (GdbMiStreamRecord) records.get(0);
+		Assert.assertEquals(streamRecord.message, "caf\u00e9 \u20ac \u00e9\u4e2d");
+
+		GdbMiResultRecord resultRecord = (GdbMiResultRecord) records.get(1);
+		Assert.assertEquals(resultRecord.results.get(0).value.string, "\u03bb\u00e9");
+	}
+
 	/**
 	 * Verifies single CR line breaks. are handled the same as normal CRLF line breaks.
 	 */
@@ -711,4 +737,185 @@ public class TestGdbMiParser
 		Assert.assertEquals(records.size(), 1);
 		records.clear();
 	}
+
+	/**
+	 * Verifies tokens which are split across multiple reads are handled correctly.
+	 */
+	@Test
+	public void testSplitInput() throws UnsupportedEncodingException
+	{
+		GdbMiParser parser = new GdbMiParser();
+		String messageStr =
+			"12^done,bkpt={number=\"1\",addr=\"0x08048564\",func=\"main\"}\r\n" +
+			"~\"a\\tb\\x41\\101\"\r\n" +
+			"(gdb)\r\n";
+		byte[] message = messageStr.getBytes("US-ASCII");
+		for (byte ch : message)
+		{
+			parser.process(new byte[] { ch });
+		}
+
+		List<GdbMiRecord> records = parser.getRecords();
+		Assert.assertEquals(records.size(), 2);
+
+		GdbMiResultRecord resultRecord = (GdbMiResultRecord) records.get(0);
+		Assert.assertEquals(resultRecord.userToken, new Long(12));
+		Assert.assertEquals(resultRecord.className, "done");
+		Assert.assertEquals(resultRecord.toString(),
+			"done: [bkpt: {number: \"1\", addr: \"0x08048564\", func: \"main\"}]");
+
+		GdbMiStreamRecord streamRecord = (GdbMiStreamRecord) records.get(1);
+		Assert.assertEquals(streamRecord.message, "a\tbAA");
+	}
+
+	/**
+	 * Verifies that a parser with an arena produces the same records as one without, and reuses the
+	 * values of records once they have been released.
+	 */
+	@Test
+	public void testArena() throws UnsupportedEncodingException
+	{
+		GdbMiArena arena = new GdbMiArena();
+		GdbMiParser arenaParser = new GdbMiParser(arena);
+		for (int pass = 0; pass != 2; ++pass)
+		{
+			for (String messageStr : TestGdbMiPullParser.m_corpus)
+			{
+				byte[] message = messageStr.getBytes("US-ASCII");
+
+				GdbMiParser parser = new GdbMiParser();
+				parser.process(message);
+				arenaParser.process(message);
+
+				List<GdbMiRecord> records = arenaParser.getRecords();
+				TestGdbMiPullParser.assertRecordsEqual(parser.getRecords(), records);
+				for (GdbMiRecord record : records)
+				{
+					record.release();
+				}
+				records.clear();
+			}
+		}
+
+		long allocated = arena.getAllocatedCount();
+		Assert.assertTrue(allocated > 0);
+		Assert.assertTrue(arena.getReusedCount() > 0);
+
+		// Once the pool is warm, parsing the same messages again must not allocate anything new
+		for (String messageStr : TestGdbMiPullParser.m_corpus)
+		{
+			arenaParser.process(messageStr.getBytes("US-ASCII"));
+			for (GdbMiRecord record : arenaParser.getRecords())
+			{
+				record.release();
+			}
+			arenaParser.getRecords().clear();
+		}
+		Assert.assertEquals(allocated, arena.getAllocatedCount());
+	}
+
+	/**
+	 * Tests the sequence of calls made to a visitor.
+	 */
+	@Test
+	public void testVisitor() throws UnsupportedEncodingException
+	{
+		final StringBuilder sb = new StringBuilder();
+		GdbMiParser parser = new GdbMiParser(new GdbMiVisitor()
+			{
+				@Override
+				public void onRecordStart(GdbMiRecord.Type type, Long userToken, String className)
+				{
+					sb.append("start(" + type + "," + userToken + "," + className + ") ");
+				}
+
+				@Override
+				public void onRecordEnd()
+				{
+					sb.append("end ");
+				}
+
+				@Override
+				public void onResult(String variable)
+				{
+					sb.append(variable + "= ");
+				}
+
+				@Override
+				public void onString(String value)
+				{
+					sb.append("'" + value + "' ");
+				}
+
+				@Override
+				public void onTupleStart()
+				{
+					sb.append("{ ");
+				}
+
+				@Override
+				public void onTupleEnd()
+				{
+					sb.append("} ");
+				}
+
+				@Override
+				public void onListStart()
+				{
+					sb.append("[ ");
+				}
+
+				@Override
+				public void onListEnd()
+				{
+					sb.append("] ");
+				}
+			});
+
+		String messageStr =
+			"12^done,stack=[frame={level=\"0\"},frame={level=\"1\"}],x=[\"a\",[]]\r\n" +
+			"~\"text\"\r\n" +
+			"(gdb)\r\n";
+		parser.process(messageStr.getBytes("US-ASCII"));
+
+		Assert.assertEquals(sb.toString(),
+			"start(Immediate,12,done) stack= [ frame= { level= '0' } frame= { level= '1' } ] " +
+			"x= [ 'a' [ ] ] end " +
+			"start(Console,null,null) 'text' end ");
+		Assert.assertTrue(parser.getRecords().isEmpty());
+	}
+
+	/**
+	 * Verifies records are parsed identically from heap and direct byte buffers.
+	 */
+	@Test
+	public void testByteBuffers() throws UnsupportedEncodingException
+	{
+		for (String messageStr : TestGdbMiPullParser.m_corpus)
+		{
+			byte[] message = messageStr.getBytes("US-ASCII");
+
+			GdbMiParser parser = new GdbMiParser();
+			parser.process(message);
+
+			GdbMiParser heapParser = new GdbMiParser();
+			ByteBuffer heapBuffer = ByteBuffer.wrap(message, 3, message.length - 3).slice();
+			heapParser.process(Arrays.copyOf(message, 3));
+			heapParser.process(heapBuffer);
+			Assert.assertFalse(heapBuffer.hasRemaining());
+			TestGdbMiPullParser.assertRecordsEqual(parser.getRecords(), heapParser.getRecords());
+
+			GdbMiParser directParser = new GdbMiParser();
+			ByteBuffer directBuffer = ByteBuffer.allocateDirect(message.length);
+			directBuffer.put(message);
+			directBuffer.flip();
+			for (int i = 0; i < message.length; i += 7)
+			{
+				directBuffer.limit(Math.min(i + 7, message.length));
+				directParser.process(directBuffer);
+				Assert.assertEquals(directBuffer.position(), directBuffer.limit());
+			}
+			TestGdbMiPullParser.assertRecordsEqual(parser.getRecords(), directParser.getRecords());
+		}
+	}
 }
@@ -0,0 +1,309 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+/**
+ * Tests for GdbMiPullParser. The parser must produce exactly the same records as GdbMiParser, so
+ * the messages from TestGdbMiParser are run through both parsers and the results compared.
+ */
+public class TestGdbMiPullParser
+{
+	// Messages used by TestGdbMiParser
+	static final String[] m_corpus = {
+		"^error,msg=\"Undefined MI command: rubbish\"\r\n(gdb)\r\n",
+
+		"^done," +
+		"bkpt={" +
+			"number=\"1\"," +
+			"type=\"breakpoint\"," +
+			"disp=\"keep\"," +
+			"enabled=\"y\"," +
+			"addr=\"0x08048564\"," +
+			"func=\"main\"," +
+			"file=\"myprog.c\"," +
+			"fullname=\"/home/nickrob/myprog.c\"," +
+			"line=\"68\"," +
+			"thread-groups=[\"i1\"]," +
+			"times=\"0\"}\r\n" +
+		"(gdb)\r\n",
+
+		"^running\r\n(gdb)\r\n",
+
+		"*stopped," +
+		"reason=\"breakpoint-hit\"," +
+		"disp=\"keep\"," +
+		"bkptno=\"1\"," +
+		"thread-id=\"0\"," +
+		"frame={" +
+			"addr=\"0x08048564\"," +
+			"func=\"main\"," +
+			"args=[{" +
+				"name=\"argc\"," +
+				"value=\"1\"}," +
+				"{name=\"argv\"," +
+				"value=\"0xbfc4d4d4\"}]," +
+			"file=\"myprog.c\"," +
+			"fullname=\"/home/nickrob/myprog.c\"," +
+			"line=\"68\"}\r\n" +
+		"(gdb)\r\n",
+
+		"*stopped,reason=\"exited-normally\"\r\n(gdb)\r\n",
+
+		"12345^done\r\n(gdb)\r\n",
+
+		"~\">>\\a\\b\\f\\n\\r\\t\\v\\'||\\\"\\\\\\?\\5\\66\\777\\38\\xag\\xaf\\xbcd<<\"\r\n" +
+		"(gdb)\r\n",
+
+		"~\"foo\"\r" +
+		"~\"bar\"\r\n" +
+		"(gdb)\r",
+
+		"*stopped,test={}\r\n" +
+		"*stopped,test=[]\r\n" +
+		"*stopped,test={foo=[],bar=\"baz\"}\r\n" +
+		"*stopped,test=[{},\"foo\",[blar=\"fred\"]]\r\n" +
+		"*stopped,test=[foo={},bar=\"baz\"]\r\n" +
+		"(gdb)\r\n",
+
+		"*stopped," +
+		"reason=\"breakpoint-hit\"," +
+		"disp=\"keep\"," +
+		"bkptno=\"1\"," +
+		"frame={" +
+			"addr=\"0xadbde4e3\"," +
+			"func=\"Java_uk_co_cwspencer_ideandktest_IdeaNdkTestJni_doSomething\"," +
+			"args=[]," +
+			"file=\"E:/Projects/Android/IdeaNdkTest/jni/idea_ndk_test_jni.cpp\"," +
+			"fullname=\"E:/Projects/Android/IdeaNdkTest/jni/idea_ndk_test_jni.cpp\"," +
+			"line=\"5\"}," +
+		"thread-id=\"1\"," +
+		"stopped-threads=\"all\"\r\n" +
+		"23^error,msg=\"Undefined MI command: blar\"\r\n" +
+		"(gdb) \r\n",
+
+		"12^done,bkpt={number=\"1\",addr=\"0x08048564\",func=\"main\"}\r\n" +
+		"~\"a\\tb\\x41\\101\"\r\n" +
+		"(gdb)\r\n",
+
+		"=thread-group-added,id=\"i1\"\r\n" +
+		"+download,section=\".text\",section-size=\"6668\"\r\n" +
+		"@\"target output\\n\"\r\n" +
+		"&\"log output\\n\"\r\n" +
+		"7~\"tokenised console output\"\r\n" +
+		"(gdb)\r\n"
+	};
+
+	// Messages which neither parser should accept
+	static final String[] m_invalidCorpus = {
+		"\r\n",
+		"^done,\r\n",
+		"^done,foo\r\n",
+		"^done,foo=bar\r\n",
+		"^done,foo=\"bar\r\n",
+		"^done,foo={bar}\r\n",
+		"^done,foo=[\"bar\",baz=\"qux\"]\r\n",
+		"~foo\r\n",
+		"(gbd)\r\n",
+		"12(gdb)\r\n",
+		"^done,x=\"\\q\"\r\n"
+	};
+
+	/**
+	 * Verifies the corpus is parsed identically when it is passed to the parsers in one go.
+	 */
+	@Test
+	public void testCorpus() throws UnsupportedEncodingException
+	{
+		for (String messageStr : m_corpus)
+		{
+			byte[] message = messageStr.getBytes("US-ASCII");
+
+			GdbMiParser parser = new GdbMiParser();
+			parser.process(message);
+
+			GdbMiPullParser pullParser = new GdbMiPullParser();
+			pullParser.process(message);
+
+			assertRecordsEqual(parser.getRecords(), pullParser.getRecords());
+		}
+	}
+
+	/**
+	 * Verifies the corpus is parsed identically when it is passed to the pull parser one byte at a
+	 * time.
+	 */
+	@Test
+	public void testCorpusByteAtATime() throws UnsupportedEncodingException
+	{
+		for (String messageStr : m_corpus)
+		{
+			byte[] message = messageStr.getBytes("US-ASCII");
+
+			GdbMiParser parser = new GdbMiParser();
+			parser.process(message);
+
+			GdbMiPullParser pullParser = new GdbMiPullParser();
+			for (int i = 0; i != message.length; ++i)
+			{
+				pullParser.process(message, i, 1);
+			}
+
+			assertRecordsEqual(parser.getRecords(), pullParser.getRecords());
+		}
+	}
+
+	/**
+	 * Verifies multi-byte characters are decoded correctly when a read ends in the middle of one.
+	 */
+	@Test
+	public void testSplitUtf8() throws UnsupportedEncodingException
+	{
+		byte[] message = "~\"\u00e9\u4e2d \\303\\251\"\r\n(gdb)\r\n".getBytes("UTF-8");
+		for (int split = 1; split != message.length; ++split)
+		{
+			GdbMiPullParser parser = new GdbMiPullParser();
+			parser.process(message, 0, split);
+			parser.process(message, split, message.length - split);
+
+			List<GdbMiRecord> records = parser.getRecords();
+			Assert.assertEquals(records.size(), 1);
+			Assert.assertEquals(((GdbMiStreamRecord) records.get(0)).message,
+				"\u00e9\u4e2d \u00e9");
+		}
+	}
+
+	/**
+	 * Verifies both parsers reject the same invalid messages.
+	 */
+	@Test
+	public void testInvalidCorpus() throws UnsupportedEncodingException
+	{
+		for (String messageStr : m_invalidCorpus)
+		{
+			byte[] message = messageStr.getBytes("US-ASCII");
+			Assert.assertFalse(messageStr, parses(new GdbMiParser(), message));
+
+			try
+			{
+				new GdbMiPullParser().process(message);
+				Assert.fail("Pull parser accepted " + messageStr);
+			}
+			catch (IllegalArgumentException ex)
+			{
+				// Expected
+			}
+		}
+	}
+
+	/**
+	 * Verifies the pull parser handles a list of lists, which is valid GDB/MI.
+	 */
+	@Test
+	public void testNestedLists() throws UnsupportedEncodingException
+	{
+		GdbMiPullParser parser = new GdbMiPullParser();
+		parser.process("^done,test=[[\"a\"],[]]\r\n".getBytes("US-ASCII"));
+
+		List<GdbMiRecord> records = parser.getRecords();
+		Assert.assertEquals(records.size(), 1);
+		Assert.assertEquals(records.get(0).toString(), "done: [test: [[\"a\"], []]]");
+	}
+
+	/**
+	 * Checks whether GdbMiParser accepts the given message.
+	 */
+	private static boolean parses(GdbMiParser parser, byte[] message)
+	{
+		try
+		{
+			parser.process(message);
+			return true;
+		}
+		catch (IllegalArgumentException ex)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Asserts that two lists of records are identical.
+	 */
+	static void assertRecordsEqual(List<GdbMiRecord> expected, List<GdbMiRecord> actual)
+	{
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i != expected.size(); ++i)
+		{
+			GdbMiRecord expectedRecord = expected.get(i);
+			GdbMiRecord actualRecord = actual.get(i);
+			Assert.assertEquals(expectedRecord.getClass(), actualRecord.getClass());
+			Assert.assertEquals(expectedRecord.type, actualRecord.type);
+			Assert.assertEquals(expectedRecord.userToken, actualRecord.userToken);
+
+			if (expectedRecord instanceof GdbMiStreamRecord)
+			{
+				Assert.assertEquals(((GdbMiStreamRecord) expectedRecord).message,
+					((GdbMiStreamRecord) actualRecord).message);
+			}
+			else
+			{
+				GdbMiResultRecord expectedResultRecord = (GdbMiResultRecord) expectedRecord;
+				GdbMiResultRecord actualResultRecord = (GdbMiResultRecord) actualRecord;
+				Assert.assertEquals(expectedResultRecord.className, actualResultRecord.className);
+				assertResultsEqual(expectedResultRecord.results, actualResultRecord.results);
+			}
+		}
+	}
+
+	/**
+	 * Asserts that two lists of results are identical.
+	 */
+	static void assertResultsEqual(List<GdbMiResult> expected, List<GdbMiResult> actual)
+	{
+		if (expected == null || actual == null)
+		{
+			Assert.assertSame(expected, actual);
+			return;
+		}
+
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i != expected.size(); ++i)
+		{
+			Assert.assertEquals(expected.get(i).variable, actual.get(i).variable);
+			assertValuesEqual(expected.get(i).value, actual.get(i).value);
+		}
+	}
+
+	/**
+	 * Asserts that two values are identical.
+	 */
+	static void assertValuesEqual(GdbMiValue expected, GdbMiValue actual)
+	{
+		Assert.assertEquals(expected.type, actual.type);
+		Assert.assertEquals(expected.string, actual.string);
+		assertResultsEqual(expected.tuple, actual.tuple);
+
+		if (expected.list == null || actual.list == null)
+		{
+			Assert.assertSame(expected.list, actual.list);
+			return;
+		}
+
+		Assert.assertEquals(expected.list.type, actual.list.type);
+		assertResultsEqual(expected.list.results, actual.list.results);
+		if (expected.list.values == null || actual.list.values == null)
+		{
+			Assert.assertSame(expected.list.values, actual.list.values);
+			return;
+		}
+
+		Assert.assertEquals(expected.list.values.size(), actual.list.values.size());
+		for (int i = 0; i != expected.list.values.size(); ++i)
+		{
+			assertValuesEqual(expected.list.values.get(i), actual.list.values.get(i));
+		}
+	}
+}
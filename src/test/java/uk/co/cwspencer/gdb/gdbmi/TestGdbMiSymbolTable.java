@@ -0,0 +1,87 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Tests for GdbMiSymbolTable.
+ */
+public class TestGdbMiSymbolTable
+{
+	/**
+	 * Verifies repeated lookups return the same instance and are counted.
+	 */
+	@Test
+	public void testIntern() throws UnsupportedEncodingException
+	{
+		GdbMiSymbolTable symbols = new GdbMiSymbolTable(16, 8);
+		byte[] data = "xxframexxframe".getBytes("US-ASCII");
+
+		String first = symbols.intern(data, 2, 5);
+		String second = symbols.intern(data, 9, 5);
+		Assert.assertEquals("frame", first);
+		Assert.assertSame(first, second);
+		Assert.assertEquals(1, symbols.getHitCount());
+		Assert.assertEquals(1, symbols.getMissCount());
+		Assert.assertEquals(0.5, symbols.getHitRate(), 0.0);
+		Assert.assertTrue(symbols.getBytesSaved() > 0);
+
+		// Strings longer than the limit are decoded every time and not counted
+		String long1 = symbols.intern(data, 0, 14);
+		String long2 = symbols.intern(data, 0, 14);
+		Assert.assertEquals("xxframexxframe", long1);
+		Assert.assertNotSame(long1, long2);
+		Assert.assertEquals(1, symbols.getMissCount());
+
+		// Strings which collide replace each other rather than growing the table
+		GdbMiSymbolTable single = new GdbMiSymbolTable(1, 8);
+		String frame = single.intern(data, 2, 5);
+		Assert.assertEquals("xx", single.intern(data, 0, 2));
+		Assert.assertNotSame(frame, single.intern(data, 2, 5));
+		Assert.assertEquals(0, single.getHitCount());
+	}
+
+	/**
+	 * Verifies the parsers share identifiers and values between records.
+	 */
+	@Test
+	public void testParsers() throws UnsupportedEncodingException
+	{
+		byte[] message = ("*stopped,frame={addr=\"0x1\",file=\"main.c\"}\r\n" +
+			"*stopped,frame={addr=\"0x1\",file=\"main.c\"}\r\n").getBytes("US-ASCII");
+
+		GdbMiParser parser = new GdbMiParser();
+		parser.process(message);
+		assertShared(parser.getRecords().get(0), parser.getRecords().get(1));
+		Assert.assertTrue(parser.getSymbolTable().getHitCount() > 0);
+
+		GdbMiPullParser pullParser = new GdbMiPullParser();
+		pullParser.process(message);
+		assertShared(pullParser.getRecords().get(0), pullParser.getRecords().get(1));
+		Assert.assertTrue(pullParser.getSymbolTable().getHitCount() > 0);
+	}
+
+	/**
+	 * Asserts that the class name, result names and string values of two identical records are the
+	 * same instances.
+	 */
+	private static void assertShared(GdbMiRecord record1, GdbMiRecord record2)
+	{
+		GdbMiResultRecord a = (GdbMiResultRecord) record1;
+		GdbMiResultRecord b = (GdbMiResultRecord) record2;
+		Assert.assertSame(a.className, b.className);
+
+		GdbMiResult frameA = a.results.get(0);
+		GdbMiResult frameB = b.results.get(0);
+		Assert.assertSame(frameA.variable, frameB.variable);
+		for (int i = 0; i != frameA.value.tuple.size(); ++i)
+		{
+			GdbMiResult resultA = frameA.value.tuple.get(i);
+			GdbMiResult resultB = frameB.value.tuple.get(i);
+			Assert.assertSame(resultA.variable, resultB.variable);
+			Assert.assertSame(resultA.value.string, resultB.value.string);
+		}
+	}
+}
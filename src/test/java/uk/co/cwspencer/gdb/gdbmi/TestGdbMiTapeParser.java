@@ -0,0 +1,216 @@
+package uk.co.cwspencer.gdb.gdbmi;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for GdbMiTapeParser. Tape records converted back to ordinary records must be identical to
+ * those produced by GdbMiParser.
+ */
+public class TestGdbMiTapeParser
+{
+	/**
+	 * Verifies the corpus is parsed identically when it is passed to the parsers in one go.
+	 */
+	@Test
+	public void testCorpus() throws UnsupportedEncodingException
+	{
+		for (String messageStr : TestGdbMiPullParser.m_corpus)
+		{
+			byte[] message = messageStr.getBytes("US-ASCII");
+
+			GdbMiParser parser = new GdbMiParser();
+			parser.process(message);
+
+			GdbMiTapeParser tapeParser = new GdbMiTapeParser();
+			tapeParser.process(message);
+
+			TestGdbMiPullParser.assertRecordsEqual(parser.getRecords(),
+				toRecords(tapeParser.getRecords()));
+		}
+	}
+
+	/**
+	 * Verifies the corpus is parsed identically when every message is split in two at every
+	 * possible position.
+	 */
+	@Test
+	public void testCorpusSplit() throws UnsupportedEncodingException
+	{
+		for (String messageStr : TestGdbMiPullParser.m_corpus)
+		{
+			byte[] message = messageStr.getBytes("US-ASCII");
+
+			GdbMiParser parser = new GdbMiParser();
+			parser.process(message);
+
+			for (int split = 0; split != message.length; ++split)
+			{
+				GdbMiTapeParser tapeParser = new GdbMiTapeParser();
+				tapeParser.process(message, 0, split);
+				tapeParser.process(message, split, message.length - split);
+
+				TestGdbMiPullParser.assertRecordsEqual(parser.getRecords(),
+					toRecords(tapeParser.getRecords()));
+			}
+		}
+	}
+
+	/**
+	 * Verifies the tape parser rejects the messages the other parsers reject.
+	 */
+	@Test
+	public void testInvalidCorpus() throws UnsupportedEncodingException
+	{
+		for (String messageStr : TestGdbMiPullParser.m_invalidCorpus)
+		{
+			try
+			{
+				new GdbMiTapeParser().process(messageStr.getBytes("US-ASCII"));
+				Assert.fail("Tape parser accepted " + messageStr);
+			}
+			catch (IllegalArgumentException ex)
+			{
+				// Expected
+			}
+		}
+	}
+
+	/**
+	 * Tests looking up individual values without converting the whole record.
+	 */
+	@Test
+	public void testLookup() throws UnsupportedEncodingException
+	{
+		GdbMiTapeParser parser = new GdbMiTapeParser();
+		parser.process(("*stopped,reason=\"breakpoint-hit\",frame={addr=\"0x08048564\"," +
+			"func=\"main\",args=[{name=\"argc\",value=\"1\"},{name=\"argv\",value=\"0xbf\"}]," +
+			"file=\"my\\\"prog\\\".c\",line=\"68\"},threads=[\"1\",\"2\"],empty=[]\r\n" +
+			"(gdb) \r\n").getBytes("US-ASCII"));
+
+		List<GdbMiTapeRecord> records = parser.getRecords();
+		Assert.assertEquals(records.size(), 1);
+
+		GdbMiTapeRecord record = records.get(0);
+		Assert.assertFalse(record.isStreamRecord());
+		Assert.assertEquals(record.getClassName(), "stopped");
+		Assert.assertEquals(record.getResult("reason").getString(), "breakpoint-hit");
+		Assert.assertNull(record.getResult("bkptno"));
+
+		GdbMiTapeValue frame = record.getResult("frame");
+		Assert.assertEquals(frame.getType(), GdbMiValue.Type.Tuple);
+		Assert.assertNull(frame.getString());
+		Assert.assertEquals(frame.getResult("line").getString(), "68");
+		Assert.assertEquals(frame.getResult("file").getString(), "my\"prog\".c");
+
+		GdbMiTapeValue args = frame.getResult("args");
+		Assert.assertEquals(args.getListType(), GdbMiList.Type.Values);
+		List<GdbMiTapeValue> argValues = args.getValues();
+		Assert.assertEquals(argValues.size(), 2);
+		Assert.assertEquals(argValues.get(1).getResult("value").getString(), "0xbf");
+
+		List<GdbMiTapeResult> frameResults = frame.getResults();
+		Assert.assertEquals(frameResults.size(), 5);
+		Assert.assertTrue(frameResults.get(2).isVariable("args"));
+		Assert.assertEquals(frameResults.get(4).getVariable(), "line");
+
+		Assert.assertEquals(record.getResult("threads").getValues().size(), 2);
+		Assert.assertEquals(record.getResult("empty").getListType(), GdbMiList.Type.Empty);
+		Assert.assertEquals(record.getResults().size(), 4);
+	}
+
+	/**
+	 * Tests walking a record with a cursor and parsing numbers straight from its bytes.
+	 */
+	@Test
+	public void testCursor() throws UnsupportedEncodingException
+	{
+		GdbMiTapeParser parser = new GdbMiTapeParser();
+		parser.process(("^done,frame={level=\"12\",addr=\"0xffffffffff600400\",func=\"f\\\"\"}," +
+			"numbers=[\"-9223372036854775808\",\"9223372036854775808\",\"0x\",\"1x\",\"\"," +
+			"\"4294967296\"],empty={},last=\"7\"\r\n").getBytes("US-ASCII"));
+		GdbMiTapeRecord record = parser.getRecords().get(0);
+		GdbMiSymbolTable symbols = new GdbMiSymbolTable();
+
+		// Frame fields
+		GdbMiTapeCursor cursor = record.cursor();
+		Assert.assertTrue(cursor.isName("frame"));
+		Assert.assertEquals(GdbMiValue.Type.Tuple, cursor.getType());
+		Assert.assertEquals(-1, cursor.getLong(-1));
+		Assert.assertTrue(cursor.enter());
+		Assert.assertEquals(12, cursor.getInt(-1));
+		cursor.next();
+		Assert.assertEquals(0xffffffffff600400L, cursor.getLong(-1));
+		Assert.assertFalse(cursor.isString("0x"));
+		cursor.next();
+		Assert.assertEquals("func", cursor.getName(symbols));
+		Assert.assertEquals("f\"", cursor.getString(symbols));
+		Assert.assertFalse(cursor.isString("f\""));
+		cursor.next();
+		Assert.assertFalse(cursor.hasItem());
+		cursor.exit();
+		Assert.assertTrue(cursor.isName("frame"));
+
+		// Numbers which are out of range or malformed
+		cursor.next();
+		Assert.assertTrue(cursor.enter());
+		Assert.assertNull(cursor.getName(symbols));
+		Assert.assertEquals(Long.MIN_VALUE, cursor.getLong(0));
+		long[] expected = { -1, -1, -1, -1, 4294967296L };
+		for (long value : expected)
+		{
+			cursor.next();
+			Assert.assertEquals(value, cursor.getLong(-1));
+		}
+		Assert.assertEquals(-1, cursor.getInt(-1));
+		cursor.next();
+		Assert.assertFalse(cursor.hasItem());
+		cursor.exit();
+
+		// Empty tuples and searching
+		cursor.next();
+		Assert.assertTrue(cursor.enter());
+		Assert.assertFalse(cursor.hasItem());
+		cursor.exit();
+		Assert.assertTrue(cursor.reset(record).find("last"));
+		Assert.assertTrue(cursor.isString("7"));
+		Assert.assertFalse(cursor.enter());
+		Assert.assertFalse(cursor.find("missing"));
+		Assert.assertFalse(cursor.hasItem());
+	}
+
+	/**
+	 * Tests stream records, whose messages are decoded on demand.
+	 */
+	@Test
+	public void testStreamRecord() throws UnsupportedEncodingException
+	{
+		GdbMiTapeParser parser = new GdbMiTapeParser();
+		parser.process("7~\"a\\tb\\x41\\101 \\303\\251\"\r\n".getBytes("US-ASCII"));
+
+		GdbMiTapeRecord record = parser.getRecords().get(0);
+		Assert.assertTrue(record.isStreamRecord());
+		Assert.assertEquals(record.type, GdbMiRecord.Type.Console);
+		Assert.assertEquals(record.userToken, new Long(7));
+		Assert.assertNull(record.getClassName());
+		Assert.assertEquals(record.getMessage(), "a\tbAA \u00e9");
+		Assert.assertTrue(record.getResults().isEmpty());
+	}
+
+	/**
+	 * Converts tape records to ordinary records.
+	 */
+	private static List<GdbMiRecord> toRecords(List<GdbMiTapeRecord> tapeRecords)
+	{
+		List<GdbMiRecord> records = new ArrayList<GdbMiRecord>();
+		for (GdbMiTapeRecord record : tapeRecords)
+		{
+			records.add(record.toRecord());
+		}
+		return records;
+	}
+}
@@ -1,12 +1,22 @@
 package uk.co.cwspencer.gdb.messages;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiParser;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiResult;
 import uk.co.cwspencer.gdb.gdbmi.GdbMiResultRecord;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiSymbolTable;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeCursor;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiTapeParser;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
+import uk.co.cwspencer.gdb.messages.annotations.GdbMiDoneEvent;
+import uk.co.cwspencer.gdb.messages.annotations.GdbMiEvent;
+import uk.co.cwspencer.gdb.messages.annotations.GdbMiField;
 
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
 import java.util.List;
 
 /**
@@ -305,4 +315,289 @@ public class TestGdbMiMessageConverter
 		Assert.assertEquals(1, breakpoint.threadGroups.size());
 		Assert.assertEquals("i1", breakpoint.threadGroups.get(0));
 	}
+
+	/**
+	 * Verifies a field takes the first result with its name, both when a class is first converted
+	 * and once its conversion plan has been cached, and that results without a field are ignored.
+	 */
+	@Test
+	public void testRepeatedResults() throws UnsupportedEncodingException
+	{
+		for (int i = 0; i != 2; ++i)
+		{
+			// Parse the message
+			GdbMiParser parser = new GdbMiParser();
+			String messageStr =
+				"^error,code=\"undefined-command\",msg=\"first\",msg=\"second\"\r\n" +
+				"(gdb)\r\n";
+			parser.process(messageStr.getBytes("US-ASCII"));
+			List<GdbMiRecord> records = parser.getRecords();
+
+			// Convert the message
+			GdbMiResultRecord record = (GdbMiResultRecord) records.get(0);
+			Object object = GdbMiMessageConverter.processRecord(record);
+			Assert.assertTrue(object instanceof GdbErrorEvent);
+			Assert.assertEquals("first", ((GdbErrorEvent) object).message);
+		}
+	}
+
+	/**
+	 * Verifies lazy events report their type and raw values without being converted, and are
+	 * converted once when requested.
+	 */
+	@Test
+	public void testLazyEvent() throws Exception
+	{
+		// Parse the messages
+		GdbMiParser parser = new GdbMiParser();
+		String messageStr =
+			"*running,thread-id=\"all\"\r\n" +
+			"^done,stack=[frame={level=\"0\",addr=\"0x00000000004005d4\",func=\"main\"}]\r\n" +
+			"=thread-group-added,id=\"i1\"\r\n" +
+			"(gdb)\r\n";
+		parser.process(messageStr.getBytes("US-ASCII"));
+		List<GdbMiRecord> records = parser.getRecords();
+
+		// Check the event types
+		GdbLazyEvent runningEvent = GdbMiMessageConverter.processRecordLazily(
+			(GdbMiResultRecord) records.get(0), null);
+		Assert.assertEquals(GdbRunningEvent.class, runningEvent.getEventType());
+		Assert.assertEquals("all", runningEvent.getValue("thread-id").string);
+		Assert.assertNull(runningEvent.getValue("frame"));
+
+		GdbLazyEvent stackEvent = GdbMiMessageConverter.processRecordLazily(
+			(GdbMiResultRecord) records.get(1), "-stack-list-frames");
+		Assert.assertEquals(GdbStackTrace.class, stackEvent.getEventType());
+		Assert.assertNull(GdbMiMessageConverter.processRecordLazily(
+			(GdbMiResultRecord) records.get(2), null));
+
+		// Convert the events
+		GdbRunningEvent running = runningEvent.get(GdbRunningEvent.class);
+		Assert.assertNotNull(running);
+		Assert.assertTrue(running.allThreads);
+		Assert.assertSame(running, runningEvent.get());
+		Assert.assertNull(runningEvent.get(GdbStoppedEvent.class));
+
+		// Threads which race to convert an event all get the same instance
+		final GdbLazyEvent racedEvent = stackEvent;
+		final GdbEvent[] converted = new GdbEvent[4];
+		Thread[] threads = new Thread[converted.length];
+		for (int i = 0; i != threads.length; ++i)
+		{
+			final int index = i;
+			threads[i] = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						converted[index] = racedEvent.get();
+					}
+				});
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+
+		GdbStackTrace stackTrace = stackEvent.get(GdbStackTrace.class);
+		for (GdbEvent event : converted)
+		{
+			Assert.assertSame(stackTrace, event);
+		}
+		Assert.assertEquals(1, stackTrace.stack.size());
+		Assert.assertEquals(new Long(0x4005d4), stackTrace.stack.get(0).address);
+	}
+
+	/**
+	 * Verifies compact stack traces decoded from tape records hold the same frames as those
+	 * converted from ordinary records.
+	 */
+	@Test
+	public void testCompactStackTrace() throws Exception
+	{
+		String messageStr =
+			"^done,stack=[" +
+			"frame={level=\"0\",addr=\"0x00007ffff7a52f45\",func=\"compute\"," +
+				"file=\"compute.c\",fullname=\"/home/foo/compute.c\",line=\"17\"}," +
+			"frame={level=\"1\",addr=\"0x00000000004005d4\",func=\"??\",from=\"/lib/libc.so.6\"}]" +
+			"\r\n";
+
+		GdbMiParser parser = new GdbMiParser();
+		parser.process(messageStr.getBytes("US-ASCII"));
+		GdbStackTrace expected = (GdbStackTrace) GdbMiMessageConverter.processRecord(
+			(GdbMiResultRecord) parser.getRecords().get(0), "-stack-list-frames");
+
+		GdbMiTapeParser tapeParser = new GdbMiTapeParser();
+		tapeParser.process(messageStr.getBytes("US-ASCII"));
+		GdbCompactStackTrace stackTrace = new GdbCompactStackTrace();
+		Assert.assertTrue(stackTrace.decode(tapeParser.getRecords().get(0), new GdbMiTapeCursor(),
+			new GdbMiSymbolTable()));
+
+		Assert.assertEquals(2, stackTrace.size());
+		Assert.assertEquals(0x7ffff7a52f45L, stackTrace.get(0).address);
+		Assert.assertEquals(17, stackTrace.get(0).line);
+		Assert.assertEquals(GdbCompactStackFrame.UNKNOWN, stackTrace.get(1).line);
+		Assert.assertNull(stackTrace.get(1).function);
+		assertFieldsEqual(expected, stackTrace.toStackTrace());
+	}
+
+	/**
+	 * An event type registered by testRegisteredEventTypes().
+	 */
+	@GdbMiEvent(recordType = GdbMiRecord.Type.Exec, className = "custom-event")
+	public static class CustomEvent extends GdbEvent
+	{
+		@GdbMiField(name = "value", valueType = GdbMiValue.Type.String)
+		public String value;
+	}
+
+	/**
+	 * A 'done' event type registered by testRegisteredEventTypes().
+	 */
+	@GdbMiDoneEvent(command = "-custom-command", transpose = "custom")
+	public static class CustomDoneEvent extends GdbDoneEvent
+	{
+		@GdbMiField(name = "value", valueType = GdbMiValue.Type.String)
+		public String value;
+	}
+
+	/**
+	 * Removes the event types registered by testRegisteredEventTypes(), so the registry is the
+	 * same for every test.
+	 */
+	@After
+	public void unregisterEventTypes()
+	{
+		GdbMiEventTypes.unregisterEventType(CustomEvent.class);
+		GdbMiEventTypes.unregisterDoneEventType(CustomDoneEvent.class);
+	}
+
+	/**
+	 * Verifies records are converted to event types registered at run time.
+	 */
+	@Test
+	public void testRegisteredEventTypes() throws UnsupportedEncodingException
+	{
+		// Parse the messages
+		GdbMiParser parser = new GdbMiParser();
+		String messageStr =
+			"*custom-event,value=\"event\"\r\n" +
+			"^done,custom={value=\"done\"}\r\n" +
+			"(gdb)\r\n";
+		parser.process(messageStr.getBytes("US-ASCII"));
+		List<GdbMiRecord> records = parser.getRecords();
+		GdbMiResultRecord eventRecord = (GdbMiResultRecord) records.get(0);
+		GdbMiResultRecord doneRecord = (GdbMiResultRecord) records.get(1);
+
+		// Unknown types are not converted
+		Assert.assertNull(GdbMiMessageConverter.processRecord(eventRecord));
+		Object object = GdbMiMessageConverter.processRecord(doneRecord, "-custom-command");
+		Assert.assertEquals(GdbDoneEvent.class, object.getClass());
+
+		// Register the types
+		GdbMiEventTypes.registerEventType(CustomEvent.class);
+		GdbMiEventTypes.registerDoneEventType(CustomDoneEvent.class);
+
+		object = GdbMiMessageConverter.processRecord(eventRecord);
+		Assert.assertTrue(object instanceof CustomEvent);
+		Assert.assertEquals("event", ((CustomEvent) object).value);
+
+		object = GdbMiMessageConverter.processRecord(doneRecord, "-custom-command");
+		Assert.assertTrue(object instanceof CustomDoneEvent);
+		Assert.assertEquals("done", ((CustomDoneEvent) object).value);
+
+		// Classes without an annotation are rejected
+		try
+		{
+			GdbMiEventTypes.registerEventType(GdbEvent.class);
+			Assert.fail("Expected an IllegalArgumentException");
+		}
+		catch (IllegalArgumentException ex)
+		{
+			// Expected
+		}
+
+		// Unregistered types are no longer converted
+		unregisterEventTypes();
+		Assert.assertNull(GdbMiMessageConverter.processRecord(eventRecord));
+		object = GdbMiMessageConverter.processRecord(doneRecord, "-custom-command");
+		Assert.assertEquals(GdbDoneEvent.class, object.getClass());
+	}
+
+	/**
+	 * Verifies the generated decoders are used and produce the same objects as conversion by
+	 * reflection.
+	 */
+	@Test
+	public void testGeneratedDecoders() throws Exception
+	{
+		Assert.assertEquals("GdbStackFrame" + GdbMiDecoder.GENERATED_SUFFIX,
+			GdbMiMessageConverter.getDecoder(GdbStackFrame.class).getClass().getSimpleName());
+
+		// Parse the messages
+		GdbMiParser parser = new GdbMiParser();
+		String messageStr =
+			"*stopped,reason=\"breakpoint-hit\",disp=\"keep\",bkptno=\"1\",thread-id=\"0\"," +
+				"stopped-threads=\"all\",frame={addr=\"0x08048564\",func=\"main\"," +
+				"args=[{name=\"argc\",value=\"1\"},{name=\"argv\",value=\"0xbfc4d4d4\"}]," +
+				"file=\"myprog.c\",fullname=\"/home/nickrob/myprog.c\",line=\"68\"}\r\n" +
+			"*stopped,stopped-threads=[\"1\",\"2\"],frame={func=\"??\"}\r\n" +
+			"*running,thread-id=\"all\"\r\n" +
+			"^done,stack=[frame={level=\"0\",addr=\"0x00010734\",func=\"callee4\"," +
+				"file=\"basics.c\",line=\"8\"},frame={level=\"1\",addr=\"0x0001076c\"," +
+				"func=\"callee3\",file=\"basics.c\",line=\"17\"}]\r\n" +
+			"^done,number=\"1.2\",type=\"breakpoint\",disp=\"keep\",enabled=\"y\"," +
+				"addr=\"<MULTIPLE>\",thread-groups=[\"i1\"],times=\"0\"\r\n" +
+			"^done,threads=[{id=\"1\",target-id=\"process 1\",state=\"stopped\"," +
+				"frame={level=\"0\",func=\"main\"}}],current-thread-id=\"1\"\r\n";
+		parser.process(messageStr.getBytes("US-ASCII"));
+		List<GdbMiRecord> records = parser.getRecords();
+		Class<?>[] classes = { GdbStoppedEvent.class, GdbStoppedEvent.class, GdbRunningEvent.class,
+			GdbStackTrace.class, GdbBreakpoint.class, GdbThreadInfo.class };
+
+		// Decode each record both ways
+		for (int i = 0; i != classes.length; ++i)
+		{
+			List<GdbMiResult> results = ((GdbMiResultRecord) records.get(i)).results;
+			Object generated = GdbMiMessageConverter.getDecoder(classes[i]).decode(results);
+			Object reflective = new GdbMiConversionPlan(classes[i]).decode(results);
+			Assert.assertTrue(generated.getClass() == classes[i]);
+			assertFieldsEqual(reflective, generated);
+		}
+	}
+
+	/**
+	 * Asserts that two objects are equal, comparing message objects field by field.
+	 */
+	private static void assertFieldsEqual(Object expected, Object actual) throws Exception
+	{
+		if (expected == null || actual == null)
+		{
+			Assert.assertEquals(expected, actual);
+		}
+		else if (expected instanceof List)
+		{
+			List<?> expectedList = (List<?>) expected;
+			List<?> actualList = (List<?>) actual;
+			Assert.assertEquals(expectedList.size(), actualList.size());
+			for (int i = 0; i != expectedList.size(); ++i)
+			{
+				assertFieldsEqual(expectedList.get(i), actualList.get(i));
+			}
+		}
+		else if (expected.getClass().getPackage() == GdbEvent.class.getPackage() &&
+			!expected.getClass().isEnum())
+		{
+			Assert.assertEquals(expected.getClass(), actual.getClass());
+			for (Field field : expected.getClass().getFields())
+			{
+				assertFieldsEqual(field.get(expected), field.get(actual));
+			}
+		}
+		else
+		{
+			Assert.assertEquals(expected, actual);
+		}
+	}
 }
@@ -0,0 +1,86 @@
+package uk.co.cwspencer.gdb.messages;
+
+import org.junit.Assert;
+import org.junit.Test;
+import uk.co.cwspencer.gdb.gdbmi.GdbMiValue;
+
+import java.lang.reflect.ParameterizedType;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for GdbMiValueConverters.
+ */
+public class TestGdbMiValueConverters
+{
+	// Fields whose generic types are used by testForType()
+	public List<Integer> listField;
+	public Map<String, String> mapField;
+	public List<List<String>> nestedListField;
+
+	/**
+	 * Verifies hexadecimal strings are parsed, including addresses above Long.MAX_VALUE, and
+	 * invalid strings are rejected.
+	 */
+	@Test
+	public void testParseHex()
+	{
+		Assert.assertEquals(0x100d0L, GdbMiValueConverters.parseHex("0x000100d0"));
+		Assert.assertEquals(0x7fffffffe4a0L, GdbMiValueConverters.parseHex("0x7fffffffE4A0"));
+		Assert.assertEquals(-1L, GdbMiValueConverters.parseHex("0xffffffffffffffff"));
+
+		String[] invalid = { "", "0x", "100d0", "0x100g0", "0x10000000000000000" };
+		for (String string : invalid)
+		{
+			try
+			{
+				GdbMiValueConverters.parseHex(string);
+				Assert.fail("Expected a NumberFormatException for '" + string + "'");
+			}
+			catch (NumberFormatException ex)
+			{
+				// Expected
+			}
+		}
+	}
+
+	/**
+	 * Verifies the converter for each type is resolved once and is the expected one.
+	 */
+	@Test
+	public void testForType() throws Exception
+	{
+		Assert.assertSame(GdbMiValueConverters.STRING,
+			GdbMiValueConverters.forType(String.class, null));
+		Assert.assertSame(GdbMiValueConverters.INTEGER,
+			GdbMiValueConverters.forType(Integer.class, null));
+		Assert.assertSame(GdbMiValueConverters.LONG,
+			GdbMiValueConverters.forType(Long.class, null));
+		Assert.assertSame(GdbMiValueConverters.BOOLEAN,
+			GdbMiValueConverters.forType(Boolean.class, null));
+		Assert.assertSame(GdbMiValueConverters.forEnum(GdbStoppedEvent.Reason.class),
+			GdbMiValueConverters.forType(GdbStoppedEvent.Reason.class, null));
+		Assert.assertSame(GdbMiValueConverters.forType(GdbStackFrame.class, null),
+			GdbMiValueConverters.forType(GdbStackFrame.class, null));
+
+		ParameterizedType listType = (ParameterizedType)
+			getClass().getField("listField").getGenericType();
+		GdbMiValueConverter<?> listConverter =
+			GdbMiValueConverters.forType(List.class, listType);
+		Assert.assertSame(listConverter, GdbMiValueConverters.forType(List.class, listType));
+		Assert.assertNotSame(listConverter, GdbMiValueConverters.forType(Map.class,
+			(ParameterizedType) getClass().getField("mapField").getGenericType()));
+
+		// Types without a built-in converter still get one
+		Assert.assertNotNull(GdbMiValueConverters.forType(List.class,
+			(ParameterizedType) getClass().getField("nestedListField").getGenericType()));
+
+		GdbMiValue value = new GdbMiValue(GdbMiValue.Type.String);
+		value.string = "-12345678901";
+		Assert.assertEquals(-12345678901L,
+			GdbMiValueConverters.forType(Long.class, null).convert(value));
+		value.string = "0x7fffffffe4a0";
+		Assert.assertEquals(0x7fffffffe4a0L,
+			(long) GdbMiMessageConverterUtils.hexStringToLong(value));
+	}
+}